@@ -1,9 +1,13 @@
 package com.nexstreaming.multiviewapp;
 
 import android.content.Context;
+import android.graphics.Rect;
 import android.os.Bundle;
 import android.util.Log;
+import android.view.SurfaceView;
 import android.view.View;
+import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
 import android.view.WindowManager;
 import android.widget.RelativeLayout;
 
@@ -13,6 +17,10 @@ import androidx.constraintlayout.widget.ConstraintLayout;
 import com.nexstreaming.multiviewapp.helper.HomeKeyListener;
 import com.nexstreaming.multiviewapp.player.NexVideoList;
 import com.nexstreaming.multiviewapp.player.NexVideoPlayer;
+import com.nexstreaming.nexplayerengine.NexCaptionPainter;
+import com.nexstreaming.nexplayerengine.NexClosedCaption;
+import com.nexstreaming.nexplayerengine.NexContentInformation;
+import com.nexstreaming.nexplayerengine.NexMultiviewCompositor;
 import com.nexstreaming.nexplayerengine.NexVideoViewFactory;
 
 import java.util.ArrayList;
@@ -21,10 +29,18 @@ import java.util.List;
 public class PlayerActivity extends AppCompatActivity {
 
     public static final String PARAM_STREAMS = "PARAM_STREAMS";
+    public static final String PARAM_METRICS_PORT = "PARAM_METRICS_PORT";
+    public static final String PARAM_USE_COMPOSITOR = "PARAM_USE_COMPOSITOR";
     public static final String TAG = "NEXPLAYER LOG";
     private final NexVideoList mSynchronizer = new NexVideoList();
 
     private List<NexVideoViewFactory.INexVideoView> playerViews = new ArrayList<>();
+    // in compositor mode, the container each player's tile is drawn over.
+    private List<View> tileContainers = new ArrayList<>();
+    private SurfaceView compositorView;
+    // shows the captions of the main player, over its container.
+    private NexCaptionPainter captionPainter;
+    private final Rect captionArea = new Rect();
     RelativeLayout mainPlayerContainer;
     private int selectedIndex = 0;
     private boolean isPaused = false;
@@ -72,12 +88,28 @@ public class PlayerActivity extends AppCompatActivity {
 
         mainPlayerContainer = findViewById(getResources().getIdentifier("videoView0Parent" + StreamSize,"id", getPackageName()));
 
+        int metricsPort = bundle.getInt(PARAM_METRICS_PORT, 0);
+        if (metricsPort > 0) {
+            mSynchronizer.enableMetrics(metricsPort);
+        }
+
+        if (bundle.getBoolean(PARAM_USE_COMPOSITOR, false)) {
+            compositorView = new SurfaceView(this);
+            ViewGroup content = findViewById(android.R.id.content);
+            // the compositor surface sits behind the window, the layout must not paint over it.
+            content.getChildAt(0).setBackground(null);
+            content.addView(compositorView, 0, new ViewGroup.LayoutParams(
+                    ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT));
+            mSynchronizer.enableCompositor(compositorView);
+        }
+
         for (int i = 0; i < streams.length; i++) {
             Log.d("message",String.valueOf(i));
             int resID = getResources().getIdentifier("videoView" + i + StreamSize, "id", getPackageName());
             playerViews.add((NexVideoViewFactory.INexVideoView) findViewById(resID));
             createNewPlayer(this, playerViews.get(i), i == 0, streams[i]);
         }
+        setUpCaptions();
 
 
         mHomeListener.setOnHomePressedListener(new HomeKeyListener.OnHomePressedListener() {
@@ -157,6 +189,11 @@ public class PlayerActivity extends AppCompatActivity {
     }
 
     private void createNewPlayer(final Context context, final NexVideoViewFactory.INexVideoView videoView, final boolean isMain, final String streamUrl) {
+        if (compositorView != null) {
+            createNewTilePlayer(context, videoView, isMain, streamUrl);
+            return;
+        }
+
         new Runnable() {
             @Override
             public void run() {
@@ -175,6 +212,112 @@ public class PlayerActivity extends AppCompatActivity {
         });
     }
 
+    private void createNewTilePlayer(Context context, NexVideoViewFactory.INexVideoView videoView, boolean isMain, String streamUrl) {
+        NexVideoPlayer player = new NexVideoPlayer(context, videoView, mSynchronizer, mSynchronizer.getPlayerCount());
+        if (player.getTile() != null) {
+            // same stacking as setZOrderMediaOverlay: the small tiles are drawn over the main one.
+            player.getTile().setZOrder(isMain ? 0 : 1);
+        }
+        player.open(streamUrl);
+
+        View container = (View) videoView.getView().getParent();
+        container.setBackground(null);
+        tileContainers.add(container);
+        container.addOnLayoutChangeListener(new View.OnLayoutChangeListener() {
+            @Override
+            public void onLayoutChange(View v, int left, int top, int right, int bottom,
+                                       int oldLeft, int oldTop, int oldRight, int oldBottom) {
+                updateTileRects();
+            }
+        });
+        container.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                changeMainTile(tileContainers.indexOf(v));
+            }
+        });
+    }
+
+    private void setUpCaptions() {
+        captionPainter = new NexCaptionPainter(this, NexContentInformation.NEX_TEXT_CEA608);
+        ViewGroup content = findViewById(android.R.id.content);
+        content.addView(captionPainter, new ViewGroup.LayoutParams(
+                ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT));
+        captionPainter.getViewTreeObserver().addOnGlobalLayoutListener(new ViewTreeObserver.OnGlobalLayoutListener() {
+            @Override
+            public void onGlobalLayout() {
+                updateCaptionArea();
+            }
+        });
+
+        mSynchronizer.setCaptionListener(new NexVideoList.CaptionListener() {
+            @Override
+            public void onCaption(int index, NexClosedCaption caption) {
+                captionPainter.setCaptionType(caption.getCaptionType());
+                captionPainter.setDataSource(caption);
+            }
+        });
+    }
+
+    private void updateCaptionArea() {
+        View container = compositorView != null ? tileContainers.get(selectedIndex) : mainPlayerContainer;
+        int[] origin = new int[2];
+        int[] location = new int[2];
+        captionPainter.getLocationInWindow(origin);
+        container.getLocationInWindow(location);
+        int left = location[0] - origin[0];
+        int top = location[1] - origin[1];
+        // the painter lays its captions out again on every change, only a moved container is passed on.
+        if (captionArea.left != left || captionArea.top != top
+                || captionArea.width() != container.getWidth() || captionArea.height() != container.getHeight()) {
+            captionArea.set(left, top, left + container.getWidth(), top + container.getHeight());
+            captionPainter.setRenderingArea(new Rect(captionArea), 1f);
+        }
+    }
+
+    private void updateTileRects() {
+        int[] origin = new int[2];
+        int[] location = new int[2];
+        compositorView.getLocationInWindow(origin);
+        for (int i = 0; i < tileContainers.size(); i++) {
+            NexMultiviewCompositor.Tile tile = mSynchronizer.getPlayer(i).getTile();
+            View container = tileContainers.get(i);
+            if (tile != null) {
+                container.getLocationInWindow(location);
+                tile.setRect(location[0] - origin[0], location[1] - origin[1], container.getWidth(), container.getHeight());
+            }
+        }
+    }
+
+    /**
+     * Compositor version of changeMainPlayerContainer: the tiles trade places, the views are not laid out again.
+     */
+    private void changeMainTile(int newIndex) {
+        if (selectedIndex == newIndex || newIndex < 0) {
+            return;
+        }
+
+        NexVideoPlayer newPlayer = mSynchronizer.getPlayer(newIndex);
+        NexVideoPlayer oldPlayer = mSynchronizer.getPlayer(selectedIndex);
+        if (newPlayer.getTile() == null || oldPlayer.getTile() == null) {
+            return;
+        }
+        mSynchronizer.getCompositor().swapTiles(newPlayer.getTile(), oldPlayer.getTile());
+        tileContainers.set(newIndex, tileContainers.set(selectedIndex, tileContainers.get(newIndex)));
+
+        newPlayer.setVolume(1);
+        oldPlayer.setVolume(0);
+        selectedIndex = newIndex;
+        // the new main player hands over its current screen when it is promoted.
+        captionPainter.clear();
+        updateCaptionArea();
+
+        for (int i = 0; i < playerViews.size(); i++) {
+            NexVideoPlayer player = mSynchronizer.getPlayer(i);
+            player.setPlayerType(i == selectedIndex);
+        }
+    }
+
     public void changeMainPlayerContainer(View view) {
         int newIndex = playerViews.indexOf(view);
         if (selectedIndex == newIndex) {
@@ -195,6 +338,8 @@ public class PlayerActivity extends AppCompatActivity {
 
         mainPlayerContainer = smallPlayerContainer;
         selectedIndex = playerViews.indexOf(view);
+        // the new main player hands over its current screen when it is promoted; the area follows on the next layout.
+        captionPainter.clear();
 
         for (int i = 0; i < playerViews.size(); i++) {
             NexVideoPlayer player = mSynchronizer.getPlayer(i);
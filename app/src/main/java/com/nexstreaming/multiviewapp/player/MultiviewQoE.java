@@ -0,0 +1,403 @@
+package com.nexstreaming.multiviewapp.player;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Collects quality of experience metrics for every tile of a multiview session.
+ * <p>
+ * Players report their buffering, rendering and statistics events through {@link NexVideoList}.
+ * All samples are kept in fixed size primitive arrays, so memory use does not grow with the length
+ * of the session. {@link #exportSummary()} turns the collected values into a JSON summary.
+ */
+public class MultiviewQoE {
+    private static final String TAG = "MultiviewQoE";
+
+    private static final int MAX_BITRATES = 16;
+    private static final int RING_SIZE = 256;
+
+    private TileStats[] mTiles = new TileStats[0];
+    private final long mSessionStartMs;
+
+    private int mBufferingTiles = 0;
+    private int mSessionStallCount = 0;
+    private long mSessionStallStartMs = 0;
+    private long mSessionStallTimeMs = 0;
+
+    /**
+     * Fixed capacity ring of int samples keeping running count, sum and extremes of every value ever added.
+     */
+    static class IntRing {
+        private final int[] mValues;
+        private int mNext = 0;
+        private long mCount = 0;
+        private long mSum = 0;
+        private int mMin = Integer.MAX_VALUE;
+        private int mMax = Integer.MIN_VALUE;
+
+        IntRing(int capacity) {
+            mValues = new int[capacity];
+        }
+
+        void add(int value) {
+            mValues[mNext] = value;
+            mNext = (mNext + 1) % mValues.length;
+            mCount++;
+            mSum += value;
+            mMin = Math.min(mMin, value);
+            mMax = Math.max(mMax, value);
+        }
+
+        long getCount() {
+            return mCount;
+        }
+
+        int getMin() {
+            return mCount > 0 ? mMin : 0;
+        }
+
+        int getMax() {
+            return mCount > 0 ? mMax : 0;
+        }
+
+        double getAverage() {
+            return mCount > 0 ? (double) mSum / mCount : 0;
+        }
+
+        /** Returns the most recent value, or 0 when the ring is empty. */
+        int getLast() {
+            return mCount > 0 ? mValues[(mNext + mValues.length - 1) % mValues.length] : 0;
+        }
+
+        JSONArray recentToJson() {
+            JSONArray array = new JSONArray();
+            int size = (int) Math.min(mCount, mValues.length);
+            int start = (mNext + mValues.length - size) % mValues.length;
+            for (int i = 0; i < size; i++) {
+                array.put(mValues[(start + i) % mValues.length]);
+            }
+            return array;
+        }
+    }
+
+    static class TileStats {
+        final int index;
+
+        long openTimeMs = 0;
+        long startupTimeMs = -1;
+
+        boolean buffering = false;
+        long bufferingStartMs = 0;
+        int rebufferCount = 0;
+        long rebufferTimeMs = 0;
+        final IntRing rebufferDurations = new IntRing(RING_SIZE);
+
+        final int[] bitrates = new int[MAX_BITRATES];
+        final long[] bitrateTimeMs = new long[MAX_BITRATES];
+        int bitrateCount = 0;
+        int currentBitrate = 0;
+        long lastStatisticsMs = 0;
+
+        int trackSwitchUp = 0;
+        int trackSwitchDown = 0;
+        int framesRendered = 0;
+        int framesDecoded = 0;
+
+        long promoteTimeMs = 0;
+        boolean promoteTrackChanged = false;
+        final IntRing promoteDurations = new IntRing(RING_SIZE);
+
+        int positionMs = -1;
+        long positionWallMs = 0;
+        final IntRing drift = new IntRing(RING_SIZE);
+
+        TileStats(int index) {
+            this.index = index;
+        }
+
+        void addBitrateTime(int bitrate, long durationMs) {
+            for (int i = 0; i < bitrateCount; i++) {
+                if (bitrates[i] == bitrate) {
+                    bitrateTimeMs[i] += durationMs;
+                    return;
+                }
+            }
+            if (bitrateCount < MAX_BITRATES) {
+                bitrates[bitrateCount] = bitrate;
+                bitrateTimeMs[bitrateCount] = durationMs;
+                bitrateCount++;
+            } else {
+                // out of slots, account the time to the closest known bitrate.
+                int closest = 0;
+                for (int i = 1; i < bitrateCount; i++) {
+                    if (Math.abs(bitrates[i] - bitrate) < Math.abs(bitrates[closest] - bitrate)) {
+                        closest = i;
+                    }
+                }
+                bitrateTimeMs[closest] += durationMs;
+            }
+        }
+
+        long getPlayTimeMs(long now) {
+            return startupTimeMs < 0 ? 0 : now - (openTimeMs + startupTimeMs);
+        }
+
+        long getRebufferTimeMs(long now) {
+            return rebufferTimeMs + (buffering ? now - bufferingStartMs : 0);
+        }
+
+        int getEstimatedPositionMs(long now) {
+            return positionMs < 0 ? -1 : positionMs + (int) (now - positionWallMs);
+        }
+    }
+
+    public MultiviewQoE() {
+        mSessionStartMs = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Adds a tile, whose index is the number of tiles added before it.
+     */
+    public synchronized void addTile() {
+        TileStats[] tiles = new TileStats[mTiles.length + 1];
+        System.arraycopy(mTiles, 0, tiles, 0, mTiles.length);
+        tiles[mTiles.length] = new TileStats(mTiles.length);
+        mTiles = tiles;
+    }
+
+    private TileStats getTile(int index) {
+        return (index >= 0 && index < mTiles.length) ? mTiles[index] : null;
+    }
+
+    public synchronized void onOpen(int index) {
+        TileStats tile = getTile(index);
+        if (tile != null) {
+            tile.openTimeMs = SystemClock.elapsedRealtime();
+            tile.startupTimeMs = -1;
+        }
+    }
+
+    public synchronized void onFirstFrame(int index) {
+        TileStats tile = getTile(index);
+        if (tile != null && tile.startupTimeMs < 0 && tile.openTimeMs != 0) {
+            tile.startupTimeMs = SystemClock.elapsedRealtime() - tile.openTimeMs;
+        }
+    }
+
+    public synchronized void onBufferingBegin(int index) {
+        TileStats tile = getTile(index);
+        if (tile == null || tile.buffering || tile.startupTimeMs < 0) {
+            return;
+        }
+        long now = SystemClock.elapsedRealtime();
+        tile.buffering = true;
+        tile.bufferingStartMs = now;
+        tile.rebufferCount++;
+
+        if (mBufferingTiles++ == 0) {
+            mSessionStallCount++;
+            mSessionStallStartMs = now;
+        }
+    }
+
+    public synchronized void onBufferingEnd(int index) {
+        endBuffering(getTile(index));
+    }
+
+    /**
+     * Records that a tile was stopped or released: a tile that was buffering no longer is, so that the session
+     * does not stay stalled on it.
+     */
+    public synchronized void onClose(int index) {
+        endBuffering(getTile(index));
+    }
+
+    private void endBuffering(TileStats tile) {
+        if (tile == null || !tile.buffering) {
+            return;
+        }
+        long now = SystemClock.elapsedRealtime();
+        int duration = (int) (now - tile.bufferingStartMs);
+        tile.buffering = false;
+        tile.rebufferTimeMs += duration;
+        tile.rebufferDurations.add(duration);
+
+        if (--mBufferingTiles == 0) {
+            mSessionStallTimeMs += now - mSessionStallStartMs;
+        }
+    }
+
+    /**
+     * Records the current playback position of a tile and updates the drift of every tile relative to the main tile.
+     */
+    public synchronized void onTime(int index, int positionMs, int mainIndex) {
+        TileStats tile = getTile(index);
+        TileStats main = getTile(mainIndex);
+        if (tile == null || main == null) {
+            return;
+        }
+        long now = SystemClock.elapsedRealtime();
+        tile.positionMs = positionMs;
+        tile.positionWallMs = now;
+
+        if (tile != main) {
+            int mainPosition = main.getEstimatedPositionMs(now);
+            if (mainPosition >= 0) {
+                tile.drift.add(positionMs - mainPosition);
+            }
+        }
+    }
+
+    public synchronized void onPromoted(int index) {
+        TileStats tile = getTile(index);
+        if (tile != null) {
+            tile.promoteTimeMs = SystemClock.elapsedRealtime();
+            tile.promoteTrackChanged = false;
+        }
+    }
+
+    /**
+     * Records a track change of a tile.
+     *
+     * @return true if the tile was promoted and waits for its first frame of the new track, which must then be
+     * reported with {@link #onPromotedFrameRendered(int)}.
+     */
+    public synchronized boolean onTrackChanged(int index) {
+        TileStats tile = getTile(index);
+        if (tile == null || tile.promoteTimeMs == 0) {
+            return false;
+        }
+        tile.promoteTrackChanged = true;
+        return true;
+    }
+
+    /**
+     * Records the time-to-promote of a tile: from its promotion to the first frame rendered after its first track
+     * change since then.
+     */
+    public synchronized void onPromotedFrameRendered(int index) {
+        TileStats tile = getTile(index);
+        if (tile != null && tile.promoteTimeMs != 0 && tile.promoteTrackChanged) {
+            tile.promoteDurations.add((int) (SystemClock.elapsedRealtime() - tile.promoteTimeMs));
+            tile.promoteTimeMs = 0;
+            tile.promoteTrackChanged = false;
+        }
+    }
+
+    public synchronized void onDemoted(int index) {
+        TileStats tile = getTile(index);
+        if (tile != null) {
+            tile.promoteTimeMs = 0;
+            tile.promoteTrackChanged = false;
+        }
+    }
+
+    /**
+     * Updates a tile from a general statistics sample of its NexStatisticsMonitor.
+     */
+    public synchronized void onGeneralStatistics(int index, int trackBw, int switchUp, int switchDown,
+                                                 int framesRendered, int framesDecoded) {
+        TileStats tile = getTile(index);
+        if (tile == null) {
+            return;
+        }
+        long now = SystemClock.elapsedRealtime();
+        if (tile.lastStatisticsMs != 0 && tile.currentBitrate > 0) {
+            tile.addBitrateTime(tile.currentBitrate, now - tile.lastStatisticsMs);
+        }
+        tile.lastStatisticsMs = now;
+        tile.currentBitrate = trackBw;
+        tile.trackSwitchUp = switchUp;
+        tile.trackSwitchDown = switchDown;
+        tile.framesRendered = framesRendered;
+        tile.framesDecoded = framesDecoded;
+    }
+
+    public synchronized int getSessionStallCount() {
+        return mSessionStallCount;
+    }
+
+    public synchronized int getBufferingTileCount() {
+        return mBufferingTiles;
+    }
+
+    public synchronized int getRebufferCount(int index) {
+        TileStats tile = getTile(index);
+        return tile != null ? tile.rebufferCount : 0;
+    }
+
+    /**
+     * Returns the share of the play time of a tile spent rebuffering, between 0 and 1.
+     */
+    public synchronized double getRebufferRatio(int index) {
+        TileStats tile = getTile(index);
+        if (tile == null) {
+            return 0;
+        }
+        long now = SystemClock.elapsedRealtime();
+        long playTime = tile.getPlayTimeMs(now);
+        return playTime > 0 ? (double) tile.getRebufferTimeMs(now) / playTime : 0;
+    }
+
+    public synchronized String exportSummary() {
+        long now = SystemClock.elapsedRealtime();
+        JSONObject summary = new JSONObject();
+        try {
+            long stallTime = mSessionStallTimeMs + (mBufferingTiles > 0 ? now - mSessionStallStartMs : 0);
+            summary.put("durationMs", now - mSessionStartMs);
+            summary.put("stallCount", mSessionStallCount);
+            summary.put("stallTimeMs", stallTime);
+
+            JSONArray tiles = new JSONArray();
+            for (TileStats tile : mTiles) {
+                if (tile.openTimeMs == 0) {
+                    continue;
+                }
+                tiles.put(tileToJson(tile, now));
+            }
+            summary.put("tiles", tiles);
+        } catch (JSONException e) {
+            Log.e(TAG, "Exception - exportSummary() : " + e.getMessage());
+        }
+        return summary.toString();
+    }
+
+    private JSONObject tileToJson(TileStats tile, long now) throws JSONException {
+        JSONObject json = new JSONObject();
+        long playTime = tile.getPlayTimeMs(now);
+        long rebufferTime = tile.getRebufferTimeMs(now);
+
+        json.put("index", tile.index);
+        json.put("startupMs", tile.startupTimeMs);
+        json.put("rebufferCount", tile.rebufferCount);
+        json.put("rebufferTimeMs", rebufferTime);
+        json.put("rebufferRatio", playTime > 0 ? (double) rebufferTime / playTime : 0);
+        json.put("rebufferMaxMs", tile.rebufferDurations.getMax());
+        json.put("trackSwitchUp", tile.trackSwitchUp);
+        json.put("trackSwitchDown", tile.trackSwitchDown);
+        json.put("framesRendered", tile.framesRendered);
+        json.put("framesDropped", Math.max(0, tile.framesDecoded - tile.framesRendered));
+
+        JSONObject bitrates = new JSONObject();
+        for (int i = 0; i < tile.bitrateCount; i++) {
+            bitrates.put(String.valueOf(tile.bitrates[i]), tile.bitrateTimeMs[i]);
+        }
+        json.put("bitrateTimeMs", bitrates);
+
+        if (tile.promoteDurations.getCount() > 0) {
+            json.put("promoteAvgMs", tile.promoteDurations.getAverage());
+            json.put("promoteMaxMs", tile.promoteDurations.getMax());
+        }
+        if (tile.drift.getCount() > 0) {
+            json.put("driftAvgMs", tile.drift.getAverage());
+            json.put("driftMinMs", tile.drift.getMin());
+            json.put("driftMaxMs", tile.drift.getMax());
+            json.put("driftRecentMs", tile.drift.recentToJson());
+        }
+        return json;
+    }
+}
@@ -1,16 +1,107 @@
 package com.nexstreaming.multiviewapp.player;
 
 import android.util.Log;
+import android.view.SurfaceView;
+
+import com.nexstreaming.nexplayerengine.NexClosedCaption;
+import com.nexstreaming.nexplayerengine.NexMetricsRegistry;
+import com.nexstreaming.nexplayerengine.NexMetricsServer;
+import com.nexstreaming.nexplayerengine.NexMultiviewCompositor;
 
 import java.util.ArrayList;
 import java.util.List;
 
 public class NexVideoList {
+    private static final String TAG = "NexVideoList";
+
+    /**
+     * Receives the captions of the main tile.
+     */
+    public interface CaptionListener {
+        void onCaption(int index, NexClosedCaption caption);
+    }
 
     private List<NexVideoPlayer> playerList = new ArrayList<>();
+    private final MultiviewQoE mQoE = new MultiviewQoE();
+    private NexMetricsRegistry mMetricsRegistry;
+    private NexMetricsServer mMetricsServer;
+    private NexMultiviewCompositor mCompositor;
+    private volatile CaptionListener mCaptionListener;
 
     public void register(NexVideoPlayer player) {
         playerList.add(player);
+        mQoE.addTile();
+        updateMetrics();
+    }
+
+    /**
+     * Publishes the metrics of every player registered afterwards on a loopback HTTP server, in the Prometheus
+     * text format. Must be called before the players are created.
+     */
+    public void enableMetrics(int port) {
+        if (mMetricsRegistry != null) {
+            return;
+        }
+        mMetricsRegistry = new NexMetricsRegistry();
+        mMetricsServer = new NexMetricsServer(mMetricsRegistry, port);
+        if (mMetricsServer.start() == false) {
+            Log.e(TAG, "Unable to start metrics server on port " + port);
+        }
+    }
+
+    /**
+     * Draws every player registered afterwards as a tile of {@code surfaceView}, instead of in its own
+     * video view. Must be called before the players are created.
+     */
+    public void enableCompositor(SurfaceView surfaceView) {
+        if (mCompositor == null) {
+            mCompositor = new NexMultiviewCompositor(surfaceView);
+        }
+    }
+
+    /**
+     * Only the captions of the main tile reach {@code listener}, on the player callback thread. The other tiles
+     * disable their text stream and only keep their latest CEA 608 screen. When a tile is promoted, its text
+     * stream is enabled again and its latest CEA 608 screen is delivered at once, on the thread that promoted it,
+     * instead of after its next caption.
+     */
+    public void setCaptionListener(CaptionListener listener) {
+        mCaptionListener = listener;
+    }
+
+    void onCaption(NexVideoPlayer player, NexClosedCaption caption) {
+        CaptionListener listener = mCaptionListener;
+        if (listener != null && player.isMain()) {
+            listener.onCaption(playerList.indexOf(player), caption);
+        }
+    }
+
+    void onCaptionFocusChanged(NexVideoPlayer player) {
+        player.updateCaptionFocus();
+        if (player.isMain()) {
+            NexClosedCaption caption = player.getLastCEA608Caption();
+            if (caption != null) {
+                onCaption(player, caption);
+            }
+        }
+    }
+
+    public NexMultiviewCompositor getCompositor() {
+        return mCompositor;
+    }
+
+    public NexMetricsRegistry getMetricsRegistry() {
+        return mMetricsRegistry;
+    }
+
+    public void updateMetrics() {
+        if (mMetricsRegistry == null) {
+            return;
+        }
+        mMetricsRegistry.gauge("nexplayer_multiview_tiles", "Number of players in the multiview").set(playerList.size());
+        mMetricsRegistry.gauge("nexplayer_multiview_main_tile", "Index of the main tile").set(getMainIndex());
+        mMetricsRegistry.gauge("nexplayer_multiview_buffering_tiles", "Number of tiles currently buffering").set(mQoE.getBufferingTileCount());
+        mMetricsRegistry.counter("nexplayer_multiview_stalls_total", "Stalls of any tile of the session").observeTotal(mQoE.getSessionStallCount());
     }
 
     public void notifyReady() {
@@ -44,9 +135,32 @@ public class NexVideoList {
     }
 
     public void release() {
+        if (mCompositor != null) {
+            // detaches the players from the compositor while they are still alive.
+            mCompositor.release();
+            mCompositor = null;
+        }
         for (NexVideoPlayer player : playerList) {
             player.releasePlayer();
         }
+        Log.d(TAG, "QoE summary : " + mQoE.exportSummary());
+
+        if (mMetricsServer != null) {
+            mMetricsServer.stop();
+        }
+    }
+
+    public MultiviewQoE getQoE() {
+        return mQoE;
+    }
+
+    public int getMainIndex() {
+        for (int i = 0; i < playerList.size(); i++) {
+            if (playerList.get(i).isMain()) {
+                return i;
+            }
+        }
+        return 0;
     }
 
     public boolean isStopped(boolean forceToStop) {
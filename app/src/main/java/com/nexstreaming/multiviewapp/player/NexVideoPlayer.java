@@ -7,11 +7,16 @@ import android.view.View;
 import android.widget.RelativeLayout;
 import android.widget.TextView;
 
+import java.util.HashMap;
+
 import com.nexstreaming.nexplayerengine.NexABRController;
 import com.nexstreaming.nexplayerengine.NexALFactory;
 import com.nexstreaming.nexplayerengine.NexClosedCaption;
+import com.nexstreaming.nexplayerengine.NexContentInformation;
 import com.nexstreaming.nexplayerengine.NexEventReceiver;
+import com.nexstreaming.nexplayerengine.NexMultiviewCompositor;
 import com.nexstreaming.nexplayerengine.NexPlayer;
+import com.nexstreaming.nexplayerengine.NexStatisticsMonitor;
 import com.nexstreaming.nexplayerengine.NexVideoRenderer;
 import com.nexstreaming.nexplayerengine.NexVideoViewFactory;
 
@@ -28,10 +33,17 @@ public class NexVideoPlayer {
     private Context mContext;
     private NexVideoList mSynchronizer;
     private int index = 0;
-    private boolean mReady = false;
+    private volatile boolean mReady = false;
     private TextView mTextView;
     private final NexALFactory mNexALFactory;
-    private boolean isMain;
+    private NexStatisticsMonitor mStatisticsMonitor;
+    // written on the UI thread, read by the player callbacks.
+    private volatile boolean isMain;
+    private NexMultiviewCompositor.Tile mTile;
+    // the latest screen of CEA 608 captions, shown at once when this tile becomes the main one.
+    private volatile NexClosedCaption mLastCEA608Caption;
+    // set once the track changed after a promotion, until the next frame is rendered.
+    private volatile boolean mAwaitingPromotedFrame = false;
 
     public NexVideoPlayer(Context context, NexVideoViewFactory.INexVideoView videoView, NexVideoList synchronizer, int index) {
         mContext = context;
@@ -54,6 +66,7 @@ public class NexVideoPlayer {
         mNexPlayer.setNexALFactory(mNexALFactory);
 
         setPlayerListener(mNexPlayer);
+        setFrameListener(mNexPlayer);
         setVideoViewListener(videoView);
 
         NexPlayer.NexErrorCode result = mNexPlayer.init(context, logLevel);
@@ -64,8 +77,16 @@ public class NexVideoPlayer {
             return;
         }
 
-        mVideoView.init(mNexPlayer);
-        mVideoView.setVisibility(View.VISIBLE);
+        NexMultiviewCompositor compositor = synchronizer.getCompositor();
+        if (compositor != null) {
+            mTile = compositor.addTile(mNexPlayer, createTileRendererListener());
+            mVideoView.setVisibility(View.INVISIBLE);
+        } else {
+            mVideoView.init(mNexPlayer);
+            mVideoView.setVisibility(View.VISIBLE);
+        }
+
+        setStatisticsMonitor(mNexPlayer);
 
         mNexPlayer.setVolume(0);
         mNexPlayer.setProperty(NexPlayer.NexProperty.MAX_BW, index == 0 ? HIGH_RES_BANDWIDTH : LOW_RES_BANDWIDTH);
@@ -74,12 +95,15 @@ public class NexVideoPlayer {
         mNexPlayer.setProperty(NexPlayer.NexProperty.SET_SPD_SYNC_DIFF_TIME, 300);
         mNexPlayer.setProperty(NexPlayer.NexProperty.SET_SPD_TOO_MUCH_DIFF_TIME, 5000);
         mNexPlayer.setProperty(NexPlayer.NexProperty.SET_PRESENTATION_DELAY, 10000);
+        // set before the content is opened, and not changed while it plays: any tile can become the main one.
+        mNexPlayer.setProperty(NexPlayer.NexProperty.ENABLE_CEA708, 1);
 
         RelativeLayout parent = ((RelativeLayout) mVideoView.getView().getParent());
 //        mTextView = (TextView) parent.getChildAt(1);
     }
 
     public void open(String url) {
+        mSynchronizer.getQoE().onOpen(index);
         mABRController.setABREnabled(true);
         mNexPlayer.setProperty(NexPlayer.NexProperty.MAX_BW, LOW_RES_BANDWIDTH);
         mNexPlayer.open(url, null, null, NexPlayer.NEXPLAYER_SOURCE_TYPE_STREAMING, NexPlayer.NEXPLAYER_TRANSPORT_TYPE_TCP);
@@ -105,6 +129,7 @@ public class NexVideoPlayer {
 
             @Override
             public void onFirstVideoRenderCreate() {
+                mSynchronizer.getQoE().onFirstFrame(index);
                 updateVideoSize();
             }
 
@@ -119,6 +144,31 @@ public class NexVideoPlayer {
         });
     }
 
+    private NexPlayer.IVideoRendererListener createTileRendererListener() {
+        return new NexPlayer.IVideoRendererListener() {
+            @Override
+            public void onVideoRenderPrepared(NexPlayer mp) {
+            }
+
+            @Override
+            public void onVideoRenderCreate(NexPlayer mp, int width, int height, Object rgbBuffer) {
+                mSynchronizer.getQoE().onFirstFrame(index);
+            }
+
+            @Override
+            public void onVideoRenderDelete(NexPlayer mp) {
+            }
+
+            @Override
+            public void onVideoRenderRender(NexPlayer mp) {
+            }
+
+            @Override
+            public void onVideoRenderCapture(NexPlayer mp, int width, int height, int pixelbyte, Object bitmap) {
+            }
+        };
+    }
+
     private void setPlayerListener(NexPlayer nexPlayer) {
 
         nexPlayer.setListener(new NexEventReceiver() {
@@ -140,6 +190,7 @@ public class NexVideoPlayer {
                         mReady = true;
                         mSynchronizer.notifyReady();
                         changeMaxBandwidth(isMain);
+                        updateCaptionFocus();
                     }
                 } else if (command == NexPlayer.NEXPLAYER_ASYNC_CMD_STOP) {
                     Log.d(TAG, "Video Stopped" + String.valueOf(index + 1));
@@ -154,17 +205,93 @@ public class NexVideoPlayer {
                 mp.resume();
             }
 
+            @Override
+            public void onBufferingBegin(NexPlayer mp) {
+                mSynchronizer.getQoE().onBufferingBegin(index);
+                mSynchronizer.updateMetrics();
+            }
+
+            @Override
+            public void onBufferingEnd(NexPlayer mp) {
+                mSynchronizer.getQoE().onBufferingEnd(index);
+                mSynchronizer.updateMetrics();
+            }
+
+            @Override
+            public void onTime(NexPlayer mp, int millisec) {
+                mSynchronizer.getQoE().onTime(index, millisec, mSynchronizer.getMainIndex());
+            }
+
+            @Override
+            public void onStatusReport(NexPlayer mp, int msg, int param1) {
+                if (msg == NexPlayer.NEXPLAYER_STATUS_REPORT_TRACK_CHANGED) {
+                    mAwaitingPromotedFrame = mSynchronizer.getQoE().onTrackChanged(index);
+                }
+            }
+
             @Override
             public void onTextRenderRender(NexPlayer mp, int trackIndex, NexClosedCaption textInfo) {
+                if (textInfo.getCaptionType() == NexContentInformation.NEX_TEXT_CEA608) {
+                    mLastCEA608Caption = textInfo;
+                }
+                mSynchronizer.onCaption(NexVideoPlayer.this, textInfo);
             }
         });
     }
 
+    /**
+     * Frame render events only reach event receivers, not the player listener, whichever view draws the video.
+     */
+    private void setFrameListener(NexPlayer nexPlayer) {
+        nexPlayer.addEventReceiver(new NexEventReceiver() {
+            @Override
+            public void onVideoRenderRender(NexPlayer mp) {
+                if (mAwaitingPromotedFrame) {
+                    mAwaitingPromotedFrame = false;
+                    mSynchronizer.getQoE().onPromotedFrameRendered(index);
+                }
+            }
+        });
+    }
+
+    private void setStatisticsMonitor(NexPlayer nexPlayer) {
+        mStatisticsMonitor = new NexStatisticsMonitor(nexPlayer, false);
+        mStatisticsMonitor.setListener(new NexStatisticsMonitor.IStatisticsListener() {
+            @Override
+            public void onUpdated(int statisticsType, HashMap<NexStatisticsMonitor.IStatistics, Object> map) {
+                if (statisticsType != NexStatisticsMonitor.STATISTICS_GENERAL || map.isEmpty()) {
+                    return;
+                }
+                mSynchronizer.getQoE().onGeneralStatistics(index,
+                        getInt(map, NexStatisticsMonitor.GeneralStatisticsMetric.CUR_TRACK_BW_BPS),
+                        getInt(map, NexStatisticsMonitor.GeneralStatisticsMetric.NUM_TRACK_SWITCH_UP),
+                        getInt(map, NexStatisticsMonitor.GeneralStatisticsMetric.NUM_TRACK_SWITCH_DOWN),
+                        getInt(map, NexStatisticsMonitor.GeneralStatisticsMetric.NUM_VIDEO_FRAME_RENDERED),
+                        getInt(map, NexStatisticsMonitor.GeneralStatisticsMetric.NUM_VIDEO_FRAME_DECODED));
+            }
+        });
+        mStatisticsMonitor.setDuration(NexStatisticsMonitor.STATISTICS_GENERAL, 2);
+
+        if (mSynchronizer.getMetricsRegistry() != null) {
+            mStatisticsMonitor.setMetricsRegistry(mSynchronizer.getMetricsRegistry(), String.valueOf(index));
+            mABRController.setMetricsRegistry(mSynchronizer.getMetricsRegistry(), String.valueOf(index));
+        }
+    }
+
+    private static int getInt(HashMap<NexStatisticsMonitor.IStatistics, Object> map, NexStatisticsMonitor.IStatistics key) {
+        Object value = map.get(key);
+        return value instanceof Number ? ((Number) value).intValue() : 0;
+    }
+
     public void updateVideoSize() {
         updateVideoSize(0, 0);
     }
 
     public void updateVideoSize(int vw, int vh) {
+        if (mTile != null) {
+            // the compositor fits the video to its tile.
+            return;
+        }
         Point videoSize = new Point();
         mVideoView.getVideoSize(videoSize);
 
@@ -197,12 +324,20 @@ public class NexVideoPlayer {
 
     public void stop() {
         mNexPlayer.stop();
+        mSynchronizer.getQoE().onClose(index);
     }
 
     public NexVideoViewFactory.INexVideoView getView() {
         return mVideoView;
     }
 
+    /**
+     * Returns the compositor tile of this player, or null if it is drawn by its own video view.
+     */
+    public NexMultiviewCompositor.Tile getTile() {
+        return mTile;
+    }
+
     public void pause() {
         mNexPlayer.pause();
         mTextView.setText("Video " + String.valueOf(index + 1) + " (Paused)");
@@ -223,10 +358,16 @@ public class NexVideoPlayer {
         if (mNexPlayer.getState() > NexPlayer.NEXPLAYER_STATE_STOP) {
             mNexPlayer.stop();
         }
+        mSynchronizer.getQoE().onClose(index);
     }
 
     public void releasePlayer() {
+        mSynchronizer.getQoE().onClose(index);
         try {
+            if (mStatisticsMonitor != null) {
+                mStatisticsMonitor.release();
+                mStatisticsMonitor = null;
+            }
             if (mNexPlayer != null) {
                 if (mNexPlayer.getState() > NexPlayer.NEXPLAYER_STATE_CLOSED) {
                     mNexPlayer.close();
@@ -242,8 +383,62 @@ public class NexVideoPlayer {
         }
     }
 
+    public boolean isMain() {
+        return isMain;
+    }
+
+    NexClosedCaption getLastCEA608Caption() {
+        return mLastCEA608Caption;
+    }
+
+    /**
+     * Enables the text stream of the main tile, and disables it on the other tiles.
+     * CEA 608 captions are carried by the video and stay enabled, so that every tile keeps its latest screen.
+     * CEA 708 captions are enabled on every tile before the content is opened, and only those of the main tile
+     * are delivered.
+     */
+    void updateCaptionFocus() {
+        if (mReady == false) {
+            // called again once the content is open.
+            return;
+        }
+
+        // runs on the player callback thread once the content is open, and on the UI thread on a swap, without a
+        // lock: setMediaStream goes down to the engine.  The call that comes last sees a swap made meanwhile, and
+        // sets the focus again.
+        boolean main = isMain;
+        while (true) {
+            NexContentInformation info = mNexPlayer.getContentInfo();
+            if (info != null && (info.mCurrTextStreamID != NexPlayer.MEDIA_STREAM_DISABLE_ID) != main) {
+                mNexPlayer.setMediaStream(
+                        info.mCurrAudioStreamID == NexPlayer.MEDIA_STREAM_DISABLE_ID ? NexPlayer.MEDIA_STREAM_DISABLE_ID : NexPlayer.MEDIA_STREAM_DEFAULT_ID,
+                        main ? NexPlayer.MEDIA_STREAM_DEFAULT_ID : NexPlayer.MEDIA_STREAM_DISABLE_ID,
+                        info.mCurrVideoStreamID == NexPlayer.MEDIA_STREAM_DISABLE_ID ? NexPlayer.MEDIA_STREAM_DISABLE_ID : NexPlayer.MEDIA_STREAM_DEFAULT_ID,
+                        NexPlayer.MEDIA_STREAM_DEFAULT_ID);
+            }
+
+            if (isMain == main) {
+                return;
+            }
+            main = isMain;
+        }
+    }
+
     public void setPlayerType(boolean isMain) {
+        boolean changed = this.isMain != isMain;
+        if (changed) {
+            mAwaitingPromotedFrame = false;
+            if (isMain) {
+                mSynchronizer.getQoE().onPromoted(index);
+            } else {
+                mSynchronizer.getQoE().onDemoted(index);
+            }
+        }
         this.isMain = isMain;
         changeMaxBandwidth(isMain);
+        if (changed) {
+            mSynchronizer.onCaptionFocusChanged(this);
+        }
+        mSynchronizer.updateMetrics();
     }
 }
@@ -16,6 +16,13 @@ public class NexABRController {
 	private IABREventListener mIABREventListener;
 	private INexEventReceiver mEventReceiver;
 
+	private NexMetricsRegistry.Counter mTargetChanges;
+	private NexMetricsRegistry.Counter mMinMaxChanges;
+	private NexMetricsRegistry.Gauge mRequestedBw;
+	private NexMetricsRegistry.Gauge mSelectedBw;
+	private NexMetricsRegistry.Gauge mMinBw;
+	private NexMetricsRegistry.Gauge mMaxBw;
+
 	/**
 	 * 
      * Sole constructor for \c NexABRController.
@@ -119,6 +126,31 @@ public class NexABRController {
 		mIABREventListener = listener;
 	}
 
+	/**
+	 * \brief This method sets a metrics registry to be updated with the ABR events of this player.
+	 *
+	 * Target and min/max bandwidth changes are counted, and the last requested, selected, minimum and maximum
+	 * bandwidths are published as gauges, all labelled with \c player.
+	 *
+	 * @param registry		The registry to update, or \c null to stop updating it.
+	 * @param player		The value of the \c player label of every metric published for this player.
+	 *
+	 * \see NexMetricsServer
+	 */
+	public void setMetricsRegistry(NexMetricsRegistry registry, String player) {
+		if( registry == null ) {
+			mTargetChanges = mMinMaxChanges = null;
+			mRequestedBw = mSelectedBw = mMinBw = mMaxBw = null;
+			return;
+		}
+		mTargetChanges = registry.counter("nexplayer_abr_target_changes_total", "Target bandwidth changes reported", "player", player);
+		mMinMaxChanges = registry.counter("nexplayer_abr_minmax_changes_total", "Min/max bandwidth changes reported", "player", player);
+		mRequestedBw = registry.gauge("nexplayer_abr_requested_bandwidth_bps", "Last requested target bandwidth", "player", player);
+		mSelectedBw = registry.gauge("nexplayer_abr_selected_bandwidth_bps", "Bandwidth of the last selected track", "player", player);
+		mMinBw = registry.gauge("nexplayer_abr_min_bandwidth_bps", "Last minimum bandwidth set", "player", player);
+		mMaxBw = registry.gauge("nexplayer_abr_max_bandwidth_bps", "Last maximum bandwidth set", "player", player);
+	}
+
 	/**
 	 * 
 	 * \brief This enumeration defines the possible options for how an application should use a target bandwidth set.
@@ -194,12 +226,22 @@ public class NexABRController {
 	}
 
 	private void notifyMinMaxBandWidthChanged(int result, int minBwBps, int maxBwBps) {
+		if( mMinMaxChanges != null ) {
+			mMinMaxChanges.inc();
+			mMinBw.set(minBwBps);
+			mMaxBw.set(maxBwBps);
+		}
 		if( mIABREventListener != null && mNexPlayer != null ) {
 			mIABREventListener.onMinMaxBandWidthChanged(NexErrorCode.fromIntegerValue(result), minBwBps, maxBwBps);
 		}
 	}
 
 	private void notifyTargetBandWidthChanged(int result, int reqBwBps, int selBwBps) {
+		if( mTargetChanges != null ) {
+			mTargetChanges.inc();
+			mRequestedBw.set(reqBwBps);
+			mSelectedBw.set(selBwBps);
+		}
 		if( mIABREventListener != null ) {
 			mIABREventListener.onTargetBandWidthChanged(NexErrorCode.fromIntegerValue(result), reqBwBps, selBwBps);
 		}
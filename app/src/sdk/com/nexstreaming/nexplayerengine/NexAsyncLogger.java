@@ -0,0 +1,340 @@
+package com.nexstreaming.nexplayerengine;
+
+import android.os.Process;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hands log records from any thread to a single background thread that writes them to a \c Sink.
+ *
+ * Records are queued in a bounded lock-free ring of preallocated slots shared by every producer, so logging never
+ * blocks the calling thread, not even when the sink is slow. When the ring is full, records are dropped:
+ *  - once the ring is three quarters full, \c VERBOSE and \c DEBUG records are dropped so that warnings and errors
+ *    still have room,
+ *  - once the ring is full, every new record is dropped.
+ *
+ * Dropped records are counted, and the drain thread reports how many were lost through the sink as soon as it
+ * catches up.
+ */
+class NexAsyncLogger {
+	private static final String TAG = "NexAsyncLogger";
+
+	static final int DEFAULT_CAPACITY = 1024;
+
+	/** Level and thread id of records whose source does not report them. */
+	static final int LEVEL_UNKNOWN = 0;
+	static final int TID_UNKNOWN = 0;
+
+	private static final int MAX_BATCH = 256;
+	private static final long IDLE_PARK_NS = 100 * 1000 * 1000L;
+	private static final long STOP_TIMEOUT_MS = 500;
+
+	/**
+	 * Destination of the records, only called from the drain thread.
+	 */
+	interface Sink {
+		void write(long timeMs, int tid, int level, String tag, String msg) throws IOException;
+
+		/** Called after every batch of records. */
+		void flush() throws IOException;
+
+		void close();
+	}
+
+	private final Sink mSink;
+	private final int mMask;
+	private final int mLowPriorityLimit;
+
+	/* slot i holds a record for position p when mSequences[i] == p + 1, and is free for position p when it is p. */
+	private final AtomicLongArray mSequences;
+	private final long[] mTimes;
+	private final int[] mTids;
+	private final int[] mLevels;
+	private final String[] mTags;
+	private final String[] mMessages;
+
+	private final AtomicLong mTail = new AtomicLong();
+	private final AtomicLong mHead = new AtomicLong();
+	private final AtomicLong mDropped = new AtomicLong();
+	private long mReportedDropped = 0;
+
+	private final Thread mThread;
+	private volatile boolean mRunning = true;
+	private volatile boolean mParked = false;
+
+	/**
+	 * \param sink      Receives the records on the drain thread.
+	 * \param capacity  Number of records the ring can hold, rounded up to a power of two.
+	 */
+	NexAsyncLogger(Sink sink, int capacity) {
+		int size = Integer.highestOneBit(Math.max(capacity, 16) - 1) << 1;
+		mSink = sink;
+		mMask = size - 1;
+		mLowPriorityLimit = size - size / 4;
+
+		mSequences = new AtomicLongArray(size);
+		for( int i = 0; i < size; i++ ) {
+			mSequences.set(i, i);
+		}
+		mTimes = new long[size];
+		mTids = new int[size];
+		mLevels = new int[size];
+		mTags = new String[size];
+		mMessages = new String[size];
+
+		mThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				drain();
+			}
+		}, TAG);
+		mThread.setDaemon(true);
+		mThread.start();
+	}
+
+	/**
+	 * Queues a record of the calling thread without blocking.
+	 *
+	 * \returns \c true if the record was queued, or \c false if it was dropped.
+	 */
+	boolean log(int level, String tag, String msg) {
+		return log(Process.myTid(), level, tag, msg);
+	}
+
+	/**
+	 * Queues a record logged by another thread, or by another source, without blocking.
+	 *
+	 * \param tid    The thread id of the record, or \c TID_UNKNOWN.
+	 * \param level  The \c android.util.Log level of the record, or \c LEVEL_UNKNOWN.  Records of unknown level
+	 *               are kept as long as \c INFO records when the ring fills up.
+	 *
+	 * \returns \c true if the record was queued, or \c false if it was dropped.
+	 */
+	boolean log(int tid, int level, String tag, String msg) {
+		if( !mRunning ) {
+			return false;
+		}
+		long pos = mTail.get();
+		for( ;; ) {
+			if( level != LEVEL_UNKNOWN && level < Log.INFO && pos - mHead.get() >= mLowPriorityLimit ) {
+				mDropped.incrementAndGet();
+				return false;
+			}
+			int index = (int) (pos & mMask);
+			long available = mSequences.get(index) - pos;
+			if( available == 0 ) {
+				if( mTail.compareAndSet(pos, pos + 1) ) {
+					break;
+				}
+				pos = mTail.get();
+			}
+			else if( available < 0 ) {
+				mDropped.incrementAndGet();
+				return false;
+			}
+			else {
+				pos = mTail.get();
+			}
+		}
+
+		int index = (int) (pos & mMask);
+		mTimes[index] = System.currentTimeMillis();
+		mTids[index] = tid;
+		mLevels[index] = level;
+		mTags[index] = tag;
+		mMessages[index] = msg;
+		mSequences.lazySet(index, pos + 1);
+
+		if( mParked ) {
+			LockSupport.unpark(mThread);
+		}
+		return true;
+	}
+
+	/**
+	 * \returns The number of records dropped because the ring was full.
+	 */
+	long getDroppedCount() {
+		return mDropped.get();
+	}
+
+	/**
+	 * \returns \c false once the logger is stopped, or after the sink failed.
+	 */
+	boolean isRunning() {
+		return mRunning;
+	}
+
+	/**
+	 * Stops accepting records, writes the ones already queued and closes the sink.
+	 */
+	void stop() {
+		mRunning = false;
+		LockSupport.unpark(mThread);
+		if( Thread.currentThread() != mThread ) {
+			try {
+				mThread.join(STOP_TIMEOUT_MS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private void drain() {
+		try {
+			while( mRunning ) {
+				if( drainBatch() == 0 ) {
+					mParked = true;
+					if( mRunning && isEmpty() ) {
+						LockSupport.parkNanos(this, IDLE_PARK_NS);
+					}
+					mParked = false;
+				}
+			}
+			while( drainBatch() > 0 ) {
+				// write what was queued before stop()
+			}
+		} catch (IOException e) {
+			mRunning = false;
+			Log.e(TAG, "Log sink failed : " + e.getMessage());
+		} finally {
+			mSink.close();
+		}
+	}
+
+	private boolean isEmpty() {
+		long head = mHead.get();
+		return mSequences.get((int) (head & mMask)) != head + 1;
+	}
+
+	private int drainBatch() throws IOException {
+		long head = mHead.get();
+		int count = 0;
+		while( count < MAX_BATCH ) {
+			int index = (int) (head & mMask);
+			if( mSequences.get(index) != head + 1 ) {
+				break;
+			}
+			String tag = mTags[index];
+			String msg = mMessages[index];
+			mTags[index] = null;
+			mMessages[index] = null;
+			mSink.write(mTimes[index], mTids[index], mLevels[index], tag, msg);
+
+			mSequences.lazySet(index, head + mMask + 1);
+			head++;
+			mHead.lazySet(head);
+			count++;
+		}
+
+		long dropped = mDropped.get();
+		if( dropped != mReportedDropped ) {
+			mSink.write(System.currentTimeMillis(), Process.myTid(), Log.WARN, TAG,
+					(dropped - mReportedDropped) + " log messages dropped, " + dropped + " in total");
+			mReportedDropped = dropped;
+			count++;
+		}
+
+		if( count > 0 ) {
+			mSink.flush();
+		}
+		return count;
+	}
+
+	/**
+	 * Writes every record as one "[tag] msg " packet of at most 1023 bytes, the format expected on the logging socket.
+	 */
+	static class PacketSink implements Sink {
+		private static final int MAX_PACKET = 1023;
+
+		private final OutputStream mOutputStream;
+		private final byte[] mPacket = new byte[MAX_PACKET];
+
+		PacketSink(OutputStream outputStream) {
+			mOutputStream = outputStream;
+		}
+
+		@Override
+		public void write(long timeMs, int tid, int level, String tag, String msg) throws IOException {
+			int length = 0;
+			length = put(mPacket, length, "[");
+			length = put(mPacket, length, tag);
+			length = put(mPacket, length, "] ");
+			length = put(mPacket, length, msg);
+			length = put(mPacket, length, " ");
+			mOutputStream.write(mPacket, 0, length);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			mOutputStream.flush();
+		}
+
+		@Override
+		public void close() {
+			try {
+				mOutputStream.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Encodes \c value as UTF-8 into \c buffer from \c offset, stopping before a character that does not fit.
+	 *
+	 * \returns The offset after the last written byte.
+	 */
+	static int put(byte[] buffer, int offset, String value) {
+		if( value == null ) {
+			value = "null";
+		}
+		int length = value.length();
+		for( int i = 0; i < length; i++ ) {
+			char c = value.charAt(i);
+			if( c < 0x80 ) {
+				if( offset + 1 > buffer.length ) {
+					break;
+				}
+				buffer[offset++] = (byte) c;
+			}
+			else if( c < 0x800 ) {
+				if( offset + 2 > buffer.length ) {
+					break;
+				}
+				buffer[offset++] = (byte) (0xC0 | (c >> 6));
+				buffer[offset++] = (byte) (0x80 | (c & 0x3F));
+			}
+			else if( Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1)) ) {
+				if( offset + 4 > buffer.length ) {
+					break;
+				}
+				int codePoint = Character.toCodePoint(c, value.charAt(++i));
+				buffer[offset++] = (byte) (0xF0 | (codePoint >> 18));
+				buffer[offset++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+				buffer[offset++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+				buffer[offset++] = (byte) (0x80 | (codePoint & 0x3F));
+			}
+			else if( Character.isSurrogate(c) ) {
+				if( offset + 1 > buffer.length ) {
+					break;
+				}
+				buffer[offset++] = '?';
+			}
+			else {
+				if( offset + 3 > buffer.length ) {
+					break;
+				}
+				buffer[offset++] = (byte) (0xE0 | (c >> 12));
+				buffer[offset++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+				buffer[offset++] = (byte) (0x80 | (c & 0x3F));
+			}
+		}
+		return offset;
+	}
+}
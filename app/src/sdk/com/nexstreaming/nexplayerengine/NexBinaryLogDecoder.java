@@ -0,0 +1,156 @@
+package com.nexstreaming.nexplayerengine;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+
+/**
+ * \brief  Converts the binary log files written by \c NexLogsToFile into text.
+ *
+ * The decoder only depends on the Java runtime, so it can also be run on a computer after pulling the files from
+ * the device:
+ * \code
+ * java -cp <classes> com.nexstreaming.nexplayerengine.NexBinaryLogDecoder <file.nexlog>...
+ * \endcode
+ * Every record is printed on one line, in the same layout as \c logcat \c -v \c threadtime.
+ *
+ * <b>File format</b>, all numbers big endian:
+ *  - header: the magic \c "NXLG", a 16-bit version, 16 reserved bits and the 64-bit creation time in ms.
+ *  - records: an 8-bit type, the 16-bit length of the payload, and the payload.
+ *    - \c TYPE_TAG: a 16-bit tag id, then the tag in UTF-8.  Defines a tag id for the rest of the file.
+ *    - \c TYPE_LOG: the 64-bit time in ms, the 32-bit thread id, the 8-bit \c android.util.Log level,
+ *      the 16-bit tag id, then the message in UTF-8.  Engine records have thread id 0 and level 0, because
+ *      the engine does not report them.
+ *    - \c TYPE_END, or the end of the file, ends the records.
+ */
+public class NexBinaryLogDecoder {
+	static final int MAGIC = 0x4E584C47; // "NXLG"
+	static final int VERSION = 1;
+
+	static final int TYPE_END = 0;
+	static final int TYPE_TAG = 1;
+	static final int TYPE_LOG = 2;
+
+	static final int RECORD_HEADER_SIZE = 3;
+	static final int LOG_PAYLOAD_HEADER_SIZE = 8 + 4 + 1 + 2;
+	static final int MAX_PAYLOAD_SIZE = 0xFFFF;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final char[] LEVELS = { '?', '?', 'V', 'D', 'I', 'W', 'E', 'A' };
+
+	private NexBinaryLogDecoder() {
+	}
+
+	/**
+	 * Decodes one binary log file.
+	 *
+	 * \param file  A file written by \c NexLogsToFile.
+	 * \param out   Receives one text line per record.
+	 *
+	 * \returns The number of decoded records.
+	 */
+	public static int decode(File file, Writer out) throws IOException {
+		InputStream in = new BufferedInputStream(new FileInputStream(file));
+		try {
+			return decode(in, out);
+		} finally {
+			in.close();
+		}
+	}
+
+	static int decode(InputStream input, Writer out) throws IOException {
+		DataInputStream in = new DataInputStream(input);
+		if( in.readInt() != MAGIC ) {
+			throw new IOException("not a binary log file");
+		}
+		int version = in.readUnsignedShort();
+		if( version != VERSION ) {
+			throw new IOException("unsupported binary log version " + version);
+		}
+		in.readUnsignedShort();
+		in.readLong();
+
+		SimpleDateFormat dateFormat = new SimpleDateFormat("MM-dd HH:mm:ss.SSS", Locale.US);
+		Date date = new Date();
+		HashMap<Integer, String> tags = new HashMap<Integer, String>();
+		byte[] payload = new byte[MAX_PAYLOAD_SIZE];
+		int count = 0;
+
+		while( true ) {
+			int type;
+			int length;
+			try {
+				type = in.readUnsignedByte();
+				if( type == TYPE_END ) {
+					break;
+				}
+				length = in.readUnsignedShort();
+				in.readFully(payload, 0, length);
+			} catch (EOFException e) {
+				// a capture that was not closed properly can end in the middle of a record.
+				break;
+			}
+
+			if( type == TYPE_TAG && length >= 2 ) {
+				tags.put(readUnsignedShort(payload, 0), new String(payload, 2, length - 2, UTF8));
+			}
+			else if( type == TYPE_LOG && length >= LOG_PAYLOAD_HEADER_SIZE ) {
+				long timeMs = readLong(payload, 0);
+				int tid = readInt(payload, 8);
+				int level = payload[12] & 0xFF;
+				String tag = tags.get(readUnsignedShort(payload, 13));
+				String message = new String(payload, LOG_PAYLOAD_HEADER_SIZE, length - LOG_PAYLOAD_HEADER_SIZE, UTF8);
+
+				date.setTime(timeMs);
+				out.write(dateFormat.format(date));
+				out.write(String.format(Locale.US, " %5s %c %s: %s\n", tid != 0 ? Integer.toString(tid) : "-",
+						level < LEVELS.length ? LEVELS[level] : '?', tag != null ? tag : "?", message));
+				count++;
+			}
+			// records of unknown types are skipped, so that newer writers stay readable.
+		}
+		return count;
+	}
+
+	private static int readUnsignedShort(byte[] buffer, int offset) {
+		return ((buffer[offset] & 0xFF) << 8) | (buffer[offset + 1] & 0xFF);
+	}
+
+	private static int readInt(byte[] buffer, int offset) {
+		return (readUnsignedShort(buffer, offset) << 16) | readUnsignedShort(buffer, offset + 2);
+	}
+
+	private static long readLong(byte[] buffer, int offset) {
+		return ((long) readInt(buffer, offset) << 32) | (readInt(buffer, offset + 4) & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Prints the given binary log files as text on the standard output, in the given order.
+	 */
+	public static void main(String[] args) throws IOException {
+		if( args.length == 0 ) {
+			System.err.println("usage: NexBinaryLogDecoder <file.nexlog>...");
+			System.exit(1);
+		}
+		Writer out = new BufferedWriter(new OutputStreamWriter(System.out, UTF8));
+		try {
+			for( String path : args ) {
+				decode(new File(path), out);
+			}
+		} finally {
+			out.flush();
+		}
+	}
+}
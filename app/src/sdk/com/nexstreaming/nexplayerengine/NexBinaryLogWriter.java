@@ -0,0 +1,146 @@
+package com.nexstreaming.nexplayerengine;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Locale;
+
+/**
+ * Writes log records to memory-mapped files in the format read by \c NexBinaryLogDecoder.
+ *
+ * A new file is started when the current one is full, and only the last \c fileCount files are kept.
+ * Every file starts with its own tag definitions, so it can be decoded on its own.
+ * Records are copied into the mapped pages without any system call, and the kernel writes the pages back
+ * to the file, even if the application is killed.
+ */
+class NexBinaryLogWriter implements NexAsyncLogger.Sink {
+	private static final String TAG = "NexBinaryLogWriter";
+
+	static final String EXTENSION = ".nexlog";
+	private static final int MIN_FILE_SIZE = 64 * 1024;
+	private static final int MAX_MESSAGE_SIZE = 4096;
+	private static final int MAX_TAGS = 0xFFFF;
+	private static final int MAX_TAG_SIZE = 256;
+
+	private final File mDirectory;
+	private final String mBaseName;
+	private final int mFileSize;
+	private final int mFileCount;
+
+	private final HashMap<String, Integer> mTagIds = new HashMap<String, Integer>();
+	private final byte[] mScratch = new byte[MAX_MESSAGE_SIZE];
+	// tags are encoded apart, mScratch holds the message while a new tag is written.
+	private final byte[] mTagScratch = new byte[MAX_TAG_SIZE];
+
+	private RandomAccessFile mFile;
+	private MappedByteBuffer mBuffer;
+	private int mFileIndex = -1;
+
+	/**
+	 * \param directory  The directory of the files.
+	 * \param baseName   The files are named \c baseName_000.nexlog, \c baseName_001.nexlog, ...
+	 * \param fileSize   The size of every file, in bytes.
+	 * \param fileCount  The number of files to keep.
+	 */
+	NexBinaryLogWriter(File directory, String baseName, int fileSize, int fileCount) {
+		mDirectory = directory;
+		mBaseName = baseName;
+		mFileSize = Math.max(fileSize, MIN_FILE_SIZE);
+		mFileCount = Math.max(fileCount, 1);
+	}
+
+	@Override
+	public void write(long timeMs, int tid, int level, String tag, String msg) throws IOException {
+		if( tag == null ) {
+			tag = "";
+		}
+		int messageLength = NexAsyncLogger.put(mScratch, 0, msg);
+		int recordSize = NexBinaryLogDecoder.RECORD_HEADER_SIZE + NexBinaryLogDecoder.LOG_PAYLOAD_HEADER_SIZE + messageLength;
+
+		Integer tagId = mTagIds.get(tag);
+		if( mBuffer == null || mBuffer.remaining() < recordSize + (tagId == null ? tagRecordSize(tag) : 0)
+				|| (tagId == null && mTagIds.size() >= MAX_TAGS) ) {
+			rotate();
+			tagId = null;
+		}
+		if( tagId == null ) {
+			tagId = mTagIds.size();
+			mTagIds.put(tag, tagId);
+			writeTag(tagId, tag);
+		}
+
+		mBuffer.put((byte) NexBinaryLogDecoder.TYPE_LOG);
+		mBuffer.putShort((short) (recordSize - NexBinaryLogDecoder.RECORD_HEADER_SIZE));
+		mBuffer.putLong(timeMs);
+		mBuffer.putInt(tid);
+		mBuffer.put((byte) level);
+		mBuffer.putShort((short) (int) tagId);
+		mBuffer.put(mScratch, 0, messageLength);
+	}
+
+	@Override
+	public void flush() {
+		// the mapped pages are written back by the kernel.
+	}
+
+	@Override
+	public void close() {
+		closeFile();
+	}
+
+	private int tagRecordSize(String tag) {
+		return NexBinaryLogDecoder.RECORD_HEADER_SIZE + 2 + NexAsyncLogger.put(mTagScratch, 0, tag);
+	}
+
+	private void writeTag(int tagId, String tag) {
+		int length = NexAsyncLogger.put(mTagScratch, 0, tag);
+		mBuffer.put((byte) NexBinaryLogDecoder.TYPE_TAG);
+		mBuffer.putShort((short) (2 + length));
+		mBuffer.putShort((short) tagId);
+		mBuffer.put(mTagScratch, 0, length);
+	}
+
+	private void rotate() throws IOException {
+		closeFile();
+		mFileIndex++;
+		mTagIds.clear();
+
+		File file = getFile(mFileIndex);
+		mFile = new RandomAccessFile(file, "rw");
+		mFile.setLength(0);
+		mBuffer = mFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, mFileSize);
+		mBuffer.putInt(NexBinaryLogDecoder.MAGIC);
+		mBuffer.putShort((short) NexBinaryLogDecoder.VERSION);
+		mBuffer.putShort((short) 0);
+		mBuffer.putLong(System.currentTimeMillis());
+
+		File expired = getFile(mFileIndex - mFileCount);
+		if( mFileIndex >= mFileCount && expired.exists() && !expired.delete() ) {
+			NexLog.w(TAG, "Unable to delete " + expired);
+		}
+	}
+
+	private void closeFile() {
+		if( mFile == null ) {
+			return;
+		}
+		try {
+			int used = mBuffer.position();
+			mBuffer.force();
+			mBuffer = null;
+			// drop the unused end of the file. The mapping is never written again.
+			mFile.setLength(used);
+			mFile.close();
+		} catch (IOException e) {
+			NexLog.e(TAG, "Unable to close log file : " + e.getMessage());
+		}
+		mFile = null;
+	}
+
+	private File getFile(int index) {
+		return new File(mDirectory, String.format(Locale.US, "%s_%03d%s", mBaseName, index, EXTENSION));
+	}
+}
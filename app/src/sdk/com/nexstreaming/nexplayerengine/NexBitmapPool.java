@@ -0,0 +1,157 @@
+package com.nexstreaming.nexplayerengine;
+
+import android.graphics.Bitmap;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * \brief  A pool of mutable bitmaps, keyed by size and configuration, for frame captures and thumbnails.
+ *
+ * Decoding scrub previews or snapshots allocates one large bitmap per image. When the bitmaps are
+ * given back with \c release once they are no longer displayed, the next capture or thumbnail of the same size
+ * reuses one of them instead of allocating.
+ *
+ * The pool keeps at most \c maxBytes of bitmaps. When it is full, the bitmaps of the size that was used least
+ * recently are recycled first.
+ *
+ * All methods are thread safe.
+ *
+ * \see NexThumbnail.setBitmapPool
+ * \see NexVideoRenderer.setBitmapPool
+ */
+public class NexBitmapPool {
+	private static final String TAG = "NexBitmapPool";
+
+	private final long mMaxBytes;
+	// access ordered, so the first key is the size used least recently.
+	private final LinkedHashMap<Long, ArrayDeque<Bitmap>> mBitmaps = new LinkedHashMap<Long, ArrayDeque<Bitmap>>(16, 0.75f, true);
+	private long mPooledBytes = 0;
+
+	private long mHitCount = 0;
+	private long mMissCount = 0;
+	private long mBytesSaved = 0;
+
+	/**
+	 * \param maxBytes  The maximum number of bytes of pixels kept in the pool.
+	 */
+	public NexBitmapPool(long maxBytes) {
+		mMaxBytes = maxBytes;
+	}
+
+	/**
+	 * Returns a bitmap of the given size and configuration, reused from the pool when possible.
+	 *
+	 * The pixels of a reused bitmap are not cleared.
+	 */
+	public Bitmap acquire(int width, int height, Bitmap.Config config) {
+		synchronized (this) {
+			ArrayDeque<Bitmap> bitmaps = mBitmaps.get(key(width, height, config));
+			Bitmap bitmap = bitmaps != null ? bitmaps.pollLast() : null;
+			if( bitmap != null ) {
+				int size = bitmap.getAllocationByteCount();
+				mPooledBytes -= size;
+				mBytesSaved += size;
+				mHitCount++;
+				return bitmap;
+			}
+			mMissCount++;
+		}
+		return Bitmap.createBitmap(width, height, config);
+	}
+
+	/**
+	 * Gives a bitmap back to the pool.  The caller must not use it anymore.
+	 *
+	 * Immutable or recycled bitmaps are ignored.
+	 */
+	public void release(Bitmap bitmap) {
+		if( bitmap == null || bitmap.isRecycled() || !bitmap.isMutable() || bitmap.getConfig() == null ) {
+			return;
+		}
+		int size = bitmap.getAllocationByteCount();
+		if( size > mMaxBytes ) {
+			bitmap.recycle();
+			return;
+		}
+		synchronized (this) {
+			Long key = key(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+			ArrayDeque<Bitmap> bitmaps = mBitmaps.get(key);
+			if( bitmaps == null ) {
+				bitmaps = new ArrayDeque<Bitmap>();
+				mBitmaps.put(key, bitmaps);
+			}
+			else if( bitmaps.contains(bitmap) ) {
+				NexLog.w(TAG, "Bitmap released twice");
+				return;
+			}
+			bitmaps.addLast(bitmap);
+			mPooledBytes += size;
+			trimTo(mMaxBytes);
+		}
+	}
+
+	/**
+	 * Recycles every pooled bitmap.
+	 */
+	public synchronized void clear() {
+		trimTo(0);
+	}
+
+	/**
+	 * \returns The number of \c acquire calls served from the pool.
+	 */
+	public synchronized long getHitCount() {
+		return mHitCount;
+	}
+
+	/**
+	 * \returns The number of \c acquire calls that allocated a new bitmap.
+	 */
+	public synchronized long getMissCount() {
+		return mMissCount;
+	}
+
+	/**
+	 * \returns The ratio of \c acquire calls served from the pool, between 0 and 1.
+	 */
+	public synchronized float getHitRate() {
+		long total = mHitCount + mMissCount;
+		return total > 0 ? (float) mHitCount / total : 0;
+	}
+
+	/**
+	 * \returns The total number of bytes of pixels that did not have to be allocated thanks to the pool.
+	 */
+	public synchronized long getBytesSaved() {
+		return mBytesSaved;
+	}
+
+	/**
+	 * \returns The number of bytes of pixels currently kept in the pool.
+	 */
+	public synchronized long getPooledBytes() {
+		return mPooledBytes;
+	}
+
+	private void trimTo(long maxBytes) {
+		Iterator<Map.Entry<Long, ArrayDeque<Bitmap>>> iterator = mBitmaps.entrySet().iterator();
+		while( mPooledBytes > maxBytes && iterator.hasNext() ) {
+			ArrayDeque<Bitmap> bitmaps = iterator.next().getValue();
+			while( mPooledBytes > maxBytes && !bitmaps.isEmpty() ) {
+				Bitmap bitmap = bitmaps.pollFirst();
+				mPooledBytes -= bitmap.getAllocationByteCount();
+				bitmap.recycle();
+			}
+			if( bitmaps.isEmpty() ) {
+				iterator.remove();
+			}
+		}
+	}
+
+	private static Long key(int width, int height, Bitmap.Config config) {
+		return ((long) width << 32) | ((long) height << 8) | config.ordinal();
+	}
+}
@@ -3,21 +3,29 @@ package com.nexstreaming.nexplayerengine;
 import android.annotation.SuppressLint;
 import android.content.Context;
 import android.graphics.Bitmap;
+import android.graphics.Canvas;
 import android.graphics.Color;
+import android.graphics.Paint;
 import android.graphics.Rect;
 import android.graphics.Typeface;
 import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
+import android.text.Layout;
 import android.text.SpannableString;
+import android.text.Spannable;
 import android.text.SpannableStringBuilder;
 import android.text.Spanned;
+import android.text.StaticLayout;
+import android.text.TextPaint;
 import android.text.style.BackgroundColorSpan;
 import android.text.style.ForegroundColorSpan;
 import android.text.style.StrikethroughSpan;
 import android.text.style.StyleSpan;
 import android.text.style.UnderlineSpan;
 import android.util.AttributeSet;
+import android.util.Log;
+import android.util.SparseArray;
 import android.util.SparseIntArray;
 import android.util.TypedValue;
 import android.view.Gravity;
@@ -27,12 +35,18 @@ import android.widget.ImageView;
 import android.widget.TextView;
 
 import java.io.UnsupportedEncodingException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.ConcurrentModificationException;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import static com.nexstreaming.nexplayerengine.NexCaptionSetting.DEFAULT;
 import static com.nexstreaming.nexplayerengine.NexCaptionSetting.EdgeStyle;
@@ -72,11 +86,38 @@ public class NexCaptionPainter extends ViewGroup {
     private float mRenderingScale = 1f;
     ArrayList<NexCaptionRenderingAttribute> mRenderingAttributes = new ArrayList<NexCaptionRenderingAttribute>();
     private CollisionRectHelper mCollisionRectHelper = new CollisionRectHelper();
+    private CaptionViewPool mViewPool = new CaptionViewPool();
+    private CaptionTextPrecomputer mTextPrecomputer = new CaptionTextPrecomputer();
+    private CaptionTimings mCaptionTimings = new CaptionTimings();
+    // the cues of a sidecar subtitle file, and whether some were active at the last time given.
+    private NexSubtitleCueStore mCueStore = null;
+    private boolean mCuesActive = false;
+    private boolean mLayoutPassScheduled = false;
+    // the UI thread time spent on the captions added since the last frame drawn, and their number.
+    private boolean mTimeNextDraw = false;
+    private long mPendingMainThreadTime = 0;
+    private int mPendingCaptionCount = 0;
+    // changes with the user settings and the rendering area, so that text prepared with older ones is not used.
+    private int mSettingsGeneration = 0;
     private final Object lock = new Object();
     public SparseIntArray cachedMappedFontColors;
 
     Handler mHandler = new Handler(Looper.getMainLooper());
 
+    private final Runnable mLayoutPass = new Runnable() {
+        @Override
+        public void run() {
+            mLayoutPassScheduled = false;
+            long start = System.nanoTime();
+            avoidCollisionRects();
+            invalidate();
+
+            // the captions added since the last pass are drawn with the next frame, which is timed too.
+            mPendingMainThreadTime += System.nanoTime() - start;
+            mTimeNextDraw = true;
+        }
+    };
+
     /**
      * \brief This is an alternative constructor for the NexCaptionPainter.
      *
@@ -175,8 +216,11 @@ public class NexCaptionPainter extends ViewGroup {
     public void setRenderingArea(Rect renderingArea, float scale) {
         NexLog.d(LOG_TAG, "rendering area : " + renderingArea + ", scale : " + scale);
 
-        mRenderingArea = renderingArea;
-        mRenderingScale = scale;
+        synchronized (lock) {
+            mRenderingArea = renderingArea;
+            mRenderingScale = scale;
+            mSettingsGeneration++;
+        }
 
         if (null != mCaptionExtractor) {
             mCaptionExtractor.setRenderingArea(mRenderingArea, scale);
@@ -217,36 +261,95 @@ public class NexCaptionPainter extends ViewGroup {
      */
     public void setDataSource(final NexClosedCaption data) {
         if (mCaptionType == data.mCaptionType) {
+            final long arrivalTime = System.nanoTime();
             final ArrayList<NexCaptionRenderingAttribute> renderingAttributeList = makeRenderingAttribute(data);
 
-            mHandler.post(new Runnable() {
-
+            // the texts are laid out in the background, in the order the captions arrive, before the UI thread gets them.
+            mTextPrecomputer.execute(new Runnable() {
                 @Override
                 public void run() {
-                    if (null != renderingAttributeList) {
-                        for (int i = 0; i < renderingAttributeList.size(); ++i) {
-                            NexCaptionRenderingAttribute renderingAttribute = renderingAttributeList.get(i);
-
-                            if (renderingAttribute.removeById) {
-                                updateRemovingView(renderingAttribute);
-                            } else {
-                                if (0 == i) {
-                                    updateRemovingView(renderingAttribute);
+                    prepareTexts(renderingAttributeList, arrivalTime);
+
+                    mHandler.post(new Runnable() {
+
+                        @Override
+                        public void run() {
+                            if (null != renderingAttributeList) {
+                                for (int i = 0; i < renderingAttributeList.size(); ++i) {
+                                    NexCaptionRenderingAttribute renderingAttribute = renderingAttributeList.get(i);
+
+                                    if (renderingAttribute.removeById) {
+                                        updateRemovingView(renderingAttribute);
+                                    } else {
+                                        if (0 == i) {
+                                            updateRemovingView(renderingAttribute);
+                                        }
+                                    }
+
+                                    updateDrawingView(renderingAttribute);
                                 }
                             }
-
-                            updateDrawingView(renderingAttribute);
                         }
-
-                        //avoidCollisionRects();
-                    }
+                    });
                 }
             });
         } else {
-            NexLog.d(LOG_TAG, "type is not matched. NexCaptionPainter : " + mCaptionType + " , NexClosedCaption : " + data.mCaptionType);
+            if (NexLog.isLoggable(LOG_TAG, Log.DEBUG)) {
+                NexLog.d(LOG_TAG, "type is not matched. NexCaptionPainter : " + mCaptionType + " , NexClosedCaption : " + data.mCaptionType);
+            }
+        }
+    }
+
+    /**
+     * \brief This method sets the cues of a sidecar subtitle file, which tell \c setVideoTimeInfo when its captions end.
+     *
+     * The captions passed to \c setDataSource are still the ones displayed, with their styles, regions and positions.
+     * The cue store only removes them once no cue of the file is active anymore, also when the engine does not
+     * send the end of the cue, for example after a seek.
+     *
+     * \param cueStore  The cues of the subtitle file, or \c null.
+     *
+     * \see NexSubtitleCueStore
+     */
+    public void setCueStore(NexSubtitleCueStore cueStore) {
+        synchronized (lock) {
+            mCueStore = cueStore;
+            mCuesActive = false;
         }
     }
 
+    /**
+     * \brief This method removes the displayed captions when the last cue of the cue store active before \c currentTime has ended.
+     *
+     * The captions are only removed when the cues of the store stop being active, so a caption that the engine sends
+     * slightly before the start of its cue is kept.  Calls are serialized, so this method can be called from the
+     * UI thread and from the player callbacks, for example on every time update and after a seek.
+     *
+     * \param currentTime  The current playback time, in ms.
+     *
+     * \see setCueStore
+     */
+    public void setVideoTimeInfo(int currentTime) {
+        synchronized (lock) {
+            if (null == mCueStore) {
+                return;
+            }
+            boolean cuesActive = !mCueStore.getActiveCues(currentTime).isEmpty();
+            boolean cuesEnded = mCuesActive && !cuesActive;
+            mCuesActive = cuesActive;
+            if (!cuesEnded) {
+                return;
+            }
+        }
+
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                clear();
+            }
+        });
+    }
+
     /**
      * \brief  This clears the currently displayed captions.
      */
@@ -254,6 +357,10 @@ public class NexCaptionPainter extends ViewGroup {
         NexLog.d(LOG_TAG, "clear called");
         this.removeAllViews();
 
+        for (NexCaptionRenderingAttribute renderingAttribute : mRenderingAttributes) {
+            mViewPool.release(renderingAttribute.view);
+        }
+
         if (null != mCaptionExtractor) {
             mCaptionExtractor.clear();
         }
@@ -269,11 +376,15 @@ public class NexCaptionPainter extends ViewGroup {
      * \see NexCaptionSetting
      */
     public void setUserCaptionSettings(NexCaptionSetting captionSettings) {
-        mUserCaptionSettings.copyAllSettings(captionSettings);
+        synchronized (lock) {
+            mUserCaptionSettings.copyAllSettings(captionSettings);
+            mSettingsGeneration++;
+        }
 
         if (null != captionSettings) {
             mCaptionExtractor.setMappedFontColors(captionSettings.mappedFontColors);
             cachedMappedFontColors = captionSettings.mappedFontColors;
+            mCaptionExtractor.invalidateResolvedStyles();
 
             NexLog.d(LOG_TAG, "setUserCaptionSettings called");
         }
@@ -307,11 +418,94 @@ public class NexCaptionPainter extends ViewGroup {
         return mUserCaptionSettings;
     }
 
+    /**
+     * \brief This method gets the number of caption views created by the painter.
+     *
+     * The views of captions that are removed from the screen are kept and reused for the next captions,
+     * so this number only grows when more captions than before are displayed at the same time.
+     *
+     * \returns The number of caption views created.
+     * \see getReusedViewCount
+     */
+    public int getCreatedViewCount() {
+        return mViewPool.getCreatedCount();
+    }
+
+    /**
+     * \brief This method gets the number of captions displayed with a reused view.
+     *
+     * \returns The number of times a caption view was reused instead of created.
+     * \see getCreatedViewCount
+     */
+    public int getReusedViewCount() {
+        return mViewPool.getReusedCount();
+    }
+
+    /**
+     * \brief This method gets the average time from the arrival of a caption to the frame that draws it.
+     *
+     * \returns The average latency in milliseconds, or 0 if no caption was displayed yet.
+     * \see getMaxDisplayLatency
+     */
+    public float getAverageDisplayLatency() {
+        return mCaptionTimings.getAverageLatencyMillis();
+    }
+
+    /**
+     * \brief This method gets the longest time from the arrival of a caption to the frame that draws it.
+     *
+     * \returns The maximum latency in milliseconds.
+     * \see getAverageDisplayLatency
+     */
+    public float getMaxDisplayLatency() {
+        return mCaptionTimings.getMaxLatencyMillis();
+    }
+
+    /**
+     * \brief This method gets the average time the UI thread spends to display a caption.
+     *
+     * This is the time to create, measure and lay out the views of the new captions, to place them, and to
+     * draw the first frame that shows them, divided by the number of new captions in that frame.
+     * The text of a caption is built with the caption settings applied, and laid out, in the background before it
+     * is handed to the UI thread.
+     *
+     * \returns The average time in milliseconds, or 0 if no caption was displayed yet.
+     */
+    public float getAverageMainThreadTime() {
+        return mCaptionTimings.getAverageMainThreadMillis();
+    }
+
     @Override
     protected void onLayout(boolean changed, int l, int t, int r, int b) {
         //do nothing
     }
 
+    @Override
+    protected void dispatchDraw(Canvas canvas) {
+        if (!mTimeNextDraw) {
+            super.dispatchDraw(canvas);
+            return;
+        }
+
+        long start = System.nanoTime();
+        super.dispatchDraw(canvas);
+        long now = System.nanoTime();
+
+        mTimeNextDraw = false;
+        if (0 < mPendingCaptionCount) {
+            mCaptionTimings.addMainThreadTime(mPendingMainThreadTime + now - start, mPendingCaptionCount);
+        }
+        mPendingMainThreadTime = 0;
+        mPendingCaptionCount = 0;
+
+        for (NexCaptionRenderingAttribute renderingAttribute : mRenderingAttributes) {
+            if (0 != renderingAttribute.mArrivalTime) {
+                mCaptionTimings.addDisplayLatency(now - renderingAttribute.mArrivalTime);
+                renderingAttribute.mArrivalTime = 0;
+            }
+        }
+    }
+
     @SuppressLint("NewApi")
     private void WrapSetLayerType() {
         if (Build.VERSION.SDK_INT > Build.VERSION_CODES.GINGERBREAD_MR1) {
@@ -338,8 +532,13 @@ public class NexCaptionPainter extends ViewGroup {
                 }
 
                 if (shouldRemove) {
-                    removeView(curAttribute.view);
-                    NexLog.d(LOG_TAG, "remove id : " + curAttribute.id);
+                    // the painter does not lay out its children, so views are added and removed without a layout request.
+                    removeViewInLayout(curAttribute.view);
+                    mViewPool.release(curAttribute.view);
+                    invalidate();
+                    if (NexLog.isLoggable(LOG_TAG, Log.DEBUG)) {
+                        NexLog.d(LOG_TAG, "remove id : " + curAttribute.id);
+                    }
                     mCollisionRectHelper.remove(curAttribute.id);
                     iterator.remove();
                 }
@@ -350,29 +549,56 @@ public class NexCaptionPainter extends ViewGroup {
     private void updateDrawingView(NexCaptionRenderingAttribute renderingAttribute) {
         boolean hasDrawingData = renderingAttribute.mEndTime > 0;
         if (hasDrawingData) {
+            long start = System.nanoTime();
+            if (null != renderingAttribute.mStrings) {
+                renderingAttribute.view = makeCaptionView(renderingAttribute);
+            } else if (null != renderingAttribute.mImage) {
+                renderingAttribute.view = makeImageView(renderingAttribute);
+            }
+
             if (null != renderingAttribute.view) {
                 mRenderingAttributes.add(renderingAttribute);
 
-                NexLog.d(LOG_TAG, "add id : " + renderingAttribute.id);
-
                 if (!renderingAttribute.mCaptionSettings.mRelativeWindowRect.userDefined ||
                         renderingAttribute.mCaptionSettings.mRelativeWindowRect.autoAdjustment) {
 
                     mCollisionRectHelper.add(renderingAttribute.id, renderingAttribute.mWindowRect);
-
-                    NexLog.d(LOG_TAG, "call avoidCollisionRects");
-                    avoidCollisionRects();
                 }
 
-                addView(renderingAttribute.view);
+                ViewGroup.LayoutParams params = renderingAttribute.view.getLayoutParams();
+                addViewInLayout(renderingAttribute.view, -1, null != params ? params : generateDefaultLayoutParams(), true);
+                scheduleLayoutPass();
+
+                long mainThreadTime = System.nanoTime() - start;
+                mPendingMainThreadTime += mainThreadTime;
+                mPendingCaptionCount++;
+                if (NexLog.isLoggable(LOG_TAG, Log.DEBUG)) {
+                    NexLog.d(LOG_TAG, "add id : " + renderingAttribute.id + ", " + mainThreadTime / 1000 + " us to create its view");
+                }
             }
         }
     }
 
+    // collisions are avoided and the painter redrawn once per frame, for all the captions added during the frame.
+    private void scheduleLayoutPass() {
+        if (!mLayoutPassScheduled) {
+            mLayoutPassScheduled = true;
+            postOnAnimation(mLayoutPass);
+        }
+    }
+
     private void applyCaptionSettings(NexCaptionTextView view, NexCaptionRenderingAttribute renderingAttribute, NexCaptionSetting captionSettings) {
         if (null != captionSettings) {
-            SpannableString spannableString = (SpannableString) view.getText();
+            // the spans of the text of the view change, the layout prepared with the old ones no longer fits.
+            view.setPreparedLayout(null);
+            applyTextSettings((SpannableString) view.getText(), renderingAttribute, captionSettings);
+            applyViewSettings(view, renderingAttribute, captionSettings);
+        }
+    }
 
+    // the settings that change the spans of the text.  They do not touch any view, so captions can be prepared on any thread.
+    private void applyTextSettings(SpannableString spannableString, NexCaptionRenderingAttribute renderingAttribute, NexCaptionSetting captionSettings) {
+        if (null != captionSettings) {
             if (StringStyle.APPLY == captionSettings.mItalic) {
                 if (null != renderingAttribute.mStrings) {
                     if (Build.VERSION.SDK_INT <= Build.VERSION_CODES.KITKAT) {
@@ -398,10 +624,7 @@ public class NexCaptionPainter extends ViewGroup {
             setStyleSpan(spannableString, captionSettings.mItalic, Typeface.ITALIC);
             setStyleSpan(spannableString, captionSettings.mBold, Typeface.BOLD);
 
-            view.setTypeface(captionSettings.mFontFamily);
-
             if (DEFAULT != captionSettings.mFontColor) {
-                view.setBaseTextColor(captionSettings.mFontColor);
                 // can apply font color after removing applied font colors of spannable string.
                 removeSpan(spannableString, ForegroundColorSpan.class);
                 spannableString.setSpan(new ForegroundColorSpan(captionSettings.mFontColor), 0, spannableString.length(), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
@@ -415,7 +638,26 @@ public class NexCaptionPainter extends ViewGroup {
 
             if (DEFAULT != captionSettings.mBackgroundColor) {
                 spannableString.setSpan(new BackgroundColorSpan(captionSettings.mBackgroundColor), 0, spannableString.length(), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
-                view.setBaseBackgroundColors(spannableString);
+            }
+
+            if (EdgeStyle.UNIFORM == captionSettings.mEdgeStyle) {
+                // can apply UNIFORM after removing applied font colors of spannable string.
+                removeSpan(spannableString, ForegroundColorSpan.class);
+            }
+        }
+    }
+
+    // the settings of the view, on the UI thread, once its text has the text settings applied.
+    private void applyViewSettings(NexCaptionTextView view, NexCaptionRenderingAttribute renderingAttribute, NexCaptionSetting captionSettings) {
+        if (null != captionSettings) {
+            view.setTypeface(captionSettings.mFontFamily);
+
+            if (DEFAULT != captionSettings.mFontColor) {
+                view.setBaseTextColor(captionSettings.mFontColor);
+            }
+
+            if (DEFAULT != captionSettings.mBackgroundColor) {
+                view.setBaseBackgroundColors((Spannable) view.getText());
             }
 
             if (DEFAULT != captionSettings.mWindowColor) {
@@ -435,8 +677,10 @@ public class NexCaptionPainter extends ViewGroup {
             }
 
 			
-            NexLog.d(LOG_TAG, "FontColor : " + captionSettings.mFontColor + ", UnderLine : " + captionSettings.mUnderLine + ", BackgroundColor : " + captionSettings.mBackgroundColor + 
-            				", WindowColor : " + captionSettings.mWindowColor + ", EdgeStyle : " + captionSettings.mEdgeStyle + ", Gravity : " + captionSettings.mGravity);
+            if (NexLog.isLoggable(LOG_TAG, Log.DEBUG)) {
+                NexLog.d(LOG_TAG, "FontColor : " + captionSettings.mFontColor + ", UnderLine : " + captionSettings.mUnderLine + ", BackgroundColor : " + captionSettings.mBackgroundColor +
+                				", WindowColor : " + captionSettings.mWindowColor + ", EdgeStyle : " + captionSettings.mEdgeStyle + ", Gravity : " + captionSettings.mGravity);
+            }
 
             setViewLayout(view, renderingAttribute, captionSettings.mRelativeWindowRect);
         }
@@ -472,9 +716,7 @@ public class NexCaptionPainter extends ViewGroup {
         } else if (EdgeStyle.RAISED == edgeStyle) {
             view.setRaised(true, color);
         } else if (EdgeStyle.UNIFORM == edgeStyle) {
-            // can apply UNIFORM after removing applied font colors of spannable string.
-            SpannableString spannableString = (SpannableString) view.getText();
-            removeSpan(spannableString, ForegroundColorSpan.class);
+            // the font colors of the text are removed with the text settings.
             view.setCaptionStroke(color, thickness);
         }
     }
@@ -576,27 +818,118 @@ public class NexCaptionPainter extends ViewGroup {
     }
 
     private ImageView makeImageView(NexCaptionRenderingAttribute renderingAttribute) {
-        ImageView imageView = new ImageView(mContext);
+        ImageView imageView = (ImageView) mViewPool.acquire(CaptionViewPool.KIND_IMAGE);
+        if (null == imageView) {
+            imageView = new ImageView(mContext);
+        }
         imageView.setImageBitmap(renderingAttribute.mImage);
         NexCaptionWindowRect userSetRect = new NexCaptionWindowRect(renderingAttribute.mCaptionSettings.mRelativeWindowRect);
         userSetRect.copyTouchedSettings(mUserCaptionSettings.mRelativeWindowRect);
         setViewLayout(imageView, renderingAttribute, userSetRect);
-        NexLog.d(LOG_TAG, "image layout : " + userSetRect);
+        if (NexLog.isLoggable(LOG_TAG, Log.DEBUG)) {
+            NexLog.d(LOG_TAG, "image layout : " + userSetRect);
+        }
         return imageView;
     }
 
+    /**
+     * Builds the text of the captions with the caption settings applied, and lays it out with the font of the view,
+     * on a thread of mTextPrecomputer, before the captions are handed to the UI thread.
+     */
+    private void prepareTexts(ArrayList<NexCaptionRenderingAttribute> renderingAttributeList, long arrivalTime) {
+        if (null != renderingAttributeList) {
+            // the settings can be changed on the UI thread meanwhile.
+            NexCaptionSetting userSettings;
+            Rect renderingArea;
+            int settingsGeneration;
+            synchronized (lock) {
+                userSettings = new NexCaptionSetting(mUserCaptionSettings);
+                renderingArea = new Rect(mRenderingArea);
+                settingsGeneration = mSettingsGeneration;
+            }
+
+            for (NexCaptionRenderingAttribute renderingAttribute : renderingAttributeList) {
+                renderingAttribute.mArrivalTime = arrivalTime;
+
+                if (0 < renderingAttribute.mEndTime && null != renderingAttribute.mStrings) {
+                    renderingAttribute.mText = makeSpannableString(renderingAttribute.mStrings);
+                    if (null != renderingAttribute.mText) {
+                        NexCaptionSetting captionSetting = getAppliedSettings(renderingAttribute, userSettings, renderingArea);
+                        SpannableString preparedText = new SpannableString(renderingAttribute.mText);
+                        applyTextSettings(preparedText, renderingAttribute, captionSetting);
+                        renderingAttribute.mPreparedLayout = precomputeLayout(renderingAttribute, preparedText, captionSetting, renderingArea);
+                        renderingAttribute.mPreparedText = preparedText;
+                        renderingAttribute.mPreparedSettings = captionSetting;
+                        renderingAttribute.mSettingsGeneration = settingsGeneration;
+                    }
+                }
+            }
+        }
+    }
+
+    private Layout precomputeLayout(NexCaptionRenderingAttribute renderingAttribute, SpannableString text, NexCaptionSetting captionSetting, Rect renderingArea) {
+        // the text size, the maximum width and the gravity setFontSize, setViewLayout and applyViewSettings give the view.
+        // a reused view is recycled to the gravity of a new one.
+        float fontSize = captionSetting.mFontSize;
+        if (DEFAULT != captionSetting.mFontScale) { fontSize *= captionSetting.mFontScale; }
+
+        int windowSize = renderingAttribute.mWindowSize > 0 ? renderingAttribute.mWindowSize : 100;
+        int width = renderingArea.width() * windowSize / 100;
+        if (DEFAULT != captionSetting.mPaddingLeft) { width -= captionSetting.mPaddingLeft; }
+        if (DEFAULT != captionSetting.mPaddingRight) { width -= captionSetting.mPaddingRight; }
+
+        int gravity = DEFAULT != captionSetting.mGravity ? captionSetting.mGravity : Gravity.TOP | Gravity.START;
+
+        return CaptionTextPrecomputer.makeLayout(text, fontSize, captionSetting.mFontFamily, gravity, width);
+    }
+
+    // the settings of the caption, with the ones the user set.
+    private NexCaptionSetting getAppliedSettings(NexCaptionRenderingAttribute renderingAttribute, NexCaptionSetting userSettings, Rect renderingArea) {
+        NexCaptionSetting captionSetting = new NexCaptionSetting(renderingAttribute.mCaptionSettings);
+        captionSetting.copyTouchedSettings(userSettings);
+
+        if (DEFAULT != userSettings.mFontSize) { captionSetting.mFontSize = convertAdjustedUserFontSize(renderingArea, userSettings.mFontSize); }
+
+        return captionSetting;
+    }
+
     private NexCaptionTextView makeCaptionView(NexCaptionRenderingAttribute renderingAttribute) {
         NexCaptionTextView captionView = null;
-        SpannableStringBuilder spannableStringBuilder = makeSpannableString(renderingAttribute.mStrings);
-        if (null != spannableStringBuilder) {
-            captionView = new NexCaptionTextView(mContext);
-            captionView.setIncludeFontPadding(false);
+        SpannableString text;
+        NexCaptionSetting captionSetting;
+
+        boolean prepared;
+        synchronized (lock) {
+            prepared = null != renderingAttribute.mPreparedText && renderingAttribute.mSettingsGeneration == mSettingsGeneration;
+        }
+        if (prepared) {
+            text = renderingAttribute.mPreparedText;
+            captionSetting = renderingAttribute.mPreparedSettings;
+        } else {
+            // the settings changed since the text was prepared, or it was not.
+            SpannableStringBuilder spannableStringBuilder = null != renderingAttribute.mText ? renderingAttribute.mText : makeSpannableString(renderingAttribute.mStrings);
+            text = null != spannableStringBuilder ? new SpannableString(spannableStringBuilder) : null;
+            captionSetting = getAppliedSettings(renderingAttribute, mUserCaptionSettings, mRenderingArea);
+            if (null != text) {
+                applyTextSettings(text, renderingAttribute, captionSetting);
+            }
+        }
+
+        if (null != text) {
+            captionView = (NexCaptionTextView) mViewPool.acquire(CaptionViewPool.KIND_TEXT);
+            if (null == captionView) {
+                captionView = new NexCaptionTextView(mContext);
+                captionView.setIncludeFontPadding(false);
+            }
 
             captionView.setBaseTextColor(getBaseTextColor(renderingAttribute.mStrings));
-            captionView.setBaseBackgroundColors(spannableStringBuilder);
-            captionView.setText(spannableStringBuilder, TextView.BufferType.SPANNABLE);
+            captionView.setBaseBackgroundColors(text);
+            captionView.setText(text, TextView.BufferType.SPANNABLE);
+            captionView.setPreparedLayout(prepared ? renderingAttribute.mPreparedLayout : null);
 
-            NexLog.d(LOG_TAG, "caption text : " + spannableStringBuilder);
+            if (NexLog.isLoggable(LOG_TAG, Log.DEBUG)) {
+                NexLog.d(LOG_TAG, "caption text : " + text);
+            }
 
             captionView.setVisibility(renderingAttribute.mVisibility);
 
@@ -604,12 +937,7 @@ public class NexCaptionPainter extends ViewGroup {
                 captionView.setTextDirection(renderingAttribute.mDirection);
             }
 
-            NexCaptionSetting captionSetting = new NexCaptionSetting(renderingAttribute.mCaptionSettings);
-            captionSetting.copyTouchedSettings(mUserCaptionSettings);
-
-            if (DEFAULT != mUserCaptionSettings.mFontSize) { captionSetting.mFontSize = convertAdjustedUserFontSize(mRenderingArea, mUserCaptionSettings.mFontSize); }
-
-            applyCaptionSettings(captionView, renderingAttribute, captionSetting);
+            applyViewSettings(captionView, renderingAttribute, captionSetting);
         }
 
         return captionView;
@@ -639,8 +967,10 @@ public class NexCaptionPainter extends ViewGroup {
             rect.bottom = rect.top + view.getMeasuredHeight();
         }
 
-        NexLog.d(LOG_TAG, "setViewExtent rect : " + rect);
-        NexLog.d(LOG_TAG, "setViewExtent getMeasuredHeight : " + view.getMeasuredHeight() + " , getMeasuredWidth " + view.getMeasuredWidth());
+        if (NexLog.isLoggable(LOG_TAG, Log.DEBUG)) {
+            NexLog.d(LOG_TAG, "setViewExtent rect : " + rect);
+            NexLog.d(LOG_TAG, "setViewExtent getMeasuredHeight : " + view.getMeasuredHeight() + " , getMeasuredWidth " + view.getMeasuredWidth());
+        }
 
         view.setWidth(rect.width());
         view.setHeight(rect.height());
@@ -692,7 +1022,9 @@ public class NexCaptionPainter extends ViewGroup {
         view.measure(MeasureSpec.makeMeasureSpec(0, MeasureSpec.UNSPECIFIED),
                 MeasureSpec.makeMeasureSpec(0, MeasureSpec.UNSPECIFIED));
 
-        NexLog.d(LOG_TAG, "setViewLayout : " + renderingAttribute.mWindowRect); 
+        if (NexLog.isLoggable(LOG_TAG, Log.DEBUG)) {
+            NexLog.d(LOG_TAG, "setViewLayout : " + renderingAttribute.mWindowRect);
+        }
 
         view.layout(renderingAttribute.mWindowRect.left, renderingAttribute.mWindowRect.top,
                 renderingAttribute.mWindowRect.right, renderingAttribute.mWindowRect.bottom);
@@ -704,7 +1036,9 @@ public class NexCaptionPainter extends ViewGroup {
         if (null != renderingArea) {
             float oneCell = NexCaptionExtractor.getFontSize(renderingArea);
             adjustedUserFontSize = userFontSize * oneCell / NexCaptionExtractor.DEFAULT_FONT_SIZE_DIP;
-            NexLog.d(LOG_TAG, "convertAdjustedUserFontSize : " + adjustedUserFontSize + " , userFontSize : " + userFontSize + " , one cell is : " + oneCell);
+            if (NexLog.isLoggable(LOG_TAG, Log.DEBUG)) {
+                NexLog.d(LOG_TAG, "convertAdjustedUserFontSize : " + adjustedUserFontSize + " , userFontSize : " + userFontSize + " , one cell is : " + oneCell);
+            }
         }
 
         return adjustedUserFontSize;
@@ -716,7 +1050,9 @@ public class NexCaptionPainter extends ViewGroup {
             fontSizeApplied *= fontScale;
         }
 
-        NexLog.d(LOG_TAG, "last fontSizeApplied : " + fontSizeApplied + " , fontSize : " + fontSize + " , fontScale : " + fontScale);
+        if (NexLog.isLoggable(LOG_TAG, Log.DEBUG)) {
+            NexLog.d(LOG_TAG, "last fontSizeApplied : " + fontSizeApplied + " , fontSize : " + fontSize + " , fontScale : " + fontScale);
+        }
         textView.setTextSize(TypedValue.COMPLEX_UNIT_PX, fontSizeApplied);
     }
 
@@ -724,9 +1060,11 @@ public class NexCaptionPainter extends ViewGroup {
         view.measure(MeasureSpec.makeMeasureSpec(0, MeasureSpec.UNSPECIFIED), MeasureSpec.makeMeasureSpec(0, MeasureSpec.UNSPECIFIED));
         int width = view.getMeasuredWidth(); int height = view.getMeasuredHeight();
 
-        NexLog.d(LOG_TAG, "relativeRect x : " + relativeRect.xPercent + ", y : " + relativeRect.yPercent + ", width : " + relativeRect.widthPercent + ", height : " + relativeRect.heightPercent);
-        NexLog.d(LOG_TAG, "getCaptionPosition getMeasuredWidth: " + width + " , getMeasuredHeight : " + height);
-        NexLog.d(LOG_TAG, "relativeRect userDefined: " + relativeRect.userDefined + " , autoAdjustment : " + relativeRect.autoAdjustment);
+        if (NexLog.isLoggable(LOG_TAG, Log.DEBUG)) {
+            NexLog.d(LOG_TAG, "relativeRect x : " + relativeRect.xPercent + ", y : " + relativeRect.yPercent + ", width : " + relativeRect.widthPercent + ", height : " + relativeRect.heightPercent);
+            NexLog.d(LOG_TAG, "getCaptionPosition getMeasuredWidth: " + width + " , getMeasuredHeight : " + height);
+            NexLog.d(LOG_TAG, "relativeRect userDefined: " + relativeRect.userDefined + " , autoAdjustment : " + relativeRect.autoAdjustment);
+        }
 
         return mCaptionExtractor.getCaptionPosition(relativeRect, width, height);
     }
@@ -739,9 +1077,11 @@ public class NexCaptionPainter extends ViewGroup {
         int measuredHeight = view.getMeasuredHeight();
         int appliedHeight = Math.max(measuredHeight, height);
 
-        NexLog.d(LOG_TAG, "adjustViewRect padding bottom " + view.getPaddingBottom() + ", padding top : " + view.getPaddingTop());
-        NexLog.d(LOG_TAG, "adjustViewRect height " + height + ", measuredHeight : " + measuredHeight + " , appliedHeight : " + appliedHeight);
-        NexLog.d(LOG_TAG, "adjustViewRect line count : " + lineCount + " , height : " + appliedHeight + " , originHeight : " + originHeight);
+        if (NexLog.isLoggable(LOG_TAG, Log.DEBUG)) {
+            NexLog.d(LOG_TAG, "adjustViewRect padding bottom " + view.getPaddingBottom() + ", padding top : " + view.getPaddingTop());
+            NexLog.d(LOG_TAG, "adjustViewRect height " + height + ", measuredHeight : " + measuredHeight + " , appliedHeight : " + appliedHeight);
+            NexLog.d(LOG_TAG, "adjustViewRect line count : " + lineCount + " , height : " + appliedHeight + " , originHeight : " + originHeight);
+        }
 
         if (appliedHeight > originHeight) {
             if (winRect.top > mRenderingArea.height() / 2) {
@@ -758,16 +1098,6 @@ public class NexCaptionPainter extends ViewGroup {
             list = mCaptionExtractor.extract(data);
         }
 
-        if (null != list) {
-            for (NexCaptionRenderingAttribute renderingAttribute : list) {
-                if (null != renderingAttribute.mStrings) {
-                    renderingAttribute.view = makeCaptionView(renderingAttribute);
-                } else if (null != renderingAttribute.mImage) {
-                    renderingAttribute.view = makeImageView(renderingAttribute);
-                }
-            }
-        }
-
         return list;
     }
 
@@ -775,11 +1105,8 @@ public class NexCaptionPainter extends ViewGroup {
         List<CollisionRectHelper.CollisionRect> listRect = mCollisionRectHelper.avoidCollisionRects();
 
         if (null != listRect) {
-            Iterator<NexCaptionRenderingAttribute> iterator = mRenderingAttributes.iterator();
-
             for (CollisionRectHelper.CollisionRect collisionRect : listRect) {
-                while (iterator.hasNext()) {
-                    NexCaptionRenderingAttribute attribute = iterator.next();
+                for (NexCaptionRenderingAttribute attribute : mRenderingAttributes) {
                     if (attribute.id == collisionRect.id) {
                         attribute.mWindowRect = collisionRect.rcRect;
                         attribute.view.layout(attribute.mWindowRect.left, attribute.mWindowRect.top,
@@ -792,6 +1119,219 @@ public class NexCaptionPainter extends ViewGroup {
     }
 }
 
+/**
+ * Lays out the text of the captions off the UI thread.
+ *
+ * The text is laid out with the caption settings already applied to its spans, and with the text size, typeface,
+ * width and alignment of the view.  NexCaptionTextView draws this layout, in its edge styles, as long as it matches
+ * the one the view measured.  Every layout has a paint of its own, so the captions of several painters are laid out
+ * at the same time, and the view draws with it afterwards.
+ *
+ * The tasks of a precomputer run one after the other, in the order they were given, on background threads shared
+ * by all the painters.  All methods are thread safe.
+ */
+class CaptionTextPrecomputer {
+    private static final String LOG_TAG = "CaptionTextPrecomputer";
+    private static final int THREAD_COUNT = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+    private static final ThreadPoolExecutor sExecutor = makeExecutor();
+
+    private final ArrayDeque<Runnable> mTasks = new ArrayDeque<Runnable>();
+    private boolean mRunning = false;
+
+    private final Runnable mRunTasks = new Runnable() {
+        @Override
+        public void run() {
+            while (true) {
+                Runnable task;
+                synchronized (mTasks) {
+                    task = mTasks.poll();
+                    if (null == task) {
+                        mRunning = false;
+                        return;
+                    }
+                }
+
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    NexLog.e(LOG_TAG, "caption task failed : " + e);
+                }
+            }
+        }
+    };
+
+    // idle threads end, so a player without captions keeps none.
+    private static ThreadPoolExecutor makeExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(THREAD_COUNT, THREAD_COUNT, 10, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, LOG_TAG);
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Runs \c task in the background, after the tasks given before.
+     */
+    void execute(Runnable task) {
+        synchronized (mTasks) {
+            mTasks.add(task);
+            if (mRunning) {
+                return;
+            }
+            mRunning = true;
+        }
+        sExecutor.execute(mRunTasks);
+    }
+
+    /**
+     * Lays \c text out the way a TextView that wraps its content, at most \c maxWidth wide, does.
+     *
+     * \returns The layout, or \c null if there is no room for the text.
+     */
+    @SuppressWarnings("deprecation")
+    static Layout makeLayout(CharSequence text, float textSize, Typeface typeface, int gravity, int maxWidth) {
+        if (0 >= maxWidth || 0 >= textSize) {
+            return null;
+        }
+
+        TextPaint paint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+        paint.setTextSize(textSize);
+        paint.setTypeface(typeface);
+
+        int width = Math.min((int) Math.ceil(Layout.getDesiredWidth(text, paint)), maxWidth);
+        if (0 >= width) {
+            return null;
+        }
+
+        // the alignment TextView takes from its gravity.
+        Layout.Alignment alignment = Layout.Alignment.ALIGN_NORMAL;
+        if (Gravity.CENTER_HORIZONTAL == (gravity & Gravity.HORIZONTAL_GRAVITY_MASK)) {
+            alignment = Layout.Alignment.ALIGN_CENTER;
+        } else if (Gravity.END == (gravity & Gravity.RELATIVE_HORIZONTAL_GRAVITY_MASK)) {
+            alignment = Layout.Alignment.ALIGN_OPPOSITE;
+        }
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            // the break strategy of TextView, so that the lines break at the same words.
+            return StaticLayout.Builder.obtain(text, 0, text.length(), paint, width)
+                    .setAlignment(alignment)
+                    .setIncludePad(false)
+                    .setBreakStrategy(Layout.BREAK_STRATEGY_HIGH_QUALITY)
+                    .build();
+        }
+        return new StaticLayout(text, paint, width, alignment, 1f, 0f, false);
+    }
+}
+
+/**
+ * Measures the time from the arrival of the captions to their display, and the time the UI thread spends on them.
+ *
+ * All methods are thread safe.
+ */
+class CaptionTimings {
+    private static final float NANOS_PER_MILLI = 1000000f;
+
+    private int mDisplayedCount = 0;
+    private long mTotalLatency = 0;
+    private long mMaxLatency = 0;
+    private int mCreatedCount = 0;
+    private long mTotalMainThreadTime = 0;
+
+    synchronized void addDisplayLatency(long latency) {
+        mDisplayedCount++;
+        mTotalLatency += latency;
+        mMaxLatency = Math.max(mMaxLatency, latency);
+    }
+
+    synchronized void addMainThreadTime(long time, int captionCount) {
+        mCreatedCount += captionCount;
+        mTotalMainThreadTime += time;
+    }
+
+    synchronized float getAverageLatencyMillis() {
+        return 0 == mDisplayedCount ? 0 : mTotalLatency / NANOS_PER_MILLI / mDisplayedCount;
+    }
+
+    synchronized float getMaxLatencyMillis() {
+        return mMaxLatency / NANOS_PER_MILLI;
+    }
+
+    synchronized float getAverageMainThreadMillis() {
+        return 0 == mCreatedCount ? 0 : mTotalMainThreadTime / NANOS_PER_MILLI / mCreatedCount;
+    }
+}
+
+/**
+ * Keeps the views of the captions that are no longer displayed, by kind, so that the next captions reuse them.
+ *
+ * All methods are thread safe.
+ */
+class CaptionViewPool {
+    static final int KIND_TEXT = 0;
+    static final int KIND_IMAGE = 1;
+
+    // more views than this of one kind are rarely displayed at the same time.
+    private static final int MAX_POOLED_VIEWS = 8;
+
+    private final SparseArray<ArrayList<View>> mViews = new SparseArray<ArrayList<View>>();
+    private int mCreatedCount = 0;
+    private int mReusedCount = 0;
+
+    /**
+     * Returns a pooled view of the given kind, or \c null if the caller must create one.
+     */
+    synchronized View acquire(int kind) {
+        ArrayList<View> views = mViews.get(kind);
+        if (null != views && !views.isEmpty()) {
+            mReusedCount++;
+            return views.remove(views.size() - 1);
+        }
+
+        mCreatedCount++;
+        return null;
+    }
+
+    /**
+     * Gives back a view removed from the painter.
+     */
+    synchronized void release(View view) {
+        int kind;
+        if (view instanceof NexCaptionTextView) {
+            ((NexCaptionTextView) view).recycle();
+            kind = KIND_TEXT;
+        } else if (view instanceof ImageView) {
+            ((ImageView) view).setImageBitmap(null);
+            kind = KIND_IMAGE;
+        } else {
+            return;
+        }
+
+        ArrayList<View> views = mViews.get(kind);
+        if (null == views) {
+            views = new ArrayList<View>();
+            mViews.put(kind, views);
+        }
+
+        if (views.size() < MAX_POOLED_VIEWS && !views.contains(view)) {
+            views.add(view);
+        }
+    }
+
+    synchronized int getCreatedCount() {
+        return mCreatedCount;
+    }
+
+    synchronized int getReusedCount() {
+        return mReusedCount;
+    }
+}
+
 class NexCaptionExtractorFactory {
     static NexCaptionExtractor create(int textType) {
         NexCaptionExtractor extractor = null;
@@ -831,11 +1371,19 @@ abstract class NexCaptionExtractor implements CaptionExtractorCommonInterface {
     abstract void setRenderingArea(Rect renderingArea, float scale);
     abstract ArrayList<NexCaptionRenderingAttribute> extract(NexClosedCaption data);
 
+    /**
+     * Forgets the styles resolved from earlier captions, when the settings they were resolved with change.
+     */
+    void invalidateResolvedStyles() {
+    }
+
     static float getFontSize(Rect renderingArea) {
         float fontSize = 0;
         if (null != renderingArea) {
             fontSize = renderingArea.height() / DEFAULT_VERTICAL_CELL * FONT_SIZE_RATE_CELL;
-            NexLog.d(LOG_TAG, "get font size by default as a cell : "  + fontSize);
+            if (NexLog.isLoggable(LOG_TAG, Log.DEBUG)) {
+                NexLog.d(LOG_TAG, "get font size by default as a cell : "  + fontSize);
+            }
         }
 
         return fontSize;
@@ -846,7 +1394,9 @@ abstract class NexCaptionExtractor implements CaptionExtractorCommonInterface {
         if (null != renderingArea) {
             float anchorSize = DEFAULT_VERTICAL_CELL / (float)renderingArea.height();
             relativeFontSize = fontSize * anchorSize;
-            NexLog.d(LOG_TAG, "get relative font size by default : "  + relativeFontSize + " , fontSize : " + fontSize);
+            if (NexLog.isLoggable(LOG_TAG, Log.DEBUG)) {
+                NexLog.d(LOG_TAG, "get relative font size by default : "  + relativeFontSize + " , fontSize : " + fontSize);
+            }
         }
 
         return relativeFontSize;
@@ -868,8 +1418,7 @@ abstract class NexCaptionExtractor implements CaptionExtractorCommonInterface {
 class CollisionRectHelper {
     private ComparatorRect mComparator = new ComparatorRect();
     private ArrayList<CollisionRect> mlistRect = new ArrayList<CollisionRect>();
-    private Rect mIntersect = new Rect();
-    private Rect mIntersectCompare = new Rect();
+    private long[] mPlacedSpans = new long[0];
 
     static final String LOG_TAG = "CollisionRectHelper";
 
@@ -905,40 +1454,36 @@ class CollisionRectHelper {
 
         @Override
         public int compare(CollisionRect lhs, CollisionRect rhs) {
-            int nTarget = 0;
-            int nCompare = 0;
-
             int nResult = 0;
-            int nOffset = 1;
-
-            switch (m_eDirection) {
-                case FROM_LEFT:
-                    break;
-                case FROM_TOP:
-                    nTarget = lhs.rcRect.top;
-                    nCompare = rhs.rcRect.top;
-                    break;
-                case FROM_RIGHT:
-                    break;
-                case FROM_BOTTOM:
-                    nTarget = lhs.rcRect.bottom;
-                    nCompare = rhs.rcRect.bottom;
-                    nOffset = -1;
-                    break;
-                default:
-                    break;
-            }
 
             if (null != lhs.rcRect && null != rhs.rcRect) {
-                if (nTarget >= nCompare)
-                {
-                    nResult = nOffset;
+                switch (m_eDirection) {
+                    case FROM_LEFT:
+                        nResult = Integer.compare(lhs.rcRect.left, rhs.rcRect.left);
+                        break;
+                    case FROM_TOP:
+                        nResult = Integer.compare(lhs.rcRect.top, rhs.rcRect.top);
+                        break;
+                    case FROM_RIGHT:
+                        nResult = Integer.compare(rhs.rcRect.right, lhs.rcRect.right);
+                        break;
+                    case FROM_BOTTOM:
+                        nResult = Integer.compare(rhs.rcRect.bottom, lhs.rcRect.bottom);
+                        break;
+                    default:
+                        break;
                 }
-                else if (nTarget < nCompare)
-                {
-                    nResult = -nOffset;
+
+                // a total order, so that windows at the same position are always placed the same way.
+                if (0 == nResult) {
+                    nResult = Integer.compare(lhs.rcRect.left, rhs.rcRect.left);
                 }
             }
+
+            if (0 == nResult) {
+                nResult = Integer.compare(lhs.id, rhs.id);
+            }
+
             return nResult;
         }
     }
@@ -978,24 +1523,16 @@ class CollisionRectHelper {
 	        if (null != mComparator && null != mlistRect) {
 	            boolean bArranged = false;
 
-	            // descending sort
-	            mComparator.setDirection(SortDirection.FROM_BOTTOM);
-	            Collections.sort(mlistRect, mComparator);
-
 	            // check and move windows from boundary
 	            if (reArrangeWindowByBoundary(mlistRect)) { bArranged = true; }
 
-	            // check and move overlapped windows in descending list
+	            // stack overlapped windows upward, from the bottom one
 	            if (reArrangeWindowByIntersection(mlistRect, SortDirection.FROM_BOTTOM)) { bArranged = true; }
 
-	            // ascending sort
-	            mComparator.setDirection(SortDirection.FROM_TOP);
-	            Collections.sort(mlistRect, mComparator);
-
-	            // check and move windows from boundary
+	            // check and move windows pushed over the top from boundary
 	            if (reArrangeWindowByBoundary(mlistRect))
 	            {
-	                // check and move overlapped windows in ascending list
+	                // stack overlapped windows downward, from the top one
 	                reArrangeWindowByIntersection(mlistRect, SortDirection.FROM_TOP);
 	                bArranged = true;
 	            }
@@ -1020,9 +1557,10 @@ class CollisionRectHelper {
                 CollisionRect rcCheckingBoundary = list.get(i);
 
                 if (null != rcCheckingBoundary && CheckAndMoveRectFromBoundary(rcCheckingBoundary.rcRect)) {
-                    list.set(i, rcCheckingBoundary);
                     bOverBoundary = true;
-                    NexLog.d(LOG_TAG, "reArrangeWindowByBoundary id : " + rcCheckingBoundary.id + ", rect : " + rcCheckingBoundary.rcRect);
+                    if (NexLog.isLoggable(LOG_TAG, Log.DEBUG)) {
+                        NexLog.d(LOG_TAG, "reArrangeWindowByBoundary id : " + rcCheckingBoundary.id + ", rect : " + rcCheckingBoundary.rcRect);
+                    }
                 }
             }
         }
@@ -1030,19 +1568,46 @@ class CollisionRectHelper {
         return bOverBoundary;
     }
 
+    /*
+     * Sweeps the windows in the given direction and moves each one that overlaps the windows already placed
+     * to the nearest position where it overlaps none of them, so that no two windows overlap afterwards.
+     *
+     * Positions are taken along the direction of the stacking: y for FROM_BOTTOM and -y for FROM_TOP, so that
+     * windows always move toward smaller values.  Each window is checked against the placed windows it shares
+     * columns with, so that it is not pushed by the space a moved window used to take.  That is one sort of the
+     * placed windows per window, O(n^2 log n) for n windows, which stays small for the few windows of a caption
+     * (at most 8 in CEA 708).  The result only depends on the positions of the windows.
+     */
     private boolean reArrangeWindowByIntersection(ArrayList<CollisionRect> list, SortDirection eDefaultDirection) {
         boolean bReArrange = false;
 
-        if (null != list) {
+        if (null != list && 1 < list.size()) {
+            mComparator.setDirection(eDefaultDirection);
+            Collections.sort(list, mComparator);
+
+            boolean bUpward = SortDirection.FROM_BOTTOM == eDefaultDirection;
+
             for (int i = 0; i < list.size(); ++i) {
-                if (i < list.size() - 1) {
-                    CollisionRect rcFirst = list.get(i);
-                    CollisionRect rcSecond = list.get(i+1);
-
-                    if (checkAndMoveRectFromIntersect(rcFirst.rcRect, rcSecond.rcRect, eDefaultDirection)) {
-                        list.set(i+1, rcSecond);
-                        bReArrange = true;
-                        NexLog.d(LOG_TAG, "reArrangeWindowByIntersection rcFirst.rcRect : " + rcFirst.rcRect + ", rcSecond.rcRect : " + rcSecond.rcRect);
+                Rect rect = list.get(i).rcRect;
+                if (null == rect || rect.left >= rect.right) {
+                    continue;
+                }
+
+                int nStart = bUpward ? rect.top : -rect.bottom;
+                int nEnd = bUpward ? rect.bottom : -rect.top;
+                int nInterval = findFreeEnd(list, i, rect, nEnd, nEnd - nStart, bUpward) - nEnd;
+
+                if (0 != nInterval) {
+                    if (bUpward) {
+                        rect.top += nInterval;
+                        rect.bottom += nInterval;
+                    } else {
+                        rect.top -= nInterval;
+                        rect.bottom -= nInterval;
+                    }
+                    bReArrange = true;
+                    if (NexLog.isLoggable(LOG_TAG, Log.DEBUG)) {
+                        NexLog.d(LOG_TAG, "reArrangeWindowByIntersection id : " + list.get(i).id + ", rect : " + rect);
                     }
                 }
             }
@@ -1051,38 +1616,42 @@ class CollisionRectHelper {
         return bReArrange;
     }
 
-    private boolean checkAndMoveRectFromIntersect(Rect rcBase, Rect rcCompare, SortDirection eDirection) {
-        boolean bResult = false;
-
-        if (null != rcBase && null != rcCompare && null != mIntersect && null != mIntersectCompare) {
-            mIntersect.set(rcBase);
-            mIntersectCompare.set(rcCompare);
-
-            if (mIntersect.intersect(mIntersectCompare)) {
-                int nInterval = 0;
-                if (eDirection == SortDirection.FROM_BOTTOM) {
-                    if (rcCompare.bottom > rcBase.top) {
-                        nInterval = rcCompare.bottom - rcBase.top;
-                    } else {
-                        nInterval = rcCompare.height() + rcBase.top - rcCompare.top;
-                    }
-
-                    nInterval *= -1;
-                } else if (eDirection == SortDirection.FROM_TOP) {
-                    if (rcCompare.top > rcBase.bottom) {
-                        nInterval = rcBase.bottom - rcCompare.top;
-                    } else {
-                        nInterval = rcCompare.height() + rcBase.bottom - rcCompare.bottom;
-                    }
-                }
+    /*
+     * Returns the largest end, no larger than nEnd, at which a window of nHeight over the columns of rect
+     * overlaps none of the first nPlaced windows of the list.  Positions are along the direction of the stacking.
+     */
+    private int findFreeEnd(ArrayList<CollisionRect> list, int nPlaced, Rect rect, int nEnd, int nHeight, boolean bUpward) {
+        if (mPlacedSpans.length < nPlaced) {
+            mPlacedSpans = new long[nPlaced];
+        }
 
-                rcCompare.top += nInterval;
-                rcCompare.bottom += nInterval;
-                bResult = true;
+        // the spans of the placed windows in the same columns, the end in the high bits to sort by it.
+        int nSpans = 0;
+        for (int i = 0; i < nPlaced; ++i) {
+            Rect placed = list.get(i).rcRect;
+            if (null == placed || placed.left >= placed.right || placed.right <= rect.left || placed.left >= rect.right) {
+                continue;
+            }
+            int nPlacedStart = bUpward ? placed.top : -placed.bottom;
+            int nPlacedEnd = bUpward ? placed.bottom : -placed.top;
+            mPlacedSpans[nSpans++] = ((long) nPlacedEnd << 32) | (nPlacedStart & 0xFFFFFFFFL);
+        }
+        Arrays.sort(mPlacedSpans, 0, nSpans);
+
+        // from the span that ends last: a span that starts before the window moves the window before it, and
+        // once a span ends before the window starts, so do all the others.
+        for (int i = nSpans - 1; 0 <= i; --i) {
+            int nPlacedEnd = (int) (mPlacedSpans[i] >> 32);
+            int nPlacedStart = (int) mPlacedSpans[i];
+            if (nPlacedEnd <= nEnd - nHeight) {
+                break;
+            }
+            if (nPlacedStart < nEnd) {
+                nEnd = nPlacedStart;
             }
         }
 
-        return bResult;
+        return nEnd;
     }
 
     private boolean CheckAndMoveRectFromBoundary(Rect rcCompare) {
@@ -1236,6 +1805,112 @@ class NodeString {
     boolean mSubscript;
 }
 
+/**
+ * Assembles the NodeStrings of a caption for the extractors.
+ *
+ * The style of a node is two colors and a set of flags, so telling whether a character continues the current node
+ * is three int comparisons.  The text of a node is collected in a StringBuilder that is reused from node to node,
+ * and the String of a node is only created once the node is complete.
+ *
+ * A builder is reused by one extractor, and is not thread safe.
+ */
+class NodeStringBuilder {
+    static final int BOLD = 0x01;
+    static final int ITALIC = 0x02;
+    static final int UNDERLINE = 0x04;
+    static final int LINE_THROUGH = 0x08;
+    static final int OVERLINE = 0x10;
+    static final int SUPERSCRIPT = 0x20;
+    static final int SUBSCRIPT = 0x40;
+
+    private final StringBuilder mText = new StringBuilder();
+    private ArrayList<NodeString> mNodeStrings = null;
+
+    private boolean mHasNode = false;
+    private int mFontColor;
+    private int mBackgroundColor;
+    private int mFlags;
+
+    /**
+     * Appends a character to the current node if it has the same style, or else to a new node.
+     */
+    void append(char c, int fontColor, int backgroundColor, int flags) {
+        if (!mHasNode || fontColor != mFontColor || backgroundColor != mBackgroundColor || flags != mFlags) {
+            endNode();
+            startNode(fontColor, backgroundColor, flags);
+        }
+
+        mText.append(c);
+    }
+
+    /**
+     * Adds a node of its own, which is never merged with the nodes around it.
+     */
+    void appendNode(String text, int fontColor, int backgroundColor, int flags) {
+        endNode();
+        startNode(fontColor, backgroundColor, flags);
+
+        if (null != text) {
+            mText.append(text);
+        }
+
+        endNode();
+    }
+
+    /**
+     * Appends a line break to the current node, if any.
+     */
+    void appendLineBreak() {
+        if (mHasNode) {
+            mText.append("\r\n");
+        }
+    }
+
+    /**
+     * Returns the nodes appended since the last call, or \c null if there are none.
+     */
+    ArrayList<NodeString> build() {
+        endNode();
+
+        ArrayList<NodeString> nodeStrings = mNodeStrings;
+        mNodeStrings = null;
+        return nodeStrings;
+    }
+
+    private void startNode(int fontColor, int backgroundColor, int flags) {
+        mHasNode = true;
+        mFontColor = fontColor;
+        mBackgroundColor = backgroundColor;
+        mFlags = flags;
+    }
+
+    private void endNode() {
+        if (!mHasNode) {
+            return;
+        }
+
+        NodeString nodeString = new NodeString();
+        nodeString.mString = mText.toString();
+        nodeString.mFontColor = mFontColor;
+        nodeString.mBackgroundColor = mBackgroundColor;
+        nodeString.mBold = 0 != (mFlags & BOLD);
+        nodeString.mItalic = 0 != (mFlags & ITALIC);
+        nodeString.mUnderLine = 0 != (mFlags & UNDERLINE);
+        nodeString.mLineThrough = 0 != (mFlags & LINE_THROUGH);
+        nodeString.mOverLine = 0 != (mFlags & OVERLINE);
+        nodeString.mSuperscript = 0 != (mFlags & SUPERSCRIPT);
+        nodeString.mSubscript = 0 != (mFlags & SUBSCRIPT);
+
+        if (null == mNodeStrings) {
+            mNodeStrings = new ArrayList<NodeString>();
+        }
+        mNodeStrings.add(nodeString);
+
+        mText.setLength(0);
+        mHasNode = false;
+    }
+}
+
 class NexCaptionRenderingAttribute {
     int mStartTime;
     int mEndTime;
@@ -1251,6 +1926,16 @@ class NexCaptionRenderingAttribute {
 
     Bitmap mImage;
     ArrayList<NodeString> mStrings;
+    // built from mStrings before the caption is handed to the UI thread.
+    SpannableStringBuilder mText;
+    // mText with the settings of mPreparedSettings applied, which were current in mSettingsGeneration of the painter,
+    // and laid out for the view, or with a null layout when it had no width yet.
+    SpannableString mPreparedText;
+    Layout mPreparedLayout;
+    NexCaptionSetting mPreparedSettings;
+    int mSettingsGeneration;
+    // when the caption reached the painter, in System.nanoTime, or 0 once displayed.
+    long mArrivalTime;
 
     NexCaptionSetting mCaptionSettings;
 
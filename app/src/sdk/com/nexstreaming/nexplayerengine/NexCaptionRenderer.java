@@ -12,6 +12,7 @@ import android.graphics.Typeface;
 import android.os.Build;
 import android.os.Handler;
 import android.util.AttributeSet;
+import android.util.Log;
 import android.view.Gravity;
 import android.view.View;
 import android.view.ViewGroup;
@@ -64,7 +65,6 @@ public class NexCaptionRenderer extends View {
 	private int m_border_Y = 0;
 	
 	private NexClosedCaption m_Caption = null;
-	private Paint m_paint = null;
 	
 	private Handler m_handler = new Handler();
 
@@ -168,6 +168,10 @@ public class NexCaptionRenderer extends View {
 	{
 		m_Caption = caption;
 
+		if (null != caption) {
+			updateGrid(caption);
+		}
+
 		if (RENDER_MODE_CUSTOM == m_renderMode) {
 			mCaptionPainter.setDataSource(caption);
 		}
@@ -215,6 +219,7 @@ public class NexCaptionRenderer extends View {
 		m_Y = y;
 		m_Width = width;
 		m_Height = height;
+		m_layoutDirty = true;
 		
 		NexLog.d(TAG, "SetRenderArea : X = " + x + " Y = " + y + " W = " + width + " H = " + height);
 
@@ -237,6 +242,7 @@ public class NexCaptionRenderer extends View {
 		setStrokeWidth = 0.0f;
 		
 		setBold = false;
+		m_layoutDirty = true;
 		setShadow = false;		
 		setRaise = false;
 		setRaisedOpacity = 255;
@@ -274,6 +280,7 @@ public class NexCaptionRenderer extends View {
 		m_typeBoldItalic = null;
 		m_typeBold = null;
 		m_typeNormal = null;
+		m_layoutDirty = true;
 		
 		resetEdgeEffect();
 
@@ -289,8 +296,10 @@ public class NexCaptionRenderer extends View {
 	 */
 	public void makeBlankData()
 	{
-		if(null != m_Caption)
+		if(null != m_Caption) {
 			m_Caption.makeBlankData();
+			updateGrid(m_Caption);
+		}
 
 		mCaptionPainter.clear();
 	}
@@ -385,6 +394,7 @@ public class NexCaptionRenderer extends View {
 	public void setBold(boolean isBold)
 	{
 		setBold = isBold;
+		m_layoutDirty = true;
 
 		mCaptionSetting.mBold = isBold ? NexCaptionSetting.StringStyle.APPLY : NexCaptionSetting.StringStyle.REMOVE;
 		mCaptionPainter.setUserCaptionSettings(mCaptionSetting);
@@ -463,6 +473,7 @@ public class NexCaptionRenderer extends View {
 			m_typeNormal = normType;
 		if(italicType != null)
 			m_typeItalic = italicType;
+		m_layoutDirty = true;
 
 		mCaptionSetting.mFontFamily = normType;
 
@@ -708,6 +719,7 @@ public class NexCaptionRenderer extends View {
 	{
 		m_fontScale = scale;
 		m_fontSize = textSize;
+		m_layoutDirty = true;
 
 		mCaptionSetting.mFontSize = textSize;
 		mCaptionSetting.mFontScale = scale;
@@ -783,6 +795,7 @@ public class NexCaptionRenderer extends View {
      */
 	public void setM_border_X(int m_border_X) {
 		this.m_border_X = m_border_X;
+		m_layoutDirty = true;
 
 		mCaptionPainter.setRenderingArea(new Rect(m_X + m_border_X, m_Y + m_border_Y, m_X + m_Width - m_border_X, m_Y + m_Height - m_border_Y), 1);
 	}
@@ -809,6 +822,7 @@ public class NexCaptionRenderer extends View {
      */
 	public void setM_border_Y(int m_border_Y) {
 		this.m_border_Y = m_border_Y;
+		m_layoutDirty = true;
 
 		mCaptionPainter.setRenderingArea(new Rect(m_X + m_border_X, m_Y + m_border_Y, m_X + m_Width - m_border_X, m_Y + m_Height - m_border_Y), 1);
 	}
@@ -833,13 +847,46 @@ public class NexCaptionRenderer extends View {
 		mCaptionPainter.setUserCaptionSettings(mCaptionSetting);
 	}
 	
-	private class CC608_Info
+	private static final int GRID_COLUMNS = 32;
+	private static final int GRID_ROWS = 16;
+	// space between the text and the edge of a caption window.
+	private static final int WINDOW_PADDING = 10;
+	// space drawn around a glyph by the shadow, raised and depressed edge effects.
+	private static final int EDGE_EFFECT_PADDING = 10;
+	private static final int ROLL_UP_STEPS = 13;
+	private static final int ROLL_UP_STEP_TIME = 33;
+	private static final int FLASH_TIME = 200;
+	private static final float[] NO_EDGE_EFFECT_PARAM = {0.0f, 0.0f, 0.0f};
+
+	/*
+	 * Characters of a row that are next to each other and have the same attributes.  The position of each glyph and
+	 * the paint are computed when the layout is built, so drawing a run does not measure or allocate anything.
+	 */
+	private static class CaptionRun
 	{
 		int row;
-		int col;
-		String string;
-		Paint paint = new Paint();
-		Rect rect = new Rect();
+		boolean rolling;
+		int attr;
+		int fgColor;
+		int bgColor;
+		final char[] text = new char[GRID_COLUMNS];
+		// x and y of the baseline of each glyph, without the roll up offset.
+		final float[] pos = new float[GRID_COLUMNS*2];
+		int length;
+		int baseline;
+		// cells of the run, without the roll up offset.
+		final Rect rect = new Rect();
+		final Paint paint = new Paint();
+	}
+
+	// successive rows that have text and all roll up or all stay, drawn behind them with the window color.
+	private static class CaptionWindow
+	{
+		int left;
+		int right;
+		int topRow;
+		int bottomRow;
+		boolean rolling;
 	}
 
 	private int getColorFromCapColor(CaptionColor cColor, int cOpacity)
@@ -848,375 +895,422 @@ public class NexCaptionRenderer extends View {
 		return Color.argb(cOpacity, Color.red(setColor), Color.green(setColor), Color.blue(setColor));
 	}
 
-	Rect m_eachBoxRect = new Rect();
-	Rect m_textBoundsRect = new Rect();
-	Rect m_drawTextRect = new Rect();
-	Rect m_drawLineRect = new Rect();
-	ArrayList<Rect> windowRectList = new ArrayList<Rect>();
-	ArrayList<CC608_Info> captionInfo_default = new ArrayList<CC608_Info>();
-	Paint.FontMetricsInt fmi = new Paint.FontMetricsInt();
-	CC608_Info info = new CC608_Info();
-	Paint winPaint = new Paint();
-	
-	@Override
-	protected void onDraw(Canvas canvas) {
-		
-		if( m_paint == null ) {
-			m_paint = new Paint();
+	// copy of the grid of the last SetData, row ROLLED_OUT_ROW last.  The layout is built from it.
+	private final short[] m_gridCharcode = new short[GRID_ROWS * GRID_COLUMNS];
+	private final short[] m_gridAttr = new short[GRID_ROWS * GRID_COLUMNS];
+	private CaptionMode m_gridCaptionMode = null;
+	private int m_gridRollUpBase = 0;
+	private int m_gridRollUpRows = 0;
+	private boolean m_layoutDirty = true;
+
+	private final ArrayList<CaptionRun> m_runs = new ArrayList<CaptionRun>();
+	private int m_runCount = 0;
+	private final ArrayList<CaptionWindow> m_windows = new ArrayList<CaptionWindow>();
+	private int m_windowCount = 0;
+	private int m_blockHeight = 0;
+	// areas covered by the rows that roll up and by the flashing characters, over the whole animation.
+	private final Rect m_rollUpDirtyRect = new Rect();
+	private final Rect m_flashDirtyRect = new Rect();
+	// the rows of the roll up window, the rolling runs and windows are clipped to it.
+	private final Rect m_rollUpClipRect = new Rect();
+
+	private final Rect m_textBoundsRect = new Rect();
+	private final Rect m_drawRect = new Rect();
+	private final Paint.FontMetricsInt fmi = new Paint.FontMetricsInt();
+	private final Paint winPaint = new Paint();
+
+	private final Runnable m_rollUpInvalidator = new Runnable() {
+		@Override
+		public void run() {
+			if( m_renderMode == RENDER_MODE_BASIC )
+				invalidateCaptionRect(m_rollUpDirtyRect);
+			else
+				invalidate();
 		}
-		Paint p = m_paint;
-		p.reset();
-		p.setAntiAlias(true);
-		
-		if( m_Caption == null )
-			return;
-		
-		windowRectList.clear();
-		
-		int winLeft = -1;
-		int winTop = -1;
-		int winRight = -1;
-		int winBottom = -1;		
-		
-		boolean isSameWindow = false;
-		boolean isEmptyLine;
-		boolean isAboveLineExists = false;
-		
+	};
+
+	private final Runnable m_flashInvalidator = new Runnable() {
+		@Override
+		public void run() {
+			invalidateCaptionRect(m_flashDirtyRect);
+		}
+	};
+
+	private void updateGrid(NexClosedCaption caption)
+	{
+		synchronized (m_gridCharcode) {
+			boolean changed = caption.copyGridIfChanged(m_gridCharcode, m_gridAttr);
+			if( changed || m_gridCaptionMode != caption.getCaptionMode() || m_gridRollUpBase != caption.getRollUpBaseRow()
+					|| m_gridRollUpRows != caption.getRollUpNumRows() ) {
+				m_gridCaptionMode = caption.getCaptionMode();
+				m_gridRollUpBase = caption.getRollUpBaseRow();
+				m_gridRollUpRows = caption.getRollUpNumRows();
+				m_layoutDirty = true;
+			}
+		}
+	}
+
+	private void buildLayout()
+	{
+		m_runCount = 0;
+		m_windowCount = 0;
+		m_rollUpDirtyRect.setEmpty();
+		m_flashDirtyRect.setEmpty();
+		m_rollUpClipRect.setEmpty();
+
 		int width = m_Width - (m_border_X*2);
 		int height = m_Height - (m_border_Y*2);
-		int block_width = width/32;
-		int block_height = height/16;
-		
-		boolean isFlash = false;
-		long uptime = System.currentTimeMillis();
-		boolean flashStateOn = (uptime % 400 < 200);
-		
-		long rollupTime = m_Caption.getRollUpElapsedTime();
-		int rollUpProgress = (int)Math.min(13,rollupTime/33);
-		int redrawTime = 0;
-		int rollUpRows = m_Caption.getRollUpNumRows();
-		int rollUpBase = m_Caption.getRollUpBaseRow();
-		
-		int row;
-		int rollUpOffset;
-		boolean bSavedState;
+		int block_width = width/GRID_COLUMNS;
+		int block_height = height/GRID_ROWS;
+		int originX = m_X + m_border_X;
+		int originY = m_Y + m_border_Y;
+		m_blockHeight = block_height;
+
+		float textSize;
+		if(m_fontSize > 0.0)
+		{
+			if(m_fontScale > 0.0)
+				textSize = m_fontSize*m_fontScale;
+			else
+				textSize = m_fontSize;
+		}
+		else
+		{
+			if((block_width*2) >= block_height)
+				textSize = block_height*4/5;
+			else
+				textSize = block_width;
+		}
 
-		if(m_renderMode == RENDER_MODE_BASIC)
+		boolean isRollUp = m_gridCaptionMode == CaptionMode.RollUp && m_gridRollUpRows > 0;
+		CaptionWindow window = null;
+		if( isRollUp ) {
+			// the rolled out row leaves and the new bottom row enters the roll up window, nothing is drawn outside it.
+			int top = ((m_gridRollUpBase-m_gridRollUpRows+1)*block_height) + originY;
+			m_rollUpClipRect.set(originX, top, originX + width, top + (m_gridRollUpRows*block_height));
+		}
+
+		for(int row = isRollUp ? NexClosedCaption.ROLLED_OUT_ROW : 0; row < 15; row++)
 		{
-			CaptionColor bgColor;
-			captionInfo_default.clear();
-			
-			for(int rowcount=-1;rowcount<15;rowcount++)
+			boolean rolling = isRollUp && (row == NexClosedCaption.ROLLED_OUT_ROW || (row > m_gridRollUpBase - m_gridRollUpRows && row <= m_gridRollUpBase));
+			int index = (row == NexClosedCaption.ROLLED_OUT_ROW ? 15 : row) * GRID_COLUMNS;
+			int top = (block_height*row) + originY;
+			int firstRun = m_runCount;
+			CaptionRun run = null;
+
+			for(int col=0;col<GRID_COLUMNS;col++)
 			{
-				row = rowcount;
-				
-				if( m_Caption.getCaptionMode() == CaptionMode.RollUp && rollUpRows > 0 && (row==-1 || (row > rollUpBase - rollUpRows && row <= rollUpBase)) ) 
-				{
-					row = row==-1?NexClosedCaption.ROLLED_OUT_ROW:row;
-					rollUpOffset = block_height - (block_height * rollUpProgress / 13 );
-					canvas.save();
-					int originx = m_border_X + m_X;
-					int originy = (rollUpBase-rollUpRows+1)*block_height + m_border_Y + m_Y;
-					canvas.clipRect(originx, originy, originx+width, originy + (rollUpRows * block_height));
-					bSavedState = true;
-				}
-				else if( row == -1 ) 
-				{
+				char charCode = (char)m_gridCharcode[index + col];
+				if( charCode == 0 ) {
+					run = null;
 					continue;
 				}
-				else
-				{
-					bSavedState = false;
-					rollUpOffset = 0;
+
+				int left = (block_width*col) + originX;
+				int attr = m_gridAttr[index + col] & ~NexClosedCaption.CHARATTR_CHARSET_MASK;
+				if( run == null || run.attr != attr ) {
+					run = obtainRun();
+					run.row = row;
+					run.rolling = rolling;
+					run.attr = attr;
+					run.length = 0;
+					run.rect.set(left, top, left, top + block_height);
+					setRunPaint(run.paint, attr, textSize);
+					run.paint.getFontMetricsInt(fmi);
+					run.baseline = top + (block_height - fmi.ascent)/2 - fmi.descent/2;
+					run.fgColor = CaptionColor.fromValue((attr >> 4) & 0xF).getFGColor();
+					if( (attr & NexClosedCaption.CHARATTR_DRAW_BG) != 0 ) {
+						int bgColor = CaptionColor.fromValue((attr >> 8) & 0xF).getBGColor();
+						run.bgColor = Color.argb(255, Color.red(bgColor), Color.green(bgColor), Color.blue(bgColor));
+					} else {
+						run.bgColor = Color.TRANSPARENT;
+					}
 				}
-				
-				isEmptyLine = true;
-				
-				for(int col=0;col<32;col++)
-				{						
-					m_eachBoxRect.left = (block_width*(col))+m_border_X + m_X;
-					m_eachBoxRect.right = (block_width*(col+1))+m_border_X + m_X;
-					m_eachBoxRect.top = (block_height*(row))+m_border_Y + m_Y + rollUpOffset;
-					m_eachBoxRect.bottom = (block_height*(row+1))+m_border_Y + m_Y + rollUpOffset;
-					
-					char charCode = m_Caption.getCharCode(row, col);
-					if( charCode != 0 ) {
-						
-						isEmptyLine = false;
-						isAboveLineExists = true;
-
-						NexLog.d(TAG, "CEA608 caption charcode (" + charCode + ") on row: " + row + " / col: " + col);
-						
-						if(!isSameWindow)
-						{
-							isSameWindow = true;
-							if(winLeft == -1 || m_eachBoxRect.left < winLeft)
-								winLeft = m_eachBoxRect.left - 10;
-							
-							if(winTop == -1)
-								winTop = m_eachBoxRect.top - 10;
-							
-							if(col == 31)
-							{
-								winRight = m_eachBoxRect.right + 10;
-								winBottom = m_eachBoxRect.bottom + 10;
-								isSameWindow = false;
-							}
-						}
-						
-						else
-						{
-							if(winLeft == -1 || m_eachBoxRect.left < winLeft)
-								winLeft = m_eachBoxRect.left - 10;
-							
-							if(col == 31)
-							{
-								winRight = m_eachBoxRect.right + 10;
-								winBottom = m_eachBoxRect.bottom + 10;
-								isSameWindow = false;
-							}
-						}
 
-						p.setTextScaleX(0.9f);
-						
-						if(m_fontSize > 0.0)
-						{
-							if(m_fontScale > 0.0)
-								p.setTextSize(m_fontSize*m_fontScale);
-							else
-								p.setTextSize(m_fontSize);
-						}
-						else
-						{
-							if((m_eachBoxRect.width()*2) >= m_eachBoxRect.height())
-								p.setTextSize(m_eachBoxRect.height()*4/5);
-							else
-								p.setTextSize(m_eachBoxRect.width());
-						}
+				run.text[run.length] = charCode;
+				run.paint.getTextBounds(run.text, run.length, 1, m_textBoundsRect);
+				run.pos[run.length*2] = left + (block_width - m_textBoundsRect.width())/2;
+				run.pos[run.length*2 + 1] = run.baseline;
+				run.length++;
+				run.rect.right = left + block_width;
+			}
 
-						p.setTextSkewX(0.0f);
-						if(m_Caption.isItalic(row, col))
-						{
-							if(m_Caption.isLarge(row, col))
-							{
-								p.setTypeface(Typeface.defaultFromStyle(Typeface.BOLD_ITALIC));
-								p.setTextSkewX(-0.25f);
-							}
-							else
-							{
-								p.setTypeface(Typeface.defaultFromStyle(Typeface.ITALIC));
-								p.setTextSkewX(-0.25f);
-							}
-						}
-						else
-						{
-							if(m_Caption.isLarge(row, col))							
-								p.setTypeface(Typeface.defaultFromStyle(Typeface.BOLD));
-							else
-								p.setTypeface(Typeface.defaultFromStyle(Typeface.NORMAL));
-						}
-						
-						if(m_typeNormal != null)
-						{
-							p.setTypeface(m_typeNormal);
-						}
-						if(m_typeBold != null)
-						{
-							p.setFakeBoldText(true);
-							p.setTypeface(m_typeBold);
-						}
-						if(m_typeItalic != null)
-						{
-							p.setTextSkewX(-0.25f);
-							p.setTypeface(m_typeItalic);
-						}
-						if(m_typeBoldItalic != null)
-						{
-							p.setFakeBoldText(true);
-							p.setTextSkewX(-0.25f);
-							p.setTypeface(m_typeBoldItalic);
-						}
+			if( firstRun == m_runCount ) {
+				window = null;
+				continue;
+			}
 
-						if( m_Caption.isFlashing(row, col) && !m_isOffFlashing) {
-							isFlash = true;
-							if( !flashStateOn )
-								continue;
-						}
+			for(int i = firstRun; i < m_runCount; i++)
+			{
+				run = m_runs.get(i);
+				if( rolling )
+					addDirtyRect(m_rollUpDirtyRect, run.rect, block_height);
+				if( (run.attr & NexClosedCaption.CHARATTR_FLASH) != 0 )
+					addDirtyRect(m_flashDirtyRect, run.rect, rolling ? block_height : 0);
+			}
 
-						if(setBold)
-						{
-							p.setTypeface(m_typeBold);
-						}
+			if( window == null || window.rolling != rolling ) {
+				// the rolling rows are clipped to the roll up window, so they do not share a window with other rows.
+				window = obtainWindow();
+				window.left = m_runs.get(firstRun).rect.left - WINDOW_PADDING;
+				window.right = m_runs.get(m_runCount - 1).rect.right + WINDOW_PADDING;
+				window.topRow = row;
+				window.rolling = rolling;
+			} else {
+				window.left = Math.min(window.left, m_runs.get(firstRun).rect.left - WINDOW_PADDING);
+				window.right = Math.max(window.right, m_runs.get(m_runCount - 1).rect.right + WINDOW_PADDING);
+			}
+			window.bottomRow = row;
+		}
 
-						CC608_Info info = new CC608_Info();
-						info.col = col;
-						info.row = row;
-						info.string = new String(new char[]{charCode});
-						info.rect.set(m_eachBoxRect);
-						info.paint.set(p);// = p;
-						
-						captionInfo_default.add(info);
-					}
-					else
-					{
-						if(isSameWindow)
-						{
-							isSameWindow = false;
-							if(winRight < m_eachBoxRect.right)
-								winRight = m_eachBoxRect.right - block_width + 10;
-							
-							winBottom = m_eachBoxRect.bottom + 10;
+		for(int i = 0; i < m_windowCount; i++)
+		{
+			CaptionWindow win = m_windows.get(i);
+			if( win.rolling ) {
+				getWindowRect(win, 0, m_drawRect);
+				addDirtyRect(m_rollUpDirtyRect, m_drawRect, block_height);
+			}
+		}
+		if( !m_rollUpDirtyRect.intersect(m_rollUpClipRect) )
+			m_rollUpDirtyRect.setEmpty();
 
-						}
-					}
-				}
+		if( NexLog.isLoggable(TAG, Log.DEBUG) )
+			NexLog.d(TAG, "CEA608 caption layout: " + m_runCount + " runs, " + m_windowCount + " windows");
+	}
 
-				if((isAboveLineExists && isEmptyLine) || (isAboveLineExists && row == 14))
-				{
-					//get window area					
-					Rect winRectItem = new Rect();						
-					winRectItem.set(winLeft, winTop, winRight, winBottom);
-					windowRectList.add(winRectItem);
-					
-					winLeft = -1;
-					winTop = -1;
-					winRight = -1;
-					winBottom = -1;
-						
-					isAboveLineExists = false;
-				}
-				
-				if( bSavedState )
-					canvas.restore();
-			}
-			
-			for(int i = 0; i < windowRectList.size(); i++)
-			{	
-				if(setWindowColor != null)
-				{
-					int set_color = setWindowColor.getFGColor();
-					int setColor = Color.argb(setWindowOpacity, Color.red(set_color), Color.green(set_color), Color.blue(set_color));
-					winPaint.setColor(setColor);
-					canvas.drawRect(windowRectList.get(i), winPaint);
+	private CaptionRun obtainRun()
+	{
+		if( m_runCount == m_runs.size() )
+			m_runs.add(new CaptionRun());
+		return m_runs.get(m_runCount++);
+	}
+
+	private CaptionWindow obtainWindow()
+	{
+		if( m_windowCount == m_windows.size() )
+			m_windows.add(new CaptionWindow());
+		return m_windows.get(m_windowCount++);
+	}
+
+	// adds rect and rect moved down by offset to dirtyRect.
+	private static void addDirtyRect(Rect dirtyRect, Rect rect, int offset)
+	{
+		dirtyRect.union(rect.left, rect.top, rect.right, rect.bottom + offset);
+	}
+
+	private void getWindowRect(CaptionWindow win, int rollUpOffset, Rect outRect)
+	{
+		int originY = m_Y + m_border_Y;
+		outRect.left = win.left;
+		outRect.right = win.right;
+		int offset = win.rolling ? rollUpOffset : 0;
+		outRect.top = (m_blockHeight*win.topRow) + originY - WINDOW_PADDING + offset;
+		outRect.bottom = (m_blockHeight*(win.bottomRow+1)) + originY + WINDOW_PADDING + offset;
+	}
+
+	private void invalidateCaptionRect(Rect rect)
+	{
+		if( rect.isEmpty() )
+			return;
+		int margin = EDGE_EFFECT_PADDING + (int)Math.ceil(setStrokeWidth);
+		invalidate(rect.left - margin, rect.top - margin, rect.right + margin, rect.bottom + margin);
+	}
+
+	private void setRunPaint(Paint p, int attr, float textSize)
+	{
+		boolean isItalic = (attr & NexClosedCaption.CHARATTR_ITALIC) != 0;
+		boolean isLarge = (attr & NexClosedCaption.CHARATTR_LARGE) != 0;
+
+		p.reset();
+		p.setAntiAlias(true);
+		p.setTextScaleX(0.9f);
+		p.setTextSize(textSize);
+
+		p.setTextSkewX(0.0f);
+		if(isItalic)
+		{
+			p.setTypeface(Typeface.defaultFromStyle(isLarge ? Typeface.BOLD_ITALIC : Typeface.ITALIC));
+			p.setTextSkewX(-0.25f);
+		}
+		else
+		{
+			p.setTypeface(Typeface.defaultFromStyle(isLarge ? Typeface.BOLD : Typeface.NORMAL));
+		}
+
+		if(m_typeNormal != null)
+		{
+			p.setTypeface(m_typeNormal);
+		}
+		if(m_typeBold != null)
+		{
+			p.setFakeBoldText(true);
+			p.setTypeface(m_typeBold);
+		}
+		if(m_typeItalic != null)
+		{
+			p.setTextSkewX(-0.25f);
+			p.setTypeface(m_typeItalic);
+		}
+		if(m_typeBoldItalic != null)
+		{
+			p.setFakeBoldText(true);
+			p.setTextSkewX(-0.25f);
+			p.setTypeface(m_typeBoldItalic);
+		}
+
+		if(setBold)
+		{
+			p.setTypeface(m_typeBold);
+		}
+	}
+
+	@Override
+	protected void onDraw(Canvas canvas) {
+
+		if( m_Caption == null )
+			return;
+
+		boolean isFlash = false;
+		long uptime = System.currentTimeMillis();
+		boolean flashStateOn = (uptime % (FLASH_TIME*2) < FLASH_TIME);
+
+		long rollupTime = m_Caption.getRollUpElapsedTime();
+		int rollUpProgress = (int)Math.min(ROLL_UP_STEPS,rollupTime/ROLL_UP_STEP_TIME);
+		int rollUpRows = m_Caption.getRollUpNumRows();
+
+		if(m_renderMode == RENDER_MODE_BASIC)
+		{
+			synchronized (m_gridCharcode) {
+				if( m_layoutDirty ) {
+					buildLayout();
+					m_layoutDirty = false;
 				}
 			}
-			
-			for(int a = 0; a < captionInfo_default.size(); a++)
-			{
-				CC608_Info cc_info = captionInfo_default.get(a);
-				cc_info.paint.set(captionInfo_default.get(a).paint);
-				NexLog.d(TAG, "GET CAPTION FROM ARRAYLIST");
-				bgColor = m_Caption.getBGColor(cc_info.row, cc_info.col);
-				final CaptionColor fgColor = m_Caption.getFGColor(cc_info.row, cc_info.col);
-
-				cc_info.paint.setStyle(Style.FILL);
-				if(setBgColor != null)
-				{
-					int set_color = setBgColor.getFGColor();
-					int setColor = Color.argb(setBgOpacity, Color.red(set_color), Color.green(set_color), Color.blue(set_color));
-					cc_info.paint.setColor(setColor);
-					canvas.drawRect(cc_info.rect, cc_info.paint);
-				}
-				else if(CaptionColor.TRANSPARENT != bgColor)
-				{
-					int set_color = bgColor.getBGColor();
-					int setColor = Color.argb(255, Color.red(set_color), Color.green(set_color), Color.blue(set_color));
-					cc_info.paint.setColor(setColor);
-					canvas.drawRect(cc_info.rect, cc_info.paint);
-				}
-				
-				if(m_Caption.isUnderline(cc_info.row, cc_info.col) && !m_isOffUnderline)
-				{
-					if(fgColor != null) {
-						cc_info.paint.setColor(fgColor.getFGColor());
-					}
-					if(setFgColor != null)
-					{
-						int set_color = setFgColor.getFGColor();
-						int setColor = Color.argb(setFgOpacity, Color.red(set_color), Color.green(set_color), Color.blue(set_color));
-						cc_info.paint.setColor(setColor);
-					}
 
-					m_drawLineRect.set(cc_info.rect);
-					m_drawLineRect.bottom -= 5;
+			int rollUpOffset = m_blockHeight - (m_blockHeight * rollUpProgress / ROLL_UP_STEPS);
+			boolean hasRollUp = !m_rollUpClipRect.isEmpty();
 
-					canvas.drawLine(m_drawLineRect.left, m_drawLineRect.bottom, m_drawLineRect.right, m_drawLineRect.bottom, cc_info.paint);
-				}
-				
-				//set fg
-				if(fgColor != null) {
-					cc_info.paint.setColor(fgColor.getFGColor());
-				}
-				if(setFgColor != null)
-				{
-					int fg_color = Color.argb(setFgOpacity, Color.red(setFgColor.getFGColor()), Color.green(setFgColor.getFGColor()), Color.blue(setFgColor.getFGColor()));
-					cc_info.paint.setColor(fg_color);
+			if(setWindowColor != null)
+			{
+				winPaint.setColor(getColorFromCapColor(setWindowColor, setWindowOpacity));
+				drawWindows(canvas, false, 0);
+				if( hasRollUp ) {
+					canvas.save();
+					canvas.clipRect(m_rollUpClipRect);
+					drawWindows(canvas, true, rollUpOffset);
+					canvas.restore();
 				}
-				
-				cc_info.paint.setStyle(Paint.Style.FILL);
+			}
 
-				setDrawTextRect(cc_info.paint, cc_info.rect, m_drawTextRect, cc_info.string);
-				applyEdgeEffect(canvas, cc_info.paint, m_drawTextRect, cc_info.string);
-				drawTextOnCanvas(canvas, cc_info.paint, m_drawTextRect, cc_info.string);
+			isFlash = drawRuns(canvas, false, 0, flashStateOn);
+			if( hasRollUp ) {
+				canvas.save();
+				canvas.clipRect(m_rollUpClipRect);
+				isFlash |= drawRuns(canvas, true, rollUpOffset, flashStateOn);
+				canvas.restore();
 			}
 		}
 		else if(m_renderMode == RENDER_MODE_CUSTOM) {
 			mCaptionPainter.draw(canvas);
 		}
-		
+
 		if( isFlash ) {
-			int flashTime = 200-(int)(uptime%200);
-			if( flashTime < redrawTime || redrawTime == 0 )
-				redrawTime = flashTime;
+			m_handler.removeCallbacks(m_flashInvalidator);
+			m_handler.postDelayed(m_flashInvalidator, FLASH_TIME-(int)(uptime%FLASH_TIME));
 		}
-		
-		if( rollUpRows>0 && rollUpProgress < 13 && (redrawTime==0||redrawTime<33) )
-			redrawTime=33;
-		
-		if( redrawTime > 0 ) {
-			m_handler.postDelayed(new Runnable() {
-				
-				@Override
-				public void run() {
-					NexCaptionRenderer.this.invalidate();
-				}
-			}, redrawTime);
+
+		if( rollUpRows>0 && rollUpProgress < ROLL_UP_STEPS && (m_renderMode != RENDER_MODE_BASIC || !m_rollUpDirtyRect.isEmpty()) ) {
+			m_handler.removeCallbacks(m_rollUpInvalidator);
+			m_handler.postDelayed(m_rollUpInvalidator, ROLL_UP_STEP_TIME);
 		}
 	}
 
-	private int getStringHeight(Paint paint, float lineSpaceRate) { return (int)((Math.abs(paint.descent()) + Math.abs(paint.ascent()) * lineSpaceRate/100.0f)); }
+	private void drawWindows(Canvas canvas, boolean rolling, int offset)
+	{
+		for(int i = 0; i < m_windowCount; i++)
+		{
+			CaptionWindow win = m_windows.get(i);
+			if( win.rolling != rolling )
+				continue;
+			getWindowRect(win, offset, m_drawRect);
+			canvas.drawRect(m_drawRect, winPaint);
+		}
+	}
 
-	private void setDrawTextRect(Paint paint, Rect inRect, Rect outRect, String sText)
+	// draws the runs that roll up, or the others, and returns true if some of them flash.
+	private boolean drawRuns(Canvas canvas, boolean rolling, int offset, boolean flashStateOn)
 	{
-		paint.getTextBounds(sText, 0, 1, m_textBoundsRect);
-		paint.getFontMetricsInt(fmi);
+		boolean isFlash = false;
+		int margin = EDGE_EFFECT_PADDING + (int)Math.ceil(setStrokeWidth);
+
+		for(int i = 0; i < m_runCount; i++)
+		{
+			CaptionRun run = m_runs.get(i);
+			if( run.rolling != rolling )
+				continue;
+
+			if( (run.attr & NexClosedCaption.CHARATTR_FLASH) != 0 && !m_isOffFlashing ) {
+				isFlash = true;
+				if( !flashStateOn )
+					continue;
+			}
+
+			if( canvas.quickReject(run.rect.left - margin, run.rect.top + offset - margin,
+					run.rect.right + margin, run.rect.bottom + offset + margin, Canvas.EdgeType.AA) )
+				continue;
 
-		outRect.set(inRect);
-		outRect.left =  inRect.left + (inRect.width() - m_textBoundsRect.width())/2;
-		outRect.top = inRect.top + (inRect.height() - fmi.ascent)/2 - fmi.descent/2;
+			drawRun(canvas, run, offset);
+		}
+		return isFlash;
 	}
 
-	private void drawTextOnCanvas(Canvas canvas, Paint paint, Rect rect, String sText)
+	private void drawRun(Canvas canvas, CaptionRun run, int offset)
 	{
-		if (RENDER_MODE_BASIC == m_renderMode)
+		Paint paint = run.paint;
+		paint.setStyle(Style.FILL);
+		paint.setStrokeWidth(0.0f);
+		paint.clearShadowLayer();
+
+		m_drawRect.set(run.rect);
+		m_drawRect.offset(0, offset);
+
+		if(setBgColor != null)
 		{
-			canvas.drawText(sText, 0, sText.length(), rect.left, rect.top, paint);
+			paint.setColor(getColorFromCapColor(setBgColor, setBgOpacity));
+			canvas.drawRect(m_drawRect, paint);
 		}
-		else
+		else if(run.bgColor != Color.TRANSPARENT)
 		{
-			int offsetYPos = 0;
-			for (String line : sText.split("\n"))
-			{
-				offsetYPos += getStringHeight(paint, m_lineSpaceRate);
-				int rectTop = rect.top - (int)paint.descent() + offsetYPos;
-				canvas.drawText(line, 0, line.length(), rect.left, rectTop, paint);
-			}
+			paint.setColor(run.bgColor);
+			canvas.drawRect(m_drawRect, paint);
+		}
+
+		int fgColor = setFgColor != null ? getColorFromCapColor(setFgColor, setFgOpacity) : run.fgColor;
+		paint.setColor(fgColor);
+
+		if((run.attr & NexClosedCaption.CHARATTR_UNDERLINE) != 0 && !m_isOffUnderline)
+		{
+			canvas.drawLine(m_drawRect.left, m_drawRect.bottom - 5, m_drawRect.right, m_drawRect.bottom - 5, paint);
 		}
+
+		applyEdgeEffect(canvas, paint, run, offset);
+		drawRunText(canvas, paint, run, offset);
+	}
+
+	// every glyph is centered in its cell, so the run is drawn at the positions measured by buildLayout in one call.
+	@SuppressWarnings("deprecation")
+	private void drawRunText(Canvas canvas, Paint paint, CaptionRun run, int offset)
+	{
+		if( offset != 0 )
+			canvas.translate(0, offset);
+		canvas.drawPosText(run.text, 0, run.length, run.pos, paint);
+		if( offset != 0 )
+			canvas.translate(0, -offset);
 	}
 
-	private void applyEdgeEffect(Canvas canvas, Paint paint, Rect rect, String sText)
+	private void applyEdgeEffect(Canvas canvas, Paint paint, CaptionRun run, int offset)
 	{
-		float[] EdgeEffectParams = {0.0f, 0.0f, 0.0f};
+		float[] EdgeEffectParams = NO_EDGE_EFFECT_PARAM;
 		int edgeColor = Color.BLACK;
 
 		if (setShadow)
@@ -1248,7 +1342,7 @@ public class NexCaptionRenderer extends View {
 		}
 		else if(setUniform || (setStrokeColor != null))
 		{
-			drawTextOnCanvas(canvas, paint, rect, sText);
+			drawRunText(canvas, paint, run, offset);
 
 			float nStrokeWidth = 1.0f;
 			paint.setStyle(Paint.Style.STROKE);
@@ -1278,6 +1372,21 @@ class NexCEA608CaptionExtractor extends NexCaptionExtractor implements CaptionEx
 
 	private Rect mRenderingArea = new Rect();
 
+	// the attributes that make a node, the flashing and the character set are ignored.
+	private static final int STYLE_ATTR_MASK = NexClosedCaption.CHARATTR_LARGE | NexClosedCaption.CHARATTR_FG_MASK | NexClosedCaption.CHARATTR_BG_MASK
+			| NexClosedCaption.CHARATTR_ITALIC | NexClosedCaption.CHARATTR_UNDERLINE | NexClosedCaption.CHARATTR_DRAW_BG;
+	// CaptionColor.getFGColor() by color value, without the search of CaptionColor.fromValue().
+	private static final int[] COLORS = new int[16];
+	static {
+		for (CaptionColor color : CaptionColor.values()) {
+			if (color.getValue() < COLORS.length) {
+				COLORS[color.getValue()] = color.getFGColor();
+			}
+		}
+	}
+
+	private final NodeStringBuilder mNodeStringBuilder = new NodeStringBuilder();
+
 	NexCEA608CaptionExtractor() {
 	}
 
@@ -1373,22 +1482,25 @@ class NexCEA608CaptionExtractor extends NexCaptionExtractor implements CaptionEx
 	}
 
 	private ArrayList<NodeString> getNodeString(NexClosedCaption data) {
-		ArrayList<NodeString> nodeStrings = null;
-		NodeString nodeString = null;
+		boolean hasNodeString = false;
 
 		mX = mY = 0;
 
 		if (null != data) {
 			boolean shouldLinePeed = false;
 			int prevFirstCharInColumn = 0;
+			int prevAttr = -1;
+			int fontColor = 0;
+			int backgroundColor = 0;
+			int flags = 0;
 			for (int row = mCurRow; row < 15; ++row) {
 				boolean emptyLine = true;
 				int firstCharInColumn = 0;
 				for (int col = 0; col < 32; ++col) {
 					char c = data.getCharCode(row, col);
 					if (0 != c) {
-						if (null == nodeStrings) {
-							nodeStrings = new ArrayList<NodeString>();
+						if (!hasNodeString) {
+							hasNodeString = true;
 							mY = row;
 						}
 
@@ -1397,24 +1509,27 @@ class NexCEA608CaptionExtractor extends NexCaptionExtractor implements CaptionEx
 						}
 
 						if (shouldLinePeed) {
-							if (nodeString != null) {
-								nodeString.mString += "\r\n";
-							}
-
+							mNodeStringBuilder.appendLineBreak();
 							shouldLinePeed = false;
 						}
 
-						if (null == nodeString) {
-							nodeString = makeNodeString(data, row, col);
-						} else {
-							if (shouldCreateNodeString(nodeString, data, row, col)) {
-								nodeStrings.add(nodeString);
-								nodeString = makeNodeString(data, row, col);
-							} else {
-								nodeString.mString += Character.toString(c);
-							}
+						int attr = data.getCharAttr(row, col) & STYLE_ATTR_MASK;
+						if (0 == (attr & NexClosedCaption.CHARATTR_DRAW_BG)) {
+							attr &= ~NexClosedCaption.CHARATTR_BG_MASK;
+						}
+
+						if (attr != prevAttr) {
+							fontColor = replaceMappedFontColors(COLORS[(attr & NexClosedCaption.CHARATTR_FG_MASK) >> 4]);
+							backgroundColor = 0 != (attr & NexClosedCaption.CHARATTR_DRAW_BG)
+									? COLORS[(attr & NexClosedCaption.CHARATTR_BG_MASK) >> 8] : CaptionColor.TRANSPARENT.getFGColor();
+							flags = (0 != (attr & NexClosedCaption.CHARATTR_LARGE) ? NodeStringBuilder.BOLD : 0)
+									| (0 != (attr & NexClosedCaption.CHARATTR_ITALIC) ? NodeStringBuilder.ITALIC : 0)
+									| (0 != (attr & NexClosedCaption.CHARATTR_UNDERLINE) ? NodeStringBuilder.UNDERLINE : 0);
+							prevAttr = attr;
 						}
 
+						mNodeStringBuilder.append(c, fontColor, backgroundColor, flags);
+
 						emptyLine = false;
 					}
 				}
@@ -1431,45 +1546,13 @@ class NexCEA608CaptionExtractor extends NexCaptionExtractor implements CaptionEx
 					}
 
 				} else {
-					if (null != nodeString) {
+					if (hasNodeString) {
 						break;
 					}
 				}
 			}
-
-			if (null != nodeString) {
-				nodeStrings.add(nodeString);
-			}
-		}
-
-		return nodeStrings;
-	}
-
-	private NodeString makeNodeString(NexClosedCaption data, int row, int col) {
-		NodeString nodeString = new NodeString();
-		nodeString.mString = Character.toString(data.getCharCode(row, col));
-		nodeString.mBold = data.isLarge(row, col);
-		nodeString.mItalic = data.isItalic(row, col);
-		nodeString.mUnderLine = data.isUnderline(row, col);
-		nodeString.mFontColor = replaceMappedFontColors(data.getFGColor(row, col).getFGColor());
-		nodeString.mBackgroundColor = data.getBGColor(row, col).getFGColor();
-		return nodeString;
-	}
-
-	private boolean shouldCreateNodeString(NodeString nodeString, NexClosedCaption data, int row, int col) {
-		boolean shouldCreateNode = false;
-		if (nodeString.mUnderLine != data.isUnderline(row, col)) {
-			shouldCreateNode = true;
-		} else if (nodeString.mBold != data.isLarge(row, col)) {
-			shouldCreateNode = true;
-		} else if (nodeString.mItalic != data.isItalic(row, col)) {
-			shouldCreateNode = true;
-		} else if (nodeString.mFontColor != replaceMappedFontColors(data.getFGColor(row, col).getFGColor())) {
-			shouldCreateNode = true;
-		} else if (nodeString.mBackgroundColor != data.getBGColor(row, col).getFGColor()) {
-			shouldCreateNode = true;
 		}
 
-		return shouldCreateNode;
+		return mNodeStringBuilder.build();
 	}
 }
\ No newline at end of file
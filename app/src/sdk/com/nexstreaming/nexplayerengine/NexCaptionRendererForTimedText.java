@@ -32,6 +32,8 @@ import com.nexstreaming.nexplayerengine.NexClosedCaption.CaptionColor;
 
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * \brief  This class defines the renderer view for CFF and 3GPP timed text subtitles in content and displays them.
@@ -1102,13 +1104,64 @@ public class NexCaptionRendererForTimedText extends View {
 }
 
 class NexTTMLExtractor extends NexCaptionExtractor {
+	private static final int MAX_RESOLVED_STYLES = 64;
+	private static final int MAX_DECODED_IMAGES = 8;
+
 	private Rect mRenderingArea = new Rect(0,0,0,0);
 	private float mRenderingScale = 1.0f;
+	private final NodeStringBuilder mNodeStringBuilder = new NodeStringBuilder();
+
+	// the styles and regions resolved for mResolvedArea and mResolvedScale, keyed by the style values of the cue.
+	private final LinkedHashMap<String, ResolvedStyle> mResolvedStyles = new LinkedHashMap<String, ResolvedStyle>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, ResolvedStyle> eldest) {
+			return size() > MAX_RESOLVED_STYLES;
+		}
+	};
+	private final Rect mResolvedArea = new Rect();
+	private float mResolvedScale = 0;
+	private final StringBuilder mStyleKey = new StringBuilder();
+
+	// access ordered, so the first image is the one shown least recently.
+	private final LinkedHashMap<Integer, DecodedImage> mDecodedImages = new LinkedHashMap<Integer, DecodedImage>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Integer, DecodedImage> eldest) {
+			return size() > MAX_DECODED_IMAGES;
+		}
+	};
+
+	private static class ResolvedStyle {
+		final NexCaptionSetting captionSettings;
+		final float relativeFontSize;
+
+		ResolvedStyle(NexCaptionSetting captionSettings, float relativeFontSize) {
+			this.captionSettings = captionSettings;
+			this.relativeFontSize = relativeFontSize;
+		}
+	}
+
+	private static class DecodedImage {
+		final byte[] bytes;
+		final Bitmap image;
+
+		DecodedImage(byte[] bytes, Bitmap image) {
+			this.bytes = bytes;
+			this.image = image;
+		}
+	}
 
 	@Override
 	public void setRenderingArea(Rect renderingArea, float scale) {
 		mRenderingArea = renderingArea;
 		mRenderingScale = scale;
+		invalidateResolvedStyles();
+	}
+
+	@Override
+	void invalidateResolvedStyles() {
+		synchronized (mResolvedStyles) {
+			mResolvedStyles.clear();
+		}
 	}
 
 	@Override
@@ -1122,7 +1175,8 @@ class NexTTMLExtractor extends NexCaptionExtractor {
 			renderingAttribute.mStartTime = ttmlRenderingData.startTime;
 			renderingAttribute.mEndTime = ttmlRenderingData.endTime;
 			renderingAttribute.mRemoveTime = ttmlRenderingData.clearTime;
-			renderingAttribute.mRelativeFontSize = getRelativeFontSize(mRenderingArea, getFontSize(ttmlRenderingData.fontSize));
+			ResolvedStyle style = resolveStyle(ttmlRenderingData);
+			renderingAttribute.mRelativeFontSize = style.relativeFontSize;
 
 			if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
 				renderingAttribute.mDirection = ttmlRenderingData.direction == 0 ? View.LAYOUT_DIRECTION_LTR : View.LAYOUT_DIRECTION_RTL;
@@ -1136,7 +1190,7 @@ class NexTTMLExtractor extends NexCaptionExtractor {
 
 			renderingAttribute.mStrings = getNodeStrings(ttmlRenderingData);
 
-			renderingAttribute.mCaptionSettings = getCaptionSettings(ttmlRenderingData);
+			renderingAttribute.mCaptionSettings = new NexCaptionSetting(style.captionSettings);
 
 			renderingAttribute.id = renderingAttribute.hashCode();
 
@@ -1146,6 +1200,76 @@ class NexTTMLExtractor extends NexCaptionExtractor {
 		return list;
 	}
 
+	/**
+	 * Returns the settings of the style and region of a cue, resolved once for the current rendering area.
+	 * The cues of a stream share a few styles and regions, so the lengths, colors and positions are not converted again for every cue.
+	 */
+	private ResolvedStyle resolveStyle(NexClosedCaption.TTMLRenderingData ttmlRenderingData) {
+		synchronized (mResolvedStyles) {
+			if (!mResolvedArea.equals(mRenderingArea) || mResolvedScale != mRenderingScale) {
+				// the area can also be changed in place by the owner of the rect.
+				mResolvedStyles.clear();
+				mResolvedArea.set(mRenderingArea);
+				mResolvedScale = mRenderingScale;
+			}
+
+			// the key is made before resolving, because resolving rewrites some length types of the cue.
+			String key = makeStyleKey(ttmlRenderingData);
+			ResolvedStyle style = mResolvedStyles.get(key);
+			if (null == style) {
+				float relativeFontSize = getRelativeFontSize(mRenderingArea, getFontSize(ttmlRenderingData.fontSize));
+				style = new ResolvedStyle(getCaptionSettings(ttmlRenderingData), relativeFontSize);
+				mResolvedStyles.put(key, style);
+			}
+
+			return style;
+		}
+	}
+
+	private String makeStyleKey(NexClosedCaption.TTMLRenderingData ttmlRenderingData) {
+		StringBuilder key = mStyleKey;
+		key.setLength(0);
+
+		appendStyleLength(key, null != ttmlRenderingData.fontSize ? ttmlRenderingData.fontSize[0] : null);
+		appendStyleLengths(key, ttmlRenderingData.origin);
+		appendStyleLength(key, ttmlRenderingData.extentWidth);
+		appendStyleLength(key, ttmlRenderingData.extentHeight);
+		appendStyleLengths(key, ttmlRenderingData.padding);
+
+		if (null != ttmlRenderingData.textOutline) {
+			key.append(ttmlRenderingData.textOutline.getColor()).append(':');
+			appendStyleLength(key, ttmlRenderingData.textOutline.getType1());
+		}
+
+		key.append('|').append(ttmlRenderingData.extentBackground)
+				.append('|').append(ttmlRenderingData.opacity)
+				.append('|').append(ttmlRenderingData.textAlign)
+				.append('|').append(ttmlRenderingData.displayAlign)
+				.append('|').append(ttmlRenderingData.fontFamily);
+
+		return key.toString();
+	}
+
+	private static void appendStyleLengths(StringBuilder key, NexClosedCaption.TTML_StyleLength[] styleLengths) {
+		if (null == styleLengths) {
+			key.append("-|");
+			return;
+		}
+
+		for (NexClosedCaption.TTML_StyleLength styleLength : styleLengths) {
+			appendStyleLength(key, styleLength);
+		}
+		key.append('|');
+	}
+
+	private static void appendStyleLength(StringBuilder key, NexClosedCaption.TTML_StyleLength styleLength) {
+		if (null == styleLength) {
+			key.append("-,");
+		} else {
+			key.append(styleLength.length).append(styleLength.lengthType).append(',');
+		}
+	}
+
 	private NexCaptionSetting getCaptionSettings(NexClosedCaption.TTMLRenderingData ttmlRenderingData) {
 		NexCaptionSetting captionSettings = new NexCaptionSetting();
 
@@ -1219,81 +1343,73 @@ class NexTTMLExtractor extends NexCaptionExtractor {
 	}
 
 	private ArrayList<NodeString> getNodeStrings(NexClosedCaption.TTMLRenderingData ttmlRenderingData) {
-		ArrayList<NodeString> nodeStrings = null;
-
 		ArrayList<NexClosedCaption.TTMLRenderingData.TTMLNodeData> nodes = ttmlRenderingData.nodes;
 
 		if (null != nodes) {
+			float opacity = ttmlRenderingData.opacity == 0 ? 1 : ttmlRenderingData.opacity;
+
 			for (NexClosedCaption.TTMLRenderingData.TTMLNodeData node : nodes) {
 				if (null != node.text) {
-					if (null == nodeStrings) {
-						nodeStrings = new ArrayList<NodeString>();
-					}
-					NodeString nodeString = new NodeString();
-
-					float opacity = ttmlRenderingData.opacity == 0 ? 1 : ttmlRenderingData.opacity;
-
+					String text = null;
 					try {
-						nodeString.mString = Html.fromHtml(new String(node.text, "UTF-8").replace(" ", "&nbsp;")).toString();
-
+						text = Html.fromHtml(new String(node.text, "UTF-8").replace(" ", "&nbsp;")).toString();
 					}
 					catch(UnsupportedEncodingException e) {
 						e.printStackTrace();
 					}
-                    if (node.bgColor != ttmlRenderingData.extentBackground) {
-                        nodeString.mBackgroundColor = getColorFromRGBA(node.bgColor, opacity);
-                    } else {
-						nodeString.mBackgroundColor = NexCaptionSetting.DEFAULT;
-					}
 
-					nodeString.mFontColor = replaceMappedFontColors(getColorFromRGBA(node.fontColor, opacity));
+					int backgroundColor = NexCaptionSetting.DEFAULT;
+					if (node.bgColor != ttmlRenderingData.extentBackground) {
+						backgroundColor = getColorFromRGBA(node.bgColor, opacity);
+					}
 
+					int flags = 0;
 					if (1 == node.fontWeight) {
-						nodeString.mBold = true;
+						flags |= NodeStringBuilder.BOLD;
 					}
 
 					if (null != node.fontStyle) {
 						if (NexClosedCaption.TTML_Fontstyle.Italic == node.fontStyle || NexClosedCaption.TTML_Fontstyle.Oblique == node.fontStyle) {
-							nodeString.mItalic = true;
+							flags |= NodeStringBuilder.ITALIC;
 						}
 					}
 
-					setTextDecoration(nodeString, node.textDecoration);
+					flags = applyTextDecoration(flags, node.textDecoration);
 
-					nodeStrings.add(nodeString);
+					mNodeStringBuilder.appendNode(text, replaceMappedFontColors(getColorFromRGBA(node.fontColor, opacity)), backgroundColor, flags);
 				}
 			}
 		}
 
-		return nodeStrings;
+		return mNodeStringBuilder.build();
 	}
 
-	private void setTextDecoration(NodeString nodeString, int textDecoration) {
+	private int applyTextDecoration(int flags, int textDecoration) {
 		switch (textDecoration) {
 			case 0:
-				nodeString.mUnderLine = false;
-				nodeString.mLineThrough = false;
-				nodeString.mOverLine = false;
+				flags &= ~(NodeStringBuilder.UNDERLINE | NodeStringBuilder.LINE_THROUGH | NodeStringBuilder.OVERLINE);
 				break;
 			case 1:
-				nodeString.mUnderLine = true;
+				flags |= NodeStringBuilder.UNDERLINE;
 				break;
 			case 2:
-				nodeString.mUnderLine = false;
+				flags &= ~NodeStringBuilder.UNDERLINE;
 				break;
 			case 3:
-				nodeString.mLineThrough = true;
+				flags |= NodeStringBuilder.LINE_THROUGH;
 				break;
 			case 4:
-				nodeString.mLineThrough = false;
+				flags &= ~NodeStringBuilder.LINE_THROUGH;
 				break;
 			case 5:
-				nodeString.mOverLine = true;
+				flags |= NodeStringBuilder.OVERLINE;
 				break;
 			case 6:
-				nodeString.mOverLine = false;
+				flags &= ~NodeStringBuilder.OVERLINE;
 				break;
 		}
+
+		return flags;
 	}
 
 	private NexCaptionWindowRect makeRelativePosition(Rect videoArea, RectF position) {
@@ -1370,14 +1486,48 @@ class NexTTMLExtractor extends NexCaptionExtractor {
 		return fontSize;
 	}
 
+	/**
+	 * Decodes the image of a cue.  Image captions repeat the same images, so the last decoded ones are kept by content.
+	 */
 	private Bitmap getImage(byte[] bytes, int len) {
 		Bitmap image = null;
 		if (null != bytes && 0 < len) {
+			int hash = 1;
+			for (int i = 0; i < len; i++) {
+				hash = 31 * hash + bytes[i];
+			}
+
+			synchronized (mDecodedImages) {
+				DecodedImage decoded = mDecodedImages.get(hash);
+				if (null != decoded && isSameContent(decoded.bytes, bytes, len)) {
+					return decoded.image;
+				}
+			}
+
 			image = BitmapFactory.decodeByteArray(bytes, 0, len);
+			if (null != image) {
+				byte[] content = new byte[len];
+				System.arraycopy(bytes, 0, content, 0, len);
+				synchronized (mDecodedImages) {
+					mDecodedImages.put(hash, new DecodedImage(content, image));
+				}
+			}
 		}
 		return image;
 	}
 
+	private static boolean isSameContent(byte[] content, byte[] bytes, int len) {
+		if (content.length != len) {
+			return false;
+		}
+		for (int i = 0; i < len; i++) {
+			if (content[i] != bytes[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
 	private int getColorFromRGBA(int RGBA, float opacity) {
 		int r = (RGBA >> 24) & 0xFF;
 		int g = (RGBA >> 16) & 0xFF;
@@ -165,6 +165,9 @@ public class NexCaptionRendererForWebVTT extends View {
 	*  If the current time of the playing content is not in the range of text cue's time stamp, this method returns \c false.
 	*  This method can be used to ensure WebVTT text cues are displayed at the proper time while content is playing.
 	*
+	*  When a cue store is set with \c setCueStore, the captions displayed are removed as soon as no cue of the store is active
+	*  at \c currentTime anymore, at the end of a cue or after a seek to a position without captions.
+	*
 	* \param currentTime The current time of the playing content, as an integer.
 	*
 	* \returns  \c FALSE if the current time is NOT within the range of the WebVTT text cue's duration range, otherwise \c TRUE.
@@ -174,6 +177,21 @@ public class NexCaptionRendererForWebVTT extends View {
 	public void setVideoTimeInfo(int currentTime)
 	{
 		NexLog.d(LOG_TAG, "Call setVideoTimeInfo " + currentTime);
+		mCaptionPainter.setVideoTimeInfo(currentTime);
+	}
+
+	/**
+	 * \brief This method sets the cues of a sidecar subtitle file, which tell \c setVideoTimeInfo when its captions end.
+	 *
+	 * The captions passed to \c setData are still the ones displayed, with their styles and positions.
+	 *
+	 * \param cueStore  The cues of the subtitle file, or \c null.
+	 *
+	 * \see NexSubtitleCueStore, NexCaptionPainter.setCueStore
+	 */
+	public void setCueStore(NexSubtitleCueStore cueStore)
+	{
+		mCaptionPainter.setCueStore(cueStore);
 	}
 
 
@@ -628,6 +646,7 @@ public class NexCaptionRendererForWebVTT extends View {
 class NexWebVTTExtractor extends NexCaptionExtractor implements CaptionExtractorCommonInterface {
 	private Rect mRenderingArea = new Rect();
 	private final static String LOG_TAG = "NexWebVTTExtractor";
+	private final NodeStringBuilder mNodeStringBuilder = new NodeStringBuilder();
 
 	@Override
 	void setRenderingArea(Rect renderingArea, float scale) {
@@ -691,20 +710,20 @@ class NexWebVTTExtractor extends NexCaptionExtractor implements CaptionExtractor
 		ArrayList<NodeString> nodeStrings = null;
 
 		if (null != nodes) {
-			nodeStrings = new ArrayList<NodeString>();
+			int fontColor = replaceMappedFontColors(Color.WHITE);
 			for (NexClosedCaption.WebVTTRenderingData.WebVTTNodeData node : nodes) {
 				if (null != node.text) {
-					NodeString nodeString = new NodeString();
-					nodeString.mString = node.text;
-					nodeString.mBold = node.mBold;
-					nodeString.mItalic = node.mItalic;
-					nodeString.mUnderLine = node.mUnderline;
-					nodeString.mFontColor = replaceMappedFontColors(Color.WHITE);
-					nodeString.mBackgroundColor = Color.TRANSPARENT;
-
-					nodeStrings.add(nodeString);
+					int flags = (node.mBold ? NodeStringBuilder.BOLD : 0)
+							| (node.mItalic ? NodeStringBuilder.ITALIC : 0)
+							| (node.mUnderline ? NodeStringBuilder.UNDERLINE : 0);
+					mNodeStringBuilder.appendNode(node.text, fontColor, Color.TRANSPARENT, flags);
 				}
 			}
+
+			nodeStrings = mNodeStringBuilder.build();
+			if (null == nodeStrings) {
+				nodeStrings = new ArrayList<NodeString>();
+			}
 		}
 
 		return nodeStrings;
@@ -6,11 +6,14 @@ import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
 import android.os.Build;
+import android.text.Layout;
 import android.text.Spannable;
 import android.text.SpannableString;
 import android.text.Spanned;
+import android.text.TextPaint;
 import android.text.style.BackgroundColorSpan;
 import android.text.style.CharacterStyle;
+import android.view.Gravity;
 import android.view.ViewGroup;
 import android.widget.TextView;
 
@@ -32,6 +35,8 @@ public class NexCaptionTextView extends TextView {
 	ArrayList<SpanDrawInfo> mBackgroundColorSpanInfo = new ArrayList<SpanDrawInfo>();
 
 	private ViewGroup.LayoutParams params = null;
+	// the text laid out in the background for this view, drawn instead of the layout of the view.
+	private Layout mPreparedLayout = null;
 
 	protected float[] APPLY_SHADOW_PARAM = {0.0f, 0.0f, 0.0f};
 
@@ -230,6 +235,22 @@ public class NexCaptionTextView extends TextView {
 		APPLY_SHADOW_PARAM[2] = 0;
 	}
 	
+	/*
+	 * Brings a view that is no longer displayed back to the state of a new one, so that it can be reused
+	 * for another caption.
+	 */
+	void recycle() {
+		init();
+		initEdgeStyle();
+		m_strokeWidth = 1.5f;
+		getPaint().setStyle(Paint.Style.FILL);
+
+		setText(null);
+		mPreparedLayout = null;
+		setBackground(null);
+		setGravity(Gravity.TOP | Gravity.START);
+	}
+
 	@SuppressLint("NewApi")
 	private void WrapSetLayerType()
 	{
@@ -245,6 +266,14 @@ public class NexCaptionTextView extends TextView {
 		return Color.argb(cOpacity, Color.red(setColor), Color.green(setColor), Color.blue(setColor));
 	}
 
+	/*
+	 * Sets the layout of the text, made by CaptionTextPrecomputer with the settings of the view, or null to draw
+	 * the layout of the view.
+	 */
+	void setPreparedLayout(Layout layout) {
+		mPreparedLayout = layout;
+	}
+
 	protected void setBaseTextColor(int color)
 	{
 		m_baseFontColor = color;
@@ -264,10 +293,12 @@ public class NexCaptionTextView extends TextView {
 
 	@Override
     protected void onDraw(Canvas canvas) {
+		Layout preparedLayout = getPreparedLayout();
+		CharSequence drawnText = null != preparedLayout ? preparedLayout.getText() : getText();
+
 		if (redrawBackground && 0 < mBackgroundColorSpanInfo.size()) {
-			CharSequence charSequence = getText();
-			if (charSequence instanceof SpannableString) {
-				SpannableString spannableString = (SpannableString) charSequence;
+			if (drawnText instanceof SpannableString) {
+				SpannableString spannableString = (SpannableString) drawnText;
 
 				for (int i = 0; i < mBackgroundColorSpanInfo.size(); ++i) {
 					SpanDrawInfo spanDrawInfo = mBackgroundColorSpanInfo.get(i);
@@ -280,11 +311,10 @@ public class NexCaptionTextView extends TextView {
             getPaint().setStyle(Paint.Style.STROKE);
             getPaint().setStrokeWidth(m_strokeWidth);
             setTextColor(m_nEdgeColor);
-            super.onDraw(canvas);
+            drawText(canvas, preparedLayout);
 
-            CharSequence charSequence = getText();
-            if (charSequence instanceof SpannableString) {
-                SpannableString spannableString = (SpannableString) charSequence;
+            if (drawnText instanceof SpannableString) {
+                SpannableString spannableString = (SpannableString) drawnText;
 
                 BackgroundColorSpan[] backgroundColorSpans = spannableString.getSpans(0, spannableString.length(), BackgroundColorSpan.class);
                 for (BackgroundColorSpan backgroundColorSpan : backgroundColorSpans) {
@@ -299,11 +329,10 @@ public class NexCaptionTextView extends TextView {
             if (0 != mDropColor) {
                 getPaint().setStyle(Paint.Style.FILL);
                 getPaint().setShadowLayer(0, 0, 0, 0);
-                super.onDraw(canvas);
+                drawText(canvas, preparedLayout);
 
-                CharSequence charSequence = getText();
-                if (charSequence instanceof SpannableString) {
-                    SpannableString spannableString = (SpannableString) charSequence;
+                if (drawnText instanceof SpannableString) {
+                    SpannableString spannableString = (SpannableString) drawnText;
 
                     BackgroundColorSpan[] backgroundColorSpans = spannableString.getSpans(0, spannableString.length(), BackgroundColorSpan.class);
                     for (BackgroundColorSpan backgroundColorSpan : backgroundColorSpans) {
@@ -315,6 +344,61 @@ public class NexCaptionTextView extends TextView {
             }
         }
 
-        super.onDraw(canvas);
+        drawText(canvas, preparedLayout);
     }
+
+	/*
+	 * The prepared layout while it matches the one the view measured: the same width, lines, alignment and
+	 * direction, with the text size and typeface of the view.  It is dropped for good once it does not.
+	 */
+	private Layout getPreparedLayout() {
+		if (null != mPreparedLayout) {
+			Layout layout = getLayout();
+			TextPaint paint = mPreparedLayout.getPaint();
+			if (null == layout || layout.getWidth() != mPreparedLayout.getWidth()
+					|| layout.getLineCount() != mPreparedLayout.getLineCount()
+					|| layout.getAlignment() != mPreparedLayout.getAlignment()
+					|| layout.getParagraphDirection(0) != mPreparedLayout.getParagraphDirection(0)
+					|| paint.getTextSize() != getPaint().getTextSize()
+					|| paint.getTypeface() != getPaint().getTypeface()) {
+				mPreparedLayout = null;
+			}
+		}
+		return mPreparedLayout;
+	}
+
+	/*
+	 * Draws the text as TextView.onDraw does, from the prepared layout when there is one, in the paint of the view
+	 * set up by the edge styles.
+	 */
+	private void drawText(Canvas canvas, Layout preparedLayout) {
+		if (null == preparedLayout) {
+			super.onDraw(canvas);
+			return;
+		}
+
+		TextPaint paint = preparedLayout.getPaint();
+		paint.set(getPaint());
+		paint.setColor(getCurrentTextColor());
+		paint.drawableState = getDrawableState();
+
+		int left = getCompoundPaddingLeft();
+		int right = getCompoundPaddingRight();
+		int top = getExtendedPaddingTop();
+		int bottom = getExtendedPaddingBottom();
+
+		int offset = 0;
+		int boxHeight = getHeight() - top - bottom;
+		int textHeight = preparedLayout.getHeight();
+		int verticalGravity = getGravity() & Gravity.VERTICAL_GRAVITY_MASK;
+		if (Gravity.TOP != verticalGravity && textHeight < boxHeight) {
+			offset = Gravity.BOTTOM == verticalGravity ? boxHeight - textHeight : (boxHeight - textHeight) >> 1;
+		}
+
+		canvas.save();
+		canvas.clipRect(getScrollX() + left, getScrollY() + top, getScrollX() + getWidth() - right, getScrollY() + getHeight() - bottom);
+		canvas.translate(left, top + offset);
+		preparedLayout.draw(canvas);
+		canvas.restore();
+	}
 }
@@ -133,14 +133,14 @@ public class NexClosedCaption {
 	private int[] m_UpdateTime = new int[4];
 
 	// Character attribute masks
-	private static final int CHARATTR_CHARSET_MASK = 0x0007;
-	private static final int CHARATTR_LARGE        = 0x0008; // Character is bolded.
-	private static final int CHARATTR_FG_MASK      = 0x00F0; // Sets the foreground (text) color of a character.
-	private static final int CHARATTR_BG_MASK      = 0x0F00; // Sets the background color of a character.
-	private static final int CHARATTR_ITALIC       = 0x1000; // Character is italicized.
-	private static final int CHARATTR_UNDERLINE    = 0x2000; // Character is underlined.
-	private static final int CHARATTR_FLASH        = 0x4000; // Character is flashing.
-	private static final int CHARATTR_DRAW_BG      = 0x8000; // Draw the background; if set to 0, BG_MASK is ignored (ie transparent).
+	static final int CHARATTR_CHARSET_MASK = 0x0007;
+	static final int CHARATTR_LARGE        = 0x0008; // Character is bolded.
+	static final int CHARATTR_FG_MASK      = 0x00F0; // Sets the foreground (text) color of a character.
+	static final int CHARATTR_BG_MASK      = 0x0F00; // Sets the background color of a character.
+	static final int CHARATTR_ITALIC       = 0x1000; // Character is italicized.
+	static final int CHARATTR_UNDERLINE    = 0x2000; // Character is underlined.
+	static final int CHARATTR_FLASH        = 0x4000; // Character is flashing.
+	static final int CHARATTR_DRAW_BG      = 0x8000; // Draw the background; if set to 0, BG_MASK is ignored (ie transparent).
 	
 	protected static final float[] DEFAULT_RAISED_PARAM = {2.0f, 0.0f, 3.0f};
 	protected static final float[] DEFAULT_DEPRESSED_PARAM = {2.0f, -3.0f, -3.0f};
@@ -696,6 +696,18 @@ public class NexClosedCaption {
 		return Charset.fromValue((m_attr[ row*32 + col ]) & 0x7);
 	}
 
+	/*
+	 * Returns all the CHARATTR_ bits of a character in one access, or 0 if there is no caption data.
+	 */
+	int getCharAttr( int row, int col ) {
+		if( m_attr == null || ((row<0 || row>14) && row != ROLLED_OUT_ROW )) {
+			return 0;
+		} else if( row==ROLLED_OUT_ROW ) {
+			row = 15;
+		}
+		return m_attr[ row*32 + col ] & 0xFFFF;
+	}
+
 	/**
 	 * \brief This gets the character to display in CEA 608 closed captions (FULL mode).
 	 *
@@ -757,6 +769,31 @@ public class NexClosedCaption {
 		m_attr = null;
 	}
 
+	/*
+	 * Copies the characters and attributes of the FULL mode grid, 32 cells per row and row ROLLED_OUT_ROW last,
+	 * into charcode and attr where they differ.  A blank grid is copied as zeros.
+	 * Returns true if anything was copied.
+	 */
+	boolean copyGridIfChanged(short[] charcode, short[] attr)
+	{
+		boolean changed = copyIfChanged(m_charcode, charcode);
+		return copyIfChanged(m_attr, attr) || changed;
+	}
+
+	private static boolean copyIfChanged(short[] src, short[] dst)
+	{
+		int length = src == null ? 0 : Math.min(src.length, dst.length);
+		boolean changed = false;
+		for( int i = 0; i < dst.length; i++ ) {
+			short value = i < length ? src[i] : 0;
+			if( dst[i] != value ) {
+				dst[i] = value;
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
 	/*
 	 * END
 	 * */
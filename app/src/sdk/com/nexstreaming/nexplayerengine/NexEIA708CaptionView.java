@@ -14,6 +14,7 @@ import android.text.style.SubscriptSpan;
 import android.text.style.SuperscriptSpan;
 import android.text.style.UnderlineSpan;
 import android.util.AttributeSet;
+import android.util.Log;
 import android.util.TypedValue;
 import android.view.Gravity;
 import android.view.ViewGroup;
@@ -110,7 +111,7 @@ public class NexEIA708CaptionView extends ViewGroup {
 		int nWindowIndex = 0;
 	}
 	
-	NexLogStringQueue.CharUnit mTmpText[];
+	NexLogStringQueue.LineCursor mTmpText;
 	SpannableStringBuilder mDrawtextBuilder = null;
 	
 	ComparatorRect mComparator = null;
@@ -132,6 +133,9 @@ public class NexEIA708CaptionView extends ViewGroup {
 	 */
 	private int m_service_no = 0;
 	private boolean m_isvalidate = false;
+	// the windows whose text changed since the last draw, one bit per window.
+	private static final int ALL_WINDOWS = (1 << NexEIA708Struct.EIA708_WINDOW_MAX) - 1;
+	private int m_dirty_windows = ALL_WINDOWS;
 	
 /**
  * \brief This is the constructor for the CEA 708 closed captions caption view.
@@ -172,6 +176,7 @@ public class NexEIA708CaptionView extends ViewGroup {
 	 */
 	public void setFGCaptionColor(CaptionColor foreground, int fgOpacity)
 	{
+		markDirtyWindows(ALL_WINDOWS);
 		setFgColor = foreground;
 		setFgOpacity = fgOpacity;
 	}
@@ -185,6 +190,7 @@ public class NexEIA708CaptionView extends ViewGroup {
 	 */
 	public void setBGCaptionColor(CaptionColor background, int bgOpacity)
 	{
+		markDirtyWindows(ALL_WINDOWS);
 		setBgColor = background;
 		setBgOpacity = bgOpacity;
 	}
@@ -197,6 +203,7 @@ public class NexEIA708CaptionView extends ViewGroup {
      */
 	public void setCaptionWindowColor(CaptionColor windowColor, int windowOpacity)
 	{
+		markDirtyWindows(ALL_WINDOWS);
 		setWindowColor = windowColor;
 		setWindowOpacity = windowOpacity;
 	}
@@ -210,6 +217,7 @@ public class NexEIA708CaptionView extends ViewGroup {
 	 */
 	public void setCaptionStroke(CaptionColor strokeColor, float strokeWidth)
 	{
+		markDirtyWindows(ALL_WINDOWS);
 		if (null != strokeColor)
 		{
 			resetEdgeEffect();
@@ -236,6 +244,7 @@ public class NexEIA708CaptionView extends ViewGroup {
 	 */
 	public void setBold(boolean isBold)
 	{
+		markDirtyWindows(ALL_WINDOWS);
 		setBold = isBold;
 	}
 	/** \brief This method sets whether the CEA 708 closed captions should be displayed with a shadow.
@@ -245,6 +254,7 @@ public class NexEIA708CaptionView extends ViewGroup {
 	 */
 	public void setShadow(boolean isShadow)
 	{
+		markDirtyWindows(ALL_WINDOWS);
 		if (isShadow)
 		{
 			resetEdgeEffect();
@@ -265,6 +275,7 @@ public class NexEIA708CaptionView extends ViewGroup {
 	*/
 	public void setShadowWithColor(boolean isShadow, CaptionColor shadowColor, int shadowOpacity)
 	{
+		markDirtyWindows(ALL_WINDOWS);
 		if (isShadow)
 		{
 			resetEdgeEffect();
@@ -291,6 +302,7 @@ public class NexEIA708CaptionView extends ViewGroup {
      */
 	public void setFonts(Typeface normType, Typeface boldType, Typeface italicType, Typeface boldItalicType)
 	{
+		markDirtyWindows(ALL_WINDOWS);
 		m_typeBold = boldType;
 		m_typeNormal = normType!=null?normType:Typeface.MONOSPACE;
 		m_typeItalic = italicType;
@@ -306,6 +318,7 @@ public class NexEIA708CaptionView extends ViewGroup {
      */
 	public void setRaise(boolean isRaise)
 	{
+		markDirtyWindows(ALL_WINDOWS);
 		if (isRaise)
 		{
 			resetEdgeEffect();
@@ -329,6 +342,7 @@ public class NexEIA708CaptionView extends ViewGroup {
 	 */	
 	public void setRaiseWithColor(boolean isRaise, CaptionColor raisedColor, int raisedOpacity)
 	{
+		markDirtyWindows(ALL_WINDOWS);
 		if (isRaise)
 		{
 			resetEdgeEffect();
@@ -349,6 +363,7 @@ public class NexEIA708CaptionView extends ViewGroup {
 	*/
 	public void setDepressed(boolean isDepressed)
 	{
+		markDirtyWindows(ALL_WINDOWS);
 		if (isDepressed)
 		{
 			resetEdgeEffect();
@@ -372,6 +387,7 @@ public class NexEIA708CaptionView extends ViewGroup {
 	 */	
 	public void setDepressedWithColor(boolean isDepressed, CaptionColor depColor, int depOpacity)
 	{
+		markDirtyWindows(ALL_WINDOWS);
 		if (isDepressed)
 		{
 			resetEdgeEffect();
@@ -390,6 +406,7 @@ public class NexEIA708CaptionView extends ViewGroup {
          */
 	public void setTextSize(int px)
 	{
+		markDirtyWindows(ALL_WINDOWS);
 		userDefualtFontSize = userFontSize = px;
 	}
 	
@@ -422,6 +439,7 @@ public class NexEIA708CaptionView extends ViewGroup {
          */
 	public void clearCaptionString()
 	{
+		markDirtyWindows(ALL_WINDOWS);
 		try
 		{
 			for(int i=0, si=m_service_no; i < NexEIA708Struct.EIA708_WINDOW_MAX; i++) 
@@ -457,6 +475,7 @@ public class NexEIA708CaptionView extends ViewGroup {
       */
 	public void changeFontSize(int rate)
 	{
+		markDirtyWindows(ALL_WINDOWS);
 		if(rate >= 50 && rate <= 200)
 			m_fontSizeRate = (float)rate;
 		else
@@ -523,6 +542,7 @@ public class NexEIA708CaptionView extends ViewGroup {
 	 */
 	public void setDisplayArea(int left, int top, int width, int height) 
 	{
+		markDirtyWindows(ALL_WINDOWS);
 		NexLog.d(TAG, "setDisplayArea left: " + left + " top: " + top + " width: " + width + " height: " + height);
 		
 		m_margin_left = left;
@@ -592,6 +612,7 @@ public class NexEIA708CaptionView extends ViewGroup {
 			if(m_eia708cc != null)
 			{
 				mlistRect.clear();
+				int dirtyWindows = takeDirtyWindows();
 				
 				for(int i=0, si=m_service_no; i<NexEIA708Struct.EIA708_WINDOW_MAX; i++) 
 				{
@@ -600,10 +621,13 @@ public class NexEIA708CaptionView extends ViewGroup {
 						if(m_eia708cc.mService[si].mWindow[i].mVisible != 0) 
 						{
 							m_window_view[i].setVisibility(NexCaptionTextView.VISIBLE);
-							setjustify2windowview(m_window_view[i], m_eia708cc.mService[si].mWindow[i].mJustify);
-							settext2windowview(m_window_view[i], i);
-							setfontproperty2windowview(m_window_view[i], m_font_size);
-							
+							// the text of the other windows did not change, only their layout is checked again.
+							if (0 != ((dirtyWindows >> i) & 1))
+							{
+								setjustify2windowview(m_window_view[i], m_eia708cc.mService[si].mWindow[i].mJustify);
+								settext2windowview(m_window_view[i], i);
+								setfontproperty2windowview(m_window_view[i], m_font_size);
+							}
 							
 							setlayout2windowview(i, m_eia708cc.mService[si].mWindow[i].mAanchorPoint,
 									m_eia708cc.mService[si].mWindow[i].mRelativePosition,
@@ -647,6 +671,18 @@ public class NexEIA708CaptionView extends ViewGroup {
 	{
 		return m_isvalidate;
 	}
+
+	private synchronized void markDirtyWindows(int windows)
+	{
+		m_dirty_windows |= windows;
+	}
+
+	private synchronized int takeDirtyWindows()
+	{
+		int windows = m_dirty_windows;
+		m_dirty_windows = 0;
+		return windows;
+	}
 	
 	/**
 	 * \brief  This method sets whether a CEA 708 closed caption should be updated or not.
@@ -699,7 +735,7 @@ public class NexEIA708CaptionView extends ViewGroup {
 			addView(m_window_view[id]);
 		}
 		
-		mTmpText = new NexLogStringQueue.CharUnit[NexLogStringQueue.LOGSTRQ_MAX_COUNT_IN_A_ROW];
+		mTmpText = new NexLogStringQueue.LineCursor();
 		mDrawtextBuilder = new SpannableStringBuilder();
 		
 		mlistRect = new ArrayList<RectForRearrangement>();		
@@ -741,6 +777,7 @@ public class NexEIA708CaptionView extends ViewGroup {
 	 */
 	public void setEIA708CC(NexEIA708Struct eia708) 
 	{
+		markDirtyWindows(ALL_WINDOWS);
 		m_eia708cc = eia708;
 	}
 	
@@ -1328,6 +1365,10 @@ public class NexEIA708CaptionView extends ViewGroup {
 		}
 		
 		int x = 0, y = 0, nTextTotalCount = 0, nTextCountInRow = 0;
+		// the characters of a run share their offset, underline and italics, and one span of each.
+		int nRunStart = -1;
+		byte runOffset = NexEIA708Struct.NORMAL;
+		boolean bRunUnderline = false, bRunItalic = false;
 		int nHeight = m_eia708cc.mService[m_service_no].mWindow[id].GetHeight();
 		
 		for (y = 0; y < nHeight; y++)
@@ -1347,43 +1388,31 @@ public class NexEIA708CaptionView extends ViewGroup {
 				
 			for (x = 0; x < nTextCountInRow; x++, nTextTotalCount++)
 			{
-				if(mTmpText[x].mCChar == 0x00)
+				if(mTmpText.GetChar(x) == 0x00)
 				{
+					setRunSpans(nRunStart, runOffset, bRunUnderline, bRunItalic);
+					nRunStart = -1;
 					if (NexEIA708Struct.LEFT == m_eia708cc.mService[m_service_no].mWindow[id].mJustify)
-						mDrawtextBuilder.append(" ");
+						mDrawtextBuilder.append(' ');
 					continue;
 				}
-				else
-				{
-					mDrawtextBuilder.append(Character.toString((char)mTmpText[x].mCChar));
-				}
 				
-				/*offset section*/
-				if(NexEIA708Struct.SUBSCRIPT == mTmpText[x].mOffset)
-				{ //Subscript
-					SubscriptSpan SubscriptSpan = new SubscriptSpan();
-					mDrawtextBuilder.setSpan(SubscriptSpan, nTextTotalCount, nTextTotalCount+1, 0);
-				}
-				else if(NexEIA708Struct.SUPERSCRIPT == mTmpText[x].mOffset)
-				{ //Superscript
-					SuperscriptSpan SuperscriptSpan = new SuperscriptSpan();
-					mDrawtextBuilder.setSpan(SuperscriptSpan, nTextTotalCount, nTextTotalCount+1, 0);
-				}
-				
-				/*Underline section*/
-				if(NexEIA708Struct.UNDERLINE == mTmpText[x].mUnderline)
+				byte offset = mTmpText.GetOffset(x);
+				boolean bUnderline = NexEIA708Struct.UNDERLINE == mTmpText.GetUnderline(x);
+				boolean bItalic = null == m_typeItalic && NexEIA708Struct.ITALICS == mTmpText.GetItalics(x);
+				if (0 > nRunStart || offset != runOffset || bUnderline != bRunUnderline || bItalic != bRunItalic)
 				{
-					UnderlineSpan UnderlineSpan = new UnderlineSpan();
-					mDrawtextBuilder.setSpan(UnderlineSpan, nTextTotalCount, nTextTotalCount+1, 0);
-				}
-				
-				/*Italic section*/
-				if(null == m_typeItalic && NexEIA708Struct.ITALICS == mTmpText[x].mItalics)
-				{
-					StyleSpan StyleSpanItalic = new StyleSpan(android.graphics.Typeface.ITALIC);
-					mDrawtextBuilder.setSpan(StyleSpanItalic, nTextTotalCount, nTextTotalCount+1, 0);
+					setRunSpans(nRunStart, runOffset, bRunUnderline, bRunItalic);
+					nRunStart = mDrawtextBuilder.length();
+					runOffset = offset;
+					bRunUnderline = bUnderline;
+					bRunItalic = bItalic;
 				}
+				mDrawtextBuilder.append((char)mTmpText.GetChar(x));
 			}
+			
+			setRunSpans(nRunStart, runOffset, bRunUnderline, bRunItalic);
+			nRunStart = -1;
 		}
 	
 		int nCharCountForCR = (nHeight - 1) * 2;
@@ -1396,8 +1425,11 @@ public class NexEIA708CaptionView extends ViewGroup {
 			setEdgeType(window_view, mDrawtextBuilder, 0, nTextTotalCount, charAttr);
 			setColor((NexCaptionCEA708TextView )window_view, mDrawtextBuilder, 0, nTextTotalCount, charAttr);
 			
-			NexLog.d(TAG, "display text: " + mDrawtextBuilder.toString());
-			NexLog.d(TAG, "display id: " + id + " mDrawtext Count: " + nTextTotalCount);
+			if (NexLog.isLoggable(TAG, Log.DEBUG))
+			{
+				NexLog.d(TAG, "display text: " + mDrawtextBuilder.toString());
+				NexLog.d(TAG, "display id: " + id + " mDrawtext Count: " + nTextTotalCount);
+			}
 			
 			window_view.setText(mDrawtextBuilder, BufferType.SPANNABLE);
 			window_view.setPadding(m_nPaddingValue, m_nPaddingValue, m_nPaddingValue, m_nPaddingValue);
@@ -1409,6 +1441,28 @@ public class NexEIA708CaptionView extends ViewGroup {
 		}
 	}
 		
+	/**
+	 * Sets the spans of a run of characters, from \c nStart to the end of \c mDrawtextBuilder.
+	 * Nothing is set when \c nStart is negative.
+	 */
+	private void setRunSpans(int nStart, byte offset, boolean bUnderline, boolean bItalic)
+	{
+		int nEnd = mDrawtextBuilder.length();
+		if (0 > nStart || nStart >= nEnd)
+			return;
+		
+		if (NexEIA708Struct.SUBSCRIPT == offset)
+			mDrawtextBuilder.setSpan(new SubscriptSpan(), nStart, nEnd, 0);
+		else if (NexEIA708Struct.SUPERSCRIPT == offset)
+			mDrawtextBuilder.setSpan(new SuperscriptSpan(), nStart, nEnd, 0);
+		
+		if (bUnderline)
+			mDrawtextBuilder.setSpan(new UnderlineSpan(), nStart, nEnd, 0);
+		
+		if (bItalic)
+			mDrawtextBuilder.setSpan(new StyleSpan(android.graphics.Typeface.ITALIC), nStart, nEnd, 0);
+	}
+	
 	private void setjustify2windowview(NexCaptionTextView window_view, int justify) 
 	{
 		if (null != window_view)
@@ -1455,12 +1509,18 @@ public class NexEIA708CaptionView extends ViewGroup {
 	 * \since version 6.1.2
 	 */
 	public boolean SetSourceByteStream(int serviceNo, byte[] Data, int len){
+		int service_no = m_service_no;
 		if (serviceNo <= 0 || serviceNo > NexEIA708Struct.EIA708_SERVICE_MAX)
 			m_service_no = 0;
 		else
 			m_service_no = serviceNo - 1;
 		
-		return m_eia708cc.SetSourceByteStream(serviceNo, Data, len);
+		boolean bUpdate = m_eia708cc.SetSourceByteStream(serviceNo, Data, len);
+		if (service_no != m_service_no)
+			markDirtyWindows(ALL_WINDOWS);
+		if (bUpdate)
+			markDirtyWindows(m_eia708cc.GetDirtyWindows(m_service_no + 1));
+		return bUpdate;
 	}
 	
        /** \brief This method initializes the style attributes of CEA 708 closed captions that may be set by a user, including the colors of the text, background, and caption window as well as the edge style and the font size.
@@ -1471,6 +1531,7 @@ public class NexEIA708CaptionView extends ViewGroup {
         */
 	public void initCaptionStyle()
 	{
+		markDirtyWindows(ALL_WINDOWS);
 		setFgColor = null;
 		setBgColor = null;
 		setWindowColor = null;
@@ -1641,9 +1702,10 @@ class NexCEA708CaptionExtractor extends NexCaptionExtractor implements CaptionEx
 	private final static String LOG_TAG = "NexCEA708CaptionExtractor";
 
 	private NexEIA708Struct mStruct = new NexEIA708Struct();
-	private NexLogStringQueue.CharUnit[] mLineBuffer = new NexLogStringQueue.CharUnit[NexLogStringQueue.LOGSTRQ_MAX_COUNT_IN_A_ROW];
+	private final NexLogStringQueue.LineCursor mLineBuffer = new NexLogStringQueue.LineCursor();
 
 	private Rect mRenderingArea = new Rect();
+	private final NodeStringBuilder mNodeStringBuilder = new NodeStringBuilder();
 
 	@Override
 	public Rect getCaptionPosition(NexCaptionWindowRect relativeRect, int viewWidth, int viewHeight) {
@@ -1669,6 +1731,8 @@ class NexCEA708CaptionExtractor extends NexCaptionExtractor implements CaptionEx
 			mStruct.mService[0].mWindow[i].ClearWindow();
 			mStruct.mService[0].mWindow[i].HideWindow();
 		}
+		// the painter removes the views itself.
+		mStruct.GetDirtyWindows(1);
 	}
 
 	@Override
@@ -1690,8 +1754,9 @@ class NexCEA708CaptionExtractor extends NexCaptionExtractor implements CaptionEx
 
 			if (mStruct.SetSourceByteStream(data.mCEA708ServiceNO, data.mCEA708Data, data.mCEA708Len)) {
 				int serviceNum = data.mCEA708ServiceNO - 1;
+				int dirtyWindows = mStruct.GetDirtyWindows(data.mCEA708ServiceNO);
 				if (0 == serviceNum) {
-					renderingAttributeList = extractService(data, serviceNum);
+					renderingAttributeList = extractService(data, serviceNum, dirtyWindows);
 				}
 			}
 		}
@@ -1708,11 +1773,11 @@ class NexCEA708CaptionExtractor extends NexCaptionExtractor implements CaptionEx
 		return sb.toString();
 	}
 
-	private ArrayList<NexCaptionRenderingAttribute> extractService(NexClosedCaption data, int serviceNum) {
+	private ArrayList<NexCaptionRenderingAttribute> extractService(NexClosedCaption data, int serviceNum, int dirtyWindows) {
 		ArrayList<NexCaptionRenderingAttribute> renderingAttributeList = null;
 
 		for (int i = 0; i < mStruct.mService[serviceNum].mWindow.length; ++i) {
-			if (mStruct.mService[serviceNum].mWindow[i].IsUpdate()) {
+			if (0 != ((dirtyWindows >> i) & 1)) {
 				if (null == renderingAttributeList) {
 					renderingAttributeList = new ArrayList<NexCaptionRenderingAttribute>();
 				}
@@ -1812,7 +1877,6 @@ class NexCEA708CaptionExtractor extends NexCaptionExtractor implements CaptionEx
 
 	private ArrayList<NodeString> getNodeStrings(NexEIA708Struct struct, int serviceNum, int windowNum) {
 		ArrayList<NodeString> nodeStrings = null;
-		NodeString nodeString = null;
 
 		if (null != struct) {
 			NexEIA708Struct.EIA708Service service = mStruct.mService[serviceNum];
@@ -1827,37 +1891,26 @@ class NexCEA708CaptionExtractor extends NexCaptionExtractor implements CaptionEx
 				}
 
 				if (y != 0) {
-					if (nodeString != null) {
-						NexLog.e(LOG_TAG, "string : " + nodeString.mString + ", line : " + y);
-						nodeString.mString += "\r\n";
-					}
+					mNodeStringBuilder.appendLineBreak();
 				}
 
 				for (int x = 0; x < nTextCountInRow; ++x) {
-					if (mLineBuffer[x].mCChar == 0x00) {
+					int cchar = mLineBuffer.GetChar(x);
+					if (cchar == 0x00) {
 						continue;
 					}
 
-                    if (null == nodeStrings) {
-                        nodeStrings = new ArrayList<NodeString>();
-                    }
-
-					if (null == nodeString) {
-						nodeString = makeNodeString(mLineBuffer[x]);
-					} else {
-						if (shouldCreateNodeString(nodeString, mLineBuffer[x])) {
-							nodeStrings.add(nodeString);
-							nodeString = makeNodeString(mLineBuffer[x]);
-						} else {
-							nodeString.mString += Character.toString((char)mLineBuffer[x].mCChar);
-						}
-					}
+					byte offset = mLineBuffer.GetOffset(x);
+					int flags = (NexEIA708Struct.ITALICS == mLineBuffer.GetItalics(x) ? NodeStringBuilder.ITALIC : 0)
+							| (NexEIA708Struct.UNDERLINE == mLineBuffer.GetUnderline(x) ? NodeStringBuilder.UNDERLINE : 0)
+							| (NexEIA708Struct.SUPERSCRIPT == offset ? NodeStringBuilder.SUPERSCRIPT : 0)
+							| (NexEIA708Struct.SUBSCRIPT == offset ? NodeStringBuilder.SUBSCRIPT : 0);
+					mNodeStringBuilder.append((char)cchar, replaceMappedFontColors(mLineBuffer.GetARGBTextColor(x)), mLineBuffer.GetARGBBGColor(x), flags);
 				}
 			}
 
-			if (null != nodeString) {
-				nodeStrings.add(nodeString);
-				NexLog.e(LOG_TAG, "string : " + nodeString.mString);
+			nodeStrings = mNodeStringBuilder.build();
+			if (null != nodeStrings) {
 				NexLog.e(LOG_TAG, "nodeStrings size : " + nodeStrings.size());
 			}
 		}
@@ -1865,37 +1918,6 @@ class NexCEA708CaptionExtractor extends NexCaptionExtractor implements CaptionEx
 		return nodeStrings;
 	}
 
-	private NodeString makeNodeString(NexLogStringQueue.CharUnit charUnit) {
-		NodeString nodeString = new NodeString();
-		nodeString.mString = Character.toString((char) charUnit.mCChar);
-		nodeString.mItalic = NexEIA708Struct.ITALICS == charUnit.mItalics;
-		nodeString.mUnderLine = NexEIA708Struct.UNDERLINE == charUnit.mUnderline;
-		nodeString.mFontColor = replaceMappedFontColors(charUnit.GetARGBTextColor());
-		nodeString.mBackgroundColor = charUnit.GetARGBBGColor();
-		nodeString.mSuperscript = NexEIA708Struct.SUPERSCRIPT == charUnit.mOffset;
-		nodeString.mSubscript = NexEIA708Struct.SUBSCRIPT == charUnit.mOffset;
-		return nodeString;
-	}
-
-	private boolean shouldCreateNodeString(NodeString nodeString, NexLogStringQueue.CharUnit charUnit) {
-		boolean shouldCreateNode = false;
-		if (nodeString.mUnderLine != (NexEIA708Struct.UNDERLINE == charUnit.mUnderline)) {
-			shouldCreateNode = true;
-		} else if (nodeString.mItalic != (NexEIA708Struct.ITALICS == charUnit.mItalics)) {
-			shouldCreateNode = true;
-		} else if (nodeString.mFontColor != replaceMappedFontColors(charUnit.GetARGBTextColor())) {
-			shouldCreateNode = true;
-		} else if (nodeString.mBackgroundColor != charUnit.GetARGBBGColor()) {
-			shouldCreateNode = true;
-		} else if (nodeString.mSuperscript != (NexEIA708Struct.SUPERSCRIPT == charUnit.mOffset)) {
-			shouldCreateNode = true;
-		} else if (nodeString.mSubscript != (NexEIA708Struct.SUBSCRIPT == charUnit.mOffset)) {
-			shouldCreateNode = true;
-		}
-
-		return shouldCreateNode;
-	}
-
 	private int getGravity(int justify) {
 		int gravity = Gravity.START;
 		switch (justify) {
@@ -1,6 +1,7 @@
 package com.nexstreaming.nexplayerengine;
 
 import android.os.Parcel;
+import android.util.Log;
 
 /**
  * \brief  This class defines a structure to handle CEA 708 closed captions in content. 
@@ -61,6 +62,48 @@ public class NexEIA708Struct {
 	static final byte LARGE = 2;
 	static final byte EXTRA_LARGE = 3;
 
+	// the commands of the first byte of a code, over the C0, G0, C1 and G1 code sets.
+	private static final byte CMD_NONE = 0;
+	private static final byte CMD_CHAR = 1;
+	private static final byte CMD_ETX = 2;
+	private static final byte CMD_BS = 3;
+	private static final byte CMD_CR = 4;
+	private static final byte CMD_P16 = 5;
+	private static final byte CMD_SET_CURRENT_WINDOW = 6;
+	private static final byte CMD_DISPLAY_CONTROL = 7;
+	private static final byte CMD_RESET = 8;
+	private static final byte CMD_SET_PEN_ATTR = 9;
+	private static final byte CMD_SET_PEN_COLOR = 10;
+	private static final byte CMD_SET_PEN_LOCATION = 11;
+	private static final byte CMD_SET_WINDOW_ATTR = 12;
+	private static final byte CMD_DEFINE_WINDOW = 13;
+
+	private static final byte[] COMMANDS = new byte[256];
+	static {
+		for (int i = 0x20; i <= 0x7f; i++)
+			COMMANDS[i] = CMD_CHAR;		//G0
+		for (int i = 0xa0; i <= 0xff; i++)
+			COMMANDS[i] = CMD_CHAR;		//G1
+
+		COMMANDS[0x03] = CMD_ETX;
+		COMMANDS[0x08] = CMD_BS;
+		COMMANDS[0x0d] = CMD_CR;
+		COMMANDS[0x18] = CMD_P16;
+
+		for (int i = 0x80; i <= 0x87; i++)
+			COMMANDS[i] = CMD_SET_CURRENT_WINDOW;	//CW0-CW7
+		for (int i = 0x88; i <= 0x8c; i++)
+			COMMANDS[i] = CMD_DISPLAY_CONTROL;	//CLW, DSW, HDW, TGW, DLW
+		// 0x8d DLY and 0x8e DLC are processed by the engine.
+		COMMANDS[0x8f] = CMD_RESET;
+		COMMANDS[0x90] = CMD_SET_PEN_ATTR;
+		COMMANDS[0x91] = CMD_SET_PEN_COLOR;
+		COMMANDS[0x92] = CMD_SET_PEN_LOCATION;
+		COMMANDS[0x97] = CMD_SET_WINDOW_ATTR;
+		for (int i = 0x98; i <= 0x9f; i++)
+			COMMANDS[i] = CMD_DEFINE_WINDOW;	//DF0-DF7
+	}
+
 	/**
 	 * \brief  This class describes the window where CEA 708 closed captions will be displayed.
 	 * 
@@ -94,9 +137,13 @@ public class NexEIA708Struct {
 		private NexLogStringQueue mTextBuffer;
 		private boolean mDefined;
 		private boolean mUpdate;
+		private final EIA708Service mOwner;
+		private final int mId;
 		
-		EIA708Window()
+		EIA708Window(EIA708Service service, int id)
 		{
+			mOwner = service;
+			mId = id;
 			mVisible = 0;
 			mDefined = false;
 			mUpdate = false;
@@ -133,6 +180,18 @@ public class NexEIA708Struct {
 			return mTextBuffer.PeekCharUnit(cData, index);
 		}
 		
+		/**
+		 * \brief  This method gets a line of text in CEA 708 closed captions without creating any object.
+		 * 
+		 * \param cursor  The cursor receiving the line of text.
+		 * \param index  The index of the line of text, as an \c integer.
+		 */
+		int GetTextLine(NexLogStringQueue.LineCursor cursor, int index){
+			if (0 > index)
+				return 0;
+			return mTextBuffer.PeekLine(cursor, index);
+		}
+		
 		/**
 		 * \brief  This method gets the width of the window for CEA 708 closed captions.
 		 * 
@@ -200,7 +259,7 @@ public class NexEIA708Struct {
 			mDefined = true;
 			
 			if(mVisible == 1)
-				mUpdate = true;
+				SetUpdate();
 			
 			mTextBuffer.SetSize(mRowCount, mColCount, mRowLock, mColumnLock, 42);
 			
@@ -328,7 +387,7 @@ public class NexEIA708Struct {
 			mDefined = false;
 			if( mVisible == 1 )
 			{
-				mUpdate = true;
+				SetUpdate();
 				mVisible = 0;
 			}
 			
@@ -347,7 +406,7 @@ public class NexEIA708Struct {
 			
 			if( mVisible == 1 && GetTextLineCount() != 0 )
 			{	
-				mUpdate = true;
+				SetUpdate();
 			}
 			mTextBuffer.Reset();
 		}
@@ -362,7 +421,7 @@ public class NexEIA708Struct {
 			if( mDefined )
 			{
 				if( mVisible == 0 )
-					mUpdate = true;
+					SetUpdate();
 				
 				mVisible = 1;
 			}
@@ -378,7 +437,7 @@ public class NexEIA708Struct {
 			if( mDefined )
 			{
 				if( mVisible == 1 )
-					mUpdate = true;
+					SetUpdate();
 				mVisible = 0;
 			}
 		}
@@ -397,7 +456,7 @@ public class NexEIA708Struct {
 				mVisible = 0;
 			else
 				mVisible = 1;
-			mUpdate = true;
+			SetUpdate();
 		}
 		
 		/**
@@ -509,7 +568,7 @@ public class NexEIA708Struct {
 				return;
 			
 			if (1 == mVisible)
-				mUpdate = true;
+				SetUpdate();
 			
 			mTextBuffer.PushChar(cc);
 		}
@@ -522,7 +581,7 @@ public class NexEIA708Struct {
 		public void SetEndofText()
 		{
 			if( mVisible == 1 )
-				mUpdate = true;
+				SetUpdate();
 		}
 		
 		/**
@@ -536,6 +595,12 @@ public class NexEIA708Struct {
 			return mUpdate;
 		}
 		
+		private void SetUpdate()
+		{
+			mUpdate = true;
+			mOwner.mDirtyWindows |= 1 << mId;
+		}
+
 		/**
 		 * \brief  This method resets the mUpdate paramater that indicates whether CEA 708 closed caption data has been updated or not.
 		 * 
@@ -557,12 +622,15 @@ public class NexEIA708Struct {
 		boolean mEnable;
 		boolean mUpdate;
 		int mCurrentWindow;
+		// one bit per window updated since the last call to GetDirtyWindows.
+		int mDirtyWindows;
 		EIA708Service()	{
 			mEnable = false;
 			mUpdate = false;
+			mDirtyWindows = 0;
 			mWindow = new EIA708Window[EIA708_WINDOW_MAX];
 			for(int i=0; i<EIA708_WINDOW_MAX; i++)
-				mWindow[i] = new EIA708Window();
+				mWindow[i] = new EIA708Window(this, i);
 			mCurrentWindow = 0;
 		}
 		
@@ -631,148 +699,6 @@ public class NexEIA708Struct {
 		}
 	}
 	
-	void ProcessCL(int serviceNo, byte[] Data, int len){
-		int multibyte;
-		int ServiceNo = serviceNo;
-		ServiceNo--;
-
-		switch (Data[0]&0xff){
-			case 0x03: //ETX
-				mService[ServiceNo].mWindow[mService[ServiceNo].mCurrentWindow]
-						.SetEndofText();
-				mService[ServiceNo].mUpdate = mService[ServiceNo].mWindow[mService[ServiceNo].mCurrentWindow].IsUpdate();
-				mService[ServiceNo].mWindow[mService[ServiceNo].mCurrentWindow].ClearUpdate();
-				break;
-				
-			case 0x08:	//BS
-				mService[ServiceNo].mWindow[mService[ServiceNo].mCurrentWindow]
-						.ApendChar(0x08);
-				break;
-			case 0x0D: //CR
-				mService[ServiceNo].mWindow[mService[ServiceNo].mCurrentWindow]
-						.ApendChar(0x0D);
-				break;
-			case 0x18: //P16
-				multibyte = byte2int(Data,1,2);
-				mService[ServiceNo].mWindow[mService[ServiceNo].mCurrentWindow]
-						.ApendChar(multibyte);
-				
-				break;				
-		}
-	}
-	
-	void ProcessCR(int serviceNo, byte[] Data, int len){
-		int ServiceNo = serviceNo;
-		int winID;
-		int Cmd = Data[0]&0xff; 
-		ServiceNo--;
-		
-		switch (Cmd){
-		case 0x80: //CW0  SetCurrentWindow
-		case 0x81: //CW1
-		case 0x82: //CW2
-		case 0x83: //CW3
-		case 0x84: //CW4
-		case 0x85: //CW5
-		case 0x86: //CW6
-		case 0x87: //CW7
-			winID = Cmd-0x80;
-			mService[ServiceNo].SetCurrentWindow(winID);
-			break;
-		
-		case 0x88: //CLW ClearWindows
-		case 0x89: //DSW DisplayWindows	
-		case 0x8a: //HDW HideWindows
-		case 0x8b: //TGW ToggleWindows	
-		case 0x8c: //DLW DeleteWindows	
-			DisplayCtrlWindow(ServiceNo,Data[0],Data[1]);
-			break;
-		case 0x8d: //DLY Delay
-		case 0x8e: //DLC DelayCancel
-			// engin process
-			break;
-		case 0x8f: //RST Reset
-			DisplayCtrlWindow(ServiceNo,(byte)0x88,(byte)0xff);
-			DisplayCtrlWindow(ServiceNo,(byte)0x8a,(byte)0xff);
-			DisplayCtrlWindow(ServiceNo,(byte)0x8c,(byte)0xff);
-			break;
-		case 0x90: //SPA SetPenAttributes
-			mService[ServiceNo].mWindow[mService[ServiceNo].mCurrentWindow]
-					.SetPenAttr(Data[1] //Size
-					,Data[2] //FontStyle
-					,Data[3] //TextTag
-					,Data[4] //Offset
-					,Data[5] //Italics
-					,Data[6] //Underline
-					,Data[7] //EdgeType
-					);
-			break;
-		case 0x91: //SPC SetPenColor
-			mService[ServiceNo].mWindow[mService[ServiceNo].mCurrentWindow]
-					.SetPenColor(Data[1] //FGColor
-							,Data[2] //FGOpacity
-							,Data[3] //BGColor
-							,Data[4] //BGOpacity
-							,Data[5] //EdgeColor
-							);
-			break;
-		case 0x92: //SPL SetPenLocation
-			mService[ServiceNo].mWindow[mService[ServiceNo].mCurrentWindow]
-					.SetPenLocation(Data[1] //row
-							,Data[2] //col
-									);
-			break;
-		case 0x97: //SWA SetWindowAttributes
-			mService[ServiceNo].mWindow[mService[ServiceNo].mCurrentWindow]
-					.SetWinAttr(Data[1]//Justify
-							,Data[2] //PrintDirection
-							,Data[3] //ScrollDirection
-							,Data[4] //Wordwrap
-							,Data[5] //DisplayEffect
-							,Data[6] //EffectDirection
-							,Data[7] //EffectSpeed
-							,Data[8] //FillOpacity
-							,Data[9] //BorderType
-							,Data[10] //FillColor
-							,Data[11] //BorderColor
-							);
-			break;
-		case 0x98: //DF0 DefineWindow
-		case 0x99: //DF1
-		case 0x9a: //DF2
-		case 0x9b: //DF3
-		case 0x9c: //DF4
-		case 0x9d: //DF5
-		case 0x9e: //DF6
-		case 0x9f: //DF7
-			winID = Cmd-0x98;
-			NexLog.e(TAG,"DefineWindow ID"+winID);
-			
-			mService[ServiceNo].mWindow[winID]
-					.DefineWindow(Data[1]//Priority
-							,Data[2] //AanchorPoint
-							,Data[3] //RelativePosition
-							,Data[4] //AnchorVertical
-							,Data[5] //AnchorHorizontal
-							,Data[6] //RowCount
-							,Data[7] //ColCount
-							,Data[8] //RowLock
-							,Data[9] //ColumnLock
-							,Data[10] //Visible
-							,Data[11] //WinStyle
-							,Data[12] //PenStyle
-							);
-			mService[ServiceNo].SetCurrentWindow(winID);
-			
-			mService[ServiceNo].mUpdate = mService[ServiceNo].mWindow[mService[ServiceNo].mCurrentWindow].IsUpdate();
-			mService[ServiceNo].mWindow[mService[ServiceNo].mCurrentWindow].ClearUpdate();	
-
-			break;
-		default :
-			break;					
-		}
-	}
-	
 	/**
 	 * \brief This method sets the source byte stream for CEA 708 closed captions.
 	 * 
@@ -788,41 +714,135 @@ public class NexEIA708Struct {
 	 * \since version 6.1.2
 	 */
 	public boolean SetSourceByteStream(int serviceNo, byte[] Data, int len){
-		int ServiceNo = serviceNo;
 		boolean bUpdate;
-		ServiceNo--;
-		mService[ServiceNo].mEnable = true;
-		if (len == 2 && 0x6A == (Data[0]&0xFF) && 0x26 == (Data[1]&0xFF)) // music symbol
-		{			
-			mService[ServiceNo].mWindow[mService[ServiceNo].mCurrentWindow]
-					.ApendChar(0x266A);
-		}
-		else if( (Data[0]&0xff) >= 0x00 &&  (Data[0]&0xff) <= 0x1f ){
-			//CL
-			ProcessCL(serviceNo,Data,len);
-		}else if( (Data[0]&0xff) >= 0x20 && (Data[0]&0xff) <=0x7f ){
-			//GL
-			mService[ServiceNo].mWindow[mService[ServiceNo].mCurrentWindow]
-					.ApendChar(Data[0]&0xff);
-		}else if( (Data[0]&0xff) >= 0x80 && (Data[0]&0xff) <=0x9f ){
-			//CR
-			ProcessCR(serviceNo,Data,len);
-		}else if( (Data[0]&0xff) >= 0xa0 && (Data[0]&0xff) <=0xff ){
-			//GR
-			mService[ServiceNo].mWindow[mService[ServiceNo].mCurrentWindow]
-					.ApendChar(Data[0]&0xff);			
-		}else{
-			mService[ServiceNo].mEnable = false;	
+		EIA708Service service = mService[serviceNo - 1];
+		EIA708Window window = service.mWindow[service.mCurrentWindow];
+		int Cmd = Data[0]&0xff;
+		service.mEnable = true;
+
+		if (len == 2 && 0x6A == Cmd && 0x26 == (Data[1]&0xFF)) // music symbol
+			Cmd = -1;
+
+		switch (Cmd < 0 ? CMD_CHAR : COMMANDS[Cmd]){
+			case CMD_CHAR: //GL, GR
+				window.ApendChar(Cmd < 0 ? 0x266A : Cmd);
+				break;
+			case CMD_ETX:
+				window.SetEndofText();
+				service.mUpdate = window.IsUpdate();
+				window.ClearUpdate();
+				break;
+			case CMD_BS:
+				window.ApendChar(0x08);
+				break;
+			case CMD_CR:
+				window.ApendChar(0x0D);
+				break;
+			case CMD_P16:
+				window.ApendChar(byte2int(Data,1,2));
+				break;
+			case CMD_SET_CURRENT_WINDOW:
+				service.SetCurrentWindow(Cmd-0x80);
+				break;
+			case CMD_DISPLAY_CONTROL:
+				DisplayCtrlWindow(serviceNo - 1,Data[0],Data[1]);
+				break;
+			case CMD_RESET:
+				DisplayCtrlWindow(serviceNo - 1,(byte)0x88,(byte)0xff);
+				DisplayCtrlWindow(serviceNo - 1,(byte)0x8a,(byte)0xff);
+				DisplayCtrlWindow(serviceNo - 1,(byte)0x8c,(byte)0xff);
+				break;
+			case CMD_SET_PEN_ATTR:
+				window.SetPenAttr(Data[1] //Size
+						,Data[2] //FontStyle
+						,Data[3] //TextTag
+						,Data[4] //Offset
+						,Data[5] //Italics
+						,Data[6] //Underline
+						,Data[7] //EdgeType
+						);
+				break;
+			case CMD_SET_PEN_COLOR:
+				window.SetPenColor(Data[1] //FGColor
+						,Data[2] //FGOpacity
+						,Data[3] //BGColor
+						,Data[4] //BGOpacity
+						,Data[5] //EdgeColor
+						);
+				break;
+			case CMD_SET_PEN_LOCATION:
+				window.SetPenLocation(Data[1] //row
+						,Data[2] //col
+						);
+				break;
+			case CMD_SET_WINDOW_ATTR:
+				window.SetWinAttr(Data[1]//Justify
+						,Data[2] //PrintDirection
+						,Data[3] //ScrollDirection
+						,Data[4] //Wordwrap
+						,Data[5] //DisplayEffect
+						,Data[6] //EffectDirection
+						,Data[7] //EffectSpeed
+						,Data[8] //FillOpacity
+						,Data[9] //BorderType
+						,Data[10] //FillColor
+						,Data[11] //BorderColor
+						);
+				break;
+			case CMD_DEFINE_WINDOW:
+				int winID = Cmd-0x98;
+				if (NexLog.isLoggable(TAG, Log.DEBUG))
+					NexLog.d(TAG,"DefineWindow ID"+winID);
+
+				service.mWindow[winID].DefineWindow(Data[1]//Priority
+						,Data[2] //AanchorPoint
+						,Data[3] //RelativePosition
+						,Data[4] //AnchorVertical
+						,Data[5] //AnchorHorizontal
+						,Data[6] //RowCount
+						,Data[7] //ColCount
+						,Data[8] //RowLock
+						,Data[9] //ColumnLock
+						,Data[10] //Visible
+						,Data[11] //WinStyle
+						,Data[12] //PenStyle
+						);
+				service.SetCurrentWindow(winID);
+
+				window = service.mWindow[service.mCurrentWindow];
+				service.mUpdate = window.IsUpdate();
+				window.ClearUpdate();
+				break;
+			default:
+				break;
 		}
+
+		// the current window may have changed.
+		if (service.mWindow[service.mCurrentWindow].IsUpdate())
+			service.mUpdate = true;
 		
-		if (mService[ServiceNo].mWindow[mService[ServiceNo].mCurrentWindow].IsUpdate())
-			mService[ServiceNo].mUpdate = true;
-		
-		bUpdate = mService[ServiceNo].mUpdate;
-		mService[ServiceNo].mUpdate = false;
+		bUpdate = service.mUpdate;
+		service.mUpdate = false;
 		return bUpdate;
 	}
 
+	/**
+	 * \brief This method gets the windows of a CEA 708 service that were updated since the last call, and forgets them.
+	 *
+	 * Only these windows need to be drawn again.
+	 *
+	 * \param serviceNo  The CEA 708 service number.
+	 *
+	 * \returns The updated windows, as a bit mask where bit \c i is set if window \c i was updated.
+	 * \since version 6.1.2
+	 */
+	public int GetDirtyWindows(int serviceNo){
+		EIA708Service service = mService[serviceNo - 1];
+		int dirtyWindows = service.mDirtyWindows;
+		service.mDirtyWindows = 0;
+		return dirtyWindows;
+	}
+
 	/**
 	 * \brief  This method sets the source byte stream for CEA 708 closed captions.
 	 * 
@@ -36,6 +36,18 @@ class NexEventProxy {
 		}
 	}
 
+	protected void unregisterReceiver(INexEventReceiver receiver) {
+		if( receiver != null ) {
+			for (CopyOnWriteArrayList<WeakReference<INexEventReceiver>> receiverList : mEventReceivers.values()) {
+				for (WeakReference<INexEventReceiver> reference : receiverList) {
+					if (reference.get() == receiver) {
+						receiverList.remove(reference);
+					}
+				}
+			}
+		}
+	}
+
 	private void addEventReceiver(NexPlayerEvent event, INexEventReceiver receiver) {
 		CopyOnWriteArrayList<WeakReference<INexEventReceiver>> receiverList = mEventReceivers.get(event.what);
 
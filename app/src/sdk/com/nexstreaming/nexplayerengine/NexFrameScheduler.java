@@ -0,0 +1,146 @@
+package com.nexstreaming.nexplayerengine;
+
+/**
+ * Chooses the vsync at which each decoded frame of one video is displayed.
+ *
+ * The player releases a frame when it is due, but the release time jitters.  When a frame arrives close to a vsync,
+ * the jitter makes it alternate between two vsyncs, and a 30 fps video on a 60 Hz display is shown 1, 3, 2, 2, 1...
+ * vsyncs per frame instead of 2.  The scheduler smooths the arrival times with the measured frame interval, and
+ * keeps the delay from the smoothed time to the target vsync locked, so that the cadence of every tile stays regular
+ * even when tiles of different frame rates are drawn together.  The delay is locked again when a frame would be late
+ * or when the refresh rate changes.
+ *
+ * The render loop calls \c shouldDraw at every vsync and holds a frame that arrived early until its target.
+ * Frames drawn after their target are counted as late, and vsyncs showing a frame longer than the cadence
+ * of the video are counted as repeated.
+ *
+ * The scheduler only chooses when a frame is latched with \c SurfaceTexture.updateTexImage; it cannot choose
+ * when the frame is released.  The engine decodes natively and releases its output buffers itself, there is no
+ * \c MediaCodec.releaseOutputBuffer(index, timestampNs) to call, and \c updateTexImage latches whichever frame
+ * is queued at that time.  So holding a frame delays it by at most one vsync, to its target, and a frame that is
+ * still held when the next one is queued is replaced and never shown.  This evens out the cadence of frames
+ * that arrive close to a vsync, but does not correct frames that the engine releases a whole period late.
+ *
+ * Like \c NexVSyncEstimator, the scheduler only does arithmetic on the given timestamps.
+ * It is used by one render thread, except for \c onFrameAvailable and the counters, which are thread safe.
+ */
+final class NexFrameScheduler {
+	private static final int SMOOTHING = 8;
+	// longer gaps are pauses or seeks, not a frame rate.
+	private static final long MAX_FRAME_INTERVAL_NS = 1000000000L;
+
+	private final NexVSyncEstimator mEstimator;
+
+	private long mLastArrivalNs = 0;
+	private long mFrameIntervalNs = 0;
+	private long mSmoothedArrivalNs = 0;
+	// delay from the smoothed arrival to the target vsync, locked so that the cadence does not flip between two vsyncs.
+	private long mOffsetNs = -1;
+	private long mOffsetPeriodNs = 0;
+
+	private boolean mPending = false;
+	private long mTargetVsyncNs = 0;
+	private long mLastDrawnVsyncNs = 0;
+
+	private long mLateCount = 0;
+	private long mRepeatedCount = 0;
+
+	NexFrameScheduler(NexVSyncEstimator estimator) {
+		mEstimator = estimator;
+	}
+
+	/**
+	 * Called when a new frame is available, at \c arrivalNs in the \c System.nanoTime time base.
+	 *
+	 * \returns The vsync the frame should be displayed at.
+	 */
+	synchronized long onFrameAvailable(long arrivalNs) {
+		long interval = arrivalNs - mLastArrivalNs;
+		if( mLastArrivalNs != 0 && 0 < interval && interval < MAX_FRAME_INTERVAL_NS ) {
+			mFrameIntervalNs = mFrameIntervalNs == 0 ? interval : mFrameIntervalNs + (interval - mFrameIntervalNs) / SMOOTHING;
+			long predicted = mSmoothedArrivalNs + mFrameIntervalNs;
+			mSmoothedArrivalNs = predicted + (arrivalNs - predicted) / SMOOTHING;
+		}
+		else {
+			// first frame, or after a discontinuity.
+			mSmoothedArrivalNs = arrivalNs;
+			mLastDrawnVsyncNs = 0;
+			mOffsetNs = -1;
+		}
+		mLastArrivalNs = arrivalNs;
+
+		long period = mEstimator.getPeriodNanos();
+		long target = period > 0 && mOffsetNs >= 0 && Math.abs(period - mOffsetPeriodNs) < period / 16
+				? mEstimator.closestVsync(mSmoothedArrivalNs + mOffsetNs) : Long.MIN_VALUE;
+		if( target < arrivalNs ) {
+			// not locked yet, or the frame arrived after its vsync: lock on the first vsync after the frame.
+			target = mEstimator.vsyncAtOrAfter(Math.max(mSmoothedArrivalNs, arrivalNs));
+			mOffsetNs = Math.max(0, target - mSmoothedArrivalNs);
+			mOffsetPeriodNs = period;
+		}
+		if( mPending && target < mTargetVsyncNs ) {
+			// never move the target of a waiting frame backwards: a replaced frame keeps its slot.
+			target = mTargetVsyncNs;
+		}
+		mTargetVsyncNs = target;
+		mPending = true;
+		return target;
+	}
+
+	/**
+	 * \returns \c true if the pending frame should be drawn at the vsync \c vsyncNs, or \c false to hold it
+	 *          until a later vsync.
+	 */
+	synchronized boolean shouldDraw(long vsyncNs) {
+		if( !mPending ) {
+			return false;
+		}
+		return vsyncNs >= mTargetVsyncNs - mEstimator.getPeriodNanos() / 2;
+	}
+
+	synchronized boolean hasPendingFrame() {
+		return mPending;
+	}
+
+	/**
+	 * Called after the pending frame was drawn at the vsync \c vsyncNs.
+	 */
+	synchronized void onFrameDrawn(long vsyncNs) {
+		long period = mEstimator.getPeriodNanos();
+		if( period > 0 ) {
+			if( vsyncNs > mTargetVsyncNs + period / 2 ) {
+				mLateCount++;
+			}
+			if( mLastDrawnVsyncNs != 0 && mFrameIntervalNs > 0 && vsyncNs - mLastDrawnVsyncNs < MAX_FRAME_INTERVAL_NS ) {
+				long shown = (vsyncNs - mLastDrawnVsyncNs + period / 2) / period;
+				long expected = Math.max(1, (mFrameIntervalNs + period / 2) / period);
+				if( shown > expected ) {
+					mRepeatedCount += shown - expected;
+				}
+			}
+		}
+		mLastDrawnVsyncNs = vsyncNs;
+		mPending = false;
+	}
+
+	/**
+	 * \returns The smoothed interval between frames in ns, or 0 while unknown.
+	 */
+	synchronized long getFrameIntervalNanos() {
+		return mFrameIntervalNs;
+	}
+
+	/**
+	 * \returns The number of frames drawn after their target vsync.
+	 */
+	synchronized long getLateCount() {
+		return mLateCount;
+	}
+
+	/**
+	 * \returns The number of vsyncs at which a frame was shown again beyond the cadence of the video.
+	 */
+	synchronized long getRepeatedCount() {
+		return mRepeatedCount;
+	}
+}
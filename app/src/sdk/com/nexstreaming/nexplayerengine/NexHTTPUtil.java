@@ -17,6 +17,7 @@ package com.nexstreaming.nexplayerengine;
 
 import android.annotation.TargetApi;
 import android.net.Uri;
+import android.util.Log;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
@@ -76,7 +77,9 @@ public class NexHTTPUtil {
         for (Map.Entry<String, String> requestProperty : requestProperties.entrySet()) {
           String strKey =  requestProperty.getKey();
           String strValue = requestProperty.getValue();
-          NexLog.d(TAG, "==> SetRequestProperty. Key(" + strKey + ")  Value(" + strValue + ")");
+          if (NexLog.isLoggable(TAG, Log.DEBUG)) {
+            NexLog.d(TAG, "==> SetRequestProperty. Key(%s)  Value(%s)", strKey, strValue);
+          }
           urlConnection.setRequestProperty(strKey, strValue);
         }
       }
@@ -92,8 +95,10 @@ public class NexHTTPUtil {
           out.close();
         }
       }
-      NexLog.d(TAG, "response code : " + urlConnection.getResponseCode());
-      NexLog.d(TAG, "response header : " + urlConnection.getHeaderFields().toString());
+      if (NexLog.isLoggable(TAG, Log.DEBUG)) {
+        NexLog.d(TAG, "response code : " + urlConnection.getResponseCode());
+        NexLog.d(TAG, "response header : " + urlConnection.getHeaderFields().toString());
+      }
       NexLog.d(TAG, "create BufferedInputStream.");
       //InputStream in = new BufferedInputStream(urlConnection.getInputStream());
       BufferedInputStream in = new BufferedInputStream(urlConnection.getInputStream());
@@ -0,0 +1,246 @@
+package com.nexstreaming.nexplayerengine;
+
+import android.os.SystemClock;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+
+import com.nexstreaming.nexplayerengine.NexStatisticsMonitor.FileType;
+import com.nexstreaming.nexplayerengine.NexStatisticsMonitor.HttpSegmentType;
+import com.nexstreaming.nexplayerengine.NexStatisticsMonitor.HttpStatisticsMetric;
+import com.nexstreaming.nexplayerengine.NexStatisticsMonitor.HttpTimingMetric;
+import com.nexstreaming.nexplayerengine.NexStatisticsMonitor.MediaType;
+
+/**
+ * Correlates the HTTP statistics events of one player by resource URL and turns them into
+ * per-download timings, recorded in one histogram per segment type and timing.
+ */
+class NexHttpStatisticsCorrelator {
+	private static final String TAG = "NexHttpStatsCorrelator";
+
+	/* downloads that never report DOWN_END or ERROR are dropped once this many are pending. */
+	private static final int MAX_PENDING_DOWNLOADS = 32;
+	private static final double BANDWIDTH_WEIGHT = 0.3;
+
+	private final HashMap<String, Download> mPending;
+	private final NexLatencyHistogram[][] mHistograms;
+	private final long[] mBandwidthBps;
+	private final int[] mErrorCount;
+
+	private volatile NexMetricsRegistry.Histogram[] mTotalSeconds;
+	private volatile NexMetricsRegistry.Histogram[] mTtfbSeconds;
+	private volatile NexMetricsRegistry.Counter[] mErrors;
+
+	private static class Download {
+		HttpSegmentType mType;
+		long mStartMs;
+		long mConnectMs = -1;
+		long mConnectedMs = -1;
+		long mHeaderMs = -1;
+		long mFirstDataMs = -1;
+		long mBytes;
+	}
+
+	NexHttpStatisticsCorrelator() {
+		mPending = new HashMap<String, Download>();
+		mHistograms = new NexLatencyHistogram[HttpSegmentType.values().length][HttpTimingMetric.values().length];
+		for( int type = 0; type < mHistograms.length; type++ ) {
+			for( int metric = 0; metric < mHistograms[type].length; metric++ ) {
+				mHistograms[type][metric] = new NexLatencyHistogram();
+			}
+		}
+		mBandwidthBps = new long[HttpSegmentType.values().length];
+		mErrorCount = new int[HttpSegmentType.values().length];
+	}
+
+	synchronized void reset() {
+		mPending.clear();
+		for( NexLatencyHistogram[] histograms : mHistograms ) {
+			for( NexLatencyHistogram histogram : histograms ) {
+				histogram.reset();
+			}
+		}
+		for( int i = 0; i < mBandwidthBps.length; i++ ) {
+			mBandwidthBps[i] = 0;
+			mErrorCount[i] = 0;
+		}
+	}
+
+	void setMetricsRegistry(NexMetricsRegistry registry, String player) {
+		if( registry == null ) {
+			mTotalSeconds = null;
+			mTtfbSeconds = null;
+			mErrors = null;
+			return;
+		}
+		HttpSegmentType[] types = HttpSegmentType.values();
+		NexMetricsRegistry.Histogram[] totalSeconds = new NexMetricsRegistry.Histogram[types.length];
+		NexMetricsRegistry.Histogram[] ttfbSeconds = new NexMetricsRegistry.Histogram[types.length];
+		NexMetricsRegistry.Counter[] errors = new NexMetricsRegistry.Counter[types.length];
+		for( int i = 0; i < types.length; i++ ) {
+			String type = types[i].name().toLowerCase(Locale.US);
+			totalSeconds[i] = registry.histogram("nexplayer_http_download_seconds", "Time from download start to end",
+					NexMetricsRegistry.DEFAULT_SECONDS_BUCKETS, "player", player, "type", type);
+			ttfbSeconds[i] = registry.histogram("nexplayer_http_ttfb_seconds", "Time to the first byte of a download",
+					NexMetricsRegistry.DEFAULT_SECONDS_BUCKETS, "player", player, "type", type);
+			errors[i] = registry.counter("nexplayer_http_errors_total", "Downloads that reported an error",
+					"player", player, "type", type);
+		}
+		mTotalSeconds = totalSeconds;
+		mTtfbSeconds = ttfbSeconds;
+		mErrors = errors;
+	}
+
+	NexLatencyHistogram getHistogram(HttpSegmentType type, HttpTimingMetric metric) {
+		return mHistograms[type.ordinal()][metric.ordinal()];
+	}
+
+	synchronized long getBandwidth(HttpSegmentType type) {
+		return mBandwidthBps[type.ordinal()];
+	}
+
+	synchronized int getErrorCount(HttpSegmentType type) {
+		return mErrorCount[type.ordinal()];
+	}
+
+	synchronized void onHttpEvent(int code, HashMap<Object, Object> httpInfo) {
+		String url = (String) httpInfo.get("resourceUrl");
+		if( url == null ) {
+			return;
+		}
+		long now = SystemClock.elapsedRealtime();
+
+		if( code == HttpStatisticsMetric.DOWN_START.getCode() ) {
+			if( mPending.size() >= MAX_PENDING_DOWNLOADS ) {
+				dropOldest();
+			}
+			Download download = new Download();
+			download.mType = toSegmentType(toInt(httpInfo.get("fileType")), toInt(httpInfo.get("mediaType")));
+			download.mStartMs = now;
+			mPending.put(url, download);
+			return;
+		}
+
+		Download download = mPending.get(url);
+		if( download == null ) {
+			return;
+		}
+
+		if( code == HttpStatisticsMetric.CONNECT.getCode() ) {
+			download.mConnectMs = now;
+		}
+		else if( code == HttpStatisticsMetric.CONNECTED.getCode() ) {
+			download.mConnectedMs = now;
+		}
+		else if( code == HttpStatisticsMetric.HEADER_RECEIVED.getCode() ) {
+			download.mHeaderMs = now;
+		}
+		else if( code == HttpStatisticsMetric.DATA_RECEIVED.getCode() ) {
+			if( download.mFirstDataMs < 0 ) {
+				download.mFirstDataMs = now;
+			}
+			download.mBytes = Math.max(download.mBytes, toLong(httpInfo.get("byteReceived")));
+		}
+		else if( code == HttpStatisticsMetric.DOWN_END.getCode() ) {
+			download.mBytes = Math.max(download.mBytes, toLong(httpInfo.get("totalSize")));
+			mPending.remove(url);
+			complete(download, now);
+		}
+		else if( code == HttpStatisticsMetric.ERROR.getCode() ) {
+			mPending.remove(url);
+			mErrorCount[download.mType.ordinal()]++;
+			NexMetricsRegistry.Counter[] errors = mErrors;
+			if( errors != null ) {
+				errors[download.mType.ordinal()].inc();
+			}
+		}
+	}
+
+	private void complete(Download download, long endMs) {
+		NexLatencyHistogram[] histograms = mHistograms[download.mType.ordinal()];
+
+		if( download.mConnectMs >= 0 ) {
+			histograms[HttpTimingMetric.QUEUE.ordinal()].record(download.mConnectMs - download.mStartMs);
+			if( download.mConnectedMs >= 0 ) {
+				histograms[HttpTimingMetric.CONNECT.ordinal()].record(download.mConnectedMs - download.mConnectMs);
+			}
+		}
+
+		long firstByteMs = download.mHeaderMs >= 0 ? download.mHeaderMs : download.mFirstDataMs;
+		if( firstByteMs >= 0 ) {
+			long requestMs = download.mConnectedMs >= 0 ? download.mConnectedMs : download.mStartMs;
+			histograms[HttpTimingMetric.TTFB.ordinal()].record(firstByteMs - requestMs);
+			NexMetricsRegistry.Histogram[] ttfbSeconds = mTtfbSeconds;
+			if( ttfbSeconds != null ) {
+				ttfbSeconds[download.mType.ordinal()].observe((firstByteMs - requestMs) / 1000.0);
+			}
+		}
+		else {
+			firstByteMs = download.mStartMs;
+		}
+
+		long transferMs = endMs - firstByteMs;
+		histograms[HttpTimingMetric.TRANSFER.ordinal()].record(transferMs);
+		histograms[HttpTimingMetric.TOTAL.ordinal()].record(endMs - download.mStartMs);
+		NexMetricsRegistry.Histogram[] totalSeconds = mTotalSeconds;
+		if( totalSeconds != null ) {
+			totalSeconds[download.mType.ordinal()].observe((endMs - download.mStartMs) / 1000.0);
+		}
+
+		if( download.mBytes > 0 && transferMs > 0 ) {
+			long throughputBps = download.mBytes * 8 * 1000 / transferMs;
+			histograms[HttpTimingMetric.THROUGHPUT_KBPS.ordinal()].record(throughputBps / 1000);
+
+			int type = download.mType.ordinal();
+			mBandwidthBps[type] = mBandwidthBps[type] == 0 ? throughputBps :
+					(long) (BANDWIDTH_WEIGHT * throughputBps + (1 - BANDWIDTH_WEIGHT) * mBandwidthBps[type]);
+		}
+	}
+
+	private void dropOldest() {
+		String oldestUrl = null;
+		long oldestStart = Long.MAX_VALUE;
+		Iterator<String> iterator = mPending.keySet().iterator();
+		while( iterator.hasNext() ) {
+			String url = iterator.next();
+			long start = mPending.get(url).mStartMs;
+			if( start < oldestStart ) {
+				oldestStart = start;
+				oldestUrl = url;
+			}
+		}
+		if( oldestUrl != null ) {
+			NexLog.d(TAG, "drop pending download : " + oldestUrl);
+			mPending.remove(oldestUrl);
+		}
+	}
+
+	static HttpSegmentType toSegmentType(int fileType, int mediaComposition) {
+		FileType type = FileType.toFileType(fileType);
+		if( type == FileType.MANIFEST ) {
+			return HttpSegmentType.MANIFEST;
+		}
+		if( type != FileType.SEGMENT && type != FileType.INITIAL_SEGMENT ) {
+			return HttpSegmentType.OTHER;
+		}
+		if( MediaType.isMediaExist(MediaType.BASEVIDEO, mediaComposition) || MediaType.isMediaExist(MediaType.ENHANCEDVIDEO, mediaComposition) ) {
+			return HttpSegmentType.VIDEO;
+		}
+		if( MediaType.isMediaExist(MediaType.AUDIO, mediaComposition) ) {
+			return HttpSegmentType.AUDIO;
+		}
+		if( MediaType.isMediaExist(MediaType.TEXT, mediaComposition) ) {
+			return HttpSegmentType.SUBTITLE;
+		}
+		return HttpSegmentType.OTHER;
+	}
+
+	private static int toInt(Object value) {
+		return (value instanceof Number) ? ((Number) value).intValue() : 0;
+	}
+
+	private static long toLong(Object value) {
+		return (value instanceof Number) ? ((Number) value).longValue() : 0;
+	}
+}
@@ -0,0 +1,116 @@
+package com.nexstreaming.nexplayerengine;
+
+/**
+ * Fixed-bucket log-linear histogram of non-negative long values.
+ *
+ * Values below 16 have their own bucket. Above that, every power of two range is split in 8 linear
+ * sub-buckets, so the relative error of a reported percentile stays below 12.5% for any value up to
+ * 2^32 while the histogram keeps a constant size of 240 counters.
+ */
+class NexLatencyHistogram {
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+	private static final int MAX_VALUE_BITS = 32;
+	private static final int BUCKET_COUNT = (MAX_VALUE_BITS - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT;
+	private static final int LINEAR_LIMIT = SUB_BUCKET_COUNT * 2;
+
+	private final long[] mCounts;
+	private long mTotalCount;
+	private long mSum;
+	private long mMax;
+
+	NexLatencyHistogram() {
+		mCounts = new long[BUCKET_COUNT];
+		reset();
+	}
+
+	synchronized void reset() {
+		for( int i = 0; i < mCounts.length; i++ ) {
+			mCounts[i] = 0;
+		}
+		mTotalCount = 0;
+		mSum = 0;
+		mMax = 0;
+	}
+
+	synchronized void record(long value) {
+		if( value < 0 ) {
+			return;
+		}
+		mCounts[bucketIndex(value)]++;
+		mTotalCount++;
+		mSum += value;
+		mMax = Math.max(mMax, value);
+	}
+
+	synchronized long getCount() {
+		return mTotalCount;
+	}
+
+	synchronized long getSum() {
+		return mSum;
+	}
+
+	synchronized long getMax() {
+		return mMax;
+	}
+
+	synchronized double getMean() {
+		return mTotalCount > 0 ? (double) mSum / mTotalCount : 0;
+	}
+
+	/**
+	 * Returns the value at the given percentile, between 0 and 100, or -1 if nothing was recorded.
+	 * The result is the middle of the bucket holding the percentile, capped by the largest recorded value.
+	 */
+	synchronized long getPercentile(double percentile) {
+		if( mTotalCount == 0 ) {
+			return -1;
+		}
+		long target = (long) Math.ceil(mTotalCount * Math.min(Math.max(percentile, 0), 100) / 100.0);
+		target = Math.max(target, 1);
+
+		long cumulative = 0;
+		for( int i = 0; i < mCounts.length; i++ ) {
+			cumulative += mCounts[i];
+			if( cumulative >= target ) {
+				long lower = bucketLowerBound(i);
+				long upper = bucketLowerBound(i + 1) - 1;
+				return Math.min(lower + (upper - lower) / 2, mMax);
+			}
+		}
+		return mMax;
+	}
+
+	/**
+	 * Copies the bucket counters into counts, which must hold at least getBucketCount() entries.
+	 */
+	synchronized void copyCounts(long[] counts) {
+		System.arraycopy(mCounts, 0, counts, 0, mCounts.length);
+	}
+
+	static int getBucketCount() {
+		return BUCKET_COUNT;
+	}
+
+	static int bucketIndex(long value) {
+		if( value < LINEAR_LIMIT ) {
+			return (int) value;
+		}
+		int magnitude = 63 - Long.numberOfLeadingZeros(value);
+		if( magnitude >= MAX_VALUE_BITS ) {
+			return BUCKET_COUNT - 1;
+		}
+		int shift = magnitude - SUB_BUCKET_BITS;
+		return shift * SUB_BUCKET_COUNT + (int) (value >> shift);
+	}
+
+	static long bucketLowerBound(int index) {
+		if( index < LINEAR_LIMIT ) {
+			return index;
+		}
+		int shift = index / SUB_BUCKET_COUNT - 1;
+		long mantissa = index % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+		return mantissa << shift;
+	}
+}
@@ -12,7 +12,8 @@ import android.net.LocalSocketAddress;
 import android.util.Log;
 
 import java.io.IOException;
-import java.io.OutputStream;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
 
 
 /**
@@ -33,7 +34,15 @@ public class NexLog {
      */
     public static boolean useSocketForLogs;
 
-    private static OutputStream mOutputstream;
+    /**
+     * Writes the socket logs on a background thread, so that logging never waits for the socket.
+     */
+    private static volatile NexAsyncLogger sAsyncLogger;
+
+    /**
+     * Receives a copy of every logged message while \c NexLogsToFile captures logs.
+     */
+    private static volatile NexAsyncLogger sCaptureLogger;
 
 
     /**
@@ -43,6 +52,61 @@ public class NexLog {
      */
     public static boolean Debug = false;
 
+    private static volatile int sLogLevel = Log.VERBOSE;
+    private static final ConcurrentHashMap<String, Integer> sTagLogLevels = new ConcurrentHashMap<String, Integer>();
+
+    /**
+     * Builds a log message only when the message is actually logged.
+     * <p>
+     * A supplier that does not capture any variable is allocated once, so passing it costs nothing when logging is disabled.
+     */
+    public interface MessageSupplier {
+        String get();
+    }
+
+    /**
+     * This method sets the minimum level of the messages sent to log output, for every tag without its own level.
+     *
+     * @param level One of the \c android.util.Log levels, from \c Log.VERBOSE to \c Log.ERROR.
+     */
+    public static void setLogLevel(int level) {
+        sLogLevel = level;
+    }
+
+    /**
+     * This method sets the minimum level of the messages sent to log output for one tag.
+     *
+     * @param tag   The tag to configure.
+     * @param level One of the \c android.util.Log levels, or a negative value to use the global level again.
+     */
+    public static void setTagLogLevel(String tag, int level) {
+        if (level < 0) {
+            sTagLogLevels.remove(tag);
+        } else {
+            sTagLogLevels.put(tag, level);
+        }
+    }
+
+    /**
+     * This method checks whether a message would be sent to log output, without allocating.
+     * <p>
+     * Hot paths should check it before building a log message.
+     *
+     * @param tag   Used to identify the source of a log message.
+     * @param level One of the \c android.util.Log levels.
+     * @return \c true if a message of this level and tag is sent to log output.
+     */
+    public static boolean isLoggable(String tag, int level) {
+        if (!Debug)
+            return false;
+
+        if (sTagLogLevels.isEmpty()) {
+            return level >= sLogLevel;
+        }
+        Integer tagLevel = sTagLogLevels.get(tag);
+        return level >= (tagLevel != null ? tagLevel : sLogLevel);
+    }
+
     /**
      * This method sends a DEBUG log message.
      *
@@ -53,6 +117,32 @@ public class NexLog {
         sendLog(tag, msg, Log.DEBUG);
     }
 
+    /**
+     * This method sends a DEBUG log message formatted with \c String.format, only if it is loggable.
+     * <p>
+     * The argument array is allocated by the caller even when the message is not loggable, so hot paths should
+     * check \c isLoggable first or pass a \c MessageSupplier.
+     *
+     * @param tag    Used to identify the source of a log message.
+     * @param format The format of the message to be logged.
+     * @param args   The format arguments.
+     */
+    public static void d(String tag, String format, Object... args) {
+        if (isLoggable(tag, Log.DEBUG))
+            sendLog(tag, String.format(Locale.US, format, args), Log.DEBUG);
+    }
+
+    /**
+     * This method sends a DEBUG log message built by \c supplier, only if it is loggable.
+     *
+     * @param tag      Used to identify the source of a log message.
+     * @param supplier Builds the message to be logged.
+     */
+    public static void d(String tag, MessageSupplier supplier) {
+        if (isLoggable(tag, Log.DEBUG))
+            sendLog(tag, supplier.get(), Log.DEBUG);
+    }
+
     /**
      * \brief  This method sends an ERROR log message.
      *
@@ -63,6 +153,29 @@ public class NexLog {
         sendLog(tag, msg, Log.ERROR);
     }
 
+    /**
+     * This method sends an ERROR log message formatted with \c String.format, only if it is loggable.
+     *
+     * @param tag    Used to identify the source of a log message.
+     * @param format The format of the message to be logged.
+     * @param args   The format arguments.
+     */
+    public static void e(String tag, String format, Object... args) {
+        if (isLoggable(tag, Log.ERROR))
+            sendLog(tag, String.format(Locale.US, format, args), Log.ERROR);
+    }
+
+    /**
+     * This method sends an ERROR log message built by \c supplier, only if it is loggable.
+     *
+     * @param tag      Used to identify the source of a log message.
+     * @param supplier Builds the message to be logged.
+     */
+    public static void e(String tag, MessageSupplier supplier) {
+        if (isLoggable(tag, Log.ERROR))
+            sendLog(tag, supplier.get(), Log.ERROR);
+    }
+
     /**
      * \brief  This method sends an INFO log message.
      *
@@ -73,6 +186,29 @@ public class NexLog {
         sendLog(tag, msg, Log.INFO);
     }
 
+    /**
+     * This method sends an INFO log message formatted with \c String.format, only if it is loggable.
+     *
+     * @param tag    Used to identify the source of a log message.
+     * @param format The format of the message to be logged.
+     * @param args   The format arguments.
+     */
+    public static void i(String tag, String format, Object... args) {
+        if (isLoggable(tag, Log.INFO))
+            sendLog(tag, String.format(Locale.US, format, args), Log.INFO);
+    }
+
+    /**
+     * This method sends an INFO log message built by \c supplier, only if it is loggable.
+     *
+     * @param tag      Used to identify the source of a log message.
+     * @param supplier Builds the message to be logged.
+     */
+    public static void i(String tag, MessageSupplier supplier) {
+        if (isLoggable(tag, Log.INFO))
+            sendLog(tag, supplier.get(), Log.INFO);
+    }
+
     /**
      * \brief  This message sends a VERBOSE log message.
      *
@@ -83,6 +219,29 @@ public class NexLog {
         sendLog(tag, msg, Log.VERBOSE);
     }
 
+    /**
+     * This method sends a VERBOSE log message formatted with \c String.format, only if it is loggable.
+     *
+     * @param tag    Used to identify the source of a log message.
+     * @param format The format of the message to be logged.
+     * @param args   The format arguments.
+     */
+    public static void v(String tag, String format, Object... args) {
+        if (isLoggable(tag, Log.VERBOSE))
+            sendLog(tag, String.format(Locale.US, format, args), Log.VERBOSE);
+    }
+
+    /**
+     * This method sends a VERBOSE log message built by \c supplier, only if it is loggable.
+     *
+     * @param tag      Used to identify the source of a log message.
+     * @param supplier Builds the message to be logged.
+     */
+    public static void v(String tag, MessageSupplier supplier) {
+        if (isLoggable(tag, Log.VERBOSE))
+            sendLog(tag, supplier.get(), Log.VERBOSE);
+    }
+
     /**
      * \brief  This message sends a WARN log message.
      *
@@ -93,12 +252,40 @@ public class NexLog {
         sendLog(tag, msg, Log.WARN);
     }
 
+    /**
+     * This method sends a WARN log message formatted with \c String.format, only if it is loggable.
+     *
+     * @param tag    Used to identify the source of a log message.
+     * @param format The format of the message to be logged.
+     * @param args   The format arguments.
+     */
+    public static void w(String tag, String format, Object... args) {
+        if (isLoggable(tag, Log.WARN))
+            sendLog(tag, String.format(Locale.US, format, args), Log.WARN);
+    }
+
+    /**
+     * This method sends a WARN log message built by \c supplier, only if it is loggable.
+     *
+     * @param tag      Used to identify the source of a log message.
+     * @param supplier Builds the message to be logged.
+     */
+    public static void w(String tag, MessageSupplier supplier) {
+        if (isLoggable(tag, Log.WARN))
+            sendLog(tag, supplier.get(), Log.WARN);
+    }
+
     private static void sendLog(String tag, String msg, int type) {
-        if (!Debug)
+        if (!isLoggable(tag, type))
             return;
 
+        NexAsyncLogger captureLogger = sCaptureLogger;
+        if (captureLogger != null) {
+            captureLogger.log(type, tag, msg);
+        }
+
         if (useSocketForLogs) {
-            logWithSocket(tag, msg);
+            logWithSocket(tag, msg, type);
             return;
         }
 
@@ -130,45 +317,75 @@ public class NexLog {
         }
     }
 
+    /**
+     * This method queues a log message for the logging socket.  It never blocks: the message is written by a
+     * background thread, and dropped if too many messages are already waiting.
+     *
+     * @param tag Used to identify the source of a log message.
+     * @param msg The message to be logged.
+     * @return The length of the queued message, 0 if the message was dropped, or -1 if socket logging is not running.
+     */
     public static int logWithSocket(String tag, String msg) {
-        String messageToSent = "[" + tag + "] " + msg + " ";
-        try {
-            if (messageToSent.length() > 1023) {
-                messageToSent = messageToSent.substring(0, 1023);
-            }
-            mOutputstream.write(messageToSent.getBytes(), 0, messageToSent.length());
-        } catch (IOException e) {
-            e.printStackTrace();
+        return logWithSocket(tag, msg, Log.INFO);
+    }
+
+    private static int logWithSocket(String tag, String msg, int type) {
+        NexAsyncLogger logger = sAsyncLogger;
+        if (logger == null) {
             useSocketForLogs = false;
             return -1;
         }
-        return messageToSent.length();
+        if (!logger.isRunning()) {
+            // the sink failed, forget the logger so that socket logging can be enabled again.
+            releaseSocketLogger(logger);
+            return -1;
+        }
+        return logger.log(type, tag, msg) ? msg.length() : 0;
     }
 
-    private static void stopSocketLogging() {
-        if (mOutputstream == null) {
-            return;
+    private static synchronized void releaseSocketLogger(NexAsyncLogger logger) {
+        if (sAsyncLogger == logger) {
+            useSocketForLogs = false;
+            sAsyncLogger = null;
         }
+    }
 
-        try {
-            mOutputstream.close();
-        } catch (IOException e) {
-            e.printStackTrace();
-        } finally {
-            mOutputstream = null;
-            useSocketForLogs = false;
+    /**
+     * This method returns the number of log messages dropped since socket logging was started, because the
+     * logging socket could not keep up.
+     */
+    public static long getDroppedLogCount() {
+        NexAsyncLogger logger = sAsyncLogger;
+        return logger != null ? logger.getDroppedCount() : 0;
+    }
+
+    static void setCaptureLogger(NexAsyncLogger logger) {
+        sCaptureLogger = logger;
+    }
+
+    private static synchronized void stopSocketLogging() {
+        NexAsyncLogger logger = sAsyncLogger;
+        if (logger == null) {
+            return;
         }
+
+        useSocketForLogs = false;
+        sAsyncLogger = null;
+        logger.stop();
     }
 
-    private static void startSocketLogging() {
+    private static synchronized void startSocketLogging() {
         if (socketNameForLogs == null) {
             NexLog.e(TAG, "Can not enable socket logging, socket name is not set");
             return;
         }
 
-        if (mOutputstream != null) {
-            NexLog.e(TAG, "Socket logging is already enabled");
-            return;
+        if (sAsyncLogger != null) {
+            if (sAsyncLogger.isRunning()) {
+                NexLog.e(TAG, "Socket logging is already enabled");
+                return;
+            }
+            sAsyncLogger = null;
         }
 
         if (android.os.Build.VERSION.SDK_INT < android.os.Build.VERSION_CODES.KITKAT) {
@@ -181,14 +398,10 @@ public class NexLog {
 
         try {
             mSendToSocket.connect(mLocSockAddr);
+            sAsyncLogger = new NexAsyncLogger(new NexAsyncLogger.PacketSink(mSendToSocket.getOutputStream()), NexAsyncLogger.DEFAULT_CAPACITY);
             useSocketForLogs = true;
         } catch (IOException e) {
             e.printStackTrace();
         }
-        try {
-            mOutputstream = mSendToSocket.getOutputStream();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
     }
 }
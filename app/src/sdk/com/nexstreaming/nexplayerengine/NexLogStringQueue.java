@@ -1,5 +1,9 @@
 package com.nexstreaming.nexplayerengine;
 
+import android.util.Log;
+
+import java.util.Arrays;
+
 /**
  * \brief  This class defines the log string queue in CEA 708 closed captions.
  * 
@@ -21,6 +25,20 @@ public class NexLogStringQueue {
 	private static final int LOGSTRQ_MAX_SIZE = 630;	
 	private final static String TAG = "LogStringQueue";
 	
+	// bit positions of the attributes packed in a cell, see CharUnit.PackStyle and CharUnit.PackColor.
+	private static final int STYLE_PEN_SIZE = 0;
+	private static final int STYLE_FONT_STYLE = 8;
+	private static final int STYLE_TEXT_TAG = 16;
+	private static final int STYLE_OFFSET = 24;
+	private static final int STYLE_ITALICS = 32;
+	private static final int STYLE_UNDERLINE = 40;
+	private static final int STYLE_EDGE_TYPE = 48;
+	private static final int STYLE_EDGE_COLOR = 56;
+	private static final int COLOR_FG_OPACITY = 0;
+	private static final int COLOR_BG_OPACITY = 8;
+	private static final int COLOR_FG = 16;
+	private static final int COLOR_BG = 24;
+	
 	/**
 	 * \brief  This class defines a character unit in CEA 708 closed captions.
 	 * 
@@ -57,6 +75,40 @@ public class NexLogStringQueue {
 			mCChar = c.mCChar;
 		}
 		
+		long PackStyle(){
+			return (mPenSize & 0xFFL) << STYLE_PEN_SIZE
+					| (mFontStyle & 0xFFL) << STYLE_FONT_STYLE
+					| (mTextTag & 0xFFL) << STYLE_TEXT_TAG
+					| (mOffset & 0xFFL) << STYLE_OFFSET
+					| (mItalics & 0xFFL) << STYLE_ITALICS
+					| (mUnderline & 0xFFL) << STYLE_UNDERLINE
+					| (mEdgeType & 0xFFL) << STYLE_EDGE_TYPE
+					| (mEdgeColor & 0xFFL) << STYLE_EDGE_COLOR;
+		}
+		
+		int PackColor(){
+			return (mFGOpacity & 0xFF) << COLOR_FG_OPACITY
+					| (mBGOpacity & 0xFF) << COLOR_BG_OPACITY
+					| (mFGColor & 0xFF) << COLOR_FG
+					| (mBGColor & 0xFF) << COLOR_BG;
+		}
+		
+		void UnpackUnit(int cchar, long style, int color){
+			mPenSize = (byte)(style >> STYLE_PEN_SIZE);
+			mFontStyle = (byte)(style >> STYLE_FONT_STYLE);
+			mTextTag = (byte)(style >> STYLE_TEXT_TAG);
+			mOffset = (byte)(style >> STYLE_OFFSET);
+			mItalics = (byte)(style >> STYLE_ITALICS);
+			mUnderline = (byte)(style >> STYLE_UNDERLINE);
+			mEdgeType = (byte)(style >> STYLE_EDGE_TYPE);
+			mEdgeColor = (byte)(style >> STYLE_EDGE_COLOR);
+			mFGOpacity = (byte)(color >> COLOR_FG_OPACITY);
+			mBGOpacity = (byte)(color >> COLOR_BG_OPACITY);
+			mFGColor = (byte)(color >> COLOR_FG);
+			mBGColor = (byte)(color >> COLOR_BG);
+			mCChar = cchar;
+		}
+		
 		public void InitUnit(){
 			
 			mPenSize = NexEIA708Struct.STANDARD;
@@ -133,8 +185,65 @@ public class NexLogStringQueue {
 		}
 	}
 	
+	/**
+	 * \brief  A line of CEA 708 closed caption text, read with \c PeekLine.
+	 * 
+	 * The cursor holds a copy of the cells of the line, so reading a line does not allocate
+	 * and the queue can keep receiving characters while the line is drawn.
+	 */
+	static final class LineCursor {
+		private final int mChar[] = new int[LOGSTRQ_MAX_COUNT_IN_A_ROW];
+		private final long mStyle[] = new long[LOGSTRQ_MAX_COUNT_IN_A_ROW];
+		private final int mColor[] = new int[LOGSTRQ_MAX_COUNT_IN_A_ROW];
+		private int mCount;
+		
+		int GetCount(){
+			return mCount;
+		}
+		
+		int GetChar(int x){
+			return mChar[x];
+		}
+		
+		byte GetPenSize(int x){
+			return (byte)(mStyle[x] >> STYLE_PEN_SIZE);
+		}
+		
+		byte GetOffset(int x){
+			return (byte)(mStyle[x] >> STYLE_OFFSET);
+		}
+		
+		byte GetItalics(int x){
+			return (byte)(mStyle[x] >> STYLE_ITALICS);
+		}
+		
+		byte GetUnderline(int x){
+			return (byte)(mStyle[x] >> STYLE_UNDERLINE);
+		}
+		
+		/** \returns The same as \c CharUnit.GetARGBTextColor for the character at \c x. */
+		int GetARGBTextColor(int x){
+			byte opacity = (byte)(mColor[x] >> COLOR_FG_OPACITY);
+			if( opacity == NexEIA708Struct.TRANSPARENT )
+				return 0;
+			return NexEIA708Struct.ConvARGBColor(opacity, (byte)(mColor[x] >> COLOR_FG));
+		}
+		
+		/** \returns The same as \c CharUnit.GetARGBBGColor for the character at \c x. */
+		int GetARGBBGColor(int x){
+			byte opacity = (byte)(mColor[x] >> COLOR_BG_OPACITY);
+			if( opacity == NexEIA708Struct.TRANSPARENT )
+				return 0;
+			return NexEIA708Struct.ConvARGBColor(opacity, (byte)(mColor[x] >> COLOR_BG));
+		}
+	}
+	
 	public CharUnit mCharAttr;
-	CharUnit mStringQ[];
+	// the cells are stored in parallel arrays instead of one CharUnit object per cell:
+	// the character, the pen attributes packed by CharUnit.PackStyle and the pen colors packed by CharUnit.PackColor.
+	int mStringQChar[];
+	long mStringQStyle[];
+	int mStringQColor[];
 	int mStringQStartPos;
 	int mStringQEndPos;
 	int mLineStartPos[];
@@ -159,13 +268,14 @@ public class NexLogStringQueue {
 	
 	private void createMemberArray(){
 		mCharAttr = new CharUnit();
-		mStringQ = new CharUnit[LOGSTRQ_MAX_SIZE];
+		mStringQChar = new int[LOGSTRQ_MAX_SIZE];
+		mStringQStyle = new long[LOGSTRQ_MAX_SIZE];
+		mStringQColor = new int[LOGSTRQ_MAX_SIZE];
 		mLineStartPos = new int[LOGSTRQ_MAX_LINE];
 		mLineEndPos  = new int[LOGSTRQ_MAX_LINE];
 		
-		for(int i = 0 ; i < LOGSTRQ_MAX_SIZE ; i++ ){
-			mStringQ[i] = new CharUnit();
-		}	
+		Arrays.fill(mStringQStyle, mCharAttr.PackStyle());
+		Arrays.fill(mStringQColor, mCharAttr.PackColor());
 
 		for(int i = 0 ; i < LOGSTRQ_MAX_LINE ; i++ ){
 			mLineStartPos[i] = 0;
@@ -246,7 +356,7 @@ public class NexLogStringQueue {
 	public void Reset(){
 		int i;
 		for( i = 0 ; i < LOGSTRQ_MAX_SIZE ; i++ ){
-			mStringQ[i].mCChar = 0;
+			mStringQChar[i] = 0;
 		}
 
 		for( i = 0 ; i < LOGSTRQ_MAX_LINE ; i++ ){
@@ -334,7 +444,8 @@ public class NexLogStringQueue {
 			}
 			else
 			{
-				NexLog.d(TAG, " SetLocation failed " + "row: " + row + " col: " + col);
+				if (NexLog.isLoggable(TAG, Log.DEBUG))
+					NexLog.d(TAG, " SetLocation failed " + "row: " + row + " col: " + col);
 			}
 		}
 		else
@@ -405,10 +516,15 @@ public class NexLogStringQueue {
 		//handle : mStringQ buffer < mStringQEndPos
 		if (LOGSTRQ_MAX_SIZE <= mStringQEndPos)
 		{
-			NexLog.d(TAG, "PushChar() buffer is max. mStringQEndPos: " + mStringQEndPos + " mOffset: " + mOffset);
+			if (NexLog.isLoggable(TAG, Log.DEBUG))
+				NexLog.d(TAG, "PushChar() buffer is max. mStringQEndPos: " + mStringQEndPos + " mOffset: " + mOffset);
 			
 			for (int i = LOGSTRQ_MAX_SIZE - mOffset, j = 0; i < LOGSTRQ_MAX_SIZE; ++i, ++j)
-				mStringQ[j].mCChar = mStringQ[i].mCChar;
+			{
+				mStringQChar[j] = mStringQChar[i];
+				mStringQStyle[j] = mStringQStyle[i];
+				mStringQColor[j] = mStringQColor[i];
+			}
 		
 			mLineStartPos[mLineIndex] = 0;
 			mStringQEndPos = mOffset;
@@ -419,8 +535,9 @@ public class NexLogStringQueue {
 		{
 			if (mLineIndex + 1 < mHeight || (mLineIndex == 0)) 
 			{
-				NexLog.d(TAG, "PushChar input 0x0D: mLineIndex: " + mLineIndex
-						+ " mHeight: " + mHeight);
+				if (NexLog.isLoggable(TAG, Log.DEBUG))
+					NexLog.d(TAG, "PushChar input 0x0D: mLineIndex: " + mLineIndex
+							+ " mHeight: " + mHeight);
 				SetLocation(mLineIndex + 1, 0);
 			}
 			else 
@@ -438,7 +555,7 @@ public class NexLogStringQueue {
 					else 
 					{
 						for (int j = mLineStartPos[i]; j < mLineEndPos[i]; ++j)
-							mStringQ[j].mCChar = 0;
+							mStringQChar[j] = 0;
 						
 						mLineStartPos[i] = 0;
 						mLineEndPos[i] = 0;
@@ -497,7 +614,9 @@ public class NexLogStringQueue {
 			{
 				//put char
 				mCharAttr.mCChar = nChar;
-				mStringQ[mStringQEndPos].CopyUnit(mCharAttr);
+				mStringQChar[mStringQEndPos] = nChar;
+				mStringQStyle[mStringQEndPos] = mCharAttr.PackStyle();
+				mStringQColor[mStringQEndPos] = mCharAttr.PackColor();
 				mStringQEndPos++;
 				
 				mLineEndPos[mLineIndex] = mStringQEndPos;
@@ -561,7 +680,31 @@ public class NexLogStringQueue {
 		}
 	}
 	
+	/**
+	 * \brief  This method gets a line of text in CEA 708 closed captions.
+	 * 
+	 * The cells are copied into the entries of \c cUnit, which are created the first time only.
+	 * \c PeekLine reads a line without creating any object.
+	 * 
+	 * \returns The number of characters in the line.
+	 */
 	public int PeekLineCharUnit(CharUnit[] cUnit, int nLineIndex)
+	{
+		return PeekLine(nLineIndex, cUnit, null);
+	}
+	
+	/**
+	 * \brief  This method gets a line of text in CEA 708 closed captions into \c cursor.
+	 * 
+	 * \returns The number of characters in the line.
+	 */
+	int PeekLine(LineCursor cursor, int nLineIndex)
+	{
+		cursor.mCount = PeekLine(nLineIndex, null, cursor);
+		return cursor.mCount;
+	}
+	
+	private int PeekLine(int nLineIndex, CharUnit[] cUnit, LineCursor cursor)
 	{
 		int nLineCount = 0;
 			
@@ -601,12 +744,24 @@ public class NexLogStringQueue {
 						if (LOGSTRQ_MAX_SIZE >= nStringIndex)
 							nStringIndex %= LOGSTRQ_MAX_SIZE;
 						
-						cUnit[i] = mStringQ[nStringIndex];
+						if (null != cursor)
+						{
+							cursor.mChar[i] = mStringQChar[nStringIndex];
+							cursor.mStyle[i] = mStringQStyle[nStringIndex];
+							cursor.mColor[i] = mStringQColor[nStringIndex];
+						}
+						else
+						{
+							if (null == cUnit[i])
+								cUnit[i] = new CharUnit();
+							cUnit[i].UnpackUnit(mStringQChar[nStringIndex], mStringQStyle[nStringIndex], mStringQColor[nStringIndex]);
+						}
 					}
 				}
 				else
 				{
-					NexLog.e(TAG, "PeekLineCharUnit - invalid line count : " + nLineCount);
+					if (NexLog.isLoggable(TAG, Log.ERROR))
+						NexLog.e(TAG, "PeekLineCharUnit - invalid line count : " + nLineCount);
 					nLineCount = 0;
 				}
 			}
@@ -1,24 +1,45 @@
 package com.nexstreaming.nexplayerengine;
 
+import android.net.LocalSocket;
+import android.net.LocalSocketAddress;
 import android.os.Build;
 import android.os.Environment;
-import android.util.Log;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Locale;
 
+/**
+ * Captures the engine and SDK logs of a player into rotating binary files, inside the application process.
+ *
+ * The engine delivers its logs to a unix domain datagram socket owned by this class, through
+ * \c ENABLE_LOGGING_TO_APP_SIDE and \c SET_UDS_NAME_FOR_LOGGING, and \c NexLog hands over the SDK logs directly.
+ * Both are queued in a \c NexAsyncLogger and written by \c NexBinaryLogWriter, so no log line depends on the
+ * \c logcat buffer or on a separate process.  Use \c NexBinaryLogDecoder to read the files.
+ *
+ * The engine packets only carry a tag and a message, so engine records are stored with \c TID_UNKNOWN and
+ * \c LEVEL_UNKNOWN, and decoded with a \c '?' level and no thread id.
+ */
 public class NexLogsToFile implements Runnable {
     private static final String LOG_TAG = "NexLogsToFile";
     private static final String DEFAULT_LOGFILE_DIRECTORY = Environment.getExternalStorageDirectory().getPath() + "/NexPlayerSample/Logs/";
-    private static final String TXT = ".txt";
     private static final String filenameBase = "%s_%s_log";
+    private static final String SOCKET_NAME = ".nexlog_socket";
+    private static final String ENGINE_TAG = "NexPlayerEngine";
+    private static final int MAX_PACKET_SIZE = 4096;
+    private static final int CAPTURE_CAPACITY = 8192;
 
-    private Process mCleanProcess = null;
-    private Process mLogProcess = null;
-    private String captureCommand = "logcat -v threadtime";
+    private final NexPlayer mPlayer;
+    private final File mDirectory;
+    private final int mFileSize;
+    private final int mFileCount;
+
+    private NexAsyncLogger mLogger = null;
+    private LocalSocket mSocket = null;
 
     public enum NexFileLogPreset {
         DEFAULT(0),
@@ -150,26 +171,17 @@ public class NexLogsToFile implements Runnable {
 		
         player.setProperties(0x000D0001, debugLogs);
 
-        if (0 < bufferSize)
-        {
-            captureCommand += " -r " + bufferSize;
-        }
-
-        if (0 < fileCount)
-        {
-            captureCommand += " -n " + fileCount;
-        }
+        mPlayer = player;
+        // bufferSize is in KB, as for logcat -r.
+        mFileSize = 0 < bufferSize ? (int) Math.min(bufferSize * 1024L, Integer.MAX_VALUE) : Builder.DEFAULT_BUFFER_SIZE * 1024;
+        mFileCount = 0 < fileCount ? fileCount : Builder.DEFAULT_MAX_FILE_COUNT;
 
         String directoryApllied = null != directory ? directory : DEFAULT_LOGFILE_DIRECTORY;
 
-        File directoryHandle = new File(directoryApllied);
-        if (!directoryHandle.exists()) {
-            directoryHandle.mkdirs();
+        mDirectory = new File(directoryApllied);
+        if (!mDirectory.exists()) {
+            mDirectory.mkdirs();
         }
-
-        String targetPath = directoryHandle.getAbsolutePath() + "/" + getFileName();
-        captureCommand += " -f " + targetPath;
-		//Log.d(LOG_TAG, "NexLogsToFile > targetPath = " + targetPath);
     }
 
     private String getFileName() {
@@ -180,21 +192,91 @@ public class NexLogsToFile implements Runnable {
         String fileName = String.format(NexLogsToFile.filenameBase, currentDateAndTime, Build.MODEL);
         fileName = fileName.replace(" ","_");
         fileName = fileName.replace("\n","_");
-        fileName += TXT;
 
         return fileName;
     }
 
+    /**
+     * Starts capturing.  Calling it again while capturing has no effect.
+     */
     @Override
-    public void run() {
-        clean();
+    public synchronized void run() {
+        if (mLogger != null) {
+            return;
+        }
+
+        NexBinaryLogWriter writer = new NexBinaryLogWriter(mDirectory, getFileName(), mFileSize, mFileCount);
+        mLogger = new NexAsyncLogger(writer, CAPTURE_CAPACITY);
+        NexLog.setCaptureLogger(mLogger);
+
+        File socketFile = new File(mDirectory, SOCKET_NAME);
+        socketFile.delete();
         try {
-            NexLog.d(LOG_TAG, "run commands to save logs into file : " + captureCommand);
-            mLogProcess = Runtime.getRuntime().exec(captureCommand);
+            mSocket = new LocalSocket(LocalSocket.SOCKET_DGRAM);
+            mSocket.bind(new LocalSocketAddress(socketFile.getAbsolutePath(), LocalSocketAddress.Namespace.FILESYSTEM));
+        } catch (IOException e) {
+            NexLog.e(LOG_TAG, "failed to bind the engine log socket : " + e.getMessage());
+            closeSocket();
+            NexLog.setCaptureLogger(null);
+            mLogger.stop();
+            mLogger = null;
+            return;
         }
-        catch (IOException e) {
-            NexLog.e(LOG_TAG, "failed capture command");
-            e.printStackTrace();
+
+        final LocalSocket socket = mSocket;
+        Thread receiveThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                receive(socket);
+            }
+        }, LOG_TAG);
+        receiveThread.setDaemon(true);
+        receiveThread.start();
+
+        mPlayer.setProperties(NexPlayer.NexProperty.SET_UDS_NAME_FOR_LOGGING.getPropertyCode(), socketFile.getAbsolutePath());
+        mPlayer.setProperties(NexPlayer.NexProperty.ENABLE_LOGGING_TO_APP_SIDE.getPropertyCode(), 1);
+        NexLog.d(LOG_TAG, "capturing logs into " + mDirectory.getAbsolutePath());
+    }
+
+    /**
+     * Queues every packet received from the engine. A packet is one log line, "[tag] message ", without the
+     * level or the thread id of the engine.
+     */
+    private void receive(LocalSocket socket) {
+        byte[] packet = new byte[MAX_PACKET_SIZE];
+        Charset utf8 = Charset.forName("UTF-8");
+        try {
+            InputStream in = socket.getInputStream();
+            while (true) {
+                int length = in.read(packet);
+                if (length < 0) {
+                    break;
+                }
+                while (0 < length && (packet[length - 1] == ' ' || packet[length - 1] == 0)) {
+                    length--;
+                }
+
+                String tag = ENGINE_TAG;
+                int start = 0;
+                if (0 < length && packet[0] == '[') {
+                    for (int i = 1; i < length; i++) {
+                        if (packet[i] == ']') {
+                            tag = new String(packet, 1, i - 1, utf8);
+                            start = Math.min(i + 2, length);
+                            break;
+                        }
+                    }
+                }
+
+                NexAsyncLogger logger = mLogger;
+                if (logger == null) {
+                    break;
+                }
+                logger.log(NexAsyncLogger.TID_UNKNOWN, NexAsyncLogger.LEVEL_UNKNOWN, tag,
+                        new String(packet, start, length - start, utf8));
+            }
+        } catch (IOException e) {
+            // the socket is closed by kill().
         }
     }
 
@@ -204,23 +286,33 @@ public class NexLogsToFile implements Runnable {
         super.finalize();
     }
 
+    /**
+     * Kept for compatibility.  The in-process capture starts empty, so there is nothing to clear.
+     */
     public void clean() {
-        try {
-            mCleanProcess = Runtime.getRuntime().exec("logcat -c");
-        }
-        catch (IOException e) {
-            NexLog.e(LOG_TAG, "failed clear command");
-            e.printStackTrace();
-        }
     }
 
-    public void kill() {
-        if (mLogProcess != null) {
-            mLogProcess.destroy();
+    /**
+     * Stops capturing, and writes the logs already received.
+     */
+    public synchronized void kill() {
+        closeSocket();
+        if (mLogger != null) {
+            NexLog.setCaptureLogger(null);
+            mLogger.stop();
+            mLogger = null;
         }
+    }
 
-        if (mCleanProcess != null) {
-            mCleanProcess.destroy();
+    private void closeSocket() {
+        if (mSocket != null) {
+            try {
+                mSocket.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            mSocket = null;
+            new File(mDirectory, SOCKET_NAME).delete();
         }
     }
 }
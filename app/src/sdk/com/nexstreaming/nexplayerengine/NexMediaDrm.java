@@ -54,6 +54,14 @@ public class NexMediaDrm{
         this.mediaDrm = new MediaDrm(uuid);
     }
 
+    /*
+     * For a NexMediaDrm that stands in for the platform one, such as a fake in tests. It must override every
+     * method its users call.
+     */
+    NexMediaDrm() {
+        this.mediaDrm = null;
+    }
+
     public String getSecurityLevel(){
         return (mediaDrm != null)?  mediaDrm.getPropertyString("securityLevel"): null;
     }
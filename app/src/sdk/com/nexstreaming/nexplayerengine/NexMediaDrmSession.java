@@ -48,6 +48,7 @@ public class NexMediaDrmSession {
     private final NexMediaDrm mediaDrm;
     private final ProvisioningManager provisioningManager;
     private final byte[] initData;
+    private final String keyIds;
     private final String mimeType;
     private final int mode;
     private final HashMap<String, String> optionalKeyRequestParameters;
@@ -91,6 +92,8 @@ public class NexMediaDrmSession {
 
     private static final int DATA_SIZE = 4;
 
+    private static final int KEY_ID_SIZE = 16;
+
     NexMediaDrmSession(UUID uuid, NexMediaDrm mediaDrm,
                        ProvisioningManager provisioningManager, byte[] initData, String mimeType,
                        int mode, byte[] offlineLicenseKeySetId,
@@ -108,7 +111,7 @@ public class NexMediaDrmSession {
         this.initialDrmRequestRetryCount = initialDrmRequestRetryCount;
         this.eventListener = eventListener;
         this.mediaTypes = new ArrayList<Integer>();
-
+        this.keyIds = null != initData ? parseKeyIds(initData) : null;
 
         state = STATE_OPENING;
 
@@ -164,6 +167,9 @@ public class NexMediaDrmSession {
     }
 
     private byte[] createPsshBox(byte [] data){
+        // hasInitData parses the boxes of other contents with this session, nothing is kept from a previous box.
+        nKeyIDs = 0;
+        nBytesToSkip = KEY_ID_SIZE;
         if(data[VERSION_INDEX] > 0){
             for(int i = 0; i < READ_NUMBER_OF_KEYIDS; i++){
                 int value = data[i + NUMBER_OF_KEYIDS_INDEX];
@@ -177,6 +183,43 @@ public class NexMediaDrmSession {
         }
     }
 
+    /*
+     * Returns the key IDs listed by a version 1 PSSH box as sorted hex strings joined by commas, or null
+     * when the data is not such a box. Two boxes with the same key IDs are answered by the same license
+     * even when their system specific data differs.
+     */
+    static String parseKeyIds(byte[] pssh) {
+        if (pssh.length < PSSH_SIZE || 'p' != pssh[4] || 's' != pssh[5] || 's' != pssh[6] || 'h' != pssh[7] || 0 == pssh[VERSION_INDEX]) {
+            return null;
+        }
+        int count = 0;
+        for (int i = 0; i < READ_NUMBER_OF_KEYIDS; i++) {
+            count = (count << 8) | (pssh[NUMBER_OF_KEYIDS_INDEX + i] & 0xFF);
+        }
+        if (count <= 0 || count > (pssh.length - PSSH_SIZE) / KEY_ID_SIZE) {
+            return null;
+        }
+
+        String[] ids = new String[count];
+        for (int i = 0; i < count; i++) {
+            StringBuilder id = new StringBuilder(KEY_ID_SIZE * 2);
+            for (int j = 0; j < KEY_ID_SIZE; j++) {
+                id.append(String.format("%02x", pssh[PSSH_SIZE + i * KEY_ID_SIZE + j] & 0xFF));
+            }
+            ids[i] = id.toString();
+        }
+        Arrays.sort(ids);
+
+        StringBuilder joined = new StringBuilder();
+        for (String id : ids) {
+            if (joined.length() > 0) {
+                joined.append(',');
+            }
+            joined.append(id);
+        }
+        return joined.toString();
+    }
+
     private boolean isPSSHContained(byte [] pssh) {
         boolean contained = false;
         if(pssh.length > 0) {
@@ -236,6 +279,10 @@ public class NexMediaDrmSession {
         }
     }
 
+    boolean hasKeyIds(String keyIds) {
+        return null != keyIds && keyIds.equals(this.keyIds);
+    }
+
     boolean hasSessionId(byte[] sessionId) {
         return Arrays.equals(this.sessionId, sessionId);
     }
@@ -510,13 +557,13 @@ public class NexMediaDrmSession {
             state = STATE_ERROR;
         }
         if (eventListener != null) {
-            eventListener.onDrmSessionManagerError(e);
+            eventListener.onDrmSessionManagerError(e, this);
         }
     }
 
     private void onKeyExpired(final Exception e) {
         if (eventListener != null) {
-            eventListener.onDrmKeyExpired(e);
+            eventListener.onDrmKeyExpired(e, this);
         }
     }
 
@@ -8,11 +8,11 @@ import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
 
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class NexMediaDrmSessionManager implements NexMediaDrmSession.ProvisioningManager {
 
@@ -43,11 +43,14 @@ public class NexMediaDrmSessionManager implements NexMediaDrmSession.Provisionin
     public interface EventListener {
         void onDrmKeysLoaded(byte[] keySetId, byte[] sessionId);
 
-        void onDrmSessionManagerError(Exception e);
+        /*
+         * session is the session the error comes from, or null when the error is not one of a session.
+         */
+        void onDrmSessionManagerError(Exception e, NexMediaDrmSession session);
 
 		void onDrmKeyStatusChanged(List<NexMediaDrm.KeyStatus> KeyStatusInfo, byte[] sessionId);
 
-		void onDrmKeyExpired(Exception e);
+		void onDrmKeyExpired(Exception e, NexMediaDrmSession session);
 
         void onDrmKeysRestored();
 
@@ -63,6 +66,7 @@ public class NexMediaDrmSessionManager implements NexMediaDrmSession.Provisionin
 
     private static final String TAG = "NexMediaDrmSessionMgr";
 
+    // null for a manager shared by several players, which only requests streaming licenses.
     private final NexPlayer nexPlayer;
     private final UUID uuid;
     private final NexMediaDrm mediaDrm;
@@ -77,6 +81,7 @@ public class NexMediaDrmSessionManager implements NexMediaDrmSession.Provisionin
 
     private Looper playbackLooper;
     private int mode;
+    private boolean matchKeyIds;
     private byte[] offlineLicenseKeySetId;
 
     private volatile MediaDrmHandler mediaDrmHandler;
@@ -93,13 +98,13 @@ public class NexMediaDrmSessionManager implements NexMediaDrmSession.Provisionin
         this.multiSession = multiSession;
         this.initialDrmRequestRetryCount = initialDrmRequestRetryCount;
         mode = MODE_PLAYBACK;
-        sessions = new ArrayList<NexMediaDrmSession>();
-        provisioningSessions = new ArrayList<NexMediaDrmSession>();
+        sessions = new CopyOnWriteArrayList<NexMediaDrmSession>();
+        provisioningSessions = new CopyOnWriteArrayList<NexMediaDrmSession>();
         if (multiSession && NexMediaDrm.WIDEVINE_UUID.equals(uuid) && Build.VERSION.SDK_INT >= 19) {
             mediaDrm.setPropertyString("sessionSharing", "enable");
         }
 
-        if((Build.MODEL).equals("Pixel C")) {
+        if("Pixel C".equals(Build.MODEL)) {
             mediaDrm.forceToL3();
         }
 
@@ -116,7 +121,7 @@ public class NexMediaDrmSessionManager implements NexMediaDrmSession.Provisionin
                         if (MediaDrm.KeyStatus.STATUS_OUTPUT_NOT_ALLOWED == keyInfo.getStatusCode()) {
                             for (NexMediaDrmSession existingSession : sessions) {
                                 if (existingSession.hasSessionId(sessionId)) {
-                                    eventListener.onDrmSessionManagerError(new MediaCodec.CryptoException(MediaCodec.CryptoException.ERROR_INSUFFICIENT_OUTPUT_PROTECTION, "output not allowed"));
+                                    eventListener.onDrmSessionManagerError(new MediaCodec.CryptoException(MediaCodec.CryptoException.ERROR_INSUFFICIENT_OUTPUT_PROTECTION, "output not allowed"), existingSession);
                                     break;
                                 }
                             }
@@ -145,11 +150,20 @@ public class NexMediaDrmSessionManager implements NexMediaDrmSession.Provisionin
         mediaDrm.setPropertyByteArray(key, value);
     }
 
+    /*
+     * When enabled, a PSSH box that lists the same key IDs as an existing session reuses that session
+     * and its license instead of opening a new one.
+     */
+    void setMatchKeyIds(boolean matchKeyIds) {
+        this.matchKeyIds = matchKeyIds;
+    }
+
     private NexMediaDrmSession getSession(byte[] pssh) throws Exception {
         NexMediaDrmSession session = null;
+        String keyIds = matchKeyIds ? NexMediaDrmSession.parseKeyIds(pssh) : null;
 
         for (NexMediaDrmSession existingSession : sessions) {
-            if (existingSession.hasInitData(pssh)) {
+            if (existingSession.hasKeyIds(keyIds) || existingSession.hasInitData(pssh)) {
                 session = existingSession;
                 break;
             }
@@ -298,7 +312,7 @@ public class NexMediaDrmSessionManager implements NexMediaDrmSession.Provisionin
 
     private void maybeSetKeyId(NexPlayer.OfflineMode offlineMode) {
         if (NexPlayer.OfflineMode.RETRIEVE == offlineMode || NexPlayer.OfflineMode.RETRIEVE_STORE == offlineMode || NexPlayer.OfflineMode.KEYEXPIRE_RETRIEVE_STORE == offlineMode) {
-            if (nexPlayer.getEventForwarder().hasInterface(NexPlayer.IOfflineKeyListener.class)) {
+            if (null != nexPlayer && nexPlayer.getEventForwarder().hasInterface(NexPlayer.IOfflineKeyListener.class)) {
                 NexLog.d(TAG, "onOfflineKeyRetrieveListener...");
                 NexPlayerEvent event = new NexPlayerEvent(NexPlayerEvent.NEXPLAYER_OFFLINE_RETREIVE_KEY, new int[0], new long[0], null);
                 byte[] keySetId = (byte[]) nexPlayer.getEventForwarder().handleEvent(nexPlayer, event);
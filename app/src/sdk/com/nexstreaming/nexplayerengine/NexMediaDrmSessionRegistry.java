@@ -0,0 +1,315 @@
+package com.nexstreaming.nexplayerengine;
+
+import android.os.Build;
+import android.os.HandlerThread;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/*
+ * Process wide registry that lets several NexPlayer instances playing the same protected content share one
+ * MediaDrm, one opened session per key ID set and one license.
+ *
+ * Players are grouped by DRM scheme, key server, optional header fields and license listener, so that a
+ * license fetched for one player is one the others would have fetched themselves. Inside a group, sessions
+ * are matched by PSSH data or by the key IDs a version 1 PSSH box lists. NexMediaDrmSession only opens and
+ * requests a license for its first acquirer, so players that join while that request is in flight wait for
+ * the same response instead of sending their own.
+ *
+ * Everything is reference counted: a session is closed when its last player releases it, and the MediaDrm
+ * and its handler thread go away with the last player of the group.
+ */
+final class NexMediaDrmSessionRegistry {
+    private static final String TAG = "NexMediaDrmRegistry";
+
+    private static final NexMediaDrmSessionRegistry INSTANCE = new NexMediaDrmSessionRegistry();
+
+    /*
+     * Creates the session manager of a new group. NexPlayer passes one that opens the platform MediaDrm and
+     * sends requests to the key server; any other NexMediaDrm and license callback can be plugged in here.
+     * The manager lives as long as the group, so it must not hold the player that happened to create it.
+     */
+    interface ManagerFactory {
+        NexMediaDrmSessionManager create(NexMediaDrmSessionManager.EventListener listener) throws Exception;
+    }
+
+    private final HashMap<Key, Group> mGroups = new HashMap<Key, Group>();
+
+    private NexMediaDrmSessionRegistry() {
+    }
+
+    static NexMediaDrmSessionRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    /*
+     * Joins the group matching the given license configuration, creating it through factory when this is
+     * its first player. listener receives the events and errors of the sessions acquired through the
+     * returned handle, along with errors that are not one of a session. The handle must be released when
+     * the player closes.
+     */
+    Handle register(UUID uuid, String keyServer, HashMap<String, String> optionalHeaderFields,
+                    INexDRMLicenseListener licenseListener, NexMediaDrmSessionManager.EventListener listener,
+                    ManagerFactory factory) throws Exception {
+        Key key = new Key(uuid, keyServer, optionalHeaderFields, licenseListener);
+
+        synchronized (this) {
+            Group group = mGroups.get(key);
+            if (null == group) {
+                group = new Group(key);
+                group.open(factory);
+                mGroups.put(key, group);
+            } else {
+                NexLog.d(TAG, "sharing MediaDrm of " + uuid + " with " + group.mHandles.size() + " player(s)");
+            }
+
+            Handle handle = new Handle(group, listener);
+            group.mHandles.add(handle);
+            return handle;
+        }
+    }
+
+    private synchronized void unregister(Handle handle) {
+        Group group = handle.mGroup;
+        group.mHandles.remove(handle);
+
+        if (group.mHandles.isEmpty()) {
+            mGroups.remove(group.mKey);
+            group.close();
+        }
+    }
+
+    /*
+     * The view of a group one player holds. Tracks the references the player took on shared sessions, and
+     * the unique ID the player gave each of them, since the session object itself is shared.
+     */
+    static final class Handle {
+        private final Group mGroup;
+        private final NexMediaDrmSessionManager.EventListener mListener;
+        private final ArrayList<NexMediaDrmSession> mSessions = new ArrayList<NexMediaDrmSession>();
+        private final HashMap<NexMediaDrmSession, Integer> mUniqueIds = new HashMap<NexMediaDrmSession, Integer>();
+        private boolean mReleased = false;
+
+        private Handle(Group group, NexMediaDrmSessionManager.EventListener listener) {
+            mGroup = group;
+            mListener = listener;
+        }
+
+        NexMediaDrmSessionManager getManager() {
+            return mGroup.mManager;
+        }
+
+        /*
+         * Acquires the session for pssh, opening it and requesting its license only if no other player of
+         * the group holds a session for the same data or key IDs.
+         */
+        NexMediaDrmSession acquireSession(byte[] pssh, int uniqueId, HashMap<String, String> optionalHeaderFields) throws Exception {
+            synchronized (mGroup) {
+                NexMediaDrmSession session;
+                // a session that fails to open reports it before it is returned, and so before it is held.
+                mGroup.mAcquiringHandle = this;
+                try {
+                    session = mGroup.mManager.acquireSession(mGroup.mThread.getLooper(), pssh,
+                            NexPlayer.OfflineMode.NONE, uniqueId, optionalHeaderFields);
+                } finally {
+                    mGroup.mAcquiringHandle = null;
+                }
+
+                if (null != session) {
+                    mSessions.add(session);
+                    mUniqueIds.put(session, uniqueId);
+                }
+                return session;
+            }
+        }
+
+        void releaseSession(NexMediaDrmSession session) {
+            synchronized (mGroup) {
+                if (null != session && mSessions.remove(session)) {
+                    if (!mSessions.contains(session)) {
+                        mUniqueIds.remove(session);
+                    }
+                    mGroup.mManager.releaseSession(session);
+                }
+            }
+        }
+
+        /*
+         * Returns the unique ID this player passed when acquiring session, or the one stored in the session
+         * when the player does not hold it.
+         */
+        int getUniqueId(NexMediaDrmSession session) {
+            synchronized (mGroup) {
+                Integer uniqueId = mUniqueIds.get(session);
+                return null != uniqueId ? uniqueId : session.getUniqueId();
+            }
+        }
+
+        private boolean holds(NexMediaDrmSession session) {
+            synchronized (mGroup) {
+                return mGroup.mAcquiringHandle == this || mSessions.contains(session);
+            }
+        }
+
+        private boolean holds(byte[] sessionId) {
+            synchronized (mGroup) {
+                for (NexMediaDrmSession session : mSessions) {
+                    if (session.hasSessionId(sessionId)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+        }
+
+        /*
+         * Releases every session this player still holds and leaves the group.
+         */
+        void release() {
+            synchronized (mGroup) {
+                if (mReleased) {
+                    return;
+                }
+                mReleased = true;
+
+                for (NexMediaDrmSession session : mSessions) {
+                    mGroup.mManager.releaseSession(session);
+                }
+                mSessions.clear();
+                mUniqueIds.clear();
+            }
+            INSTANCE.unregister(this);
+        }
+    }
+
+    private static final class Group implements NexMediaDrmSessionManager.EventListener {
+        private final Key mKey;
+        private final List<Handle> mHandles = new CopyOnWriteArrayList<Handle>();
+        // the handle acquiring a session, guarded by the group.
+        private Handle mAcquiringHandle;
+        private HandlerThread mThread;
+        private NexMediaDrmSessionManager mManager;
+
+        private Group(Key key) {
+            mKey = key;
+        }
+
+        private void open(ManagerFactory factory) throws Exception {
+            mThread = new HandlerThread("SharedDrmHandler");
+            mThread.start();
+
+            try {
+                mManager = factory.create(this);
+            } catch (Exception e) {
+                quitThread();
+                throw e;
+            }
+            mManager.setMatchKeyIds(true);
+        }
+
+        private void close() {
+            NexLog.d(TAG, "releasing shared MediaDrm of " + mKey.mUuid);
+            mManager.releaseMediaDrm();
+            quitThread();
+        }
+
+        private void quitThread() {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ECLAIR) {
+                mThread.quit();
+            }
+            mThread = null;
+        }
+
+        @Override
+        public void onDrmKeysLoaded(byte[] keySetId, byte[] sessionId) {
+            for (Handle handle : mHandles) {
+                if (handle.holds(sessionId)) {
+                    handle.mListener.onDrmKeysLoaded(keySetId, sessionId);
+                }
+            }
+        }
+
+        @Override
+        public void onDrmSessionManagerError(Exception e, NexMediaDrmSession session) {
+            // a failed license or open only concerns the players of that content; the session may have no ID yet.
+            for (Handle handle : mHandles) {
+                if (null == session || handle.holds(session)) {
+                    handle.mListener.onDrmSessionManagerError(e, session);
+                }
+            }
+        }
+
+        @Override
+        public void onDrmKeyStatusChanged(List<NexMediaDrm.KeyStatus> KeyStatusInfo, byte[] sessionId) {
+            for (Handle handle : mHandles) {
+                if (handle.holds(sessionId)) {
+                    handle.mListener.onDrmKeyStatusChanged(KeyStatusInfo, sessionId);
+                }
+            }
+        }
+
+        @Override
+        public void onDrmKeyExpired(Exception e, NexMediaDrmSession session) {
+            for (Handle handle : mHandles) {
+                if (null == session || handle.holds(session)) {
+                    handle.mListener.onDrmKeyExpired(e, session);
+                }
+            }
+        }
+
+        @Override
+        public void onDrmKeysRestored() {
+            for (Handle handle : mHandles) {
+                handle.mListener.onDrmKeysRestored();
+            }
+        }
+
+        @Override
+        public void onDrmKeysRemoved() {
+            for (Handle handle : mHandles) {
+                handle.mListener.onDrmKeysRemoved();
+            }
+        }
+    }
+
+    private static final class Key {
+        private final UUID mUuid;
+        private final String mKeyServer;
+        private final HashMap<String, String> mOptionalHeaderFields;
+        private final INexDRMLicenseListener mLicenseListener;
+
+        private Key(UUID uuid, String keyServer, HashMap<String, String> optionalHeaderFields, INexDRMLicenseListener licenseListener) {
+            mUuid = uuid;
+            mKeyServer = keyServer;
+            mOptionalHeaderFields = null != optionalHeaderFields ? new HashMap<String, String>(optionalHeaderFields) : null;
+            mLicenseListener = licenseListener;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return mUuid.equals(other.mUuid)
+                    && (null == mKeyServer ? null == other.mKeyServer : mKeyServer.equals(other.mKeyServer))
+                    && (null == mOptionalHeaderFields ? null == other.mOptionalHeaderFields : mOptionalHeaderFields.equals(other.mOptionalHeaderFields))
+                    && mLicenseListener == other.mLicenseListener;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = mUuid.hashCode();
+            result = 31 * result + (null != mKeyServer ? mKeyServer.hashCode() : 0);
+            result = 31 * result + (null != mOptionalHeaderFields ? mOptionalHeaderFields.hashCode() : 0);
+            result = 31 * result + System.identityHashCode(mLicenseListener);
+            return result;
+        }
+    }
+}
@@ -0,0 +1,328 @@
+package com.nexstreaming.nexplayerengine;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * \brief  An in-app registry of counters, gauges and histograms describing the player internals.
+ *
+ * Metrics are identified by a name and a set of label pairs, and are created on first use.
+ * Updating and reading a metric never takes a lock, so a scrape through \c NexMetricsServer
+ * never blocks the player threads that update the values.
+ *
+ * The registry is optional: it is only fed by the modules it has been given to, for example with
+ * \c NexStatisticsMonitor.setMetricsRegistry or \c NexABRController.setMetricsRegistry.
+ *
+ * \see NexMetricsServer
+ */
+public class NexMetricsRegistry {
+
+	private static final String TYPE_COUNTER = "counter";
+	private static final String TYPE_GAUGE = "gauge";
+	private static final String TYPE_HISTOGRAM = "histogram";
+
+	/** Default histogram buckets for durations, in seconds. */
+	public static final double[] DEFAULT_SECONDS_BUCKETS = {
+			0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10
+	};
+
+	private final ConcurrentHashMap<String, Family> mFamilies = new ConcurrentHashMap<String, Family>();
+
+	private static class Family {
+		final String mName;
+		final String mHelp;
+		final String mType;
+		final ConcurrentHashMap<String, Metric> mMetrics = new ConcurrentHashMap<String, Metric>();
+
+		Family(String name, String help, String type) {
+			mName = name;
+			mHelp = help;
+			mType = type;
+		}
+	}
+
+	private static abstract class Metric {
+		abstract void write(StringBuilder out, String name, String labels);
+	}
+
+	/**
+	 * \brief  A value that only increases, reset only when the application restarts.
+	 */
+	public static final class Counter extends Metric {
+		private final AtomicLong mValue = new AtomicLong();
+		private final AtomicLong mLastTotal = new AtomicLong();
+
+		/** Increases the counter by one. */
+		public void inc() {
+			mValue.incrementAndGet();
+		}
+
+		/** Increases the counter by \c delta, which must not be negative. */
+		public void inc(long delta) {
+			if( delta > 0 ) {
+				mValue.addAndGet(delta);
+			}
+		}
+
+		/**
+		 * Follows a cumulative total kept by another module. The counter increases by the difference with the
+		 * previously observed total, or by the whole total if the source was reset in between.
+		 */
+		public void observeTotal(long total) {
+			long last = mLastTotal.getAndSet(total);
+			inc(total >= last ? total - last : total);
+		}
+
+		public long get() {
+			return mValue.get();
+		}
+
+		@Override
+		void write(StringBuilder out, String name, String labels) {
+			writeSample(out, name, labels, null, mValue.get());
+		}
+	}
+
+	/**
+	 * \brief  A value that can go up and down.
+	 */
+	public static final class Gauge extends Metric {
+		private final AtomicLong mBits = new AtomicLong(Double.doubleToRawLongBits(0));
+
+		public void set(double value) {
+			mBits.set(Double.doubleToRawLongBits(value));
+		}
+
+		public double get() {
+			return Double.longBitsToDouble(mBits.get());
+		}
+
+		@Override
+		void write(StringBuilder out, String name, String labels) {
+			writeSample(out, name, labels, null, get());
+		}
+	}
+
+	/**
+	 * \brief  Counts observed values in cumulative buckets with fixed upper bounds.
+	 */
+	public static final class Histogram extends Metric {
+		private final double[] mUpperBounds;
+		private final AtomicLongArray mCounts;
+		private final AtomicLong mCount = new AtomicLong();
+		private final AtomicLong mSumBits = new AtomicLong(Double.doubleToRawLongBits(0));
+
+		private Histogram(double[] upperBounds) {
+			mUpperBounds = upperBounds;
+			mCounts = new AtomicLongArray(upperBounds.length);
+		}
+
+		public void observe(double value) {
+			int index = Arrays.binarySearch(mUpperBounds, value);
+			if( index < 0 ) {
+				index = -index - 1;
+			}
+			if( index < mUpperBounds.length ) {
+				mCounts.incrementAndGet(index);
+			}
+			mCount.incrementAndGet();
+
+			long bits;
+			do {
+				bits = mSumBits.get();
+			} while( !mSumBits.compareAndSet(bits, Double.doubleToRawLongBits(Double.longBitsToDouble(bits) + value)) );
+		}
+
+		public long getCount() {
+			return mCount.get();
+		}
+
+		@Override
+		void write(StringBuilder out, String name, String labels) {
+			long count = mCount.get();
+			long cumulative = 0;
+			for( int i = 0; i < mUpperBounds.length; i++ ) {
+				cumulative += mCounts.get(i);
+				writeSample(out, name + "_bucket", labels, formatDouble(mUpperBounds[i]), Math.min(cumulative, count));
+			}
+			writeSample(out, name + "_bucket", labels, "+Inf", count);
+			writeSample(out, name + "_sum", labels, null, Double.longBitsToDouble(mSumBits.get()));
+			writeSample(out, name + "_count", labels, null, count);
+		}
+	}
+
+	/**
+	 * Gets or creates a counter.
+	 *
+	 * \param name    The metric name, for example \c "nexplayer_bytes_received_total".
+	 * \param help    A short description of the metric.
+	 * \param labels  Label names and values, alternating, for example \c "player", \c "0".
+	 */
+	public Counter counter(String name, String help, String... labels) {
+		Family family = getFamily(name, help, TYPE_COUNTER);
+		String key = formatLabels(labels);
+		Metric metric = family.mMetrics.get(key);
+		if( metric == null ) {
+			Metric created = new Counter();
+			metric = family.mMetrics.putIfAbsent(key, created);
+			if( metric == null ) {
+				metric = created;
+			}
+		}
+		return (Counter) metric;
+	}
+
+	/**
+	 * Gets or creates a gauge.
+	 *
+	 * \param name    The metric name.
+	 * \param help    A short description of the metric.
+	 * \param labels  Label names and values, alternating.
+	 */
+	public Gauge gauge(String name, String help, String... labels) {
+		Family family = getFamily(name, help, TYPE_GAUGE);
+		String key = formatLabels(labels);
+		Metric metric = family.mMetrics.get(key);
+		if( metric == null ) {
+			Metric created = new Gauge();
+			metric = family.mMetrics.putIfAbsent(key, created);
+			if( metric == null ) {
+				metric = created;
+			}
+		}
+		return (Gauge) metric;
+	}
+
+	/**
+	 * Gets or creates a histogram.
+	 *
+	 * \param name         The metric name.
+	 * \param help         A short description of the metric.
+	 * \param upperBounds  The bucket upper bounds, in increasing order.  Ignored if the histogram already exists.
+	 * \param labels       Label names and values, alternating.
+	 */
+	public Histogram histogram(String name, String help, double[] upperBounds, String... labels) {
+		Family family = getFamily(name, help, TYPE_HISTOGRAM);
+		String key = formatLabels(labels);
+		Metric metric = family.mMetrics.get(key);
+		if( metric == null ) {
+			Metric created = new Histogram(upperBounds.clone());
+			metric = family.mMetrics.putIfAbsent(key, created);
+			if( metric == null ) {
+				metric = created;
+			}
+		}
+		return (Histogram) metric;
+	}
+
+	/**
+	 * Writes every metric of the registry in the Prometheus text exposition format, version 0.0.4.
+	 */
+	public String scrape() {
+		StringBuilder out = new StringBuilder(4096);
+		for( Family family : mFamilies.values() ) {
+			out.append("# HELP ").append(family.mName).append(' ').append(escape(family.mHelp, false)).append('\n');
+			out.append("# TYPE ").append(family.mName).append(' ').append(family.mType).append('\n');
+			for( Map.Entry<String, Metric> entry : family.mMetrics.entrySet() ) {
+				entry.getValue().write(out, family.mName, entry.getKey());
+			}
+		}
+		return out.toString();
+	}
+
+	private Family getFamily(String name, String help, String type) {
+		Family family = mFamilies.get(name);
+		if( family == null ) {
+			Family created = new Family(name, help, type);
+			family = mFamilies.putIfAbsent(name, created);
+			if( family == null ) {
+				family = created;
+			}
+		}
+		if( !family.mType.equals(type) ) {
+			throw new IllegalArgumentException(name + " is already registered as a " + family.mType);
+		}
+		return family;
+	}
+
+	private static String formatLabels(String[] labels) {
+		if( labels == null || labels.length == 0 ) {
+			return "";
+		}
+		if( labels.length % 2 != 0 ) {
+			throw new IllegalArgumentException("labels must be name and value pairs");
+		}
+		StringBuilder builder = new StringBuilder();
+		for( int i = 0; i < labels.length; i += 2 ) {
+			if( i > 0 ) {
+				builder.append(',');
+			}
+			builder.append(labels[i]).append("=\"").append(escape(labels[i + 1], true)).append('"');
+		}
+		return builder.toString();
+	}
+
+	private static void writeSample(StringBuilder out, String name, String labels, String le, double value) {
+		out.append(name);
+		if( labels.length() > 0 || le != null ) {
+			out.append('{').append(labels);
+			if( le != null ) {
+				if( labels.length() > 0 ) {
+					out.append(',');
+				}
+				out.append("le=\"").append(le).append('"');
+			}
+			out.append('}');
+		}
+		out.append(' ').append(formatDouble(value)).append('\n');
+	}
+
+	private static String formatDouble(double value) {
+		if( Double.isNaN(value) ) {
+			return "NaN";
+		}
+		if( Double.isInfinite(value) ) {
+			return value > 0 ? "+Inf" : "-Inf";
+		}
+		if( value == Math.rint(value) && Math.abs(value) < 1e15 ) {
+			return Long.toString((long) value);
+		}
+		return Double.toString(value);
+	}
+
+	private static String escape(String value, boolean quote) {
+		if( value == null ) {
+			return "";
+		}
+		StringBuilder builder = null;
+		for( int i = 0; i < value.length(); i++ ) {
+			char c = value.charAt(i);
+			String replacement = null;
+			if( c == '\\' ) {
+				replacement = "\\\\";
+			}
+			else if( c == '\n' ) {
+				replacement = "\\n";
+			}
+			else if( quote && c == '"' ) {
+				replacement = "\\\"";
+			}
+			if( replacement != null && builder == null ) {
+				builder = new StringBuilder(value.length() + 8);
+				builder.append(value, 0, i);
+			}
+			if( builder != null ) {
+				if( replacement != null ) {
+					builder.append(replacement);
+				}
+				else {
+					builder.append(c);
+				}
+			}
+		}
+		return builder != null ? builder.toString() : value;
+	}
+}
@@ -0,0 +1,159 @@
+package com.nexstreaming.nexplayerengine;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+
+/**
+ * \brief  A minimal HTTP server exposing a \c NexMetricsRegistry on the loopback interface.
+ *
+ * \c GET /metrics returns every metric of the registry in the Prometheus text exposition format.
+ * The server only listens on 127.0.0.1, so it can be reached with \c adb \c forward but not from the network.
+ * Requests are served one at a time on a single background thread.
+ *
+ * \see NexMetricsRegistry
+ */
+public class NexMetricsServer {
+	private static final String TAG = "NexMetricsServer";
+
+	private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+	private static final int READ_TIMEOUT_MS = 2000;
+
+	private final NexMetricsRegistry mRegistry;
+	private final int mPort;
+	private ServerSocket mServerSocket;
+	private Thread mThread;
+
+	/**
+	 * \param registry  The registry to expose.
+	 * \param port      The loopback port to listen on, or 0 to pick a free port.
+	 */
+	public NexMetricsServer(NexMetricsRegistry registry, int port) {
+		mRegistry = registry;
+		mPort = port;
+	}
+
+	/**
+	 * Starts listening.
+	 *
+	 * \returns \c true if the server is listening, or \c false if the port could not be bound.
+	 */
+	public synchronized boolean start() {
+		if( mServerSocket != null ) {
+			return true;
+		}
+		try {
+			mServerSocket = new ServerSocket();
+			mServerSocket.setReuseAddress(true);
+			mServerSocket.bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), mPort));
+		} catch (IOException e) {
+			NexLog.e(TAG, "Unable to bind metrics port " + mPort + " : " + e.getMessage());
+			closeServerSocket();
+			return false;
+		}
+
+		final ServerSocket serverSocket = mServerSocket;
+		mThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				serve(serverSocket);
+			}
+		}, TAG);
+		mThread.setDaemon(true);
+		mThread.start();
+		NexLog.d(TAG, "Serving metrics on 127.0.0.1:" + getPort());
+		return true;
+	}
+
+	public synchronized void stop() {
+		closeServerSocket();
+		mThread = null;
+	}
+
+	/**
+	 * \returns The port the server listens on, or -1 if it is not started.
+	 */
+	public synchronized int getPort() {
+		return mServerSocket != null ? mServerSocket.getLocalPort() : -1;
+	}
+
+	private void closeServerSocket() {
+		if( mServerSocket != null ) {
+			try {
+				mServerSocket.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			mServerSocket = null;
+		}
+	}
+
+	private void serve(ServerSocket serverSocket) {
+		while( !serverSocket.isClosed() ) {
+			Socket socket = null;
+			try {
+				socket = serverSocket.accept();
+				socket.setSoTimeout(READ_TIMEOUT_MS);
+				handle(socket);
+			} catch (IOException e) {
+				if( !serverSocket.isClosed() ) {
+					NexLog.e(TAG, "Metrics request failed : " + e.getMessage());
+				}
+			} finally {
+				if( socket != null ) {
+					try {
+						socket.close();
+					} catch (IOException e) {
+						e.printStackTrace();
+					}
+				}
+			}
+		}
+	}
+
+	private void handle(Socket socket) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), Charset.forName("US-ASCII")));
+		String requestLine = reader.readLine();
+		if( requestLine == null ) {
+			return;
+		}
+		String line;
+		while( (line = reader.readLine()) != null && line.length() > 0 ) {
+			// skip request headers
+		}
+
+		String[] parts = requestLine.split(" ");
+		String method = parts.length > 0 ? parts[0] : "";
+		String path = parts.length > 1 ? parts[1] : "";
+
+		if( !"GET".equals(method) && !"HEAD".equals(method) ) {
+			respond(socket, "405 Method Not Allowed", "", false);
+		}
+		else if( "/metrics".equals(path) || path.startsWith("/metrics?") ) {
+			respond(socket, "200 OK", mRegistry.scrape(), "HEAD".equals(method));
+		}
+		else {
+			respond(socket, "404 Not Found", "", false);
+		}
+	}
+
+	private void respond(Socket socket, String status, String body, boolean headOnly) throws IOException {
+		byte[] content = body.getBytes(Charset.forName("UTF-8"));
+		String header = "HTTP/1.1 " + status + "\r\n"
+				+ "Content-Type: " + CONTENT_TYPE + "\r\n"
+				+ "Content-Length: " + content.length + "\r\n"
+				+ "Connection: close\r\n\r\n";
+		OutputStream out = socket.getOutputStream();
+		out.write(header.getBytes(Charset.forName("US-ASCII")));
+		if( !headOnly ) {
+			out.write(content);
+		}
+		out.flush();
+	}
+}
@@ -0,0 +1,712 @@
+package com.nexstreaming.nexplayerengine;
+
+import android.annotation.TargetApi;
+import android.graphics.Color;
+import android.graphics.Rect;
+import android.graphics.SurfaceTexture;
+import android.opengl.GLES20;
+import android.opengl.Matrix;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.view.Choreographer;
+import android.view.Surface;
+import android.view.SurfaceHolder;
+import android.view.SurfaceView;
+
+import com.nexstreaming.nexplayerengine.gles.NexEglSurface;
+import com.nexstreaming.nexplayerengine.gles.NexVideo2dProgram;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * \brief  Draws the video of several players into a single \c SurfaceView.
+ *
+ * This is an alternative to one \c NexVideoRenderer per player for multiview layouts.
+ * Every player decodes into its own \c SurfaceTexture, and one render thread with one EGL context draws all
+ * the tiles into the window surface, at most once per vsync and only when a visible tile latched a new frame
+ * or the layout changed.  A vsync at which every new frame is still held by its \c NexFrameScheduler draws
+ * nothing.  Holding a frame only delays its latch by up to one vsync, see \c NexFrameScheduler.  There is a single composition layer and no \c setZOrderMediaOverlay, and moving or
+ * swapping tiles only changes the matrices used to draw them.
+ *
+ * Tiles are positioned in pixels relative to the \c SurfaceView.  The video of a tile is either letterboxed
+ * (\c SCALE_FIT) or cropped (\c SCALE_FILL) to the tile, inside an optional border.
+ *
+ * Content protected by DRM that requires a secure output cannot be drawn by the compositor; such players
+ * must keep using \c NexVideoRenderer.
+ *
+ * \code
+ * NexMultiviewCompositor compositor = new NexMultiviewCompositor(surfaceView);
+ * NexMultiviewCompositor.Tile tile = compositor.addTile(nexPlayer, null);
+ * tile.setRect(0, 0, 640, 360);
+ * \endcode
+ */
+@TargetApi(21)
+public class NexMultiviewCompositor implements SurfaceHolder.Callback {
+	private static final String LOG_TAG = "NexMultiviewCompositor";
+
+	/** The whole video is visible inside the tile, with black bars if the aspect ratios differ. */
+	public static final int SCALE_FIT = 0;
+	/** The video covers the whole tile, and is cropped if the aspect ratios differ. */
+	public static final int SCALE_FILL = 1;
+
+	private static final long WAIT_TIMEOUT_MS = 1000;
+	private static final float[] BLACK_RGBA = { 0, 0, 0, 1 };
+
+	private final SurfaceView mView;
+	private final HandlerThread mRenderThread;
+	private final Handler mHandler;
+	private final Object mLock = new Object();
+
+	/* guarded by mLock */
+	private final ArrayList<Tile> mTiles = new ArrayList<Tile>();
+	private int mBackgroundColor = Color.BLACK;
+
+	/* render thread only */
+	private final ArrayList<Tile> mDrawOrder = new ArrayList<Tile>();
+	private final float[] mClearColor = new float[4];
+	private NexEglSurface.EglManager mEglManager;
+	private NexEglSurface mWindowSurface;
+	private NexVideo2dProgram mProgram;
+	private Choreographer mChoreographer;
+	private boolean mFrameScheduled = false;
+	// the layout, the surface or the tiles changed since the last frame was drawn.
+	private boolean mRedrawNeeded = true;
+	private int mSurfaceWidth = 0;
+	private int mSurfaceHeight = 0;
+
+	private final Choreographer.FrameCallback mFrameCallback = new Choreographer.FrameCallback() {
+		@Override
+		public void doFrame(long frameTimeNanos) {
+			mFrameScheduled = false;
+			drawFrame(frameTimeNanos);
+		}
+	};
+
+	private final Runnable mScheduleFrame = new Runnable() {
+		@Override
+		public void run() {
+			scheduleRedraw();
+		}
+	};
+
+	/**
+	 * \brief  One player drawn by the compositor.
+	 *
+	 * The layout methods can be called from any thread; the change is drawn on the next vsync.
+	 */
+	public final class Tile implements NexPlayer.IVideoRendererListener, SurfaceTexture.OnFrameAvailableListener {
+		private final NexPlayer mPlayer;
+		private final NexPlayer.IVideoRendererListener mForwardListener;
+
+		/* guarded by mLock */
+		private final Rect mRect = new Rect();
+		private int mBorderWidth = 0;
+		private int mBorderColor = Color.WHITE;
+		private int mScaleMode = SCALE_FIT;
+		private int mZOrder = 0;
+		private int mVideoWidth = 0;
+		private int mVideoHeight = 0;
+
+		/* render thread only */
+		private final float[] mTexMatrix = new float[16];
+		private final float[] mMvpMatrix = new float[16];
+		private final Rect mDrawRect = new Rect();
+		private final Rect mContentRect = new Rect();
+		private final float[] mBorderRgba = new float[4];
+		private int mDrawBorderWidth;
+		private int mDrawZOrder;
+		private int mTextureId = 0;
+		private SurfaceTexture mSurfaceTexture;
+		private Surface mSurface;
+		private boolean mFrameAvailable = false;
+		private boolean mHasFrame = false;
+		private final NexFrameScheduler mScheduler = new NexFrameScheduler(NexVSyncSampler.getInstance().getEstimator());
+
+		private Tile(NexPlayer player, NexPlayer.IVideoRendererListener forwardListener) {
+			mPlayer = player;
+			mForwardListener = forwardListener;
+			Matrix.setIdentityM(mTexMatrix, 0);
+			Matrix.setIdentityM(mMvpMatrix, 0);
+		}
+
+		/**
+		 * \returns The number of frames of this tile drawn after the vsync they were scheduled for.
+		 */
+		public long getLateFrameCount() {
+			return mScheduler.getLateCount();
+		}
+
+		/**
+		 * \returns The number of vsyncs at which this tile showed a frame again beyond the frame rate of its video.
+		 */
+		public long getRepeatedFrameCount() {
+			return mScheduler.getRepeatedCount();
+		}
+
+		public NexPlayer getPlayer() {
+			return mPlayer;
+		}
+
+		/**
+		 * Sets the area of the tile, in pixels relative to the top left corner of the \c SurfaceView.
+		 */
+		public void setRect(int left, int top, int width, int height) {
+			synchronized (mLock) {
+				mRect.set(left, top, left + width, top + height);
+			}
+			requestRender();
+		}
+
+		/**
+		 * \returns A copy of the area of the tile.
+		 */
+		public Rect getRect() {
+			synchronized (mLock) {
+				return new Rect(mRect);
+			}
+		}
+
+		/**
+		 * Draws a border inside the tile.
+		 *
+		 * \param width  The border width in pixels, or 0 for no border.
+		 * \param color  The border color, as an \c android.graphics.Color int.
+		 */
+		public void setBorder(int width, int color) {
+			synchronized (mLock) {
+				mBorderWidth = Math.max(width, 0);
+				mBorderColor = color;
+			}
+			requestRender();
+		}
+
+		/**
+		 * \param scaleMode  \c SCALE_FIT or \c SCALE_FILL.
+		 */
+		public void setScaleMode(int scaleMode) {
+			synchronized (mLock) {
+				mScaleMode = scaleMode;
+			}
+			requestRender();
+		}
+
+		/**
+		 * Sets the drawing order of overlapping tiles: tiles with a higher value are drawn on top.
+		 */
+		public void setZOrder(int zOrder) {
+			synchronized (mLock) {
+				mZOrder = zOrder;
+			}
+			requestRender();
+		}
+
+		// NexPlayer.IVideoRendererListener
+
+		@Override
+		public void onVideoRenderPrepared(NexPlayer mp) {
+			if( mForwardListener != null ) {
+				mForwardListener.onVideoRenderPrepared(mp);
+			}
+		}
+
+		@Override
+		public void onVideoRenderCreate(NexPlayer mp, int width, int height, Object rgbBuffer) {
+			int[] sar = new int[2];
+			mp.getSARInfo(sar);
+			int displayHeight = height;
+			if( sar[0] > 0 && sar[1] > 0 ) {
+				displayHeight = height * sar[1] / sar[0];
+			}
+			NexLog.d(LOG_TAG, "onVideoRenderCreate W : " + width + " H : " + displayHeight);
+			synchronized (mLock) {
+				mVideoWidth = width;
+				mVideoHeight = displayHeight;
+			}
+			requestRender();
+
+			if( mForwardListener != null ) {
+				mForwardListener.onVideoRenderCreate(mp, width, height, rgbBuffer);
+			}
+		}
+
+		@Override
+		public void onVideoRenderDelete(NexPlayer mp) {
+			if( mForwardListener != null ) {
+				mForwardListener.onVideoRenderDelete(mp);
+			}
+		}
+
+		@Override
+		public void onVideoRenderRender(NexPlayer mp) {
+			if( mForwardListener != null ) {
+				mForwardListener.onVideoRenderRender(mp);
+			}
+		}
+
+		@Override
+		public void onVideoRenderCapture(NexPlayer mp, int width, int height, int pixelbyte, Object bitmap) {
+			if( mForwardListener != null ) {
+				mForwardListener.onVideoRenderCapture(mp, width, height, pixelbyte, bitmap);
+			}
+		}
+
+		// SurfaceTexture.OnFrameAvailableListener, called on the render thread.
+
+		@Override
+		public void onFrameAvailable(SurfaceTexture surfaceTexture) {
+			mScheduler.onFrameAvailable(System.nanoTime());
+			mFrameAvailable = true;
+			scheduleFrame();
+		}
+
+		/* render thread, with the GL context current */
+		private void createTexture() {
+			if( mSurfaceTexture != null ) {
+				return;
+			}
+			mTextureId = mProgram.createTextureObject();
+			mSurfaceTexture = new SurfaceTexture(mTextureId);
+			mSurfaceTexture.setOnFrameAvailableListener(this, mHandler);
+			mSurface = new Surface(mSurfaceTexture);
+			mPlayer.setDisplay(mSurface);
+			NexLog.d(LOG_TAG, "tile texture created : " + mTextureId);
+		}
+
+		/* render thread. The texture name is only deleted if the GL context is current. */
+		private void releaseTexture(boolean glCurrent) {
+			if( mSurfaceTexture == null ) {
+				return;
+			}
+			mPlayer.setDisplay((Surface) null);
+			mSurface.release();
+			mSurface = null;
+			mSurfaceTexture.release();
+			mSurfaceTexture = null;
+			if( glCurrent ) {
+				GLES20.glDeleteTextures(1, new int[] { mTextureId }, 0);
+			}
+			mTextureId = 0;
+			mFrameAvailable = false;
+			mHasFrame = false;
+		}
+
+		/* render thread, with mLock held */
+		private void copyLayout() {
+			mDrawRect.set(mRect);
+			mDrawBorderWidth = Math.min(mBorderWidth, Math.min(mRect.width(), mRect.height()) / 2);
+			mDrawZOrder = mZOrder;
+			toRgba(mBorderColor, mBorderRgba);
+
+			int innerLeft = mRect.left + mDrawBorderWidth;
+			int innerTop = mRect.top + mDrawBorderWidth;
+			int innerWidth = mRect.width() - 2 * mDrawBorderWidth;
+			int innerHeight = mRect.height() - 2 * mDrawBorderWidth;
+			if( mVideoWidth <= 0 || mVideoHeight <= 0 || innerWidth <= 0 || innerHeight <= 0 ) {
+				mContentRect.set(innerLeft, innerTop, innerLeft + innerWidth, innerTop + innerHeight);
+				return;
+			}
+			float scaleX = (float) innerWidth / mVideoWidth;
+			float scaleY = (float) innerHeight / mVideoHeight;
+			float scale = mScaleMode == SCALE_FILL ? Math.max(scaleX, scaleY) : Math.min(scaleX, scaleY);
+			int width = Math.round(mVideoWidth * scale);
+			int height = Math.round(mVideoHeight * scale);
+			int left = innerLeft + (innerWidth - width) / 2;
+			int top = innerTop + (innerHeight - height) / 2;
+			mContentRect.set(left, top, left + width, top + height);
+		}
+	}
+
+	/**
+	 * Creates a compositor drawing into \c view.  Must be called on the UI thread.
+	 */
+	public NexMultiviewCompositor(SurfaceView view) {
+		mView = view;
+		mRenderThread = new HandlerThread(LOG_TAG);
+		mRenderThread.start();
+		mHandler = new Handler(mRenderThread.getLooper());
+		NexVSyncSampler.getInstance().start();
+		mHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				// the Choreographer of the render thread delivers vsync on this thread.
+				mChoreographer = Choreographer.getInstance();
+			}
+		});
+		mView.getHolder().addCallback(this);
+		if( mView.getHolder().getSurface() != null && mView.getHolder().getSurface().isValid() ) {
+			surfaceCreated(mView.getHolder());
+			Rect frame = mView.getHolder().getSurfaceFrame();
+			surfaceChanged(mView.getHolder(), 0, frame.width(), frame.height());
+		}
+	}
+
+	/**
+	 * Adds a tile for \c player, and sets the player display to the texture of the tile.
+	 *
+	 * The compositor becomes the \c IVideoRendererListener of the player, so the player must not be used
+	 * with a \c NexVideoRenderer at the same time.  While the view has no surface, the display of the player is
+	 * only set once the surface is created.
+	 *
+	 * \param player          The player to draw.
+	 * \param rendererListener  Receives the \c IVideoRendererListener callbacks of the player, or \c null.
+	 *
+	 * \returns The new tile, with an empty area until \c Tile.setRect is called.
+	 */
+	public Tile addTile(NexPlayer player, NexPlayer.IVideoRendererListener rendererListener) {
+		final Tile tile = new Tile(player, rendererListener);
+		player.setVideoRendererListener(tile);
+		synchronized (mLock) {
+			mTiles.add(tile);
+		}
+		mHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				// without a window surface no context is current: initGL creates the texture with the next surface.
+				if( mWindowSurface != null ) {
+					mWindowSurface.makeCurrent();
+					tile.createTexture();
+				}
+			}
+		});
+		return tile;
+	}
+
+	/**
+	 * Removes a tile and detaches its player from the compositor.
+	 */
+	public void removeTile(final Tile tile) {
+		synchronized (mLock) {
+			mTiles.remove(tile);
+		}
+		tile.mPlayer.setVideoRendererListener(null);
+		runOnRenderThreadAndWait(new Runnable() {
+			@Override
+			public void run() {
+				boolean glCurrent = mWindowSurface != null;
+				if( glCurrent ) {
+					mWindowSurface.makeCurrent();
+				}
+				tile.releaseTexture(glCurrent);
+				scheduleRedraw();
+			}
+		});
+	}
+
+	/**
+	 * Exchanges the area, border, scale mode and drawing order of two tiles, for example to move a tile
+	 * to the main position.  Nothing is laid out again: the tiles are drawn with swapped matrices on the next vsync.
+	 */
+	public void swapTiles(Tile first, Tile second) {
+		synchronized (mLock) {
+			Rect rect = new Rect(first.mRect);
+			first.mRect.set(second.mRect);
+			second.mRect.set(rect);
+
+			int value = first.mBorderWidth;
+			first.mBorderWidth = second.mBorderWidth;
+			second.mBorderWidth = value;
+
+			value = first.mBorderColor;
+			first.mBorderColor = second.mBorderColor;
+			second.mBorderColor = value;
+
+			value = first.mScaleMode;
+			first.mScaleMode = second.mScaleMode;
+			second.mScaleMode = value;
+
+			value = first.mZOrder;
+			first.mZOrder = second.mZOrder;
+			second.mZOrder = value;
+		}
+		requestRender();
+	}
+
+	/**
+	 * Sets the color drawn where there is no tile.
+	 */
+	public void setBackgroundColor(int color) {
+		synchronized (mLock) {
+			mBackgroundColor = color;
+		}
+		requestRender();
+	}
+
+	/**
+	 * Requests that the tiles are drawn again on the next vsync.
+	 */
+	public void requestRender() {
+		mHandler.post(mScheduleFrame);
+	}
+
+	/**
+	 * Detaches every player, releases the GL resources and stops the render thread.
+	 * Must be called before the players are released.
+	 */
+	public void release() {
+		mView.getHolder().removeCallback(this);
+		synchronized (mLock) {
+			for( Tile tile : mTiles ) {
+				tile.mPlayer.setVideoRendererListener(null);
+			}
+		}
+		runOnRenderThreadAndWait(new Runnable() {
+			@Override
+			public void run() {
+				releaseGL();
+			}
+		});
+		mRenderThread.quitSafely();
+		NexVSyncSampler.getInstance().stop();
+	}
+
+	// *********** SurfaceHolder ****************
+
+	@Override
+	public void surfaceCreated(final SurfaceHolder holder) {
+		NexLog.d(LOG_TAG, "surfaceCreated holder=" + holder);
+		mHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				initGL(holder);
+			}
+		});
+	}
+
+	@Override
+	public void surfaceChanged(SurfaceHolder holder, int format, final int width, final int height) {
+		NexLog.d(LOG_TAG, "surfaceChanged size(" + width + "," + height + ")");
+		mHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				mSurfaceWidth = width;
+				mSurfaceHeight = height;
+				scheduleRedraw();
+			}
+		});
+	}
+
+	@Override
+	public void surfaceDestroyed(SurfaceHolder holder) {
+		NexLog.d(LOG_TAG, "surfaceDestroyed holder=" + holder);
+		// the window surface must not be used once this method returns.
+		runOnRenderThreadAndWait(new Runnable() {
+			@Override
+			public void run() {
+				if( mWindowSurface != null ) {
+					mEglManager.makeNothingCurrent();
+					mWindowSurface.release();
+					mWindowSurface = null;
+				}
+			}
+		});
+	}
+
+	// *********** render thread ****************
+
+	private void initGL(SurfaceHolder holder) {
+		if( mEglManager == null ) {
+			mEglManager = new NexEglSurface.EglManager();
+		}
+		if( mWindowSurface == null ) {
+			mWindowSurface = new NexEglSurface(mEglManager, holder, false);
+		}
+		mWindowSurface.makeCurrent();
+
+		if( mProgram == null ) {
+			mProgram = new NexVideo2dProgram();
+			mProgram.setClearBeforeDraw(false);
+		}
+		synchronized (mLock) {
+			for( Tile tile : mTiles ) {
+				tile.createTexture();
+			}
+		}
+		scheduleRedraw();
+	}
+
+	private void releaseGL() {
+		if( mChoreographer != null ) {
+			mChoreographer.removeFrameCallback(mFrameCallback);
+			mFrameScheduled = false;
+		}
+		boolean glCurrent = mWindowSurface != null;
+		if( glCurrent ) {
+			mWindowSurface.makeCurrent();
+		}
+		synchronized (mLock) {
+			for( Tile tile : mTiles ) {
+				tile.releaseTexture(glCurrent);
+			}
+			mTiles.clear();
+		}
+		if( mProgram != null ) {
+			if( glCurrent ) {
+				mProgram.release();
+			}
+			mProgram = null;
+		}
+		if( mWindowSurface != null ) {
+			mWindowSurface.release();
+			mWindowSurface = null;
+		}
+		if( mEglManager != null ) {
+			mEglManager.release();
+			mEglManager = null;
+		}
+	}
+
+	private void scheduleFrame() {
+		if( !mFrameScheduled && mWindowSurface != null && mChoreographer != null ) {
+			mFrameScheduled = true;
+			mChoreographer.postFrameCallback(mFrameCallback);
+		}
+	}
+
+	private void scheduleRedraw() {
+		mRedrawNeeded = true;
+		scheduleFrame();
+	}
+
+	private void drawFrame(long frameTimeNanos) {
+		boolean framesHeld = false;
+		boolean redraw = mRedrawNeeded;
+		if( mWindowSurface == null || mProgram == null || mSurfaceWidth <= 0 || mSurfaceHeight <= 0 ) {
+			return;
+		}
+		mWindowSurface.makeCurrent();
+
+		synchronized (mLock) {
+			mDrawOrder.clear();
+			for( Tile tile : mTiles ) {
+				tile.copyLayout();
+				// latch every new frame once its vsync is reached, even for hidden tiles, so that no decoder waits
+				// for a free buffer.
+				if( tile.mFrameAvailable && tile.mSurfaceTexture != null ) {
+					if( tile.mScheduler.shouldDraw(frameTimeNanos) || tile.mDrawRect.isEmpty() ) {
+						tile.mFrameAvailable = false;
+						tile.mSurfaceTexture.updateTexImage();
+						tile.mSurfaceTexture.getTransformMatrix(tile.mTexMatrix);
+						tile.mHasFrame = true;
+						tile.mScheduler.onFrameDrawn(frameTimeNanos);
+						redraw |= !tile.mDrawRect.isEmpty();
+					}
+					else {
+						framesHeld = true;
+					}
+				}
+				// insertion by drawing order, the list only holds a few tiles.
+				int position = mDrawOrder.size();
+				while( position > 0 && mDrawOrder.get(position - 1).mDrawZOrder > tile.mDrawZOrder ) {
+					position--;
+				}
+				mDrawOrder.add(position, tile);
+			}
+			toRgba(mBackgroundColor, mClearColor);
+		}
+
+		if( !redraw ) {
+			// only held frames: the window still shows the last frame, wait for their vsync.
+			if( framesHeld ) {
+				scheduleFrame();
+			}
+			return;
+		}
+		mRedrawNeeded = false;
+
+		GLES20.glViewport(0, 0, mSurfaceWidth, mSurfaceHeight);
+		GLES20.glDisable(GLES20.GL_SCISSOR_TEST);
+		clear(mClearColor);
+		GLES20.glEnable(GLES20.GL_SCISSOR_TEST);
+
+		for( int i = 0; i < mDrawOrder.size(); i++ ) {
+			Tile tile = mDrawOrder.get(i);
+			if( tile.mSurfaceTexture == null || tile.mDrawRect.isEmpty() ) {
+				continue;
+			}
+			Rect rect = tile.mDrawRect;
+			int border = tile.mDrawBorderWidth;
+			if( border > 0 ) {
+				scissor(rect.left, rect.top, rect.width(), rect.height());
+				clear(tile.mBorderRgba);
+			}
+			scissor(rect.left + border, rect.top + border, rect.width() - 2 * border, rect.height() - 2 * border);
+			clear(BLACK_RGBA);
+
+			if( tile.mHasFrame ) {
+				// the scissor keeps the video inside the tile when it is cropped.
+				setOutputMatrix(tile.mMvpMatrix, tile.mContentRect);
+				mProgram.drawFrame(tile.mTextureId, tile.mMvpMatrix, tile.mTexMatrix);
+			}
+		}
+
+		GLES20.glDisable(GLES20.GL_SCISSOR_TEST);
+		mWindowSurface.swapBuffers();
+
+		if( framesHeld ) {
+			scheduleFrame();
+		}
+	}
+
+	private void scissor(int left, int top, int width, int height) {
+		// GL coordinates start at the bottom left corner.
+		GLES20.glScissor(left, mSurfaceHeight - top - height, Math.max(width, 0), Math.max(height, 0));
+	}
+
+	private static void clear(float[] rgba) {
+		GLES20.glClearColor(rgba[0], rgba[1], rgba[2], rgba[3]);
+		GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+	}
+
+	/**
+	 * Maps the full -1..1 rectangle drawn by NexVideo2dProgram to \c content, as NexSurfaceTextureView.setOutputPos does.
+	 */
+	private void setOutputMatrix(float[] matrix, Rect content) {
+		float translateX = (float) 2 * content.left / mSurfaceWidth;
+		float translateY = (float) 2 * content.top / mSurfaceHeight;
+		float scaleX = (float) content.width() / mSurfaceWidth;
+		float scaleY = (float) content.height() / mSurfaceHeight;
+
+		Matrix.setIdentityM(matrix, 0);
+		matrix[0] = scaleX;
+		matrix[5] = scaleY;
+		matrix[12] = scaleX + translateX - 1;
+		matrix[13] = 1 - scaleY - translateY;
+	}
+
+	private static void toRgba(int color, float[] rgba) {
+		rgba[0] = Color.red(color) / 255f;
+		rgba[1] = Color.green(color) / 255f;
+		rgba[2] = Color.blue(color) / 255f;
+		rgba[3] = Color.alpha(color) / 255f;
+	}
+
+	private void runOnRenderThreadAndWait(final Runnable runnable) {
+		if( Thread.currentThread() == mRenderThread ) {
+			runnable.run();
+			return;
+		}
+		final CountDownLatch done = new CountDownLatch(1);
+		boolean posted = mHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					runnable.run();
+				} finally {
+					done.countDown();
+				}
+			}
+		});
+		if( !posted ) {
+			return;
+		}
+		try {
+			if( !done.await(WAIT_TIMEOUT_MS, TimeUnit.MILLISECONDS) ) {
+				NexLog.w(LOG_TAG, "render thread did not respond in " + WAIT_TIMEOUT_MS + "ms");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
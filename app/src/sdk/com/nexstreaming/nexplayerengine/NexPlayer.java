@@ -4281,6 +4281,13 @@ public final class NexPlayer
         int result = closeInternal();
 
         //NexMediaDrm start
+        if (null != drmSharedHandle) {
+            drmSharedHandle.release();
+            drmSharedHandle = null;
+            drmSessionManager = null;
+            drmKeySession = null;
+        }
+
         if (null != drmHandlerThread) {
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ECLAIR) {
                 drmHandlerThread.quit();
@@ -6198,6 +6205,8 @@ public final class NexPlayer
     private NexMediaDrmSession drmKeySession = null;
     private NexMediaDrmSession drmSession = null;
     private NexMediaDrmSessionManager.EventListener eventDrmSessionListener = null;
+    private boolean mShareDrmSessions = false;
+    private NexMediaDrmSessionRegistry.Handle drmSharedHandle = null;
     private NexDRMInitInfo mNexDRMInitInfo = null;
     private boolean offlineExpiredKeyFetch = false;
 
@@ -6213,6 +6222,25 @@ public final class NexPlayer
         mOptionalHeaderFields = optionalHeaderFields;
     }
 
+    /**
+     * \brief This method lets this player share MediaDrm sessions and licenses with other NexPlayer instances in the process.
+     *
+     * When enabled, players that use the same DRM scheme, key server, optional header fields and
+     * \c INexDRMLicenseListener share one MediaDrm. Content whose PSSH data or key IDs match a session
+     * another player already holds reuses that session and its license, so only one license request is
+     * sent even when several players open the content at the same time. Sessions are released when the
+     * last player holding them is closed.
+     *
+     * Offline playback modes always use a MediaDrm of their own.
+     *
+     * \warning  This <b>must</b> be called before \c NexPlayer.open.
+     *
+     * @param enable       \c TRUE to share MediaDrm sessions with other players, \c FALSE to use a MediaDrm of its own (default).
+     */
+    public void setNexMediaDrmSessionSharing(boolean enable) {
+        mShareDrmSessions = enable;
+    }
+
     /**
      * \brief This method switch using either KEYEXPIRE_RETRIEVE_STORE mode or RETRIEVE mode when only using Offline Playback on media DRM
      *
@@ -6399,7 +6427,11 @@ public final class NexPlayer
                 try {
                     if (obj != null) {
                         NexMediaDrmSession session = drmSessionManager.getSession((String) obj);
-                        drmSessionManager.releaseSession(session);
+                        if (null != drmSharedHandle) {
+                            drmSharedHandle.releaseSession(session);
+                        } else {
+                            drmSessionManager.releaseSession(session);
+                        }
                     }
                 } catch (Exception e) {
                     e.printStackTrace();
@@ -6427,7 +6459,8 @@ public final class NexPlayer
         int nSessionIdLen = 0;
 
         if (session != null) {
-            uniqueId = session.getUniqueId();
+            NexMediaDrmSessionRegistry.Handle sharedHandle = drmSharedHandle;
+            uniqueId = null != sharedHandle ? sharedHandle.getUniqueId(session) : session.getUniqueId();
 
             byte[] orgSessionId = session.getSessionId();
             nSessionIdLen = orgSessionId.length;
@@ -6451,9 +6484,20 @@ public final class NexPlayer
 
         try {
             if(drmSessionManager == null) {
-                drmSessionManager = buildMediaDrmSessionManager(uuid);
+                if (mShareDrmSessions && OfflineMode.NONE == offlineMode) {
+                    drmSharedHandle = registerSharedMediaDrm(uuid);
+                    drmSessionManager = drmSharedHandle.getManager();
+                } else {
+                    drmSessionManager = buildMediaDrmSessionManager(uuid);
+                }
+            }
+
+            NexMediaDrmSession session;
+            if (null != drmSharedHandle) {
+                session = drmSharedHandle.acquireSession(pssh, uniqueId, mOptionalHeaderFields);
+            } else {
+                session = drmSessionManager.acquireSession(drmHandlerThread.getLooper(), pssh, offlineMode, uniqueId, mOptionalHeaderFields);
             }
-            NexMediaDrmSession session = drmSessionManager.acquireSession(drmHandlerThread.getLooper(), pssh, offlineMode, uniqueId, mOptionalHeaderFields);
 
             if (null != session) {
                 if (null == drmKeySession) {
@@ -6497,7 +6541,26 @@ public final class NexPlayer
             drmHandlerThread.start();
         }
 
-        eventDrmSessionListener = new NexMediaDrmSessionManager.EventListener() {
+        eventDrmSessionListener = buildDrmSessionListener();
+        return new NexMediaDrmSessionManager(this, uuid, NexMediaDrm.newInstance(uuid), new NexMediaDrm.HttpNexMediaDrmCallback(mMediaDrmKeyServer, mLicenseRequestListener, mOptionalHeaderFields),
+                null, eventDrmSessionListener, true, 3);
+    }
+
+    private NexMediaDrmSessionRegistry.Handle registerSharedMediaDrm(final UUID uuid) throws Exception {
+        eventDrmSessionListener = buildDrmSessionListener();
+        return NexMediaDrmSessionRegistry.getInstance().register(uuid, mMediaDrmKeyServer, mOptionalHeaderFields, mLicenseRequestListener,
+                eventDrmSessionListener, new NexMediaDrmSessionRegistry.ManagerFactory() {
+                    @Override
+                    public NexMediaDrmSessionManager create(NexMediaDrmSessionManager.EventListener listener) throws Exception {
+                        // the manager outlives this player when others share it, so it holds none.
+                        return new NexMediaDrmSessionManager(null, uuid, NexMediaDrm.newInstance(uuid), new NexMediaDrm.HttpNexMediaDrmCallback(mMediaDrmKeyServer, mLicenseRequestListener, mOptionalHeaderFields),
+                                null, listener, true, 3);
+                    }
+                });
+    }
+
+    private NexMediaDrmSessionManager.EventListener buildDrmSessionListener() {
+        return new NexMediaDrmSessionManager.EventListener() {
             @Override
             public void onDrmKeysLoaded(byte[] keySetId, byte[] sessionId) {
                 OfflineMode offlineMode = drmSessionManager.getMode();
@@ -6527,7 +6590,7 @@ public final class NexPlayer
             }
 
             @Override
-            public void onDrmSessionManagerError(Exception e) {
+            public void onDrmSessionManagerError(Exception e, NexMediaDrmSession session) {
                 NexErrorCode errorCode = NexErrorCode.DRM_INIT_FAILED;
 
                 if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
@@ -6576,7 +6639,7 @@ public final class NexPlayer
             }
 
             @Override
-            public void onDrmKeyExpired(Exception e) {
+            public void onDrmKeyExpired(Exception e, NexMediaDrmSession session) {
                 NexLog.d(TAG, "onDrmKeyExpired");
 
                 drmKeyExpired();
@@ -6592,9 +6655,6 @@ public final class NexPlayer
 
             }
         };
-
-        return new NexMediaDrmSessionManager(this, uuid, NexMediaDrm.newInstance(uuid), new NexMediaDrm.HttpNexMediaDrmCallback(mMediaDrmKeyServer, mLicenseRequestListener, mOptionalHeaderFields),
-                null, eventDrmSessionListener, true, 3);
     }
 
     private void drmKeyExpired() {
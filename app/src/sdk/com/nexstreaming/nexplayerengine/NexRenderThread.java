@@ -0,0 +1,166 @@
+package com.nexstreaming.nexplayerengine;
+
+import android.annotation.TargetApi;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.view.Choreographer;
+
+import com.nexstreaming.nexplayerengine.gles.NexEglSurface;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * A render thread shared by every \c NexSurfaceTextureView of a group, with the EGL context they all draw with.
+ *
+ * Views ask for a frame with \c requestFrame when their \c SurfaceTexture has a new image.  All the requests
+ * received before a vsync are served by one Choreographer callback, which draws every pending view once: several
+ * frames of the same view within one vsync are coalesced, and \c updateTexImage only latches the latest one.
+ *
+ * Threads are reference counted and quit when the last view of the group releases them, so the number of threads
+ * does not depend on the number of views.
+ */
+@TargetApi(16)
+final class NexRenderThread implements Choreographer.FrameCallback {
+	private static final String TAG = "NexRenderThread";
+
+	static final String DEFAULT_GROUP = "NexSurfaceTexture";
+
+	/**
+	 * A view drawn by the thread.
+	 */
+	interface Client {
+		/** Called on the render thread, at most once per vsync after \c requestFrame. */
+		void onDrawFrame(long frameTimeNanos);
+	}
+
+	private static final HashMap<String, NexRenderThread> sThreads = new HashMap<String, NexRenderThread>();
+
+	private final String mGroup;
+	private final HandlerThread mThread;
+	private final Handler mHandler;
+	private int mRefCount = 0;
+
+	private Choreographer mChoreographer;
+	private NexEglSurface.EglManager mEglManager;
+
+	private final Object mLock = new Object();
+	private boolean mFrameScheduled = false;
+	// swapped on every vsync, so that serving the requests does not allocate.
+	private ArrayList<Client> mPending = new ArrayList<Client>();
+	private ArrayList<Client> mDrawing = new ArrayList<Client>();
+
+	private final Runnable mScheduleFrame = new Runnable() {
+		@Override
+		public void run() {
+			mChoreographer.postFrameCallback(NexRenderThread.this);
+		}
+	};
+
+	/**
+	 * Returns the thread of a group, starting it if needed.  Every call must be balanced by a call to \c release.
+	 */
+	static NexRenderThread acquire(String group) {
+		synchronized (sThreads) {
+			NexRenderThread thread = sThreads.get(group);
+			if( thread == null ) {
+				thread = new NexRenderThread(group);
+				sThreads.put(group, thread);
+				NexLog.d(TAG, "Started render thread " + group);
+			}
+			thread.mRefCount++;
+			return thread;
+		}
+	}
+
+	private NexRenderThread(String group) {
+		mGroup = group;
+		mThread = new HandlerThread(group);
+		mThread.start();
+		mHandler = new Handler(mThread.getLooper());
+		mHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				mChoreographer = Choreographer.getInstance();
+			}
+		});
+	}
+
+	Looper getLooper() {
+		return mThread.getLooper();
+	}
+
+	/**
+	 * Returns the EGL context of the group.  Only called on the render thread.
+	 */
+	NexEglSurface.EglManager getEglManager() {
+		if( mEglManager == null ) {
+			mEglManager = new NexEglSurface.EglManager();
+		}
+		return mEglManager;
+	}
+
+	/**
+	 * Asks for \c client to be drawn at the next vsync.  Can be called from any thread.
+	 */
+	void requestFrame(Client client) {
+		synchronized (mLock) {
+			if( !mPending.contains(client) ) {
+				mPending.add(client);
+			}
+			if( !mFrameScheduled ) {
+				mFrameScheduled = true;
+				mHandler.post(mScheduleFrame);
+			}
+		}
+	}
+
+	/**
+	 * Forgets the pending request of \c client, if any.
+	 */
+	void cancelFrame(Client client) {
+		synchronized (mLock) {
+			mPending.remove(client);
+		}
+	}
+
+	/**
+	 * Releases one reference.  The thread quits, after the messages already posted, once no view uses it.
+	 */
+	void release() {
+		synchronized (sThreads) {
+			if( --mRefCount > 0 ) {
+				return;
+			}
+			sThreads.remove(mGroup);
+		}
+		mHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				mChoreographer.removeFrameCallback(NexRenderThread.this);
+				if( mEglManager != null ) {
+					mEglManager.release();
+					mEglManager = null;
+				}
+				mThread.quit();
+				NexLog.d(TAG, "Stopped render thread " + mGroup);
+			}
+		});
+	}
+
+	@Override
+	public void doFrame(long frameTimeNanos) {
+		ArrayList<Client> drawing;
+		synchronized (mLock) {
+			drawing = mPending;
+			mPending = mDrawing;
+			mDrawing = drawing;
+			mFrameScheduled = false;
+		}
+		for( int i = 0; i < drawing.size(); i++ ) {
+			drawing.get(i).onDrawFrame(frameTimeNanos);
+		}
+		drawing.clear();
+	}
+}
@@ -1,8 +1,6 @@
 package com.nexstreaming.nexplayerengine;
 
 import java.util.HashMap;
-import java.util.Timer;
-import java.util.TimerTask;
 
 import static com.nexstreaming.nexplayerengine.NexEventProxy.INexEventReceiver;
 
@@ -79,6 +77,10 @@ import static com.nexstreaming.nexplayerengine.NexEventProxy.INexEventReceiver;
  *			\hline
  *          STATISTICS\_SYSTEM & \multicolumn{2}{|c|}{CPU\_USAGE} & double & percentage (0 - 1) \\ \cline{2-5}
  *                             & \multicolumn{2}{|c|}{FREE\_MEMORY\_KB} & long & kilobytes \\ \cline{2-5}
+ *                             & \multicolumn{2}{|c|}{PROCESS\_CPU\_USAGE} & double & percentage (0 - 1) \\ \cline{2-5}
+ *                             & \multicolumn{2}{|c|}{THREAD\_CPU\_USAGE} & HashMap<String, Double> & percentage (0 - 1) \\ \cline{2-5}
+ *                             & \multicolumn{2}{|c|}{STATISTICS\_THREAD\_COUNT} & int & num \\ \cline{2-5}
+ *                             & \multicolumn{2}{|c|}{STATISTICS\_WAKEUPS\_PER\_MIN} & int & num \\ \cline{2-5}
  *          \hline
  *
  *      \end{longtable}
@@ -549,6 +551,51 @@ public class NexStatisticsMonitor {
 		public final int getCode() { return mCode; }
 	}
 
+	/**
+	 *
+	 * \brief  An enumeration of the kinds of HTTP downloads that segment download timings are grouped by.
+	 *
+	 * Segments are classified by the media composition reported with \c DOWN_START, video taking precedence
+	 * over audio and audio over text.
+	 *
+	 * \see getHttpTimingPercentile
+	 */
+	public static enum HttpSegmentType {
+		/** A manifest or playlist file. */
+		MANIFEST,
+		/** A segment or initial segment containing video. */
+		VIDEO,
+		/** A segment or initial segment containing audio only. */
+		AUDIO,
+		/** A segment or initial segment containing text or subtitles only. */
+		SUBTITLE,
+		/** Any other download, for example a key file or a segment index. */
+		OTHER
+	}
+
+	/**
+	 *
+	 * \brief  An enumeration of the timings measured for every HTTP download, from the HTTP statistics events.
+	 *
+	 * All timings are in milliseconds, except \c THROUGHPUT_KBPS which is in kbps.
+	 *
+	 * \see getHttpTimingPercentile
+	 */
+	public static enum HttpTimingMetric {
+		/** The time from \c DOWN_START to \c CONNECT. Only measured when a new connection is made. */
+		QUEUE,
+		/** The time from \c CONNECT to \c CONNECTED. Only measured when a new connection is made. */
+		CONNECT,
+		/** The time to the first byte, from \c CONNECTED (or \c DOWN_START on a reused connection) to \c HEADER_RECEIVED. */
+		TTFB,
+		/** The time from \c HEADER_RECEIVED to \c DOWN_END. */
+		TRANSFER,
+		/** The time from \c DOWN_START to \c DOWN_END. */
+		TOTAL,
+		/** The throughput of the transfer phase, in kbps. */
+		THROUGHPUT_KBPS
+	}
+
 	/** 
 	 *
 	 * \brief  This is an enumeration of the possible system statistics that can be requested during playback of HLS, DASH or SS content in NexPlayer&trade;.
@@ -567,7 +614,15 @@ public class NexStatisticsMonitor {
 		 * where zero is 0 percent and 1 is 100 percent.*/
 		CPU_USAGE       ( 0x00010000 ),
 		/** The current amount of memory free, in kilobytes, as a \c long.*/
-		FREE_MEMORY_KB  ( 0x00020000 );
+		FREE_MEMORY_KB  ( 0x00020000 ),
+		/** The CPU usage of the application process, as a value between 0 and 1 of the total CPU time of the device.*/
+		PROCESS_CPU_USAGE   ( 0x00040000 ),
+		/** The CPU usage of each thread of the application process, as a \c HashMap of thread names to values between 0 and 1.*/
+		THREAD_CPU_USAGE    ( 0x00080000 ),
+		/** The number of threads used by all statistics monitors of the application, as an \c int.*/
+		STATISTICS_THREAD_COUNT     ( 0x00100000 ),
+		/** The number of times the statistics thread woke up during the last minute, as an \c int.*/
+		STATISTICS_WAKEUPS_PER_MIN  ( 0x00200000 );
 
 		/** Sets the system statistics metric. */
 		SystemStatisticsMetric(int code) {mCode = code;}
@@ -590,6 +645,8 @@ public class NexStatisticsMonitor {
 	private NexPlayer           mNexPlayer;
 
 	private IStatisticsListener mStatisticsListener;
+	private NexHttpStatisticsCorrelator mHttpCorrelator;
+	private StatisticsMetrics mMetrics;
 
 	/**
 	 *
@@ -607,6 +664,7 @@ public class NexStatisticsMonitor {
 		mSystemStatisticsMonitor = new StatisticsTimer(STATISTICS_SYSTEM);
 
 		mStatisticsListener = null;
+		mHttpCorrelator = new NexHttpStatisticsCorrelator();
 		mTotalPlayTime = 0;
 		mNumHttpReq = 0;
 
@@ -623,6 +681,7 @@ public class NexStatisticsMonitor {
 		}
 
 		mStatisticsListener = null;
+		mHttpCorrelator = new NexHttpStatisticsCorrelator();
 		mTotalPlayTime = 0;
 		mNumHttpReq = 0;
 
@@ -643,6 +702,10 @@ public class NexStatisticsMonitor {
 
 			@Override
 			public void onReceive(NexPlayer nexplayer, NexPlayerEvent event) {
+				if( event != null && event.what == NexPlayerEvent.NEXPLAYER_EVENT_ONHTTPSTATS
+						&& event.intArgs.length > 0 && event.obj != null ) {
+					mHttpCorrelator.onHttpEvent(event.intArgs[0], (HashMap<Object, Object>)event.obj);
+				}
 				if( isMonitoringEnabled() ) {
 					if( event != null && (event.intArgs.length > 0 ) ) {
 						if (event.what == NexPlayerEvent.NEXPLAYER_EVENT_ASYNC_CMD_COMPLETE) {
@@ -662,7 +725,7 @@ public class NexStatisticsMonitor {
 	}
 
 	private boolean isMonitoringEnabled() {
-		return (mStatisticsListener != null) ? true : false;
+		return (mStatisticsListener != null || mMetrics != null) ? true : false;
 	}
 
 	private boolean isTimerActivated(int statisticsType) {
@@ -798,6 +861,38 @@ public class NexStatisticsMonitor {
 	public void setListener(IStatisticsListener listener) {
 		mStatisticsListener = listener;
 	}
+
+	/**
+	 *
+	 * \brief This method sets a metrics registry to be updated with the statistics monitored for this player.
+	 *
+	 * General and system statistics are published as gauges and counters at every statistics interval, and HTTP
+	 * download timings as histograms, all labelled with \c player.  Setting a registry enables monitoring even
+	 * if no listener is set.  Like the listener, the registry should be set before content playback begins.
+	 *
+	 * \param registry  The registry to update, or \c null to stop updating it.
+	 * \param player    The value of the \c player label of every metric published for this player.
+	 *
+	 * \see NexMetricsServer
+	 */
+	public void setMetricsRegistry(NexMetricsRegistry registry, String player) {
+		mMetrics = (registry != null) ? new StatisticsMetrics(registry, player) : null;
+		mHttpCorrelator.setMetricsRegistry(registry, player);
+	}
+
+	/**
+	 *
+	 * \brief This method stops monitoring and detaches the statistics monitor from its \c NexPlayer instance.
+	 *
+	 * Statistics timers are cancelled, and neither the listener nor the metrics registry are updated anymore.
+	 * It should be called before the \c NexPlayer instance is released, and the monitor should not be used afterwards.
+	 */
+	public void release() {
+		stopTimer();
+		mStatisticsListener = null;
+		setMetricsRegistry(null, null);
+		mNexPlayer.getEventProxy().unregisterReceiver(mEventReceiver);
+	}
 	
     /**
      *
@@ -837,6 +932,61 @@ public class NexStatisticsMonitor {
 		return StatisticsError.ERROR_TYPE_INVALID;
 	}
 
+	/**
+	 *
+	 * \brief This method gets a percentile of the HTTP download timings measured so far for one kind of download.
+	 *
+	 * Timings are measured from the HTTP statistics events for every download, whether or not a listener is set,
+	 * and kept in fixed-bucket log-linear histograms, so the value returned is accurate to within 12.5%.
+	 *
+	 * \param type        The kind of download, as an \c HttpSegmentType.
+	 * \param metric      The timing to query, as an \c HttpTimingMetric.
+	 * \param percentile  The percentile to get, between 0 and 100 (for example 50, 95 or 99).
+	 *
+	 * \returns The timing at the requested percentile, in milliseconds (kbps for \c THROUGHPUT_KBPS),
+	 *          or -1 if no download of this kind has completed.
+	 */
+	public long getHttpTimingPercentile(HttpSegmentType type, HttpTimingMetric metric, double percentile) {
+		return mHttpCorrelator.getHistogram(type, metric).getPercentile(percentile);
+	}
+
+	/**
+	 *
+	 * \brief This method gets the number of completed downloads of one kind.
+	 *
+	 * \param type  The kind of download, as an \c HttpSegmentType.
+	 *
+	 * \returns The number of downloads of this kind that reported \c DOWN_END.
+	 */
+	public long getHttpDownloadCount(HttpSegmentType type) {
+		return mHttpCorrelator.getHistogram(type, HttpTimingMetric.TOTAL).getCount();
+	}
+
+	/**
+	 *
+	 * \brief This method gets the number of downloads of one kind that reported an HTTP \c ERROR.
+	 *
+	 * \param type  The kind of download, as an \c HttpSegmentType.
+	 *
+	 * \returns The number of failed downloads of this kind.
+	 */
+	public int getHttpErrorCount(HttpSegmentType type) {
+		return mHttpCorrelator.getErrorCount(type);
+	}
+
+	/**
+	 *
+	 * \brief This method gets the estimated download bandwidth for one kind of download.
+	 *
+	 * \param type  The kind of download, as an \c HttpSegmentType.
+	 *
+	 * \returns A moving average of the transfer throughput of recent downloads of this kind, in bps,
+	 *          or 0 if no download of this kind has completed.
+	 */
+	public long getHttpBandwidth(HttpSegmentType type) {
+		return mHttpCorrelator.getBandwidth(type);
+	}
+
 	private int toMilliseconds(double seconds) {
 		return new Double(seconds *1000).intValue();
 	}
@@ -862,7 +1012,64 @@ public class NexStatisticsMonitor {
 		mTotalPlayTime = mNumHttpReq = 0;
 	}
 
-	private class StatisticsTimer extends Timer {
+	private class StatisticsMetrics {
+		private final NexMetricsRegistry.Gauge mNetworkBw;
+		private final NexMetricsRegistry.Gauge mTrackBw;
+		private final NexMetricsRegistry.Gauge mSegInBuffer;
+		private final NexMetricsRegistry.Counter mBytesReceived;
+		private final NexMetricsRegistry.Counter mSegRequests;
+		private final NexMetricsRegistry.Counter mSegErrors;
+		private final NexMetricsRegistry.Counter mSegTimeouts;
+		private final NexMetricsRegistry.Counter mSwitchUp;
+		private final NexMetricsRegistry.Counter mSwitchDown;
+		private final NexMetricsRegistry.Counter mFramesRendered;
+		private final NexMetricsRegistry.Counter mFramesDecoded;
+		private final NexMetricsRegistry.Gauge mCpuUsage;
+		private final NexMetricsRegistry.Gauge mProcessCpuUsage;
+		private final NexMetricsRegistry.Gauge mFreeMemory;
+
+		private StatisticsMetrics(NexMetricsRegistry registry, String player) {
+			mNetworkBw = registry.gauge("nexplayer_network_bandwidth_bps", "Current network bandwidth", "player", player);
+			mTrackBw = registry.gauge("nexplayer_track_bandwidth_bps", "Bandwidth of the current track", "player", player);
+			mSegInBuffer = registry.gauge("nexplayer_segments_in_buffer", "Number of segments buffered", "player", player);
+			mBytesReceived = registry.counter("nexplayer_bytes_received_total", "Bytes received", "player", player);
+			mSegRequests = registry.counter("nexplayer_segment_requests_total", "Segment requests", "player", player);
+			mSegErrors = registry.counter("nexplayer_segment_errors_total", "Segments that failed to be received", "player", player);
+			mSegTimeouts = registry.counter("nexplayer_segment_timeouts_total", "Segment requests that timed out", "player", player);
+			mSwitchUp = registry.counter("nexplayer_track_switch_total", "Track switches", "player", player, "direction", "up");
+			mSwitchDown = registry.counter("nexplayer_track_switch_total", "Track switches", "player", player, "direction", "down");
+			mFramesRendered = registry.counter("nexplayer_video_frames_rendered_total", "Video frames rendered", "player", player);
+			mFramesDecoded = registry.counter("nexplayer_video_frames_decoded_total", "Video frames decoded", "player", player);
+			mCpuUsage = registry.gauge("nexplayer_system_cpu_usage_ratio", "CPU usage of the device");
+			mProcessCpuUsage = registry.gauge("nexplayer_process_cpu_usage_ratio", "CPU usage of the application process");
+			mFreeMemory = registry.gauge("nexplayer_free_memory_kb", "Free memory of the device, in kilobytes");
+		}
+
+		private void updateGeneral(NexPlayer.NexRTStreamInformation streamInfo) {
+			if( streamInfo == null ) {
+				return;
+			}
+			mNetworkBw.set(streamInfo.mCurNetworkBw);
+			mTrackBw.set(streamInfo.mCurTrackBw);
+			mSegInBuffer.set(streamInfo.mNumOfSegInBuffer);
+			mBytesReceived.observeTotal(streamInfo.mNumOfBytesRecv);
+			mSegRequests.observeTotal(streamInfo.mNumOfSegRequest);
+			mSegErrors.observeTotal(streamInfo.mNumOfSegFailToReceive);
+			mSegTimeouts.observeTotal(streamInfo.mNumOfSegTimeout);
+			mSwitchUp.observeTotal(streamInfo.mNumOfTrackSwitchUp);
+			mSwitchDown.observeTotal(streamInfo.mNumOfTrackSwitchDown);
+			mFramesRendered.observeTotal(mNexPlayer.getContentInfoInt(NexPlayer.CONTENT_INFO_INDEX_VIDEO_RENDER_TOTAL_COUNT));
+			mFramesDecoded.observeTotal(mNexPlayer.getContentInfoInt(NexPlayer.CONTENT_INFO_INDEX_VIDEO_CODEC_DECODING_TOTAL_COUNT));
+		}
+
+		private void updateSystem(NexSystemUtils systemUtil) {
+			mCpuUsage.set(systemUtil.getCPUUsage());
+			mProcessCpuUsage.set(systemUtil.getProcessCPUUsage());
+			mFreeMemory.set(systemUtil.getFreeMemory());
+		}
+	}
+
+	private class StatisticsTimer {
 
 		private final Integer MAX_DURATION_MS;
 		private final Integer MIN_DURATION_MS;
@@ -870,7 +1077,8 @@ public class NexStatisticsMonitor {
 		private int             mType;
 		private int             mTaskPeriod;
 		private boolean         mActivated;
-		private TimerTask       mTask;
+		private Runnable        mTask;
+		private NexStatisticsScheduler.Task mScheduledTask;
 		private NexSystemUtils  mSystemUtil;
 
 		protected StatisticsTimer(int type) {
@@ -879,18 +1087,19 @@ public class NexStatisticsMonitor {
 			MAX_DURATION_MS = getMaxDurDefaultMs();
 			mTaskPeriod = 5000;
 			mActivated = false;
-			mSystemUtil = new NexSystemUtils();
+			mSystemUtil = NexSystemUtils.getInstance();
 			mSystemUtil.run();
 		}
 
 		protected void startTimer() {
 			setupTask();
-			scheduleAtFixedRate( mTask, 0, mTaskPeriod);
+			mScheduledTask = NexStatisticsScheduler.getInstance().schedule( mTask, mTaskPeriod );
 			mActivated = true;
 		}
 
 		protected void stopTimer() {
-			mTask.cancel();
+			NexStatisticsScheduler.getInstance().cancel( mScheduledTask );
+			mScheduledTask = null;
 			mActivated = false;
 		}
 
@@ -931,14 +1140,14 @@ public class NexStatisticsMonitor {
 			}
 		}
 
-		private TimerTask getGeneralTask() {
-			return new TimerTask() {
+		private Runnable getGeneralTask() {
+			return new Runnable() {
 				@Override
 				public void run() {
 					int playerState = mNexPlayer.getState();
 					if( (playerState >= NexPlayer.NEXPLAYER_STATE_STOP) && (playerState <= NexPlayer.NEXPLAYER_STATE_PLAYxN) ) {
+						NexPlayer.NexRTStreamInformation streamInfo = mNexPlayer.getRTStreamInfo();
 						if( mStatisticsListener != null ) {
-							NexPlayer.NexRTStreamInformation streamInfo = mNexPlayer.getRTStreamInfo();
 							HashMap<IStatistics, Object> map = new HashMap<IStatistics, Object>();
 
 							if( streamInfo != null ) {
@@ -961,6 +1170,10 @@ public class NexStatisticsMonitor {
 							}
 							mStatisticsListener.onUpdated(STATISTICS_GENERAL, map);
 						}
+						StatisticsMetrics metrics = mMetrics;
+						if( metrics != null ) {
+							metrics.updateGeneral(streamInfo);
+						}
 					}
 					else {
 						stopTimer();
@@ -969,19 +1182,27 @@ public class NexStatisticsMonitor {
 			};
 		}
 
-		private TimerTask getSystemTask() {
-			return new TimerTask() {
+		private Runnable getSystemTask() {
+			return new Runnable() {
 				@Override
 				public void run() {
 					int playerState = mNexPlayer.getState();
 					if( (playerState >= NexPlayer.NEXPLAYER_STATE_STOP) && (playerState <= NexPlayer.NEXPLAYER_STATE_PLAYxN) ) {
+						StatisticsMetrics metrics = mMetrics;
+						if( metrics != null ) {
+							metrics.updateSystem(mSystemUtil);
+						}
 						if( mStatisticsListener != null ) {
 							HashMap<IStatistics, Object> map = new HashMap<IStatistics, Object>();
 							map.put(SystemStatisticsMetric.CPU_USAGE,   new Double( mSystemUtil.getCPUUsage() ) );
 							map.put(SystemStatisticsMetric.FREE_MEMORY_KB, new Long( mSystemUtil.getFreeMemory() ) );
+							map.put(SystemStatisticsMetric.PROCESS_CPU_USAGE, new Double( mSystemUtil.getProcessCPUUsage() ) );
+							map.put(SystemStatisticsMetric.THREAD_CPU_USAGE, mSystemUtil.getThreadCPUUsage() );
+							map.put(SystemStatisticsMetric.STATISTICS_THREAD_COUNT, NexStatisticsScheduler.getInstance().getThreadCount() );
+							map.put(SystemStatisticsMetric.STATISTICS_WAKEUPS_PER_MIN, NexStatisticsScheduler.getInstance().getWakeupsPerMinute() );
 							mStatisticsListener.onUpdated(STATISTICS_SYSTEM, map);
-							mSystemUtil.run();
 						}
+						mSystemUtil.run();
 					}
 					else {
 						stopTimer();
@@ -990,4 +1211,4 @@ public class NexStatisticsMonitor {
 			};
 		}
 	}
-}
\ No newline at end of file
+}
\ No newline at end of file
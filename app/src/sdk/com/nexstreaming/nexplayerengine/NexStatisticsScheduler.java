@@ -0,0 +1,207 @@
+package com.nexstreaming.nexplayerengine;
+
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Process-wide scheduler running the periodic statistics tasks of every NexStatisticsMonitor.
+ *
+ * All tasks share one thread, which only exists while at least one task is scheduled. Task periods
+ * are aligned to multiples of the period on the elapsed realtime clock, so monitors using the same
+ * period are sampled in the same wake-up, one after the other, giving a consistent snapshot across players.
+ */
+class NexStatisticsScheduler {
+	private static final String TAG = "NexStatisticsScheduler";
+
+	private static final long WAKEUP_WINDOW_MS = 60 * 1000;
+	private static final int MAX_WAKEUP_HISTORY = 128;
+
+	private static NexStatisticsScheduler sInstance;
+
+	private ScheduledExecutorService mExecutor;
+	private ScheduledFuture<?> mWakeup;
+	private long mWakeupTimeMs;
+
+	private final ArrayList<Task> mTasks;
+
+	private final long[] mWakeupHistory;
+	private int mWakeupHistoryIndex;
+
+	private final Runnable mWakeupRunnable = new Runnable() {
+		@Override
+		public void run() {
+			onWakeup();
+		}
+	};
+
+	/**
+	 * A periodic task registered with the scheduler.
+	 */
+	static class Task {
+		private final Runnable mRunnable;
+		private final long mPeriodMs;
+		private long mNextDueMs;
+		private volatile boolean mCancelled;
+
+		private Task(Runnable runnable, long periodMs) {
+			mRunnable = runnable;
+			mPeriodMs = periodMs;
+		}
+
+		protected boolean isCancelled() {
+			return mCancelled;
+		}
+	}
+
+	protected static synchronized NexStatisticsScheduler getInstance() {
+		if( sInstance == null ) {
+			sInstance = new NexStatisticsScheduler();
+		}
+		return sInstance;
+	}
+
+	private NexStatisticsScheduler() {
+		mTasks = new ArrayList<Task>();
+		mWakeupHistory = new long[MAX_WAKEUP_HISTORY];
+		mWakeupHistoryIndex = 0;
+	}
+
+	/**
+	 * Schedules a task to run once as soon as possible and then at every multiple of periodMs.
+	 */
+	protected synchronized Task schedule(Runnable runnable, long periodMs) {
+		Task task = new Task(runnable, periodMs);
+		task.mNextDueMs = SystemClock.elapsedRealtime();
+		mTasks.add(task);
+		rescheduleWakeup();
+		return task;
+	}
+
+	protected synchronized void cancel(Task task) {
+		if( task == null || task.mCancelled ) {
+			return;
+		}
+		task.mCancelled = true;
+		mTasks.remove(task);
+		if( mTasks.isEmpty() ) {
+			shutdown();
+		}
+		else {
+			rescheduleWakeup();
+		}
+	}
+
+	/**
+	 * \returns The number of threads currently used to run statistics tasks.
+	 */
+	protected synchronized int getThreadCount() {
+		return (mExecutor != null) ? 1 : 0;
+	}
+
+	/**
+	 * \returns The number of times the scheduler thread woke up during the last minute.
+	 */
+	protected synchronized int getWakeupsPerMinute() {
+		long since = SystemClock.elapsedRealtime() - WAKEUP_WINDOW_MS;
+		int count = 0;
+		for( long time : mWakeupHistory ) {
+			if( time != 0 && time > since ) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private void onWakeup() {
+		long now = SystemClock.elapsedRealtime();
+		ArrayList<Task> dueTasks = new ArrayList<Task>();
+
+		synchronized (this) {
+			mWakeup = null;
+			mWakeupHistory[mWakeupHistoryIndex] = now;
+			mWakeupHistoryIndex = (mWakeupHistoryIndex + 1) % MAX_WAKEUP_HISTORY;
+
+			for( Task task : mTasks ) {
+				if( task.mNextDueMs <= now ) {
+					dueTasks.add(task);
+					task.mNextDueMs = alignToPeriod(now, task.mPeriodMs);
+				}
+			}
+		}
+
+		for( int i = 0; i < dueTasks.size(); i++ ) {
+			Task task = dueTasks.get(i);
+			if( task.mCancelled ) {
+				continue;
+			}
+			try {
+				task.mRunnable.run();
+			}
+			catch (RuntimeException e) {
+				NexLog.e(TAG, "Statistics task failed : " + e.getMessage());
+			}
+		}
+
+		synchronized (this) {
+			if( !mTasks.isEmpty() ) {
+				rescheduleWakeup();
+			}
+		}
+	}
+
+	private static long alignToPeriod(long now, long periodMs) {
+		return (now / periodMs + 1) * periodMs;
+	}
+
+	private void rescheduleWakeup() {
+		if( mTasks.isEmpty() ) {
+			return;
+		}
+
+		long next = Long.MAX_VALUE;
+		for( Task task : mTasks ) {
+			next = Math.min(next, task.mNextDueMs);
+		}
+
+		if( mWakeup != null ) {
+			if( mWakeupTimeMs <= next ) {
+				return;
+			}
+			mWakeup.cancel(false);
+		}
+
+		if( mExecutor == null ) {
+			ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, TAG);
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			executor.setRemoveOnCancelPolicy(true);
+			mExecutor = executor;
+		}
+
+		long delay = Math.max(0, next - SystemClock.elapsedRealtime());
+		mWakeupTimeMs = next;
+		mWakeup = mExecutor.schedule(mWakeupRunnable, delay, TimeUnit.MILLISECONDS);
+	}
+
+	private void shutdown() {
+		if( mWakeup != null ) {
+			mWakeup.cancel(false);
+			mWakeup = null;
+		}
+		if( mExecutor != null ) {
+			mExecutor.shutdown();
+			mExecutor = null;
+		}
+	}
+}
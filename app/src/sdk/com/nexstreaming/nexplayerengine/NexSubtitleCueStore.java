@@ -0,0 +1,827 @@
+package com.nexstreaming.nexplayerengine;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * \brief  A time index of the cues of a sidecar WebVTT or TTML subtitle file.
+ *
+ * External subtitles added with \c NexPlayer.changeSubtitlePath are rendered cue by cue as playback reaches them,
+ * so after a seek the previous cues stay on screen until the next event, and the cues ahead of the playback position
+ * are unknown.  The store reads the file on a background thread and tells which cues are active at a given time,
+ * or overlap a range of time, for example to remove the captions of ended cues right after a seek or to show the
+ * upcoming cues in a preview.
+ *
+ * Cues can be queried while the file is read, so the first cues of a long file are available before it has been
+ * read to the end.  Files of \c MAPPED_FILE_SIZE bytes or more are memory mapped instead of read, and the cues
+ * only keep the position of their text in the file, which is decoded when it is asked for.
+ *
+ * The cues are kept sorted by start time in implicit interval trees, where every node also knows the latest end
+ * time below it.  While the file is read, the cues read so far are in at most log n trees of sizes that are
+ * powers of two, which are merged as cues are added, so that a query never rebuilds them and takes
+ * O(log² n + k log k) time for k cues returned.  Once the file is read, they are merged into one tree and a query
+ * takes O(log n + k) time.
+ *
+ * All methods are thread safe.
+ *
+ * \see NexCaptionRendererForWebVTT.setCueStore
+ */
+public class NexSubtitleCueStore {
+	private static final String TAG = "NexSubtitleCueStore";
+
+	/** The size from which subtitle files are memory mapped instead of read, in bytes. */
+	public static final int MAPPED_FILE_SIZE = 1024 * 1024;
+
+	/** The end time of a cue that has no end. */
+	public static final int NO_END_TIME = Integer.MAX_VALUE;
+
+	private static final int FORMAT_WEBVTT = 0;
+	private static final int FORMAT_TTML = 1;
+
+	// the order of the cues returned, which is the order of the file for cues that start at the same time.
+	private static final Comparator<Cue> CUE_ORDER = new Comparator<Cue>() {
+		@Override
+		public int compare(Cue lhs, Cue rhs) {
+			int result = lhs.startTime < rhs.startTime ? -1 : (lhs.startTime == rhs.startTime ? 0 : 1);
+			if( 0 == result ) {
+				result = lhs.textOffset < rhs.textOffset ? -1 : (lhs.textOffset == rhs.textOffset ? 0 : 1);
+			}
+			return result;
+		}
+	};
+
+	/**
+	 * \brief  A cue of a subtitle file.
+	 */
+	public static final class Cue {
+		/** The time at which the cue is shown, in ms. */
+		public final int startTime;
+		/** The time at which the cue is removed, in ms, or \c NO_END_TIME. */
+		public final int endTime;
+
+		// the position of the text of the cue in the file, which also identifies the cue.
+		final int textOffset;
+		final int textLength;
+
+		private final NexSubtitleCueStore mStore;
+
+		private Cue(NexSubtitleCueStore store, int startTime, int endTime, int textOffset, int textLength) {
+			mStore = store;
+			this.startTime = startTime;
+			this.endTime = endTime;
+			this.textOffset = textOffset;
+			this.textLength = textLength;
+		}
+
+		/**
+		 * \returns The text of the cue without its markup, with a line feed between the lines.
+		 */
+		public String getText() {
+			StringBuilder text = new StringBuilder(textLength);
+			mStore.decode(this, text);
+			return text.toString();
+		}
+	}
+
+	/*
+	 * Cues sorted by start time, and the implicit interval tree over them.  A level is not changed once it is
+	 * published, so queries read the levels without waiting for the cues being added.
+	 */
+	private static final class Level {
+		final int count;
+		final int[] startTimes;
+		final int[] endTimes;
+		final int[] textOffsets;
+		final int[] textLengths;
+		// the latest end time in the subtree of every node.  The node of [lo, hi) is (lo + hi) / 2.
+		final int[] maxEndTimes;
+
+		Level(int count) {
+			this.count = count;
+			startTimes = new int[count];
+			endTimes = new int[count];
+			textOffsets = new int[count];
+			textLengths = new int[count];
+			maxEndTimes = new int[count];
+		}
+
+		/**
+		 * Merges two levels into a new one, the cues of \c older first when they start at the same time.
+		 */
+		static Level merge(Level older, Level newer) {
+			Level merged = new Level(older.count + newer.count);
+			int i = 0;
+			int j = 0;
+			for( int k = 0; k < merged.count; k++ ) {
+				Level from;
+				int index;
+				if( j >= newer.count || (i < older.count && older.startTimes[i] <= newer.startTimes[j]) ) {
+					from = older;
+					index = i++;
+				} else {
+					from = newer;
+					index = j++;
+				}
+				merged.startTimes[k] = from.startTimes[index];
+				merged.endTimes[k] = from.endTimes[index];
+				merged.textOffsets[k] = from.textOffsets[index];
+				merged.textLengths[k] = from.textLengths[index];
+			}
+			merged.buildIndex(0, merged.count);
+			return merged;
+		}
+
+		int buildIndex(int lo, int hi) {
+			if( lo >= hi ) {
+				return Integer.MIN_VALUE;
+			}
+			int mid = (lo + hi) >>> 1;
+			int maxEndTime = Math.max(endTimes[mid], Math.max(buildIndex(lo, mid), buildIndex(mid + 1, hi)));
+			maxEndTimes[mid] = maxEndTime;
+			return maxEndTime;
+		}
+
+		void collectCues(NexSubtitleCueStore store, int lo, int hi, int startTime, int endTime, ArrayList<Cue> cues) {
+			if( lo >= hi ) {
+				return;
+			}
+			int mid = (lo + hi) >>> 1;
+			if( maxEndTimes[mid] <= startTime ) {
+				// every cue below has ended.
+				return;
+			}
+			collectCues(store, lo, mid, startTime, endTime, cues);
+			if( startTimes[mid] > endTime ) {
+				// this cue and the ones after it start later.
+				return;
+			}
+			if( endTimes[mid] > startTime ) {
+				cues.add(new Cue(store, startTimes[mid], endTimes[mid], textOffsets[mid], textLengths[mid]));
+			}
+			collectCues(store, mid + 1, hi, startTime, endTime, cues);
+		}
+	}
+
+	private final File mFile;
+	private ByteBuffer mSource;
+	private int mFormat = FORMAT_WEBVTT;
+
+	// level i holds 2^i cues, or is null, like the bits of the number of cues, until the file is read.
+	// Only the thread reading the file replaces it.
+	private volatile Level[] mLevels = new Level[0];
+	private volatile int mCount = 0;
+
+	private volatile boolean mComplete = false;
+	private volatile boolean mClosed = false;
+
+	// TTML time expressions
+	private float mFrameRate = 30;
+	private float mTickRate = 1;
+
+	/**
+	 * Starts to read a WebVTT or TTML subtitle file on a background thread.
+	 *
+	 * The format is detected from the content of the file.
+	 *
+	 * \param path  The path of the subtitle file.
+	 *
+	 * \returns The store of the cues of the file, which is filled while the file is read.
+	 */
+	public static NexSubtitleCueStore load(String path) {
+		final NexSubtitleCueStore store = new NexSubtitleCueStore(new File(path));
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				store.read();
+			}
+		}, TAG);
+		thread.setDaemon(true);
+		thread.start();
+		return store;
+	}
+
+	private NexSubtitleCueStore(File file) {
+		mFile = file;
+	}
+
+	/**
+	 * Stops reading the file.  The cues read until then can still be queried.
+	 */
+	public void close() {
+		mClosed = true;
+	}
+
+	/**
+	 * \returns \c true once the whole file was read, or reading it failed or was stopped.
+	 */
+	public boolean isComplete() {
+		return mComplete;
+	}
+
+	/**
+	 * \returns The number of cues read so far.
+	 */
+	public int getCueCount() {
+		return mCount;
+	}
+
+	/**
+	 * Returns the cues shown at a time, sorted by start time.
+	 *
+	 * \param time  The time, in ms.
+	 *
+	 * \returns The cues that start at or before \c time and end after it.
+	 */
+	public List<Cue> getActiveCues(int time) {
+		return getCues(time, time);
+	}
+
+	/**
+	 * Returns the cues shown during a range of time, sorted by start time.
+	 *
+	 * \param startTime  The start of the range, in ms.
+	 * \param endTime    The end of the range, in ms.
+	 *
+	 * \returns The cues that start at or before \c endTime and end after \c startTime.
+	 */
+	public List<Cue> getCues(int startTime, int endTime) {
+		ArrayList<Cue> cues = new ArrayList<Cue>();
+		Level[] levels = mLevels;
+		int levelsWithCues = 0;
+		for( Level level : levels ) {
+			if( null != level ) {
+				int count = cues.size();
+				level.collectCues(this, 0, level.count, startTime, endTime, cues);
+				if( cues.size() > count ) {
+					levelsWithCues++;
+				}
+			}
+		}
+		if( levelsWithCues > 1 ) {
+			Collections.sort(cues, CUE_ORDER);
+		}
+		return cues;
+	}
+
+	/*
+	 * Adds a cue as a level of one cue, and merges it with the levels of the same size, like a binary increment.
+	 * A cue is merged O(log n) times, so reading n cues takes O(n log n) time.
+	 */
+	private void addCue(int startTime, int endTime, int textOffset, int textLength) {
+		Level carry = new Level(1);
+		carry.startTimes[0] = startTime;
+		carry.endTimes[0] = endTime;
+		carry.textOffsets[0] = textOffset;
+		carry.textLengths[0] = textLength;
+		carry.maxEndTimes[0] = endTime;
+
+		Level[] levels = mLevels;
+		int level = 0;
+		while( level < levels.length && null != levels[level] ) {
+			carry = Level.merge(levels[level], carry);
+			level++;
+		}
+
+		Level[] published = new Level[Math.max(levels.length, level + 1)];
+		System.arraycopy(levels, level, published, level, levels.length - level);
+		published[level] = carry;
+		mLevels = published;
+		mCount++;
+	}
+
+	// merges the levels into one, once no cue is added anymore.
+	private void mergeLevels() {
+		Level merged = null;
+		for( Level level : mLevels ) {
+			if( null != level ) {
+				// the higher levels hold the cues read first.
+				merged = null == merged ? level : Level.merge(level, merged);
+			}
+		}
+		mLevels = null == merged ? new Level[0] : new Level[] { merged };
+	}
+
+	private void read() {
+		try {
+			ByteBuffer source = open(mFile);
+			synchronized (this) {
+				mSource = source;
+			}
+
+			int pos = 0;
+			if( source.limit() >= 3 && (source.get(0) & 0xFF) == 0xEF && (source.get(1) & 0xFF) == 0xBB && (source.get(2) & 0xFF) == 0xBF ) {
+				pos = 3;
+			}
+
+			if( startsWith(source, pos, "WEBVTT") ) {
+				mFormat = FORMAT_WEBVTT;
+				readWebVTT(source, pos);
+			} else {
+				mFormat = FORMAT_TTML;
+				readTTML(source, pos);
+			}
+			NexLog.d(TAG, "Read " + getCueCount() + " cues from " + mFile);
+		} catch (IOException e) {
+			NexLog.e(TAG, "Unable to read " + mFile + " : " + e.getMessage());
+		} finally {
+			mergeLevels();
+			mComplete = true;
+		}
+	}
+
+	private static ByteBuffer open(File file) throws IOException {
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = randomAccessFile.getChannel();
+			long size = channel.size();
+			if( size > Integer.MAX_VALUE ) {
+				throw new IOException("file too large : " + size);
+			}
+			if( size >= MAPPED_FILE_SIZE ) {
+				// the mapping stays valid after the file is closed.
+				return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			}
+
+			ByteBuffer buffer = ByteBuffer.allocate((int) size);
+			while( buffer.hasRemaining() && channel.read(buffer) >= 0 ) {
+				// read to the end.
+			}
+			buffer.flip();
+			return buffer;
+		} finally {
+			randomAccessFile.close();
+		}
+	}
+
+	private void readWebVTT(ByteBuffer source, int pos) {
+		int limit = source.limit();
+
+		// the header block
+		pos = skipBlock(source, pos);
+
+		while( pos < limit && !mClosed ) {
+			pos = skipBlankLines(source, pos);
+			if( pos >= limit ) {
+				break;
+			}
+
+			// the timing line is the first line of a cue, or the second one after an identifier.
+			int lineEnd = lineEnd(source, pos);
+			String timing = getString(source, pos, lineEnd - pos);
+			if( !timing.contains("-->") ) {
+				int next = nextLine(source, lineEnd);
+				if( next < limit ) {
+					lineEnd = lineEnd(source, next);
+					timing = getString(source, next, lineEnd - next);
+				}
+			}
+
+			int arrow = timing.indexOf("-->");
+			if( arrow < 0 ) {
+				// NOTE, STYLE and REGION blocks
+				pos = skipBlock(source, pos);
+				continue;
+			}
+
+			int textStart = nextLine(source, lineEnd);
+			int textEnd = blockEnd(source, textStart);
+			pos = textEnd;
+
+			String endTime = timing.substring(arrow + 3).trim();
+			int space = indexOfWhitespace(endTime);
+			int start = parseClockTime(timing.substring(0, arrow).trim());
+			int end = parseClockTime(space < 0 ? endTime : endTime.substring(0, space));
+			if( start < 0 || end <= start ) {
+				NexLog.w(TAG, "Invalid cue timing : " + timing);
+				continue;
+			}
+			addCue(start, end, textStart, Math.max(0, textEnd - textStart));
+		}
+	}
+
+	private void readTTML(ByteBuffer source, int pos) {
+		int limit = source.limit();
+
+		while( pos < limit && !mClosed ) {
+			int tagStart = indexOf(source, pos, '<');
+			if( tagStart < 0 ) {
+				break;
+			}
+
+			if( startsWith(source, tagStart, "<!--") ) {
+				int end = indexOf(source, tagStart + 4, "-->");
+				pos = end < 0 ? limit : end + 3;
+				continue;
+			}
+
+			int tagEnd = tagEnd(source, tagStart);
+			if( tagEnd < 0 ) {
+				break;
+			}
+			pos = tagEnd + 1;
+
+			byte first = source.get(tagStart + 1);
+			if( first == '/' || first == '?' || first == '!' ) {
+				continue;
+			}
+
+			String tag = getString(source, tagStart + 1, tagEnd - tagStart - 1);
+			String name = tagName(tag);
+			String localName = name.substring(name.indexOf(':') + 1);
+
+			if( "tt".equals(localName) ) {
+				mFrameRate = parseRate(getAttribute(tag, "ttp:frameRate"), mFrameRate);
+				mTickRate = parseRate(getAttribute(tag, "ttp:tickRate"), mTickRate);
+			} else if( "p".equals(localName) && !tag.endsWith("/") ) {
+				int textStart = tagEnd + 1;
+				int textEnd = indexOf(source, textStart, "</" + name);
+				if( textEnd < 0 ) {
+					break;
+				}
+				int closeEnd = indexOf(source, textEnd, '>');
+				pos = closeEnd < 0 ? limit : closeEnd + 1;
+
+				// the timing of parent elements is not inherited.
+				int start = parseTTMLTime(getAttribute(tag, "begin"));
+				int end = parseTTMLTime(getAttribute(tag, "end"));
+				int duration = parseTTMLTime(getAttribute(tag, "dur"));
+				if( start < 0 ) {
+					start = 0;
+				}
+				if( end < 0 ) {
+					end = duration >= 0 ? start + duration : NO_END_TIME;
+				}
+				if( end <= start ) {
+					NexLog.w(TAG, "Invalid cue timing : " + tag);
+					continue;
+				}
+				addCue(start, end, textStart, textEnd - textStart);
+			}
+		}
+	}
+
+	/**
+	 * Parses a WebVTT timestamp or a TTML clock time, \c [hh:]mm:ss[.fff].
+	 *
+	 * \returns The time in ms, or -1 if it is invalid.
+	 */
+	private static int parseClockTime(String value) {
+		String[] parts = value.split(":");
+		if( parts.length < 2 || parts.length > 3 ) {
+			return -1;
+		}
+		try {
+			long time = 0;
+			for( int i = 0; i < parts.length - 1; i++ ) {
+				time = time * 60 + Integer.parseInt(parts[i]);
+			}
+			time = time * 60000 + Math.round(Double.parseDouble(parts[parts.length - 1]) * 1000);
+			return time < 0 || time >= NO_END_TIME ? -1 : (int) time;
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Parses a TTML time expression, either a clock time with optional frames, or an offset time.
+	 *
+	 * \returns The time in ms, or -1 if it is missing or invalid.
+	 */
+	private int parseTTMLTime(String value) {
+		if( null == value ) {
+			return -1;
+		}
+		value = value.trim();
+
+		if( value.indexOf(':') >= 0 ) {
+			String[] parts = value.split(":");
+			if( parts.length != 4 ) {
+				return parseClockTime(value);
+			}
+			int time = parseClockTime(parts[0] + ":" + parts[1] + ":" + parts[2]);
+			try {
+				return time < 0 ? -1 : time + Math.round(Float.parseFloat(parts[3]) * 1000 / mFrameRate);
+			} catch (NumberFormatException e) {
+				return -1;
+			}
+		}
+
+		int digits = value.length();
+		while( digits > 0 && Character.isLetter(value.charAt(digits - 1)) ) {
+			digits--;
+		}
+		String metric = value.substring(digits);
+		double scale;
+		if( "h".equals(metric) ) {
+			scale = 3600000;
+		} else if( "m".equals(metric) ) {
+			scale = 60000;
+		} else if( "s".equals(metric) ) {
+			scale = 1000;
+		} else if( "ms".equals(metric) ) {
+			scale = 1;
+		} else if( "f".equals(metric) ) {
+			scale = 1000 / mFrameRate;
+		} else if( "t".equals(metric) ) {
+			scale = 1000 / mTickRate;
+		} else {
+			return -1;
+		}
+		try {
+			double time = Double.parseDouble(value.substring(0, digits)) * scale;
+			return time < 0 || time >= NO_END_TIME ? -1 : (int) Math.round(time);
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	private static float parseRate(String value, float defaultRate) {
+		if( null != value ) {
+			try {
+				float rate = Float.parseFloat(value.trim());
+				if( rate > 0 ) {
+					return rate;
+				}
+			} catch (NumberFormatException e) {
+				NexLog.w(TAG, "Invalid rate : " + value);
+			}
+		}
+		return defaultRate;
+	}
+
+	/**
+	 * Appends the text of a cue to \c text.  Line breaks are kept, and the markup is removed.
+	 */
+	void decode(Cue cue, StringBuilder text) {
+		ByteBuffer source;
+		synchronized (this) {
+			source = mSource;
+		}
+		String raw = getString(source, cue.textOffset, cue.textLength);
+		boolean collapseWhitespace = FORMAT_TTML == mFormat;
+
+		// a pending space is only written before the next character, so that lines are never started or ended by a space.
+		boolean space = false;
+		boolean lineStart = true;
+		int length = raw.length();
+		for( int i = 0; i < length; i++ ) {
+			char c = raw.charAt(i);
+
+			if( '<' == c ) {
+				int end = raw.indexOf('>', i);
+				if( end < 0 ) {
+					break;
+				}
+				String tag = tagName(raw.substring(i + 1, end));
+				String localName = tag.substring(tag.indexOf(':') + 1);
+				i = end;
+
+				if( "br".equals(localName) || "br/".equals(localName) ) {
+					text.append('\n');
+					space = false;
+					lineStart = true;
+				}
+				continue;
+			}
+
+			if( '\r' == c || '\n' == c ) {
+				if( '\r' == c && i + 1 < length && '\n' == raw.charAt(i + 1) ) {
+					i++;
+				}
+				if( collapseWhitespace ) {
+					space = !lineStart;
+				} else {
+					text.append('\n');
+					space = false;
+					lineStart = true;
+				}
+				continue;
+			}
+
+			if( ' ' == c || '\t' == c ) {
+				if( collapseWhitespace ) {
+					space = !lineStart;
+					continue;
+				}
+			} else if( '&' == c ) {
+				int end = raw.indexOf(';', i);
+				if( end > i && end - i <= 10 ) {
+					char entity = decodeEntity(raw.substring(i + 1, end));
+					if( 0 != entity ) {
+						i = end;
+						if( entity == '\u200E' || entity == '\u200F' ) {
+							continue;
+						}
+						c = entity;
+					}
+				}
+			}
+
+			if( space ) {
+				text.append(' ');
+				space = false;
+			}
+			text.append(c);
+			lineStart = false;
+		}
+	}
+
+	private static char decodeEntity(String name) {
+		if( "amp".equals(name) ) {
+			return '&';
+		} else if( "lt".equals(name) ) {
+			return '<';
+		} else if( "gt".equals(name) ) {
+			return '>';
+		} else if( "quot".equals(name) ) {
+			return '"';
+		} else if( "apos".equals(name) ) {
+			return '\'';
+		} else if( "nbsp".equals(name) ) {
+			return '\u00A0';
+		} else if( "lrm".equals(name) ) {
+			return '\u200E';
+		} else if( "rlm".equals(name) ) {
+			return '\u200F';
+		} else if( name.startsWith("#") ) {
+			try {
+				int code = name.startsWith("#x") || name.startsWith("#X") ? Integer.parseInt(name.substring(2), 16) : Integer.parseInt(name.substring(1));
+				return code > 0 && code <= 0xFFFF ? (char) code : 0;
+			} catch (NumberFormatException e) {
+				return 0;
+			}
+		}
+		return 0;
+	}
+
+	private static String tagName(String tag) {
+		int end = indexOfWhitespace(tag);
+		String name = end < 0 ? tag : tag.substring(0, end);
+		// WebVTT class names, <c.yellow>
+		int dot = name.indexOf('.');
+		return dot < 0 ? name : name.substring(0, dot);
+	}
+
+	private static String getAttribute(String tag, String name) {
+		int from = 0;
+		while( true ) {
+			int index = tag.indexOf(name, from);
+			if( index < 0 ) {
+				return null;
+			}
+			from = index + name.length();
+			if( index > 0 && !Character.isWhitespace(tag.charAt(index - 1)) ) {
+				continue;
+			}
+
+			int i = from;
+			while( i < tag.length() && Character.isWhitespace(tag.charAt(i)) ) {
+				i++;
+			}
+			if( i >= tag.length() || '=' != tag.charAt(i) ) {
+				continue;
+			}
+			i++;
+			while( i < tag.length() && Character.isWhitespace(tag.charAt(i)) ) {
+				i++;
+			}
+			if( i >= tag.length() ) {
+				return null;
+			}
+			char quote = tag.charAt(i);
+			if( '"' != quote && '\'' != quote ) {
+				return null;
+			}
+			int end = tag.indexOf(quote, i + 1);
+			return end < 0 ? null : tag.substring(i + 1, end);
+		}
+	}
+
+	private static int indexOfWhitespace(String value) {
+		for( int i = 0; i < value.length(); i++ ) {
+			if( Character.isWhitespace(value.charAt(i)) ) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static String getString(ByteBuffer source, int offset, int length) {
+		byte[] bytes = new byte[length];
+		for( int i = 0; i < length; i++ ) {
+			bytes[i] = source.get(offset + i);
+		}
+		try {
+			return new String(bytes, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			return "";
+		}
+	}
+
+	private static boolean startsWith(ByteBuffer source, int pos, String prefix) {
+		if( pos + prefix.length() > source.limit() ) {
+			return false;
+		}
+		for( int i = 0; i < prefix.length(); i++ ) {
+			if( source.get(pos + i) != prefix.charAt(i) ) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int indexOf(ByteBuffer source, int pos, char c) {
+		for( int limit = source.limit(); pos < limit; pos++ ) {
+			if( source.get(pos) == c ) {
+				return pos;
+			}
+		}
+		return -1;
+	}
+
+	private static int indexOf(ByteBuffer source, int pos, String value) {
+		while( (pos = indexOf(source, pos, value.charAt(0))) >= 0 ) {
+			if( startsWith(source, pos, value) ) {
+				return pos;
+			}
+			pos++;
+		}
+		return -1;
+	}
+
+	// the '>' ending the tag at pos, skipping the quoted attribute values.
+	private static int tagEnd(ByteBuffer source, int pos) {
+		byte quote = 0;
+		for( int limit = source.limit(); pos < limit; pos++ ) {
+			byte b = source.get(pos);
+			if( 0 != quote ) {
+				if( b == quote ) {
+					quote = 0;
+				}
+			} else if( '"' == b || '\'' == b ) {
+				quote = b;
+			} else if( '>' == b ) {
+				return pos;
+			}
+		}
+		return -1;
+	}
+
+	private static int lineEnd(ByteBuffer source, int pos) {
+		int limit = source.limit();
+		while( pos < limit ) {
+			byte b = source.get(pos);
+			if( '\r' == b || '\n' == b ) {
+				break;
+			}
+			pos++;
+		}
+		return pos;
+	}
+
+	private static int nextLine(ByteBuffer source, int lineEnd) {
+		int limit = source.limit();
+		if( lineEnd < limit && '\r' == source.get(lineEnd) ) {
+			lineEnd++;
+		}
+		if( lineEnd < limit && '\n' == source.get(lineEnd) ) {
+			lineEnd++;
+		}
+		return lineEnd;
+	}
+
+	private static int skipBlankLines(ByteBuffer source, int pos) {
+		int limit = source.limit();
+		while( pos < limit && lineEnd(source, pos) == pos ) {
+			pos = nextLine(source, pos);
+		}
+		return pos;
+	}
+
+	// the end of the last line of the block starting at pos.
+	private static int blockEnd(ByteBuffer source, int pos) {
+		int end = pos;
+		int limit = source.limit();
+		while( pos < limit ) {
+			int lineEnd = lineEnd(source, pos);
+			if( lineEnd == pos ) {
+				break;
+			}
+			end = lineEnd;
+			pos = nextLine(source, lineEnd);
+		}
+		return end;
+	}
+
+	private static int skipBlock(ByteBuffer source, int pos) {
+		return nextLine(source, blockEnd(source, pos));
+	}
+}
@@ -8,10 +8,10 @@ import android.opengl.GLES20;
 import android.opengl.Matrix;
 import android.os.Build;
 import android.os.Handler;
-import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.Message;
 import android.util.AttributeSet;
+import android.util.Log;
 import android.view.Choreographer;
 import android.view.Surface;
 import android.view.SurfaceHolder;
@@ -40,8 +40,21 @@ NexSurfaceTextureView extends SurfaceView implements SurfaceHolder.Callback, Sur
     private Surface mCreatedSurface;
 
     private boolean mUseRenderThread = false;
-    private HandlerThread mRenderThread;
+    private NexRenderThread mRenderThread;
     private Handler mHandler = null;
+    private NexFrameScheduler mFrameScheduler;
+    // draws the pending frame of this view on the vsync of the shared render thread, once its target vsync is reached.
+    private final NexRenderThread.Client mRenderClient = new NexRenderThread.Client() {
+        @Override
+        public void onDrawFrame(long frameTimeNanos) {
+            if (mFrameScheduler.shouldDraw(frameTimeNanos)) {
+                drawFrame(0, frameTimeNanos);
+                mFrameScheduler.onFrameDrawn(frameTimeNanos);
+            } else if (mFrameScheduler.hasPendingFrame() && mRenderThread != null) {
+                mRenderThread.requestFrame(this);
+            }
+        }
+    };
 
     private boolean mUseSurfaceTexture = true;
     private NexEglSurface.EglManager mEglManager;
@@ -159,10 +172,31 @@ NexSurfaceTextureView extends SurfaceView implements SurfaceHolder.Callback, Sur
     }
 
     private void initRenderThread() {
-        mRenderThread = new HandlerThread("NexSurfaceTexture");
-        mRenderThread.start();
-        mHandler = null;
+        if (mRenderThread != null) {
+            return;
+        }
+        // every view shares the same thread and EGL context, instead of starting its own.
+        mRenderThread = NexRenderThread.acquire(NexRenderThread.DEFAULT_GROUP);
         mHandler = new RenderHandler(mRenderThread.getLooper(), this);
+        NexVSyncSampler.getInstance().start();
+        mFrameScheduler = new NexFrameScheduler(NexVSyncSampler.getInstance().getEstimator());
+    }
+
+    /**
+     * \returns The number of frames drawn after the vsync they were scheduled for, when a render thread is used.
+     */
+    public long getLateFrameCount() {
+        NexFrameScheduler scheduler = mFrameScheduler;
+        return scheduler != null ? scheduler.getLateCount() : 0;
+    }
+
+    /**
+     * \returns The number of vsyncs at which a frame was shown again beyond the frame rate of the video,
+     * when a render thread is used.
+     */
+    public long getRepeatedFrameCount() {
+        NexFrameScheduler scheduler = mFrameScheduler;
+        return scheduler != null ? scheduler.getRepeatedCount() : 0;
     }
     // *********** SurfaceHolder ****************
     @Override
@@ -248,7 +282,12 @@ NexSurfaceTextureView extends SurfaceView implements SurfaceHolder.Callback, Sur
             if(mNativeInitialized)
                 mFirstFrameUpdated = true;
         }
-        if(!mUseVSync) {
+        if (mRenderThread != null) {
+            if (mUseSurfaceTexture) {
+                mFrameScheduler.onFrameAvailable(updatedTimeNs);
+                mRenderThread.requestFrame(mRenderClient);
+            }
+        } else if(!mUseVSync) {
             if (mUseSurfaceTexture && mHandler != null) {
                 Message msg = Message.obtain();
                 msg.what = RenderHandler.MSG_FRAME_AVAILABLE;
@@ -313,7 +352,7 @@ NexSurfaceTextureView extends SurfaceView implements SurfaceHolder.Callback, Sur
         int height = this.getHeight();
 
         if(mEglManager == null)
-            mEglManager = new NexEglSurface.EglManager();
+            mEglManager = mRenderThread != null ? mRenderThread.getEglManager() : new NexEglSurface.EglManager();
 
         mDisplaySurface = new NexEglSurface(mEglManager, getHolder(), false);
         mDisplaySurface.makeCurrent();
@@ -321,7 +360,7 @@ NexSurfaceTextureView extends SurfaceView implements SurfaceHolder.Callback, Sur
             mDisplaySurfaceAvailable = true;
         }
 
-        if(mUseVSync)
+        if(mUseVSync && mRenderThread == null)
             initVSync();
 
         if(mSurfaceTexture == null) {
@@ -374,10 +413,6 @@ NexSurfaceTextureView extends SurfaceView implements SurfaceHolder.Callback, Sur
 
     private void releaseGL() {
         NexLog.d(LOG_TAG, "releaseGL");
-        if (mVideoRenderer != null) {
-            mVideoRenderer.release();
-            mVideoRenderer = null;
-        }
         if(mCreatedSurface != null) {
             mCreatedSurface.release();
             mCreatedSurface = null;
@@ -387,14 +422,52 @@ NexSurfaceTextureView extends SurfaceView implements SurfaceHolder.Callback, Sur
             mSurfaceTexture.release();
             mSurfaceTexture = null;
         }
+
+        if (mVideoRenderer != null) {
+            // the context may be shared with other views, delete the program and the texture of this view
+            // while the context is current, on the display surface or off screen once the surface is gone.
+            boolean current = false;
+            if (mEglManager != null) {
+                if (mDisplaySurface != null) {
+                    mDisplaySurface.makeCurrent();
+                    current = true;
+                } else {
+                    current = mEglManager.makeOffscreenCurrent();
+                }
+            }
+            if (current) {
+                mVideoRenderer.release();
+                GLES20.glDeleteTextures(1, new int[] { mTextureId }, 0);
+            } else {
+                NexLog.w(LOG_TAG, "releaseGL: no current context, the program and texture are not deleted");
+            }
+            mVideoRenderer = null;
+            mTextureId = 0;
+        }
+
+        if (mDisplaySurface != null) {
+            synchronized (mLock) {
+                mDisplaySurfaceAvailable = false;
+            }
+            mEglManager.makeNothingCurrent();
+            mDisplaySurface.release();
+            mDisplaySurface = null;
+        } else if (mEglManager != null) {
+            mEglManager.makeNothingCurrent();
+        }
+
         if (mEglManager != null) {
-            mEglManager.release();
+            // the EGL context of a shared render thread is released with the thread.
+            if (mRenderThread == null)
+                mEglManager.release();
             mEglManager = null;
         }
 
         if(mRenderThread != null) {
-            mRenderThread.quit();
+            mRenderThread.cancelFrame(mRenderClient);
+            mRenderThread.release();
             mRenderThread = null;
+            NexVSyncSampler.getInstance().stop();
             /*
             new Handler().post(new Runnable() {
                 @Override
@@ -414,8 +487,10 @@ NexSurfaceTextureView extends SurfaceView implements SurfaceHolder.Callback, Sur
     private int mFrameNum;
     float[] mTexMatrix = new float[16];
     private void drawFrame(int drawType, long frameTimeNanos) {
-        NexLog.v(LOG_TAG, "drawFrame drawType:" +  drawType + "," + mFrameNum + " interval:" + (frameTimeNanos - mPreviousDrawNs) / 1000000 + "ms");
-        NexLog.v(LOG_TAG, "drawFrame gap:" +  (frameTimeNanos - mFrameUpdatedNs) / 1000000 + "ms");
+        if (NexLog.isLoggable(LOG_TAG, Log.VERBOSE)) {
+            NexLog.v(LOG_TAG, "drawFrame drawType:" +  drawType + "," + mFrameNum + " interval:" + (frameTimeNanos - mPreviousDrawNs) / 1000000 + "ms");
+            NexLog.v(LOG_TAG, "drawFrame gap:" +  (frameTimeNanos - mFrameUpdatedNs) / 1000000 + "ms");
+        }
         mPreviousDrawNs = frameTimeNanos;
         synchronized (mLock) {
             mFrameAvailable = false;
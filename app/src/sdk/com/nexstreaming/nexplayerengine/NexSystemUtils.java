@@ -1,172 +1,476 @@
 package com.nexstreaming.nexplayerengine;
 
-import java.io.BufferedReader;
-import java.io.InputStream;
-import java.io.InputStreamReader;
+import android.os.SystemClock;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Samples system and process statistics straight from procfs.
+ *
+ * The proc files are kept open and re-read into one reused byte buffer on every sample, so no
+ * process is forked and no strings are built while parsing. The stat file of every thread stays
+ * open as well, and /proc/self/task is only listed again every TASK_RESCAN_INTERVAL samples, so a
+ * sample allocates nothing once the set of threads is stable. A single instance is shared by every
+ * NexStatisticsMonitor; samples requested within MIN_SAMPLE_INTERVAL_MS of each other reuse the
+ * previous result.
+ */
 class NexSystemUtils implements Runnable {
 	private final String TAG = "NexSystemUtils";
 
-	private Double	mCpuUsage;
+	private static final String PROC_ROOT = "/proc";
+	private static final int BUFFER_SIZE = 8 * 1024;
+	static final long MIN_SAMPLE_INTERVAL_MS = 1000;
+	/* fields of the cpu line of /proc/stat that make up the total time. */
+	private static final int CPU_FIELDS = 7;
+	/* samples between two listings of /proc/self/task, threads that exit in between are dropped as soon as their stat can't be read. */
+	static final int TASK_RESCAN_INTERVAL = 10;
+
+	/* field index (1 based) of utime in /proc/[pid]/stat, stime follows it. */
+	private static final int STAT_FIELD_UTIME = 14;
+
+	private static final byte[] KEY_CPU = { 'c', 'p', 'u', ' ' };
+	private static final byte[] KEY_MEM_FREE = { 'M', 'e', 'm', 'F', 'r', 'e', 'e', ':' };
+	private static final byte[] KEY_CACHED = { 'C', 'a', 'c', 'h', 'e', 'd', ':' };
+	private static final byte[] KEY_SWAP_CACHED = { 'S', 'w', 'a', 'p', 'C', 'a', 'c', 'h', 'e', 'd', ':' };
+
+	private static NexSystemUtils sInstance;
+
+	private final String mProcRoot;
+	private final byte[] mBuffer;
+	private final long[] mValues;
+	private int mBufferLength;
+
+	private RandomAccessFile mStatFile;
+	private RandomAccessFile mMemInfoFile;
+	private RandomAccessFile mSelfStatFile;
+
+	private double	mCpuUsage;
+	private double	mProcessCpuUsage;
 	private long	mFreeMemory;
+	private long	mLastSampleTimeMs;
+
+	private long	mPreTotalTicks;
+	private long	mPreIdleTicks;
+	private long	mPreProcessTicks;
+	private long	mTotalTicksDelta;
+
+	private final ArrayList<ThreadUsage> mThreads;
+	private int		mSamplesSinceRescan;
 
-	CpuUsage mPreCpuUsage;
+	/**
+	 * CPU time of one thread of this process, in clock ticks.
+	 */
+	static class ThreadUsage {
+		final int mTid;
+		RandomAccessFile mStatFile;
+		String	mName;
+		long	mTicks;
+		long	mPreTicks;
+		double	mUsage;
+		boolean	mAlive;
 
-	private class CpuUsage {
-		private int	mUser;
-		private int	mUserNice;
-		private int	mSystem;
-		private int	mIdle;
-		private int	mWait;
-		private int	mHintr;
-		private int	mSintr;
-		
-		private CpuUsage() {
-			reset();
+		private ThreadUsage(int tid) {
+			mTid = tid;
+			mPreTicks = -1;
 		}
-		
-		private void reset() {
-			mUser = mUserNice = mSystem = mIdle = mWait = mHintr = mSintr = 0;
+
+		int getTid() {
+			return mTid;
+		}
+
+		String getName() {
+			return mName;
+		}
+
+		/** Share of the total CPU time used by this thread during the last sample period, between 0 and 1. */
+		double getUsage() {
+			return mUsage;
+		}
+	}
+
+	protected static synchronized NexSystemUtils getInstance() {
+		if( sInstance == null ) {
+			sInstance = new NexSystemUtils(PROC_ROOT);
 		}
+		return sInstance;
 	}
-	
-	protected NexSystemUtils() {
-		Thread t = Thread.currentThread();
-		t.setPriority(android.os.Process.THREAD_PRIORITY_BACKGROUND);
 
-		mPreCpuUsage = new CpuUsage();
+	NexSystemUtils(String procRoot) {
+		mProcRoot = procRoot;
+		mBuffer = new byte[BUFFER_SIZE];
+		mValues = new long[8];
+		mThreads = new ArrayList<ThreadUsage>();
 		reset();
 	}
-	
-	protected void reset() {
+
+	protected synchronized void reset() {
 		mCpuUsage = 0.0;
+		mProcessCpuUsage = 0.0;
 		mFreeMemory = 0;
-		mPreCpuUsage.reset(); 
+		mLastSampleTimeMs = 0;
+		mPreTotalTicks = mPreIdleTicks = mPreProcessTicks = mTotalTicksDelta = 0;
+		for( int i = 0; i < mThreads.size(); i++ ) {
+			close(mThreads.get(i).mStatFile);
+		}
+		mThreads.clear();
+		mSamplesSinceRescan = 0;
 	}
-	
-	protected Double getCPUUsage() {
+
+	protected synchronized Double getCPUUsage() {
 		return mCpuUsage;
 	}
-	
-	protected long getFreeMemory() {
+
+	protected synchronized Double getProcessCPUUsage() {
+		return mProcessCpuUsage;
+	}
+
+	protected synchronized long getFreeMemory() {
 		return mFreeMemory;
 	}
-	
-	private void calculateFreeMemory(Runtime runtime) {
-		String res = new String();		
 
-		try {
-			String cmd = "cat /proc/meminfo";
-			Process process = runtime.exec(cmd);;
-			InputStream is = process.getInputStream();
-			BufferedReader br = new BufferedReader( new InputStreamReader(is) );
-			
-			int memFree = 0;
-			int memCached = 0;
-			int memSwapCached = 0; 
-			
-			if( br != null ) {
-				while( ( res = br.readLine() ) != null ) {
-					if( res.contains("MemFree:") ) {
-						res = res.replaceAll("MemFree:", "").replaceAll("kB", "").trim();
-						String[] myString = res.split(" ");
-						if( myString != null ) {
-							memFree += Integer.parseInt( myString[0] );
-						}
-					}
-					else if( res.contains("SwapCached:") ) {
-						res = res.replaceAll("SwapCached:", "").replaceAll("kB", "").trim();
-						String[] myString = res.split(" ");
-
-						if( myString != null ) {
-							memSwapCached += Integer.parseInt( myString[0] );
-						}
-					}
-					else if( res.contains("Cached:") ) {
-						res = res.replaceAll("Cached:", "").replaceAll("kB", "").trim();
-						String[] myString = res.split(" ");
-						if( myString != null ) {
-							memCached += Integer.parseInt( myString[0] );
-						}
-					}
-				}
-				if( memSwapCached == 0 ) {
-					mFreeMemory = memFree + memCached;
-				}
-				else {
-					mFreeMemory = memFree;
+	/**
+	 * Returns the per-thread CPU usage of this process measured by the last sample, keyed by thread name.
+	 * Threads sharing a name are summed.
+	 */
+	protected synchronized HashMap<String, Double> getThreadCPUUsage() {
+		HashMap<String, Double> usage = new HashMap<String, Double>();
+		for( ThreadUsage thread : mThreads ) {
+			String name = thread.mName != null ? thread.mName : String.valueOf(thread.mTid);
+			Double prev = usage.get(name);
+			usage.put(name, prev != null ? prev + thread.mUsage : thread.mUsage);
+		}
+		return usage;
+	}
+
+	private void calculateFreeMemory() {
+		mMemInfoFile = openIfNeeded(mMemInfoFile, "meminfo");
+		int length = readFully(mMemInfoFile);
+		if( length <= 0 ) {
+			return;
+		}
+
+		long memFree = findValue(KEY_MEM_FREE, length);
+		long memCached = findValue(KEY_CACHED, length);
+		long memSwapCached = findValue(KEY_SWAP_CACHED, length);
+
+		if( memFree < 0 ) {
+			NexLog.e(TAG, "Unable to find MemFree in meminfo");
+			return;
+		}
+		if( memSwapCached <= 0 ) {
+			mFreeMemory = memFree + Math.max(memCached, 0);
+		}
+		else {
+			mFreeMemory = memFree;
+		}
+	}
+
+	private void calculateCpuUsage() {
+		mStatFile = openIfNeeded(mStatFile, "stat");
+		int length = readFully(mStatFile);
+		if( length <= 0 ) {
+			return;
+		}
+
+		int pos = indexOfLineStart(KEY_CPU, length);
+		if( pos < 0 ) {
+			return;
+		}
+		// user nice system idle iowait irq softirq, steal is not counted.
+		int count = parseLongs(pos + KEY_CPU.length, length, mValues, CPU_FIELDS);
+		if( count < 4 ) {
+			return;
+		}
+
+		long total = 0;
+		for( int i = 0; i < count; i++ ) {
+			total += mValues[i];
+		}
+		// time waiting on io is busy time, as the usage has always been reported.
+		long idle = mValues[3];
+
+		if( mPreTotalTicks != 0 && total > mPreTotalTicks ) {
+			long totalDelta = total - mPreTotalTicks;
+			mCpuUsage = 1.0 - (double) (idle - mPreIdleTicks) / totalDelta;
+			mTotalTicksDelta = totalDelta;
+		}
+		else {
+			mTotalTicksDelta = 0;
+		}
+		mPreTotalTicks = total;
+		mPreIdleTicks = idle;
+	}
+
+	private void calculateProcessCpuUsage() {
+		mSelfStatFile = openIfNeeded(mSelfStatFile, "self/stat");
+		long ticks = readTaskTicks(mSelfStatFile);
+		if( ticks < 0 ) {
+			return;
+		}
+		if( mPreProcessTicks != 0 && mTotalTicksDelta > 0 ) {
+			mProcessCpuUsage = (double) (ticks - mPreProcessTicks) / mTotalTicksDelta;
+		}
+		mPreProcessTicks = ticks;
+	}
+
+	private void calculateThreadCpuUsage() {
+		if( mThreads.isEmpty() || ++mSamplesSinceRescan >= TASK_RESCAN_INTERVAL ) {
+			mSamplesSinceRescan = 0;
+			scanTasks();
+		}
+
+		for( int i = mThreads.size() - 1; i >= 0; i-- ) {
+			ThreadUsage thread = mThreads.get(i);
+			thread.mTicks = readTaskTicks(thread.mStatFile);
+			if( thread.mTicks < 0 ) {
+				// the thread exited, its stat file can no longer be read.
+				close(thread.mStatFile);
+				mThreads.remove(i);
+				continue;
+			}
+			if( thread.mName == null ) {
+				thread.mName = readTaskName();
+			}
+			thread.mUsage = (thread.mPreTicks >= 0 && mTotalTicksDelta > 0) ?
+					(double) (thread.mTicks - thread.mPreTicks) / mTotalTicksDelta : 0.0;
+			thread.mPreTicks = thread.mTicks;
+		}
+	}
+
+	/**
+	 * Lists /proc/self/task, opens the stat file of threads started since the last listing and
+	 * closes the ones of threads that are gone.
+	 */
+	private void scanTasks() {
+		String[] tids = new File(mProcRoot + "/self/task").list();
+		if( tids == null ) {
+			return;
+		}
+
+		for( int i = 0; i < mThreads.size(); i++ ) {
+			mThreads.get(i).mAlive = false;
+		}
+
+		for( String tidName : tids ) {
+			int tid;
+			try {
+				tid = Integer.parseInt(tidName);
+			}
+			catch (NumberFormatException e) {
+				continue;
+			}
+
+			ThreadUsage thread = findThread(tid);
+			if( thread == null ) {
+				RandomAccessFile file = openIfNeeded(null, "self/task/" + tidName + "/stat");
+				if( file == null ) {
+					continue;
 				}
+				thread = new ThreadUsage(tid);
+				thread.mStatFile = file;
+				mThreads.add(thread);
 			}
+			thread.mAlive = true;
 		}
-		catch (Exception e){
-			NexLog.e(TAG, "Unable to excute Proc command : " + e.getCause() + ", : " + e.getStackTrace() );
+
+		for( int i = mThreads.size() - 1; i >= 0; i-- ) {
+			if( !mThreads.get(i).mAlive ) {
+				close(mThreads.remove(i).mStatFile);
+			}
 		}
 	}
-	
-	private void calculateCpuUsage(Runtime runtime) {
-		String res = new String();
-		int coreNum = Runtime.getRuntime().availableProcessors();
-		
-		try {
-			int coreCnt = 0;
-			String cmd = "cat /proc/stat";
-			Process process = runtime.exec(cmd);
-			InputStream is = process.getInputStream();
-			BufferedReader br = new BufferedReader( new InputStreamReader(is) );
-			CpuUsage usageTotal = new CpuUsage();
-			
-			if( br != null ) {
-				while( ( res = br.readLine() ) != null ) {
-					for(int i=0; i<coreNum; i++) {
-						String resString = "cpu" + i + " ";
-
-						if( res.contains(resString) ) {
-							res = res.replaceAll(resString, "cpu ").trim();
-						}
-					}
-					if( res.contains( "cpu " ) ) {
-						res = res.replaceAll("cpu ", "").trim();
-						String[] myString = res.split(" ");
-						usageTotal.mUser 		+= Integer.parseInt( myString[0] );
-						usageTotal.mUserNice	+= Integer.parseInt( myString[1] );
-						usageTotal.mSystem		+= Integer.parseInt( myString[2] );
-						usageTotal.mIdle		+= Integer.parseInt( myString[3] );
-						usageTotal.mWait		+= Integer.parseInt( myString[4] );
-						usageTotal.mHintr		+= Integer.parseInt( myString[5] );
-						usageTotal.mSintr		+= Integer.parseInt( myString[6] );
-						coreCnt++;
-					}
-				}
-				usageTotal.mUser		=  usageTotal.mUser / coreCnt;
-				usageTotal.mUserNice	=  usageTotal.mUserNice / coreCnt;
-				usageTotal.mSystem		=  usageTotal.mSystem / coreCnt;
-				usageTotal.mIdle		=  usageTotal.mIdle / coreCnt;
-				usageTotal.mWait		=  usageTotal.mWait / coreCnt;
-				usageTotal.mHintr		=  usageTotal.mHintr / coreCnt;
-				usageTotal.mSintr		=  usageTotal.mSintr / coreCnt;
-
-				if( mPreCpuUsage.mUser != 0 ) {
-					mCpuUsage = 1.0 - (double) (usageTotal.mIdle - mPreCpuUsage.mIdle ) / 
-							( (usageTotal.mIdle - mPreCpuUsage.mIdle) +
-							(usageTotal.mUser - mPreCpuUsage.mUser) +
-							(usageTotal.mSystem - mPreCpuUsage.mSystem) +
-							(usageTotal.mUserNice - mPreCpuUsage.mUserNice) +
-							(usageTotal.mWait - mPreCpuUsage.mWait) +
-							(usageTotal.mHintr - mPreCpuUsage.mHintr) +
-							(usageTotal.mSintr - mPreCpuUsage.mSintr) );
-				}
-				mPreCpuUsage = usageTotal;
+
+	private ThreadUsage findThread(int tid) {
+		for( int i = 0; i < mThreads.size(); i++ ) {
+			if( mThreads.get(i).mTid == tid ) {
+				return mThreads.get(i);
 			}
 		}
-		catch (Exception e){
+		return null;
+	}
+
+	/**
+	 * Reads a /proc/[pid]/stat or /proc/[pid]/task/[tid]/stat file and returns utime + stime, in clock ticks.
+	 * The file content is left in the buffer so that readTaskName() can be used afterwards.
+	 */
+	private long readTaskTicks(RandomAccessFile file) {
+		int length = readFully(file);
+		if( length <= 0 ) {
+			return -1;
+		}
+
+		// the command name may contain spaces, so fields are counted from the last ')'.
+		int pos = length - 1;
+		while( pos >= 0 && mBuffer[pos] != ')' ) {
+			pos--;
+		}
+		if( pos < 0 ) {
+			return -1;
+		}
+
+		int field = 2;
+		pos++;
+		while( pos < length && field < STAT_FIELD_UTIME ) {
+			if( mBuffer[pos] == ' ' ) {
+				field++;
+			}
+			pos++;
+		}
+		if( parseLongs(pos, length, mValues, 2) < 2 ) {
+			return -1;
+		}
+		return mValues[0] + mValues[1];
+	}
+
+	private String readTaskName() {
+		int start = -1;
+		int end = -1;
+		for( int i = 0; i < mBufferLength; i++ ) {
+			if( start < 0 && mBuffer[i] == '(' ) {
+				start = i + 1;
+			}
+			else if( mBuffer[i] == ')' ) {
+				end = i;
+			}
+			else if( mBuffer[i] == '\n' ) {
+				break;
+			}
+		}
+		return (start > 0 && end > start) ? new String(mBuffer, start, end - start) : null;
+	}
+
+	private RandomAccessFile openIfNeeded(RandomAccessFile file, String name) {
+		if( file != null ) {
+			return file;
+		}
+		try {
+			return new RandomAccessFile(mProcRoot + "/" + name, "r");
+		}
+		catch (IOException e) {
+			NexLog.e(TAG, "Unable to open " + name + " : " + e.getMessage());
+		}
+		return null;
+	}
+
+	private void close(RandomAccessFile file) {
+		if( file == null ) {
+			return;
+		}
+		try {
+			file.close();
+		}
+		catch (IOException e) {
 			e.fillInStackTrace();
 		}
 	}
-	
+
+	/**
+	 * Reads the file from the beginning into mBuffer. Content beyond the buffer size is ignored,
+	 * every value of interest is located near the top of the files read here.
+	 */
+	private int readFully(RandomAccessFile file) {
+		if( file == null ) {
+			return -1;
+		}
+		int total = 0;
+		try {
+			file.seek(0);
+			int read;
+			while( total < mBuffer.length && (read = file.read(mBuffer, total, mBuffer.length - total)) > 0 ) {
+				total += read;
+			}
+		}
+		catch (IOException e) {
+			NexLog.e(TAG, "Unable to read proc file : " + e.getMessage());
+			return -1;
+		}
+		mBufferLength = total;
+		return total;
+	}
+
+	private int indexOfLineStart(byte[] key, int length) {
+		int pos = 0;
+		while( pos < length ) {
+			if( startsWith(key, pos, length) ) {
+				return pos;
+			}
+			while( pos < length && mBuffer[pos] != '\n' ) {
+				pos++;
+			}
+			pos++;
+		}
+		return -1;
+	}
+
+	private boolean startsWith(byte[] key, int pos, int length) {
+		if( pos + key.length > length ) {
+			return false;
+		}
+		for( int i = 0; i < key.length; i++ ) {
+			if( mBuffer[pos + i] != key[i] ) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private long findValue(byte[] key, int length) {
+		int pos = indexOfLineStart(key, length);
+		if( pos < 0 || parseLongs(pos + key.length, length, mValues, 1) < 1 ) {
+			return -1;
+		}
+		return mValues[0];
+	}
+
+	/**
+	 * Parses up to maxCount space separated decimal numbers starting at pos and stops at the end of the line.
+	 * \returns The number of values stored in out.
+	 */
+	private int parseLongs(int pos, int length, long[] out, int maxCount) {
+		int count = 0;
+		while( pos < length && count < maxCount ) {
+			byte b = mBuffer[pos];
+			if( b == '\n' ) {
+				break;
+			}
+			if( b >= '0' && b <= '9' ) {
+				long value = 0;
+				while( pos < length && mBuffer[pos] >= '0' && mBuffer[pos] <= '9' ) {
+					value = value * 10 + (mBuffer[pos] - '0');
+					pos++;
+				}
+				out[count++] = value;
+			}
+			else {
+				pos++;
+			}
+		}
+		return count;
+	}
+
 	@Override
 	public void run() {
-		Runtime runtime = Runtime.getRuntime();
-		calculateCpuUsage( runtime );
-		calculateFreeMemory( runtime );
+		sample(SystemClock.elapsedRealtime());
+	}
+
+	/**
+	 * Samples every statistic, unless the previous sample is less than MIN_SAMPLE_INTERVAL_MS older than \c nowMs.
+	 *
+	 * \param nowMs  The current time, in the \c SystemClock.elapsedRealtime time base.
+	 */
+	synchronized void sample(long nowMs) {
+		if( mLastSampleTimeMs != 0 && nowMs - mLastSampleTimeMs < MIN_SAMPLE_INTERVAL_MS ) {
+			return;
+		}
+		mLastSampleTimeMs = nowMs;
+
+		calculateCpuUsage();
+		calculateProcessCpuUsage();
+		calculateThreadCpuUsage();
+		calculateFreeMemory();
 	}
 }
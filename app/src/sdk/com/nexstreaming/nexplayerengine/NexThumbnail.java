@@ -59,6 +59,7 @@ public final class NexThumbnail
 	private long	m_thumbnailTStamp;
 	private String	m_path = null;
 	ThumbnailInformation mThumbInfo = null;
+	private NexBitmapPool mBitmapPool = null;
 
 	public NexThumbnail(String path) 
 	{
@@ -202,27 +203,55 @@ public final class NexThumbnail
 	* @param timestamp
 	*/
 	public Bitmap GetThumbData(int width, int height, int etype, long timestamp)
+	{
+		return GetThumbData(width, height, etype, timestamp, null);
+	}
+
+	/**
+	* Same as GetThumbData(int, int, int, long), but the thumbnail is written into \c reuse
+	* when it is a mutable bitmap of the requested size and configuration. Otherwise the bitmap is taken from the
+	* pool set with setBitmapPool(), or allocated.
+	*
+	* @param reuse	A bitmap to overwrite, or null.
+	*
+	* \returns The thumbnail, or null if it could not be retrieved.
+	*/
+	public Bitmap GetThumbData(int width, int height, int etype, long timestamp, Bitmap reuse)
 	{
 		byte[] buffer = GetData(width, height, etype, timestamp);
-		if (buffer.length == 0)
+		if (buffer == null || buffer.length == 0)
 			return null;
 
-		Bitmap retBitmap = null;
-		if (etype == OUTPUT_TYPE_RGB888)
-		{
-			retBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
-		}
-		else
+		Bitmap.Config config = etype == OUTPUT_TYPE_RGB888 ? Bitmap.Config.ARGB_8888 : Bitmap.Config.RGB_565;
+		Bitmap retBitmap = reuse;
+		if (reuse == null || reuse.isRecycled() || !reuse.isMutable() || reuse.getConfig() != config
+				|| reuse.getWidth() != width || reuse.getHeight() != height)
 		{
-			retBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.RGB_565);
+			if (mBitmapPool != null)
+			{
+				retBitmap = mBitmapPool.acquire(width, height, config);
+			}
+			else
+			{
+				retBitmap = Bitmap.createBitmap(width, height, config);
+			}
 		}
-		ByteBuffer bytebuffer = ByteBuffer.allocate(buffer.length);
-		bytebuffer.put(buffer, 0, buffer.length);
-		bytebuffer.rewind();
-		retBitmap.copyPixelsFromBuffer(bytebuffer);
+
+		retBitmap.copyPixelsFromBuffer(ByteBuffer.wrap(buffer));
 		return retBitmap;
 	}
 
+	/**
+	* Sets the pool the thumbnail bitmaps are taken from.  Thumbnails that are no longer displayed
+	* should be given back with NexBitmapPool.release().
+	*
+	* @param pool	The pool, or null to allocate every thumbnail.
+	*/
+	public void setBitmapPool(NexBitmapPool pool)
+	{
+		mBitmapPool = pool;
+	}
+
 	/**
 	* On failure, a RuntimeException is thrown.
 	*
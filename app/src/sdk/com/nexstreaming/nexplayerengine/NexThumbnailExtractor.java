@@ -0,0 +1,678 @@
+package com.nexstreaming.nexplayerengine;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * \brief  Extracts the thumbnails of a scrub bar in the background and packs them into sprite sheets.
+ *
+ * The content is divided into slots of \c intervalMs.  Every slot shows the I-frame nearest to its center, so that
+ * thumbnails are decoded without decoding any other frame, and slots sharing the same I-frame share one thumbnail.
+ * The thumbnails are decoded at the cell size by a bounded pool of threads, each with its own \c Decoder,
+ * and drawn into sheets of \c columns x \c rows cells, one thread at a time per sheet.
+ *
+ * Once every thumbnail is extracted, the sheets are saved in the cache directory, under a key made of the content key,
+ * the interval and the sheet layout.  The next extractor with the same key loads the sheets instead of decoding,
+ * and only decodes again the thumbnails that could not be decoded before.
+ *
+ * \c getPreview finds the thumbnail of a time in constant time, without allocating, so it can be called while drawing
+ * the scrub bar:
+ * \code
+ * Bitmap sheet = extractor.getPreview(seekTimeMs, srcRect);
+ * if( sheet != null ) {
+ *     canvas.drawBitmap(sheet, srcRect, dstRect, paint);
+ * }
+ * \endcode
+ *
+ * \see NexThumbnail
+ */
+public class NexThumbnailExtractor {
+	private static final String TAG = "NexThumbnailExtractor";
+
+	private static final int INDEX_MAGIC = 0x4E585448; // "NXTH"
+	private static final int INDEX_VERSION = 1;
+	private static final String INDEX_EXTENSION = ".idx";
+	private static final String SHEET_EXTENSION = ".webp";
+	private static final int SHEET_QUALITY = 80;
+
+	/**
+	 * Decodes the thumbnails of one content.  A decoder is only used by one thread at a time.
+	 */
+	public interface Decoder {
+		/**
+		 * \returns The times of the I-frames of the content in ms, in increasing order.
+		 */
+		int[] getIFrameTimes() throws IOException;
+
+		/**
+		 * Decodes the frame at \c timeMs, scaled to \c width x \c height.
+		 *
+		 * \param reuse  A bitmap returned by a previous call, which may be overwritten, or \c null.
+		 *
+		 * \returns The frame, or \c null if it could not be decoded.
+		 */
+		Bitmap decode(int timeMs, int width, int height, Bitmap reuse) throws IOException;
+
+		void close();
+	}
+
+	/**
+	 * Creates one \c Decoder per extraction thread.
+	 */
+	public interface DecoderFactory {
+		Decoder createDecoder() throws IOException;
+	}
+
+	/**
+	 * Receives the progress of the extraction, on an extraction thread.
+	 */
+	public interface Listener {
+		/**
+		 * Called every time a thumbnail is available to \c getPreview.
+		 */
+		void onProgress(NexThumbnailExtractor extractor, int extracted, int total);
+
+		/**
+		 * Called once every thumbnail was extracted.
+		 *
+		 * \param fromCache  \c true if the sheets were loaded from the cache directory.
+		 */
+		void onCompleted(NexThumbnailExtractor extractor, boolean fromCache);
+
+		/**
+		 * Called instead of \c onCompleted if the extraction failed.  The thumbnails extracted so far stay available.
+		 */
+		void onError(NexThumbnailExtractor extractor, Exception e);
+	}
+
+	/**
+	 * \brief  Returns a \c DecoderFactory decoding the thumbnails of a local file with \c NexThumbnail.
+	 */
+	public static DecoderFactory forPath(final String path) {
+		return new DecoderFactory() {
+			@Override
+			public Decoder createDecoder() throws IOException {
+				return new NexThumbnailDecoder(path);
+			}
+		};
+	}
+
+	public static final class Builder {
+		private final DecoderFactory decoderFactory;
+		private final String contentKey;
+		private int intervalMs = 2000;
+		private int thumbnailWidth = 160;
+		private int thumbnailHeight = 90;
+		private int columns = 10;
+		private int rows = 10;
+		private int threadCount = 2;
+		private File cacheDirectory = null;
+
+		/**
+		 * \param decoderFactory  Creates the decoders of the content.
+		 * \param contentKey      Identifies the content in the cache, for example its path and modification time.
+		 */
+		public Builder(DecoderFactory decoderFactory, String contentKey) {
+			this.decoderFactory = decoderFactory;
+			this.contentKey = contentKey;
+		}
+
+		/** Sets the duration covered by one thumbnail, 2 seconds by default. */
+		public Builder setInterval(int intervalMs) {
+			this.intervalMs = intervalMs;
+			return this;
+		}
+
+		/** Sets the size of the thumbnails in the sheets, 160x90 by default. */
+		public Builder setThumbnailSize(int width, int height) {
+			this.thumbnailWidth = width;
+			this.thumbnailHeight = height;
+			return this;
+		}
+
+		/** Sets the number of thumbnails per sheet, 10x10 by default. */
+		public Builder setSheetLayout(int columns, int rows) {
+			this.columns = columns;
+			this.rows = rows;
+			return this;
+		}
+
+		/** Sets the number of extraction threads, 2 by default. */
+		public Builder setThreadCount(int threadCount) {
+			this.threadCount = threadCount;
+			return this;
+		}
+
+		/** Sets the directory the sheets are saved in.  Without a directory, nothing is saved. */
+		public Builder setCacheDirectory(File cacheDirectory) {
+			this.cacheDirectory = cacheDirectory;
+			return this;
+		}
+
+		public NexThumbnailExtractor build() {
+			return new NexThumbnailExtractor(this);
+		}
+	}
+
+	/**
+	 * Maps every slot of \c intervalMs to the cell showing the I-frame nearest to its center.
+	 */
+	static final class Plan {
+		final int[] slotCells;
+		final int[] cellTimes;
+
+		Plan(int[] slotCells, int[] cellTimes) {
+			this.slotCells = slotCells;
+			this.cellTimes = cellTimes;
+		}
+
+		static Plan create(int[] iFrameTimes, int intervalMs) {
+			if( iFrameTimes.length == 0 ) {
+				return new Plan(new int[0], new int[0]);
+			}
+			int slotCount = iFrameTimes[iFrameTimes.length - 1] / intervalMs + 1;
+			int[] slotCells = new int[slotCount];
+			int[] cellTimes = new int[slotCount];
+			int cellCount = 0;
+			int frame = 0;
+			int cellFrame = -1;
+
+			for( int slot = 0; slot < slotCount; slot++ ) {
+				long center = (long) slot * intervalMs + intervalMs / 2;
+				// the centers increase, so the nearest I-frame only moves forward.
+				while( frame + 1 < iFrameTimes.length
+						&& Math.abs(iFrameTimes[frame + 1] - center) <= Math.abs(iFrameTimes[frame] - center) ) {
+					frame++;
+				}
+				if( frame != cellFrame ) {
+					cellFrame = frame;
+					cellTimes[cellCount++] = iFrameTimes[frame];
+				}
+				slotCells[slot] = cellCount - 1;
+			}
+			return new Plan(slotCells, Arrays.copyOf(cellTimes, cellCount));
+		}
+	}
+
+	private final DecoderFactory mDecoderFactory;
+	private final int mIntervalMs;
+	private final int mCellWidth;
+	private final int mCellHeight;
+	private final int mColumns;
+	private final int mRows;
+	private final int mThreadCount;
+	private final File mCacheDirectory;
+	private final String mCacheKey;
+
+	private Listener mListener;
+	private ExecutorService mExecutor;
+	private volatile boolean mCancelled = false;
+
+	private volatile Plan mPlan;
+	private volatile Bitmap[] mSheets;
+	// one canvas per sheet, also locked while drawing into its sheet.
+	private volatile Canvas[] mSheetCanvases;
+	private AtomicIntegerArray mReady;
+	private final AtomicInteger mNextCell = new AtomicInteger();
+	private final AtomicInteger mExtracted = new AtomicInteger();
+	private final AtomicInteger mActiveWorkers = new AtomicInteger();
+	private volatile Exception mError;
+
+	private NexThumbnailExtractor(Builder builder) {
+		mDecoderFactory = builder.decoderFactory;
+		mIntervalMs = Math.max(builder.intervalMs, 1);
+		mCellWidth = Math.max(builder.thumbnailWidth, 1);
+		mCellHeight = Math.max(builder.thumbnailHeight, 1);
+		mColumns = Math.max(builder.columns, 1);
+		mRows = Math.max(builder.rows, 1);
+		mThreadCount = Math.max(builder.threadCount, 1);
+		mCacheDirectory = builder.cacheDirectory;
+		mCacheKey = cacheKey(builder.contentKey + '\n' + mIntervalMs + '\n' + mCellWidth + 'x' + mCellHeight
+				+ '\n' + mColumns + 'x' + mRows);
+	}
+
+	public void setListener(Listener listener) {
+		mListener = listener;
+	}
+
+	/**
+	 * Starts the extraction in the background, or loads the sheets from the cache directory.
+	 */
+	public synchronized void start() {
+		if( mExecutor != null || mCancelled ) {
+			return;
+		}
+		mExecutor = Executors.newFixedThreadPool(mThreadCount, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, TAG);
+				thread.setDaemon(true);
+				thread.setPriority(Thread.MIN_PRIORITY);
+				return thread;
+			}
+		});
+		mExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				prepare();
+			}
+		});
+	}
+
+	/**
+	 * Stops the extraction.  The thumbnails extracted so far stay available, but are not saved.
+	 */
+	public synchronized void cancel() {
+		mCancelled = true;
+		if( mExecutor != null ) {
+			mExecutor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Finds the thumbnail of a time.
+	 *
+	 * \param timeMs  The time in the content.
+	 * \param outSrc  Receives the area of the thumbnail in the returned sheet.
+	 *
+	 * \returns The sheet holding the thumbnail, or \c null if the thumbnail is not extracted yet.
+	 */
+	public Bitmap getPreview(int timeMs, Rect outSrc) {
+		Plan plan = mPlan;
+		Bitmap[] sheets = mSheets;
+		if( plan == null || sheets == null || plan.slotCells.length == 0 ) {
+			return null;
+		}
+		int slot = Math.min(Math.max(timeMs, 0) / mIntervalMs, plan.slotCells.length - 1);
+		int cell = plan.slotCells[slot];
+		if( mReady.get(cell) == 0 ) {
+			return null;
+		}
+		cellRect(cell, outSrc);
+		return sheets[cell / (mColumns * mRows)];
+	}
+
+	/**
+	 * \returns The number of thumbnails available to \c getPreview.
+	 */
+	public int getExtractedCount() {
+		return mExtracted.get();
+	}
+
+	/**
+	 * \returns The number of distinct thumbnails of the content, or 0 until the I-frames are known.
+	 */
+	public int getThumbnailCount() {
+		Plan plan = mPlan;
+		return plan != null ? plan.cellTimes.length : 0;
+	}
+
+	private void prepare() {
+		boolean cached = loadCache();
+		if( cached && mExtracted.get() == mPlan.cellTimes.length ) {
+			Listener listener = mListener;
+			if( listener != null ) {
+				listener.onCompleted(this, true);
+			}
+			return;
+		}
+
+		Decoder decoder = null;
+		try {
+			decoder = mDecoderFactory.createDecoder();
+			if( cached ) {
+				NexLog.d(TAG, "Extracting the " + (mPlan.cellTimes.length - mExtracted.get()) + " missing thumbnails");
+			}
+			else {
+				Plan plan = Plan.create(decoder.getIFrameTimes(), mIntervalMs);
+				int cellsPerSheet = mColumns * mRows;
+				int sheetCount = (plan.cellTimes.length + cellsPerSheet - 1) / cellsPerSheet;
+				mReady = new AtomicIntegerArray(plan.cellTimes.length);
+				mSheetCanvases = new Canvas[sheetCount];
+				mSheets = new Bitmap[sheetCount];
+				mPlan = plan;
+				NexLog.d(TAG, "Extracting " + plan.cellTimes.length + " thumbnails for " + plan.slotCells.length + " slots");
+			}
+		} catch (Exception e) {
+			if( decoder != null ) {
+				decoder.close();
+			}
+			mError = e;
+			finish();
+			return;
+		}
+
+		mActiveWorkers.set(1);
+		for( int i = 1; i < mThreadCount; i++ ) {
+			mActiveWorkers.incrementAndGet();
+			try {
+				mExecutor.execute(new Runnable() {
+					@Override
+					public void run() {
+						extract(null);
+					}
+				});
+			} catch (RuntimeException e) {
+				// cancelled while starting the workers.
+				mActiveWorkers.decrementAndGet();
+				break;
+			}
+		}
+		extract(decoder);
+	}
+
+	private void extract(Decoder decoder) {
+		Plan plan = mPlan;
+		Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+		Rect dst = new Rect();
+		Bitmap frame = null;
+		try {
+			if( decoder == null ) {
+				decoder = mDecoderFactory.createDecoder();
+			}
+			int cell;
+			while( !mCancelled && (cell = mNextCell.getAndIncrement()) < plan.cellTimes.length ) {
+				if( mReady.get(cell) != 0 ) {
+					// loaded from the cache.
+					continue;
+				}
+				frame = decoder.decode(plan.cellTimes[cell], mCellWidth, mCellHeight, frame);
+				if( frame == null ) {
+					NexLog.w(TAG, "No thumbnail at " + plan.cellTimes[cell] + "ms");
+					continue;
+				}
+				Canvas canvas = getSheetCanvas(cell / (mColumns * mRows));
+				cellRect(cell, dst);
+				synchronized (canvas) {
+					canvas.drawBitmap(frame, null, dst, paint);
+				}
+				mReady.set(cell, 1);
+
+				Listener listener = mListener;
+				int extracted = mExtracted.incrementAndGet();
+				if( listener != null ) {
+					listener.onProgress(this, extracted, plan.cellTimes.length);
+				}
+			}
+		} catch (Exception e) {
+			if( !mCancelled ) {
+				mError = e;
+			}
+		} finally {
+			if( decoder != null ) {
+				decoder.close();
+			}
+			if( mActiveWorkers.decrementAndGet() == 0 ) {
+				finish();
+			}
+		}
+	}
+
+	private void finish() {
+		synchronized (this) {
+			if( mExecutor != null ) {
+				mExecutor.shutdown();
+			}
+		}
+		if( mCancelled ) {
+			return;
+		}
+		Listener listener = mListener;
+		if( mError != null ) {
+			NexLog.e(TAG, "Thumbnail extraction failed : " + mError);
+			if( listener != null ) {
+				listener.onError(this, mError);
+			}
+			return;
+		}
+		saveCache();
+		if( listener != null ) {
+			listener.onCompleted(this, false);
+		}
+	}
+
+	private Bitmap getSheet(int index) {
+		Bitmap[] sheets = mSheets;
+		synchronized (sheets) {
+			if( sheets[index] == null ) {
+				sheets[index] = Bitmap.createBitmap(mColumns * mCellWidth, mRows * mCellHeight, Bitmap.Config.RGB_565);
+			}
+			return sheets[index];
+		}
+	}
+
+	private Canvas getSheetCanvas(int index) {
+		Bitmap[] sheets = mSheets;
+		Canvas[] canvases = mSheetCanvases;
+		synchronized (sheets) {
+			if( canvases[index] == null ) {
+				canvases[index] = new Canvas(getSheet(index));
+			}
+			return canvases[index];
+		}
+	}
+
+	private void cellRect(int cell, Rect outRect) {
+		int position = cell % (mColumns * mRows);
+		int left = (position % mColumns) * mCellWidth;
+		int top = (position / mColumns) * mCellHeight;
+		outRect.set(left, top, left + mCellWidth, top + mCellHeight);
+	}
+
+	private File getIndexFile() {
+		return new File(mCacheDirectory, mCacheKey + INDEX_EXTENSION);
+	}
+
+	private File getSheetFile(int index) {
+		return new File(mCacheDirectory, mCacheKey + "_" + index + SHEET_EXTENSION);
+	}
+
+	/*
+	 * The index holds the plan and which cells are extracted, and is written last, so a cache without index
+	 * is ignored.
+	 */
+	private boolean loadCache() {
+		if( mCacheDirectory == null || !getIndexFile().exists() ) {
+			return false;
+		}
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(getIndexFile())));
+			if( in.readInt() != INDEX_MAGIC || in.readInt() != INDEX_VERSION ) {
+				return false;
+			}
+			int[] slotCells = new int[in.readInt()];
+			for( int i = 0; i < slotCells.length; i++ ) {
+				slotCells[i] = in.readInt();
+			}
+			int[] cellTimes = new int[in.readInt()];
+			AtomicIntegerArray ready = new AtomicIntegerArray(cellTimes.length);
+			int extracted = 0;
+			for( int i = 0; i < cellTimes.length; i++ ) {
+				cellTimes[i] = in.readInt();
+				ready.set(i, in.readByte());
+				extracted += ready.get(i);
+			}
+
+			int cellsPerSheet = mColumns * mRows;
+			Bitmap[] sheets = new Bitmap[(cellTimes.length + cellsPerSheet - 1) / cellsPerSheet];
+			BitmapFactory.Options options = new BitmapFactory.Options();
+			options.inPreferredConfig = Bitmap.Config.RGB_565;
+			// the missing thumbnails are drawn into the loaded sheets.
+			options.inMutable = extracted < cellTimes.length;
+			for( int i = 0; i < sheets.length; i++ ) {
+				sheets[i] = BitmapFactory.decodeFile(getSheetFile(i).getPath(), options);
+				if( sheets[i] == null ) {
+					return false;
+				}
+			}
+
+			mReady = ready;
+			mSheetCanvases = new Canvas[sheets.length];
+			mSheets = sheets;
+			mExtracted.set(extracted);
+			mPlan = new Plan(slotCells, cellTimes);
+			NexLog.d(TAG, "Loaded " + extracted + " thumbnails from the cache");
+			return true;
+		} catch (IOException e) {
+			NexLog.w(TAG, "Unable to read the thumbnail cache : " + e.getMessage());
+			return false;
+		} finally {
+			closeQuietly(in);
+		}
+	}
+
+	private void saveCache() {
+		Bitmap[] sheets = mSheets;
+		Plan plan = mPlan;
+		if( mCacheDirectory == null || sheets == null || plan == null ) {
+			return;
+		}
+		if( !mCacheDirectory.isDirectory() && !mCacheDirectory.mkdirs() ) {
+			NexLog.w(TAG, "Unable to create " + mCacheDirectory);
+			return;
+		}
+		OutputStream out = null;
+		try {
+			for( int i = 0; i < sheets.length; i++ ) {
+				out = new BufferedOutputStream(new FileOutputStream(getSheetFile(i)));
+				Bitmap sheet = sheets[i] != null ? sheets[i] : getSheet(i);
+				sheet.compress(Bitmap.CompressFormat.WEBP, SHEET_QUALITY, out);
+				out.close();
+				out = null;
+			}
+
+			File temp = new File(mCacheDirectory, mCacheKey + INDEX_EXTENSION + ".tmp");
+			DataOutputStream index = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+			out = index;
+			index.writeInt(INDEX_MAGIC);
+			index.writeInt(INDEX_VERSION);
+			index.writeInt(plan.slotCells.length);
+			for( int cell : plan.slotCells ) {
+				index.writeInt(cell);
+			}
+			index.writeInt(plan.cellTimes.length);
+			for( int i = 0; i < plan.cellTimes.length; i++ ) {
+				index.writeInt(plan.cellTimes[i]);
+				index.writeByte(mReady.get(i));
+			}
+			index.close();
+			out = null;
+			if( !temp.renameTo(getIndexFile()) ) {
+				throw new IOException("unable to rename " + temp);
+			}
+		} catch (IOException e) {
+			NexLog.w(TAG, "Unable to save the thumbnail cache : " + e.getMessage());
+		} finally {
+			closeQuietly(out);
+		}
+	}
+
+	private static void closeQuietly(Closeable closeable) {
+		if( closeable != null ) {
+			try {
+				closeable.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private static String cacheKey(String value) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-1").digest(value.getBytes(Charset.forName("UTF-8")));
+			StringBuilder builder = new StringBuilder(digest.length * 2);
+			for( byte b : digest ) {
+				builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+			}
+			return builder.toString();
+		} catch (NoSuchAlgorithmException e) {
+			return Integer.toHexString(value.hashCode());
+		}
+	}
+
+	/*
+	 * NexThumbnail is not thread safe, so every decoder opens the content on its own.
+	 */
+	private static class NexThumbnailDecoder implements Decoder {
+		// GetIFrameInfo returns the I-frames from a start time in chunks of this size.
+		private static final int IFRAME_CHUNK = 20;
+
+		private final NexThumbnail mThumbnail;
+
+		NexThumbnailDecoder(String path) throws IOException {
+			mThumbnail = new NexThumbnail(path);
+			try {
+				mThumbnail.open();
+			} catch (RuntimeException e) {
+				throw new IOException(e.getMessage());
+			}
+		}
+
+		@Override
+		public int[] getIFrameTimes() throws IOException {
+			int count = mThumbnail.GetIFrameCount(0);
+			if( count < 0 ) {
+				throw new IOException("GetIFrameCount failed : " + count);
+			}
+			int[] times = new int[count];
+			int[] chunk = new int[IFRAME_CHUNK];
+			int found = 0;
+			int start = 0;
+			while( found < count ) {
+				Arrays.fill(chunk, -1);
+				if( mThumbnail.GetIFrameInfo(start, chunk) != 0 ) {
+					break;
+				}
+				int before = found;
+				for( int i = 0; i < chunk.length && found < count; i++ ) {
+					if( chunk[i] >= start && (found == 0 || chunk[i] > times[found - 1]) ) {
+						times[found++] = chunk[i];
+					}
+				}
+				if( found == before ) {
+					break;
+				}
+				start = times[found - 1] + 1;
+			}
+			return found == count ? times : Arrays.copyOf(times, found);
+		}
+
+		@Override
+		public Bitmap decode(int timeMs, int width, int height, Bitmap reuse) {
+			return mThumbnail.GetThumbData(width, height, NexThumbnail.OUTPUT_TYPE_RGB888, timeMs, reuse);
+		}
+
+		@Override
+		public void close() {
+			try {
+				mThumbnail.close();
+			} catch (RuntimeException e) {
+				NexLog.w(TAG, e.getMessage());
+			}
+		}
+	}
+}
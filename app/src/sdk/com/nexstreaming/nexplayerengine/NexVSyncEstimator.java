@@ -0,0 +1,137 @@
+package com.nexstreaming.nexplayerengine;
+
+/**
+ * Estimates the phase and period of the display vsync from the vsync timestamps reported by Choreographer.
+ *
+ * The period is smoothed over the intervals that are a whole number of periods, so that a missed callback
+ * does not disturb it.  When the intervals keep disagreeing with the period, the refresh rate has changed
+ * (for example from 60 to 90 or 120 Hz) and the estimate restarts from the new intervals.
+ *
+ * The estimator only does arithmetic on the given timestamps, so it can be fed synthetic ones.
+ * All methods are thread safe.
+ */
+final class NexVSyncEstimator {
+	// 20 Hz to 240 Hz
+	static final long MIN_PERIOD_NS = 4000000L;
+	static final long MAX_PERIOD_NS = 50000000L;
+
+	// an interval matches n periods when it is within this fraction of a period from n periods.
+	private static final double TOLERANCE = 0.15;
+	private static final int SMOOTHING = 8;
+	// number of successive intervals needed to accept a new refresh rate.
+	private static final int RATE_CHANGE_COUNT = 8;
+
+	private long mLastVsyncNs = 0;
+	private long mPeriodNs = 0;
+
+	// successive intervals that do not match the period.
+	private int mMismatchCount = 0;
+	private long mMismatchFirstNs = 0;
+	private long mMismatchSumNs = 0;
+	// successive intervals of two periods or more, which happen when the refresh rate is divided.
+	private int mMultipleCount = 0;
+	private long mMultipleMinNs = 0;
+
+	synchronized void reset() {
+		mLastVsyncNs = 0;
+		mPeriodNs = 0;
+		mMismatchCount = 0;
+		mMultipleCount = 0;
+	}
+
+	/**
+	 * Adds the timestamp of a vsync, in the \c System.nanoTime time base.
+	 */
+	synchronized void addVsync(long vsyncNs) {
+		long interval = vsyncNs - mLastVsyncNs;
+		boolean first = mLastVsyncNs == 0;
+		mLastVsyncNs = vsyncNs;
+		if( first || interval <= 0 ) {
+			return;
+		}
+
+		if( mPeriodNs == 0 ) {
+			if( MIN_PERIOD_NS <= interval && interval <= MAX_PERIOD_NS ) {
+				mPeriodNs = interval;
+			}
+			return;
+		}
+
+		long periods = (interval + mPeriodNs / 2) / mPeriodNs;
+		if( periods >= 1 && Math.abs(interval - periods * mPeriodNs) <= mPeriodNs * TOLERANCE ) {
+			mMismatchCount = 0;
+			mPeriodNs += (interval / periods - mPeriodNs) / SMOOTHING;
+			if( periods == 1 ) {
+				mMultipleCount = 0;
+			}
+			else if( mMultipleCount++ == 0 || interval < mMultipleMinNs ) {
+				mMultipleMinNs = interval;
+			}
+			if( mMultipleCount >= RATE_CHANGE_COUNT && mMultipleMinNs <= MAX_PERIOD_NS ) {
+				// no vsync at the estimated period for a while: the display is slower now.
+				mPeriodNs = mMultipleMinNs;
+				mMultipleCount = 0;
+			}
+			return;
+		}
+
+		mMultipleCount = 0;
+		if( mMismatchCount == 0 || Math.abs(interval - mMismatchFirstNs) > mMismatchFirstNs * TOLERANCE ) {
+			mMismatchCount = 0;
+			mMismatchFirstNs = interval;
+			mMismatchSumNs = 0;
+		}
+		mMismatchCount++;
+		mMismatchSumNs += interval;
+		if( mMismatchCount >= RATE_CHANGE_COUNT ) {
+			long period = mMismatchSumNs / mMismatchCount;
+			if( MIN_PERIOD_NS <= period && period <= MAX_PERIOD_NS ) {
+				mPeriodNs = period;
+			}
+			mMismatchCount = 0;
+		}
+	}
+
+	/**
+	 * \returns The estimated vsync period in ns, or 0 until at least two vsyncs were added.
+	 */
+	synchronized long getPeriodNanos() {
+		return mPeriodNs;
+	}
+
+	/**
+	 * \returns The timestamp of the last added vsync, or 0.
+	 */
+	synchronized long getLastVsyncNanos() {
+		return mLastVsyncNs;
+	}
+
+	/**
+	 * \returns The first vsync at or after \c timeNs, or \c timeNs itself while the period is unknown.
+	 */
+	synchronized long vsyncAtOrAfter(long timeNs) {
+		if( mPeriodNs == 0 ) {
+			return timeNs;
+		}
+		long periods = floorDiv(timeNs - mLastVsyncNs, mPeriodNs);
+		long vsync = mLastVsyncNs + periods * mPeriodNs;
+		return vsync < timeNs ? vsync + mPeriodNs : vsync;
+	}
+
+	/**
+	 * \returns The vsync closest to \c timeNs, or \c timeNs itself while the period is unknown.
+	 */
+	synchronized long closestVsync(long timeNs) {
+		if( mPeriodNs == 0 ) {
+			return timeNs;
+		}
+		long periods = floorDiv(timeNs - mLastVsyncNs + mPeriodNs / 2, mPeriodNs);
+		return mLastVsyncNs + periods * mPeriodNs;
+	}
+
+	// Math.floorDiv needs API 24
+	private static long floorDiv(long x, long y) {
+		long q = x / y;
+		return (x % y != 0 && (x < 0) != (y < 0)) ? q - 1 : q;
+	}
+}
@@ -8,28 +8,35 @@ import android.os.Message;
 import android.util.Log;
 import android.view.Choreographer;
 
+/**
+ * Samples every vsync on its own thread while at least one observer is started, and feeds a shared
+ * \c NexVSyncEstimator, so that the phase and period of the display are known at any time, including after
+ * a refresh rate change.
+ */
 @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
 final class NexVSyncSampler implements Choreographer.FrameCallback, Handler.Callback {
 
-	private volatile long vsyncTimeNanos = 0;
-	private volatile long prevVsyncTimeNanos = 0;
-	private volatile int vsyncCountForInterval = 0;
-	private volatile long calcVsyncTimeIntervalNanos = 0;
-	private volatile long intervalSum = 0;
-
-	private static final long CHOREOGRAPHER_SAMPLE_DELAY_MILLIS = 500;
-	private static final double MAX_DIFF_FACTOR = 1.5;
 	private static final String LOG_TAG = "NexVSyncSampler";
 
 	private static final int MSG_CREATE  = 0;
 	private static final int MSG_START = 1;
 	private static final int MSG_STOP = 2;
 
+	private static NexVSyncSampler sInstance;
+
+	private final NexVSyncEstimator estimator = new NexVSyncEstimator();
 	private final Handler handler;
 	private final HandlerThread choreographerThread;
 	private Choreographer choreographer;
-	private boolean prepare = false;
 	private int observerCount = 0;
+	private long loggedPeriodNanos = 0;
+
+	static synchronized NexVSyncSampler getInstance() {
+		if (sInstance == null) {
+			sInstance = new NexVSyncSampler();
+		}
+		return sInstance;
+	}
 
 	private NexVSyncSampler() {
 		choreographerThread = new HandlerThread("ChoreographerOwner:Handler");
@@ -40,16 +47,12 @@ final class NexVSyncSampler implements Choreographer.FrameCallback, Handler.Call
 
 	public void create() {
 		NexLog.d(LOG_TAG, "called vsync create");
-
-		vsyncTimeNanos = 0;
-		prevVsyncTimeNanos = 0;
-		vsyncCountForInterval = 0;
-		intervalSum = 0;
-		prepare = false;
-
 		handler.sendEmptyMessage(MSG_CREATE);
 	}
 
+	/**
+	 * Starts sampling for one more observer.  Every call must be balanced by a call to \c stop.
+	 */
 	public void start() {
 		handler.sendEmptyMessage(MSG_START);
 	}
@@ -58,36 +61,24 @@ final class NexVSyncSampler implements Choreographer.FrameCallback, Handler.Call
 		handler.sendEmptyMessage(MSG_STOP);
 	}
 
+	NexVSyncEstimator getEstimator() {
+		return estimator;
+	}
+
 	@Override
 	public void doFrame(long vsyncTimeNs) {
+		estimator.addVsync(vsyncTimeNs);
 
-		if (prepare) {
-			if (0 < prevVsyncTimeNanos && vsyncTimeNs > prevVsyncTimeNanos) {
-				long diff = vsyncTimeNs - prevVsyncTimeNanos;
-				double MAX_DIFF = diff * MAX_DIFF_FACTOR;
-				if (diff < MAX_DIFF) {
-					vsyncCountForInterval++;
-
-					intervalSum += diff;
-					calcVsyncTimeIntervalNanos = intervalSum / vsyncCountForInterval;
-					NexLog.d(LOG_TAG, "calculating cur vsyncTimeNs : " + vsyncTimeNs + " , prev vsyncTimeNanos : " + prevVsyncTimeNanos + " , diff = " + diff + " , interval sum : " + intervalSum + " count : " + vsyncCountForInterval + " , interval : " + calcVsyncTimeIntervalNanos);
-				} else {
-					NexLog.d(LOG_TAG, "too large vsync interval. ignore : " + diff + " , max diff : " + MAX_DIFF);
-				}
-			}
-
-			if (30 <= vsyncCountForInterval) {
-				prepare = false;
-				NexLog.d(LOG_TAG, "+++ vsync count is bigger than 30. stop calculation +++");
-			} else {
-				prevVsyncTimeNanos = vsyncTimeNs;
-				choreographer.postFrameCallback(this);
-			}
-		} else {
-			choreographer.postFrameCallbackDelayed(this, CHOREOGRAPHER_SAMPLE_DELAY_MILLIS);
+		long period = estimator.getPeriodNanos();
+		if (period != 0 && Math.abs(period - loggedPeriodNanos) > period / 20) {
+			loggedPeriodNanos = period;
+			if (NexLog.isLoggable(LOG_TAG, Log.DEBUG))
+				NexLog.d(LOG_TAG, "vsync interval : " + period + "ns (" + (1000000000L / period) + " Hz)");
 		}
 
-		vsyncTimeNanos = vsyncTimeNs;
+		if (0 < observerCount) {
+			choreographer.postFrameCallback(this);
+		}
 	}
 
 	@Override
@@ -113,25 +104,27 @@ final class NexVSyncSampler implements Choreographer.FrameCallback, Handler.Call
 
 	private void createInternal() {
 		choreographer = Choreographer.getInstance();
-		prepare = true;
-		NexLog.d(LOG_TAG, "+++ start vsync interval calculation +++");
-		choreographer.postFrameCallback(this);
 	}
 
 	private void startInternal() {
 		observerCount++;
 
 		if (observerCount == 1) {
+			NexLog.d(LOG_TAG, "+++ start vsync sampling +++");
 			choreographer.postFrameCallback(this);
 		}
 	}
 
 	private void stopInternal() {
+		if (observerCount == 0) {
+			return;
+		}
 		observerCount--;
 
 		if (observerCount == 0) {
+			NexLog.d(LOG_TAG, "+++ stop vsync sampling +++");
 			choreographer.removeFrameCallback(this);
-			vsyncTimeNanos = 0;
+			// the period is kept for the next start, the phase is refreshed by the first vsync.
 		}
 	}
-}
\ No newline at end of file
+}
@@ -150,9 +150,9 @@ public class NexVideoRenderer extends FrameLayout implements NexVideoViewFactory
 
 	private boolean activityPaused = false;
 
-	private Paint blitPaint = null; // used by JAVA renderer
 	//private int clearReq = 0; // used by JAVA renderer // deprecated
 	private Bitmap frameBitmap = null; // used by JAVA renderer
+	private final JavaFrameBlitter javaFrameBlitter = new JavaFrameBlitter(); // used by JAVA renderer
 
 	private Rect displayedRect = null;
 	private boolean firstVideoRenderCreate = false;
@@ -160,6 +160,8 @@ public class NexVideoRenderer extends FrameLayout implements NexVideoViewFactory
 	private boolean initGLRenderer = false;
 
 	private Bitmap lastCapturedFrame = null;
+	private NexBitmapPool bitmapPool = null;
+	private NexBitmapPool lastCapturedFramePool = null; // the pool lastCapturedFrame was taken from
 
 	private IListener videoSizeListener = null;
 	private final String LOG_TAG = "NexVideoRenderer";
@@ -196,6 +198,12 @@ public class NexVideoRenderer extends FrameLayout implements NexVideoViewFactory
 	
 	private View mBlackScreen = null;
 	private boolean mBlackScreenOn;
+	private final Runnable mHideBlackScreen = new Runnable() {
+		@Override
+		public void run() {
+			mBlackScreen.setVisibility(View.INVISIBLE);
+		}
+	};
 	
 	private LayoutParams mLayoutParams;
 	private boolean mTextureLoaded = false;
@@ -499,6 +507,21 @@ public class NexVideoRenderer extends FrameLayout implements NexVideoViewFactory
 		return lastCapturedFrame;
 	}
 
+	/**
+	 * \brief This method sets the pool the captured frames are taken from.
+	 * 
+	 * With a pool, every capture reuses a bitmap of the same size that was given back with
+	 * \link NexBitmapPool.release\endlink, instead of allocating a new one.  The renderer gives the
+	 * previous frame back to its pool when the next frame is captured, so the bitmap returned by
+	 * \link NexVideoRenderer.getLastCapturedFrame getLastCapturedFrame\endlink must not be used, nor released
+	 * by the application, after the next capture.  Copy it to keep it longer.
+	 * 
+	 * \param pool  The pool, or \c null to allocate every captured frame.
+	 */
+	public void setBitmapPool(NexBitmapPool pool) {
+		bitmapPool = pool;
+	}
+
 	/**
 	 * \brief This method gets the current screen pixel format.
 	 * 
@@ -768,16 +791,27 @@ public class NexVideoRenderer extends FrameLayout implements NexVideoViewFactory
 						pixelbyte, rgbBuffer);
 			}
 
-			Bitmap bitmap = Bitmap.createBitmap(width, height, pixelbyte == 2 ? Config.RGB_565 : Config.ARGB_8888);
+			Config config = pixelbyte == 2 ? Config.RGB_565 : Config.ARGB_8888;
+			NexBitmapPool pool = NexVideoRenderer.this.bitmapPool;
 			ByteBuffer RGBBuffer = (ByteBuffer) rgbBuffer;
 
-			if (RGBBuffer.capacity() > 0 && null != bitmap) {
-				RGBBuffer.asIntBuffer();
+			Bitmap previous = NexVideoRenderer.this.lastCapturedFrame;
+			NexBitmapPool previousPool = NexVideoRenderer.this.lastCapturedFramePool;
+
+			if (RGBBuffer.capacity() > 0) {
+				Bitmap bitmap = pool != null ? pool.acquire(width, height, config) : Bitmap.createBitmap(width, height, config);
 				bitmap.copyPixelsFromBuffer(RGBBuffer);
 
 				NexVideoRenderer.this.lastCapturedFrame = bitmap;
+				NexVideoRenderer.this.lastCapturedFramePool = pool;
 			} else {
 				NexVideoRenderer.this.lastCapturedFrame = null;
+				NexVideoRenderer.this.lastCapturedFramePool = null;
+			}
+
+			// the previous frame came from a pool, give it back now that it is replaced.
+			if (previousPool != null) {
+				previousPool.release(previous);
 			}
 
 			if (null != NexVideoRenderer.this.postNexPlayerVideoRendererListener) {
@@ -834,6 +868,7 @@ public class NexVideoRenderer extends FrameLayout implements NexVideoViewFactory
 				} else {
 					NexVideoRenderer.this.frameBitmap = Bitmap.createBitmap(width, height, Config.RGB_565);
 				}
+				NexVideoRenderer.this.javaFrameBlitter.setSource(width, height);
 				NexVideoRenderer.this.nexPlayer.SetBitmap(NexVideoRenderer.this.frameBitmap);
 			}
 
@@ -906,14 +941,7 @@ public class NexVideoRenderer extends FrameLayout implements NexVideoViewFactory
 //			NexLog.d(LOG_TAG, "onVideoRenderRender called");
 			if(mBlackScreenOn)
 			{
-				mHandler.post(new Runnable() {
-					
-					@Override
-					public void run() {
-						// TODO Auto-generated method stub
-						mBlackScreen.setVisibility(View.INVISIBLE);
-					}
-				});
+				mHandler.post(mHideBlackScreen);
 				mBlackScreenOn = false;
 			}
 
@@ -959,18 +987,9 @@ public class NexVideoRenderer extends FrameLayout implements NexVideoViewFactory
 					 * canvas.drawRect(0, 0, canvas.getWidth(),
 					 * canvas.getHeight(), NexVideoRenderer.this.solidPaint); }
 					 */
-					Rect rctSrc = new Rect(0, 0, NexVideoRenderer.this.frameBitmap.getWidth(),
-							NexVideoRenderer.this.frameBitmap.getHeight());
-
-					canvas.drawColor(Color.BLACK); // SWSEO 2010/09/30
-
-					if (null == NexVideoRenderer.this.blitPaint) {
-						NexVideoRenderer.this.blitPaint = new Paint();
-						NexVideoRenderer.this.blitPaint.setFilterBitmap(shouldFilterBitmap);
-					}
-					Rect dstRect = new Rect(0, 0, canvas.getWidth(), canvas.getHeight());
-					canvas.drawBitmap(NexVideoRenderer.this.frameBitmap, rctSrc, /* displayedRect */
-							dstRect, NexVideoRenderer.this.blitPaint);
+					NexVideoRenderer.this.javaFrameBlitter.draw(canvas, NexVideoRenderer.this.frameBitmap,
+							NexVideoRenderer.this.videoNormalSurfaceView.getLeft(), NexVideoRenderer.this.videoNormalSurfaceView.getTop(),
+							NexVideoRenderer.this.displayedRect, NexVideoRenderer.this.shouldFilterBitmap);
 
 					NexVideoRenderer.this.videoNormalSurfaceHolder.unlockCanvasAndPost(canvas);
 				}
@@ -982,6 +1001,124 @@ public class NexVideoRenderer extends FrameLayout implements NexVideoViewFactory
 		}
 	}
 
+	/*
+	 * Draws the frames of the JAVA renderer without allocating.
+	 * The bitmap is drawn into the displayed rect set by setOutputPos, in the coordinates of the surface,
+	 * which setOutputPos also moves and resizes on the UI thread. Only the uncovered borders are cleared.
+	 * The rects are only recomputed when a size or a position changes.
+	 */
+	static class JavaFrameBlitter {
+		private final Rect srcRect = new Rect();
+		private final Rect dstRect = new Rect();
+		private Paint blitPaint = null;
+		private Paint letterboxPaint = null;
+		private int sourceWidth = 0;
+		private int sourceHeight = 0;
+		private int canvasWidth = -1;
+		private int canvasHeight = -1;
+		private int surfaceLeft = 0;
+		private int surfaceTop = 0;
+		// the displayed rect of the last frame, all 0 when there is none.
+		private int displayedLeft = 0;
+		private int displayedTop = 0;
+		private int displayedRight = 0;
+		private int displayedBottom = 0;
+		private boolean dirty = true;
+		// the destination of the bitmap in the canvas, also kept in dstRect for drawBitmap.
+		int dstLeft = 0;
+		int dstTop = 0;
+		int dstRight = 0;
+		int dstBottom = 0;
+
+		/*
+		 * Sets the size of the frame bitmap, every time it is created.
+		 */
+		void setSource(int width, int height) {
+			sourceWidth = width;
+			sourceHeight = height;
+			dirty = true;
+		}
+
+		void draw(Canvas canvas, Bitmap bitmap, int left, int top, Rect displayed, boolean filterBitmap) {
+			int width = canvas.getWidth();
+			int height = canvas.getHeight();
+
+			if (displayed == null) {
+				updateGeometry(width, height, left, top, 0, 0, 0, 0);
+			} else {
+				updateGeometry(width, height, left, top, displayed.left, displayed.top, displayed.right, displayed.bottom);
+			}
+
+			if (dstLeft > 0 || dstTop > 0 || dstRight < width || dstBottom < height) {
+				if (null == letterboxPaint) {
+					letterboxPaint = new Paint();
+					letterboxPaint.setColor(Color.BLACK);
+				}
+				int clearTop = Math.max(dstTop, 0);
+				int clearBottom = Math.min(dstBottom, height);
+				if (clearTop > 0) {
+					canvas.drawRect(0, 0, width, clearTop, letterboxPaint);
+				}
+				if (clearBottom < height) {
+					canvas.drawRect(0, clearBottom, width, height, letterboxPaint);
+				}
+				if (dstLeft > 0) {
+					canvas.drawRect(0, clearTop, dstLeft, clearBottom, letterboxPaint);
+				}
+				if (dstRight < width) {
+					canvas.drawRect(dstRight, clearTop, width, clearBottom, letterboxPaint);
+				}
+			}
+
+			if (null == blitPaint) {
+				blitPaint = new Paint();
+				blitPaint.setFilterBitmap(filterBitmap);
+			}
+			canvas.drawBitmap(bitmap, srcRect, dstRect, blitPaint);
+		}
+
+		/*
+		 * Recomputes the destination of the bitmap for a canvas of width x height placed at left, top in the surface,
+		 * and the displayed rect in the coordinates of the surface, empty when the whole canvas is used.
+		 * Returns false, without computing anything, when nothing changed since the last call.
+		 */
+		boolean updateGeometry(int width, int height, int left, int top,
+							   int displayedLeft, int displayedTop, int displayedRight, int displayedBottom) {
+			if (displayedRight <= displayedLeft || displayedBottom <= displayedTop) {
+				displayedLeft = displayedTop = displayedRight = displayedBottom = 0;
+			}
+			if (!dirty && width == canvasWidth && height == canvasHeight && left == surfaceLeft && top == surfaceTop
+					&& displayedLeft == this.displayedLeft && displayedTop == this.displayedTop
+					&& displayedRight == this.displayedRight && displayedBottom == this.displayedBottom) {
+				return false;
+			}
+			dirty = false;
+			canvasWidth = width;
+			canvasHeight = height;
+			surfaceLeft = left;
+			surfaceTop = top;
+			this.displayedLeft = displayedLeft;
+			this.displayedTop = displayedTop;
+			this.displayedRight = displayedRight;
+			this.displayedBottom = displayedBottom;
+
+			if (displayedRight == displayedLeft) {
+				dstLeft = 0;
+				dstTop = 0;
+				dstRight = width;
+				dstBottom = height;
+			} else {
+				dstLeft = displayedLeft - left;
+				dstTop = displayedTop - top;
+				dstRight = displayedRight - left;
+				dstBottom = displayedBottom - top;
+			}
+			srcRect.set(0, 0, sourceWidth, sourceHeight);
+			dstRect.set(dstLeft, dstTop, dstRight, dstBottom);
+			return true;
+		}
+	}
+
 	private void removeGLRenderer() {
 		if (null != glRenderer) {
 			videoOpenGLSurfaceHolder.removeCallback(surfaceHolderCallback);
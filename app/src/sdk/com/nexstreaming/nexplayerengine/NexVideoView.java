@@ -45,6 +45,8 @@ public class NexVideoView extends RelativeLayout implements MediaController.Medi
 	private static final Handler mHandler = new Handler();
 
 	private static final int MEDIA_CONTROLLER_TIMEOUT_SEC = 5000;
+	// the captions of a sidecar subtitle file are updated this often from the playback time, in ms.
+	private static final int CUE_UPDATE_INTERVAL_MS = 100;
 
 	public static final int STREAM_TYPE_VIDEO = 2;
 	public static final int STREAM_TYPE_AUDIO = 1;
@@ -92,6 +94,18 @@ public class NexVideoView extends RelativeLayout implements MediaController.Medi
 
 	private int mRotationDegree = 0;
 
+	private NexSubtitleCueStore mCueStore = null;
+	private final Runnable mCueUpdate = new Runnable() {
+		@Override
+		public void run() {
+			if( mCueStore != null && isPlaying() ) {
+				// onTime only comes once per second, too late for the end of most cues.
+				mCaptionRenderView.getCaptionPainter().setVideoTimeInfo(mPlayer.getCurrentPosition());
+				mHandler.postDelayed(this, CUE_UPDATE_INTERVAL_MS);
+			}
+		}
+	};
+
 	/**
 	 * @brief This enumeration defines the possible scaling mode for output video and captions.
 	 *
@@ -286,6 +300,9 @@ public class NexVideoView extends RelativeLayout implements MediaController.Medi
 		mPlayer.getPlayer().changeSubtitlePath(subtitlePath);
 		mCaptionRenderView.clearCaptionString();
 
+		// a file on the device is also indexed, so that its captions are removed when their cues end, also after a
+		// seek.  A remote file is only downloaded by the engine, and its captions are removed when the engine says so.
+		setCueStore(subtitlePath != null && new File(subtitlePath).isFile() ? NexSubtitleCueStore.load(subtitlePath) : null);
 	}
 
 	public void addSubtitleSource(FileDescriptor fd, long offset, long length) {
@@ -293,6 +310,25 @@ public class NexVideoView extends RelativeLayout implements MediaController.Medi
 		if( fd != null ) {
 			mPlayer.getPlayer().changeSubtitleFD(fd, offset, length);
 			mCaptionRenderView.clearCaptionString();
+			setCueStore(null);
+		}
+	}
+
+	// replaces the cues the caption painter ends the captions with.
+	private void setCueStore(NexSubtitleCueStore cueStore) {
+		if( mCueStore != null ) {
+			mCueStore.close();
+		}
+		mCueStore = cueStore;
+		mCaptionRenderView.getCaptionPainter().setCueStore(cueStore);
+		updateCueUpdates();
+	}
+
+	// UI thread. Gives the playback time to the caption painter while there are cues and the content plays.
+	private void updateCueUpdates() {
+		mHandler.removeCallbacks(mCueUpdate);
+		if( mCueStore != null && isPlaying() ) {
+			mHandler.post(mCueUpdate);
 		}
 	}
 
@@ -552,6 +588,7 @@ public class NexVideoView extends RelativeLayout implements MediaController.Medi
 					}
 				});
 
+				setCueStore(null);
 				NexLog.d(LOG_TAG, "openFD");
 				ret = mPlayer.setDataSource(fd, offset, length);
 			}
@@ -605,6 +642,7 @@ public class NexVideoView extends RelativeLayout implements MediaController.Medi
 						}
 					});
 
+					setCueStore(null);
 					NexLog.d(LOG_TAG, "open");
 					int srcType = isStreaming(path) ? NexPlayer.NEXPLAYER_SOURCE_TYPE_STREAMING : NexPlayer.NEXPLAYER_SOURCE_TYPE_LOCAL_NORMAL;
 					int transportType = mSettings.mUseUDP ? NexPlayer.NEXPLAYER_TRANSPORT_TYPE_TCP : NexPlayer.NEXPLAYER_TRANSPORT_TYPE_UDP;
@@ -1425,6 +1463,7 @@ public class NexVideoView extends RelativeLayout implements MediaController.Medi
 							public void run() {
 								if (mMediaController != null)
 									mMediaController.setEnabled(true);
+								updateCueUpdates();
 							}
 						});
 
@@ -1440,6 +1479,7 @@ public class NexVideoView extends RelativeLayout implements MediaController.Medi
 						@Override
 						public void run() {
 							updateMediaController();
+							updateCueUpdates();
 						}
 					});
 					if ( mPauseCompleteListener != null ) {
@@ -1451,6 +1491,7 @@ public class NexVideoView extends RelativeLayout implements MediaController.Medi
 						@Override
 						public void run() {
 							updateMediaController();
+							updateCueUpdates();
 						}
 					});
 					if ( mResumeCompleteListener != null ) {
@@ -1458,15 +1499,26 @@ public class NexVideoView extends RelativeLayout implements MediaController.Medi
 					}
 					break;
 				case NexPlayer.NEXPLAYER_ASYNC_CMD_STOP:
+					mHandler.post(new Runnable() {
+						@Override
+						public void run() {
+							updateCueUpdates();
+						}
+					});
 					if( mStopCompleteListener != null )
 						mStopCompleteListener.onStopComplete(mp, result);
 					break;
 				case NexPlayer.NEXPLAYER_ASYNC_CMD_SEEK:
 					mCaptionRenderView.clearCaptionString();
+					final int seekTime = param1;
 					mHandler.post(new Runnable() {
 						@Override
 						public void run() {
 							updateMediaController();
+							// the cues active at the new position, without waiting for the next update.
+							if( mCueStore != null ) {
+								mCaptionRenderView.getCaptionPainter().setVideoTimeInfo(seekTime);
+							}
 						}
 					});
 
@@ -1493,6 +1545,14 @@ public class NexVideoView extends RelativeLayout implements MediaController.Medi
 				case NexPlayer.NEXPLAYER_ASYNC_CMD_SETEXTSUBTITLE:
 					if( result == 0 ) {
 						mCaptionRenderView.clearCaptionString();
+					} else {
+						// the engine did not take the file, so its cues are not displayed either.
+						mHandler.post(new Runnable() {
+							@Override
+							public void run() {
+								setCueStore(null);
+							}
+						});
 					}
 
 					if( mExternalSubtitleChangedListener != null )
@@ -1584,6 +1644,7 @@ public class NexVideoView extends RelativeLayout implements MediaController.Medi
 				@Override
 				public void run() {
 					hideMediaController();
+					updateCueUpdates();
 				}
 			});
 
@@ -1661,6 +1722,7 @@ public class NexVideoView extends RelativeLayout implements MediaController.Medi
 		hideMediaController();
 
 		mIsInitialized = false;
+		setCueStore(null);
 		mPlayer.release();
 		if (mVideoRenderView != null) {
 			mVideoRenderView.release();
@@ -46,6 +46,7 @@ public class NexEglSurface {
         private EGLDisplay mEGLDisplay = EGL_NO_DISPLAY;
         private EGLContext mEGLContext = EGL_NO_CONTEXT;
         private EGLConfig mEGLConfig = null;
+        private EGLSurface mPbufferSurface = EGL_NO_SURFACE;
         private int mGlVersion = -1;
 
 
@@ -178,6 +179,10 @@ public class NexEglSurface {
                 // Android is unusual in that it uses a reference-counted EGLDisplay.  So for
                 // every eglInitialize() we need an eglTerminate().
                 mEgl.eglMakeCurrent(mEGLDisplay, EGL_NO_SURFACE, EGL_NO_SURFACE, EGL_NO_CONTEXT);
+                if (mPbufferSurface != EGL_NO_SURFACE) {
+                    mEgl.eglDestroySurface(mEGLDisplay, mPbufferSurface);
+                    mPbufferSurface = EGL_NO_SURFACE;
+                }
                 mEgl.eglDestroyContext(mEGLDisplay, mEGLContext);
                 //mEgl.eglReleaseThread();
                 mEgl.eglTerminate(mEGLDisplay);
@@ -259,6 +264,31 @@ public class NexEglSurface {
             }
         }
 
+        /**
+         * Makes our EGL context current without a window surface, so that the GL objects of a surface that is
+         * already destroyed can still be deleted.  A 1x1 pbuffer is used, or no surface at all if the config
+         * does not support pbuffers.
+         *
+         * @return false if the context could not be made current.
+         */
+        public boolean makeOffscreenCurrent() {
+            if (mPbufferSurface == EGL_NO_SURFACE) {
+                int[] attribs = {
+                        EGL10.EGL_WIDTH, 1,
+                        EGL10.EGL_HEIGHT, 1,
+                        EGL10.EGL_NONE
+                };
+                EGLSurface surface = mEgl.eglCreatePbufferSurface(mEGLDisplay, mEGLConfig, attribs);
+                if (surface == null || surface == EGL_NO_SURFACE) {
+                    NexLog.w(LOG_TAG, "eglCreatePbufferSurface failed: 0x" + Integer.toHexString(mEgl.eglGetError()));
+                    // EGL_KHR_surfaceless_context
+                    return mEgl.eglMakeCurrent(mEGLDisplay, EGL_NO_SURFACE, EGL_NO_SURFACE, mEGLContext);
+                }
+                mPbufferSurface = surface;
+            }
+            return mEgl.eglMakeCurrent(mEGLDisplay, mPbufferSurface, mPbufferSurface, mEGLContext);
+        }
+
         /**
          * Makes no context current.
          */
@@ -62,6 +62,7 @@ public class NexVideo2dProgram {
     private int mTextureTarget;
 
     private float[] mKernel = new float[KERNEL_SIZE];
+    private boolean mClearBeforeDraw = true;
     private float[] mTexOffset;
     private float mColorAdjust;
 
@@ -210,6 +211,14 @@ public class NexVideo2dProgram {
         //Log.d(TAG, "filt kernel: " + Arrays.toString(mKernel) + ", adj=" + colorAdj);
     }
 
+    /**
+     * Sets whether draw() clears the whole surface first.  Disable it to draw several textures
+     * into one surface.
+     */
+    public void setClearBeforeDraw(boolean clear) {
+        mClearBeforeDraw = clear;
+    }
+
     /**
      * Sets the size of the texture.  This is used to find adjacent texels when filtering.
      */
@@ -247,8 +256,10 @@ public class NexVideo2dProgram {
         NexGLUtil.checkGlError("draw start");
 
         //Clear canvas
-        GLES20.glClearColor(0.0f, 0.0f, 0.0f, 1.0f);
-        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
+        if (mClearBeforeDraw) {
+            GLES20.glClearColor(0.0f, 0.0f, 0.0f, 1.0f);
+            GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
+        }
 
         // Select the program.
         GLES20.glUseProgram(mProgramHandle);
@@ -0,0 +1,46 @@
+package com.nexstreaming.nexplayerengine;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Measures what code allocates on the calling thread.  Tests using it are skipped on JVMs that do not count the
+ * memory allocated by each thread.
+ */
+final class AllocationProbe {
+    // a few hundred bytes of slack for the measurement itself.
+    static final long MAX_ALLOCATED_BYTES = 1024;
+
+    private AllocationProbe() {
+    }
+
+    /**
+     * Runs \c code twice, to let the JIT settle.
+     *
+     * \returns The bytes allocated on this thread by the second run.
+     */
+    static long measure(Runnable code) {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+
+        long tid = Thread.currentThread().getId();
+        code.run();
+        long before = threads.getThreadAllocatedBytes(tid);
+        code.run();
+        return threads.getThreadAllocatedBytes(tid) - before;
+    }
+
+    /**
+     * Checks that the second of two runs of \c code allocates less than MAX_ALLOCATED_BYTES on this thread.
+     *
+     * \param what  Ends the failure message, "N bytes allocated " + what.
+     */
+    static void assertAllocationFree(String what, Runnable code) {
+        long allocated = measure(code);
+        assertTrue(allocated + " bytes allocated " + what, allocated < MAX_ALLOCATED_BYTES);
+    }
+}
@@ -0,0 +1,100 @@
+package com.nexstreaming.nexplayerengine;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Gives tasks to CaptionTextPrecomputer from several painters, and checks that the tasks of a painter run in the
+ * background in the order they were given.
+ */
+public class CaptionTextPrecomputerTest {
+    private static final int TASKS = 1000;
+    private static final int PAINTERS = 3;
+
+    private boolean mDebug;
+
+    @Before
+    public void setUp() {
+        mDebug = NexLog.Debug;
+        NexLog.Debug = false;
+    }
+
+    @After
+    public void tearDown() {
+        NexLog.Debug = mDebug;
+    }
+
+    @Test
+    public void tasksOfAPainterRunInTheBackgroundInOrder() throws InterruptedException {
+        final Thread caller = Thread.currentThread();
+        final CountDownLatch done = new CountDownLatch(PAINTERS * TASKS);
+        final List<List<Integer>> runs = new ArrayList<List<Integer>>();
+        final List<Thread> threads = new ArrayList<Thread>();
+        CaptionTextPrecomputer[] precomputers = new CaptionTextPrecomputer[PAINTERS];
+        for (int p = 0; p < PAINTERS; p++) {
+            precomputers[p] = new CaptionTextPrecomputer();
+            runs.add(new ArrayList<Integer>());
+        }
+
+        for (int i = 0; i < TASKS; i++) {
+            for (int p = 0; p < PAINTERS; p++) {
+                final List<Integer> run = runs.get(p);
+                final int task = i;
+                precomputers[p].execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        synchronized (threads) {
+                            threads.add(Thread.currentThread());
+                        }
+                        // the tasks of a painter do not overlap, the list needs no lock of its own.
+                        run.add(task);
+                        done.countDown();
+                    }
+                });
+            }
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        for (List<Integer> run : runs) {
+            assertEquals(TASKS, run.size());
+            for (int i = 0; i < TASKS; i++) {
+                assertEquals(i, (int) run.get(i));
+            }
+        }
+        synchronized (threads) {
+            for (Thread thread : threads) {
+                assertNotSame(caller, thread);
+            }
+        }
+    }
+
+    @Test
+    public void failedTaskDoesNotStopTheNextOnes() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        CaptionTextPrecomputer precomputer = new CaptionTextPrecomputer();
+        precomputer.execute(new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException("caption");
+            }
+        });
+        precomputer.execute(new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        });
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+    }
+}
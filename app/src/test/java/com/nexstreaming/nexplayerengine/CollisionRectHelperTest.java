@@ -0,0 +1,219 @@
+package com.nexstreaming.nexplayerengine;
+
+import android.graphics.Rect;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Places overlapping caption windows with CollisionRectHelper and checks that none overlap afterwards.
+ */
+public class CollisionRectHelperTest {
+    private static final int WIDTH = 1920;
+    private static final int HEIGHT = 1080;
+
+    private CollisionRectHelper mHelper;
+
+    @Before
+    public void setUp() {
+        mHelper = new CollisionRectHelper();
+        mHelper.setBoundary(0, 0, WIDTH, HEIGHT);
+    }
+
+    @Test
+    public void separateWindowsAreNotMoved() {
+        mHelper.add(1, rect(100, 900, 500, 1000));
+        mHelper.add(2, rect(600, 900, 1000, 1000));
+        mHelper.add(3, rect(100, 700, 1000, 800));
+
+        assertNull(mHelper.avoidCollisionRects());
+    }
+
+    @Test
+    public void overlappingWindowStacksAboveTheLowerOne() {
+        Rect lower = rect(100, 900, 800, 1000);
+        Rect upper = rect(400, 950, 1200, 990);
+        mHelper.add(1, lower);
+        mHelper.add(2, upper);
+
+        assertTrue(null != mHelper.avoidCollisionRects());
+
+        assertRect(100, 900, 800, 1000, lower);
+        assertRect(400, 860, 1200, 900, upper);
+    }
+
+    @Test
+    public void windowIsNotPushedByTheSpaceAMovedWindowLeft() {
+        Rect lower = rect(0, 900, 100, 1000);
+        Rect moved = rect(50, 950, 150, 990);
+        // overlaps nothing: it only shares columns with the moved window, below where that one ends up.
+        Rect free = rect(120, 920, 200, 950);
+        mHelper.add(1, lower);
+        mHelper.add(2, moved);
+        mHelper.add(3, free);
+
+        mHelper.avoidCollisionRects();
+
+        assertRect(50, 860, 150, 900, moved);
+        assertRect(120, 920, 200, 950, free);
+        assertNoOverlaps(lower, moved, free);
+    }
+
+    @Test
+    public void identicalWindowsAreStacked() {
+        Rect[] rects = new Rect[10];
+        for (int i = 0; i < rects.length; i++) {
+            rects[i] = rect(200, 950, 1700, 1000);
+            mHelper.add(i, rects[i]);
+        }
+
+        mHelper.avoidCollisionRects();
+
+        assertNoOverlaps(rects);
+        // stacked upward from the bottom, in the order of the ids.
+        for (int i = 0; i < rects.length; i++) {
+            assertEquals(1000 - 50 * i, rects[i].bottom);
+        }
+    }
+
+    @Test
+    public void sideBySideWindowsUnderASpanningOne() {
+        Rect left = rect(0, 900, 900, 1000);
+        Rect right = rect(1000, 850, 1900, 1000);
+        Rect spanning = rect(300, 880, 1600, 960);
+        mHelper.add(1, left);
+        mHelper.add(2, right);
+        mHelper.add(3, spanning);
+
+        mHelper.avoidCollisionRects();
+
+        assertRect(0, 900, 900, 1000, left);
+        assertRect(1000, 850, 1900, 1000, right);
+        assertRect(300, 770, 1600, 850, spanning);
+    }
+
+    @Test
+    public void stackDeeperThanTheBoundaryStartsAtTheTop() {
+        Rect[] rects = new Rect[30];
+        for (int i = 0; i < rects.length; i++) {
+            rects[i] = rect(100, 900, 1800, 1000);
+            mHelper.add(i, rects[i]);
+        }
+
+        mHelper.avoidCollisionRects();
+
+        assertNoOverlaps(rects);
+        for (Rect rect : rects) {
+            assertTrue(rect.top >= 0);
+        }
+    }
+
+    @Test
+    public void windowsOutsideTheBoundaryAreMovedIn() {
+        Rect below = rect(100, 1050, 500, 1150);
+        Rect left = rect(-50, 500, 300, 600);
+        mHelper.add(1, below);
+        mHelper.add(2, left);
+
+        mHelper.avoidCollisionRects();
+
+        assertRect(100, 980, 500, 1080, below);
+        assertRect(0, 500, 350, 600, left);
+    }
+
+    @Test
+    public void randomWindowsNeverOverlapAndArePlacedTheSameWay() {
+        Random random = new Random(43);
+        for (int round = 0; round < 20; round++) {
+            // few enough to fit above each other, most of them in the same few columns.
+            List<int[]> windows = new ArrayList<int[]>();
+            for (int i = 0; i < 12; i++) {
+                int left = random.nextInt(WIDTH / 2);
+                int top = HEIGHT / 2 + random.nextInt(HEIGHT / 2 - 40);
+                windows.add(new int[] { i, left, top, left + 100 + random.nextInt(WIDTH / 2),
+                        top + 20 + random.nextInt(20) });
+            }
+
+            Rect[] placed = place(windows);
+            assertNoOverlaps(placed);
+            for (Rect rect : placed) {
+                assertTrue(rect.top >= 0 && rect.bottom <= HEIGHT);
+            }
+
+            Collections.shuffle(windows, random);
+            Rect[] shuffled = place(windows);
+            for (int i = 0; i < placed.length; i++) {
+                assertRect(placed[i].left, placed[i].top, placed[i].right, placed[i].bottom, shuffled[i]);
+            }
+        }
+    }
+
+    @Test
+    public void manyIdenticalWindowsNeverOverlap() {
+        // more windows than the boundary holds: the boundary is given up, not the overlap.
+        Rect[] rects = new Rect[2000];
+        for (int i = 0; i < rects.length; i++) {
+            rects[i] = i % 2 == 0 ? rect(0, 1000, 1000, 1080) : rect(500, 990, 1500, 1080);
+            mHelper.add(i, rects[i]);
+        }
+
+        mHelper.avoidCollisionRects();
+
+        assertNoOverlaps(rects);
+    }
+
+    /**
+     * Places the windows, {id, left, top, right, bottom}, with a new helper.
+     *
+     * \returns The placed windows, indexed by id.
+     */
+    private static Rect[] place(List<int[]> windows) {
+        CollisionRectHelper helper = new CollisionRectHelper();
+        helper.setBoundary(0, 0, WIDTH, HEIGHT);
+        Rect[] rects = new Rect[windows.size()];
+        for (int[] window : windows) {
+            rects[window[0]] = rect(window[1], window[2], window[3], window[4]);
+            helper.add(window[0], rects[window[0]]);
+        }
+        helper.avoidCollisionRects();
+        return rects;
+    }
+
+    // the fields are set one by one: Rect is a stub in JVM tests.
+    private static Rect rect(int left, int top, int right, int bottom) {
+        Rect rect = new Rect();
+        rect.left = left;
+        rect.top = top;
+        rect.right = right;
+        rect.bottom = bottom;
+        return rect;
+    }
+
+    private static void assertRect(int left, int top, int right, int bottom, Rect rect) {
+        assertEquals(left, rect.left);
+        assertEquals(top, rect.top);
+        assertEquals(right, rect.right);
+        assertEquals(bottom, rect.bottom);
+    }
+
+    private static void assertNoOverlaps(Rect... rects) {
+        for (int i = 0; i < rects.length; i++) {
+            for (int j = i + 1; j < rects.length; j++) {
+                Rect a = rects[i];
+                Rect b = rects[j];
+                assertFalse("windows " + i + " and " + j + " overlap",
+                        a.left < b.right && b.left < a.right && a.top < b.bottom && b.top < a.bottom);
+            }
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.nexstreaming.nexplayerengine;
+
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the in-process log capture, NexAsyncLogger feeding NexBinaryLogWriter, and decodes the files it writes.
+ * The load test retries dropped records, and checks that every one of them reaches the files.
+ */
+public class NexBinaryLogCaptureTest {
+    private static final int PRODUCERS = 4;
+    private static final int RECORDS_PER_PRODUCER = 50000;
+    private static final int FILE_SIZE = 1024 * 1024;
+    private static final int FILE_COUNT = 64;
+    private static final int CAPACITY = 8192;
+
+    private File mDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = File.createTempFile("nexlog", "");
+        assertTrue(mDirectory.delete());
+        assertTrue(mDirectory.mkdirs());
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    @Test
+    public void recordsKeepTheirThreadAndLevel() throws IOException {
+        NexAsyncLogger logger = new NexAsyncLogger(new NexBinaryLogWriter(mDirectory, "fields", FILE_SIZE, 1), CAPACITY);
+        assertTrue(logger.log(1234, Log.WARN, "NexPlayerSDK", "buffering"));
+        assertTrue(logger.log(NexAsyncLogger.TID_UNKNOWN, NexAsyncLogger.LEVEL_UNKNOWN, "NEXPLAYER", "engine line"));
+        logger.stop();
+
+        String[] lines = decodeAll().split("\n");
+
+        assertEquals(2, lines.length);
+        assertTrue(lines[0], lines[0].endsWith("  1234 W NexPlayerSDK: buffering"));
+        assertTrue(lines[1], lines[1].endsWith("     - ? NEXPLAYER: engine line"));
+    }
+
+    @Test
+    public void retriedRecordsAllReachTheFiles() throws Exception {
+        final NexAsyncLogger logger = new NexAsyncLogger(new NexBinaryLogWriter(mDirectory, "bench", FILE_SIZE, FILE_COUNT), CAPACITY);
+        Thread[] producers = new Thread[PRODUCERS];
+        for (int p = 0; p < PRODUCERS; p++) {
+            final int producer = p;
+            producers[p] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    String tag = "Producer" + producer;
+                    for (int i = 0; i < RECORDS_PER_PRODUCER; i++) {
+                        while (!logger.log(Log.INFO, tag, "segment 1234 downloaded, 524288 bytes in 87 ms")) {
+                            Thread.yield();
+                        }
+                    }
+                }
+            });
+        }
+
+        for (Thread producer : producers) {
+            producer.start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        logger.stop();
+
+        int total = PRODUCERS * RECORDS_PER_PRODUCER;
+        // the drain thread adds one WARN record every time it reports retried, dropped records.
+        String[] lines = decodeAll().split("\n");
+        int written = 0;
+        for (String line : lines) {
+            if (line.endsWith("segment 1234 downloaded, 524288 bytes in 87 ms")) {
+                written++;
+            }
+        }
+        assertEquals(total, written);
+    }
+
+    private String decodeAll() throws IOException {
+        File[] files = mDirectory.listFiles();
+        assertTrue(files != null && files.length > 0);
+        Arrays.sort(files);
+
+        StringWriter out = new StringWriter();
+        for (File file : files) {
+            NexBinaryLogDecoder.decode(file, out);
+        }
+        return out.toString();
+    }
+}
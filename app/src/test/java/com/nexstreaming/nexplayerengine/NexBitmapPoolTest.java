@@ -0,0 +1,155 @@
+package com.nexstreaming.nexplayerengine;
+
+import android.graphics.Bitmap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Releases mocked bitmaps to NexBitmapPool and checks which ones acquire gives back, and which ones the pool
+ * recycles to stay under its size.
+ */
+public class NexBitmapPoolTest {
+    // one 100 x 100 ARGB_8888 bitmap.
+    private static final int SIZE = 100 * 100 * 4;
+
+    private boolean mDebug;
+
+    @Before
+    public void setUp() {
+        mDebug = NexLog.Debug;
+        NexLog.Debug = false;
+    }
+
+    @After
+    public void tearDown() {
+        NexLog.Debug = mDebug;
+    }
+
+    @Test
+    public void releasedBitmapIsReusedForTheSameSizeAndConfig() {
+        NexBitmapPool pool = new NexBitmapPool(10 * SIZE);
+        Bitmap released = bitmap(100, 100, Bitmap.Config.ARGB_8888);
+        pool.release(released);
+        assertEquals(SIZE, pool.getPooledBytes());
+
+        assertSame(released, pool.acquire(100, 100, Bitmap.Config.ARGB_8888));
+        assertEquals(0, pool.getPooledBytes());
+        assertEquals(1, pool.getHitCount());
+        assertEquals(SIZE, pool.getBytesSaved());
+        verify(released, never()).recycle();
+    }
+
+    @Test
+    public void otherSizesAndConfigsDoNotGetTheBitmap() {
+        NexBitmapPool pool = new NexBitmapPool(10 * SIZE);
+        Bitmap released = bitmap(100, 100, Bitmap.Config.ARGB_8888);
+        pool.release(released);
+
+        assertNotSame(released, pool.acquire(100, 100, Bitmap.Config.RGB_565));
+        assertNotSame(released, pool.acquire(100, 50, Bitmap.Config.ARGB_8888));
+        assertNotSame(released, pool.acquire(50, 100, Bitmap.Config.ARGB_8888));
+
+        assertEquals(0, pool.getHitCount());
+        assertEquals(3, pool.getMissCount());
+        assertEquals(SIZE, pool.getPooledBytes());
+    }
+
+    @Test
+    public void sizeUsedLeastRecentlyIsRecycledFirst() {
+        NexBitmapPool pool = new NexBitmapPool(2 * SIZE);
+        Bitmap first = bitmap(100, 100, Bitmap.Config.ARGB_8888);
+        Bitmap second = bitmap(200, 50, Bitmap.Config.ARGB_8888);
+        pool.release(first);
+        pool.release(second);
+        // the size of the first bitmap becomes the one used most recently.
+        pool.release(pool.acquire(100, 100, Bitmap.Config.ARGB_8888));
+
+        Bitmap third = bitmap(50, 200, Bitmap.Config.ARGB_8888);
+        pool.release(third);
+
+        verify(second).recycle();
+        verify(first, never()).recycle();
+        verify(third, never()).recycle();
+        assertEquals(2 * SIZE, pool.getPooledBytes());
+        assertNotSame(second, pool.acquire(200, 50, Bitmap.Config.ARGB_8888));
+    }
+
+    @Test
+    public void poolKeepsAtMostMaxBytes() {
+        NexBitmapPool pool = new NexBitmapPool(5 * SIZE / 2);
+        Bitmap[] bitmaps = new Bitmap[5];
+        for (int i = 0; i < bitmaps.length; i++) {
+            bitmaps[i] = bitmap(100, 100, Bitmap.Config.ARGB_8888);
+            pool.release(bitmaps[i]);
+        }
+
+        assertEquals(2 * SIZE, pool.getPooledBytes());
+        // the oldest bitmaps of a size go first.
+        verify(bitmaps[0]).recycle();
+        verify(bitmaps[1]).recycle();
+        verify(bitmaps[2]).recycle();
+        verify(bitmaps[3], never()).recycle();
+        verify(bitmaps[4], never()).recycle();
+
+        Bitmap tooLarge = bitmap(200, 200, Bitmap.Config.ARGB_8888);
+        pool.release(tooLarge);
+        verify(tooLarge).recycle();
+        assertEquals(2 * SIZE, pool.getPooledBytes());
+
+        pool.clear();
+        verify(bitmaps[3]).recycle();
+        verify(bitmaps[4]).recycle();
+        assertEquals(0, pool.getPooledBytes());
+    }
+
+    @Test
+    public void recycledAndImmutableBitmapsAreRejected() {
+        NexBitmapPool pool = new NexBitmapPool(10 * SIZE);
+        Bitmap recycled = bitmap(100, 100, Bitmap.Config.ARGB_8888);
+        when(recycled.isRecycled()).thenReturn(true);
+        Bitmap immutable = bitmap(100, 100, Bitmap.Config.ARGB_8888);
+        when(immutable.isMutable()).thenReturn(false);
+
+        pool.release(recycled);
+        pool.release(immutable);
+        pool.release(null);
+
+        assertEquals(0, pool.getPooledBytes());
+        Bitmap acquired = pool.acquire(100, 100, Bitmap.Config.ARGB_8888);
+        assertNotSame(recycled, acquired);
+        assertNotSame(immutable, acquired);
+        assertEquals(0, pool.getHitCount());
+    }
+
+    @Test
+    public void bitmapReleasedTwiceIsPooledOnce() {
+        NexBitmapPool pool = new NexBitmapPool(10 * SIZE);
+        Bitmap released = bitmap(100, 100, Bitmap.Config.ARGB_8888);
+        pool.release(released);
+        pool.release(released);
+
+        assertEquals(SIZE, pool.getPooledBytes());
+        assertSame(released, pool.acquire(100, 100, Bitmap.Config.ARGB_8888));
+        assertNotSame(released, pool.acquire(100, 100, Bitmap.Config.ARGB_8888));
+    }
+
+    private static Bitmap bitmap(int width, int height, Bitmap.Config config) {
+        Bitmap bitmap = mock(Bitmap.class);
+        when(bitmap.getWidth()).thenReturn(width);
+        when(bitmap.getHeight()).thenReturn(height);
+        when(bitmap.getConfig()).thenReturn(config);
+        when(bitmap.isMutable()).thenReturn(true);
+        when(bitmap.getAllocationByteCount()).thenReturn(width * height * (Bitmap.Config.ARGB_8888 == config ? 4 : 2));
+        return bitmap;
+    }
+}
@@ -0,0 +1,246 @@
+package com.nexstreaming.nexplayerengine;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Draws a synthetic CEA 608 roll-up feed with the basic render mode of NexCaptionRenderer into a canvas that records
+ * the draw calls.  The benchmark times the caption draws, with and without a new caption line.
+ */
+public class NexCaptionRendererTest {
+    private static final int WIDTH = 1280;
+    private static final int HEIGHT = 720;
+    private static final int BLOCK_HEIGHT = HEIGHT / 16;
+    private static final int ROLL_UP_BASE = 14;
+    private static final int ROLL_UP_ROWS = 3;
+    private static final int POP_ON_ROW = 2;
+    private static final int LINES = 300;
+    // one draw for each step of the roll up animation.
+    private static final int DRAWS_PER_LINE = 13;
+
+    /**
+     * Records the text drawn, with the clip and the translation it was drawn with.
+     */
+    private static class RecordingCanvas extends Canvas {
+        static class TextCall {
+            int row;
+            int count;
+            float translateY;
+            boolean clipped;
+        }
+
+        final List<TextCall> mTextCalls = new ArrayList<TextCall>();
+        int mCharTextCalls;
+        boolean mRecording = true;
+        private final boolean[] mClipped = new boolean[16];
+        private int mDepth;
+        private float mTranslateY;
+
+        @Override
+        public int save() {
+            mDepth++;
+            mClipped[mDepth] = mClipped[mDepth - 1];
+            return mDepth;
+        }
+
+        @Override
+        public void restore() {
+            mDepth--;
+        }
+
+        @Override
+        public boolean clipRect(Rect rect) {
+            mClipped[mDepth] = true;
+            return true;
+        }
+
+        @Override
+        public void translate(float dx, float dy) {
+            mTranslateY += dy;
+        }
+
+        @Override
+        public boolean quickReject(float left, float top, float right, float bottom, EdgeType type) {
+            return false;
+        }
+
+        @Override
+        public void drawPosText(char[] text, int index, int count, float[] pos, Paint paint) {
+            if (mRecording) {
+                TextCall call = new TextCall();
+                // the baseline is within the row of the run.
+                call.row = (int) Math.floor(pos[index * 2 + 1] / BLOCK_HEIGHT);
+                call.count = count;
+                call.translateY = mTranslateY;
+                call.clipped = mClipped[mDepth];
+                mTextCalls.add(call);
+            }
+        }
+
+        @Override
+        public void drawText(char[] text, int index, int count, float x, float y, Paint paint) {
+            mCharTextCalls++;
+        }
+
+        @Override
+        public void drawText(String text, float x, float y, Paint paint) {
+            mCharTextCalls++;
+        }
+    }
+
+    private NexCaptionRenderer mRenderer;
+    private NexClosedCaption mCaption;
+    private final short[] mCharcode = new short[16 * 32];
+    private final short[] mAttr = new short[16 * 32];
+    private int mLine;
+
+    @Before
+    public void setUp() throws Exception {
+        mRenderer = new NexCaptionRenderer(null, 0, 0);
+        mRenderer.setRenderArea(0, 0, WIDTH, HEIGHT);
+
+        Constructor<NexClosedCaption> constructor = NexClosedCaption.class.getDeclaredConstructor(int.class);
+        constructor.setAccessible(true);
+        mCaption = constructor.newInstance(NexContentInformation.NEX_TEXT_CEA608);
+        // the engine fills the grid fields from native code.
+        set("m_charcode", mCharcode);
+        set("m_attr", mAttr);
+        set("m_captionMode", NexClosedCaption.CaptionMode.RollUp);
+        set("m_rollUpBaseRow", ROLL_UP_BASE);
+        set("m_rollUpNumRows", ROLL_UP_ROWS);
+    }
+
+    @Test
+    public void rollingRowsAreClippedToTheRollUpWindow() throws Exception {
+        for (int i = 0; i < ROLL_UP_ROWS + 1; i++) {
+            rollUp();
+        }
+        setRow(POP_ON_ROW, "NOT ROLLING");
+        mRenderer.SetData(mCaption);
+
+        RecordingCanvas canvas = new RecordingCanvas();
+        mRenderer.onDraw(canvas);
+
+        // the rolled out row, the rows of the roll up window and the row that does not roll.
+        assertEquals(ROLL_UP_ROWS + 2, canvas.mTextCalls.size());
+        for (RecordingCanvas.TextCall call : canvas.mTextCalls) {
+            if (call.row == POP_ON_ROW) {
+                assertFalse(call.clipped);
+                assertEquals(0, call.translateY, 0);
+            } else {
+                assertTrue("row " + call.row, call.row == NexClosedCaption.ROLLED_OUT_ROW
+                        || (call.row > ROLL_UP_BASE - ROLL_UP_ROWS && call.row <= ROLL_UP_BASE));
+                assertTrue("row " + call.row, call.clipped);
+                // the animation just started: the rows are drawn one row lower and move up.
+                assertEquals(BLOCK_HEIGHT, call.translateY, 0);
+            }
+        }
+    }
+
+    @Test
+    public void eachRunIsDrawnInOneCall() throws Exception {
+        setRow(ROLL_UP_BASE, "ONE RUN OF TEXT");
+        mRenderer.SetData(mCaption);
+
+        RecordingCanvas canvas = new RecordingCanvas();
+        mRenderer.onDraw(canvas);
+
+        assertEquals(0, canvas.mCharTextCalls);
+        assertEquals(1, canvas.mTextCalls.size());
+        assertEquals("ONE RUN OF TEXT".length(), canvas.mTextCalls.get(0).count);
+    }
+
+    @Test
+    public void drawingAnUnchangedCaptionDoesNotAllocate() throws Exception {
+        for (int i = 0; i < ROLL_UP_ROWS; i++) {
+            rollUp();
+        }
+        mRenderer.SetData(mCaption);
+        final RecordingCanvas canvas = new RecordingCanvas();
+        canvas.mRecording = false;
+
+        AllocationProbe.assertAllocationFree("by " + LINES + " draws", new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < LINES; i++) {
+                    mRenderer.SetData(mCaption);
+                    mRenderer.onDraw(canvas);
+                }
+            }
+        });
+    }
+
+    @Test
+    public void rollUpDrawTime() throws Exception {
+        RecordingCanvas canvas = new RecordingCanvas();
+        canvas.mRecording = false;
+        // warm up, and fill the roll up window.
+        long[] warmUp = rollUpFeed(canvas, LINES);
+        long[] times = rollUpFeed(canvas, LINES);
+
+        assertTrue(warmUp[0] > 0 && times[0] > 0);
+    }
+
+    /**
+     * Rolls up one new line at a time, and draws it with every step of the animation.
+     *
+     * \returns The total time of the draws after a new line, and of the other draws of the animation.
+     */
+    private long[] rollUpFeed(RecordingCanvas canvas, int lines) throws Exception {
+        long newLineNs = 0;
+        long animationNs = 0;
+        for (int line = 0; line < lines; line++) {
+            rollUp();
+            long start = System.nanoTime();
+            mRenderer.SetData(mCaption);
+            mRenderer.onDraw(canvas);
+            long drawn = System.nanoTime();
+            for (int step = 1; step < DRAWS_PER_LINE; step++) {
+                // the engine delivers the same grid again while the line rolls up.
+                mRenderer.SetData(mCaption);
+                mRenderer.onDraw(canvas);
+            }
+            newLineNs += drawn - start;
+            animationNs += System.nanoTime() - drawn;
+        }
+        return new long[] { newLineNs, animationNs };
+    }
+
+    /**
+     * Moves the rows of the roll up window up, the top one into the rolled out row, and writes a new line
+     * in the base row.
+     */
+    private void rollUp() throws Exception {
+        int top = ROLL_UP_BASE - ROLL_UP_ROWS + 1;
+        System.arraycopy(mCharcode, top * 32, mCharcode, 15 * 32, 32);
+        System.arraycopy(mCharcode, (top + 1) * 32, mCharcode, top * 32, (ROLL_UP_ROWS - 1) * 32);
+        setRow(ROLL_UP_BASE, String.format(Locale.US, "CAPTION LINE %d OF THE FEED", mLine++));
+        set("m_rollUpAnimationStartTime", (int) (System.currentTimeMillis() % 0xFFFFFFFFL));
+    }
+
+    private void setRow(int row, String text) {
+        for (int col = 0; col < 32; col++) {
+            mCharcode[row * 32 + col] = (short) (col < text.length() ? text.charAt(col) : 0);
+        }
+    }
+
+    private void set(String name, Object value) throws Exception {
+        Field field = NexClosedCaption.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(mCaption, value);
+    }
+}
@@ -0,0 +1,323 @@
+package com.nexstreaming.nexplayerengine;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Decodes a corpus of CEA 708 service byte streams with NexEIA708Struct and checks the window contents and the
+ * dirty windows, and checks that decoding a long roll-up stream does not allocate.
+ */
+public class NexEIA708StructTest {
+    private static final int SERVICE = 1;
+
+    private NexEIA708Struct mStruct;
+    private final NexLogStringQueue.LineCursor mCursor = new NexLogStringQueue.LineCursor();
+    private boolean mDebug;
+
+    /**
+     * The codes of a service block, one array per code as the engine passes them to SetSourceByteStream.
+     */
+    private static class Stream {
+        final List<byte[]> mCodes = new ArrayList<byte[]>();
+
+        Stream code(int... bytes) {
+            byte[] code = new byte[bytes.length];
+            for (int i = 0; i < bytes.length; i++) {
+                code[i] = (byte) bytes[i];
+            }
+            mCodes.add(code);
+            return this;
+        }
+
+        Stream defineWindow(int id, int rows, int cols, boolean visible) {
+            // priority, anchor point, relative position, anchor vertical and horizontal, rows and columns less one,
+            // row and column lock, visible, window style and pen style.
+            return code(0x98 + id, 0, 0, 0, 0, 0, rows - 1, cols - 1, 1, 1, visible ? 1 : 0, 1, 1);
+        }
+
+        Stream text(String text) {
+            for (int i = 0; i < text.length(); i++) {
+                code(text.charAt(i));
+            }
+            return this;
+        }
+
+        Stream line(String text) {
+            return text(text).code(0x0d);
+        }
+
+        Stream setCurrentWindow(int id) {
+            return code(0x80 + id);
+        }
+
+        Stream penLocation(int row, int col) {
+            return code(0x92, row, col);
+        }
+
+        Stream penColor(int fgColor, int bgColor) {
+            return code(0x91, fgColor, NexEIA708Struct.SOLID, bgColor, NexEIA708Struct.SOLID, 0);
+        }
+
+        Stream italics(boolean italics) {
+            return code(0x90, NexEIA708Struct.STANDARD, 0, 0, NexEIA708Struct.NORMAL, italics ? 1 : 0, 0, 0);
+        }
+
+        Stream displayWindows(int windows) {
+            return code(0x89, windows);
+        }
+
+        Stream hideWindows(int windows) {
+            return code(0x8a, windows);
+        }
+
+        Stream toggleWindows(int windows) {
+            return code(0x8b, windows);
+        }
+
+        Stream clearWindows(int windows) {
+            return code(0x88, windows);
+        }
+
+        Stream deleteWindows(int windows) {
+            return code(0x8c, windows);
+        }
+
+        Stream endOfText() {
+            return code(0x03);
+        }
+    }
+
+    @Before
+    public void setUp() {
+        mDebug = NexLog.Debug;
+        NexLog.Debug = false;
+        mStruct = new NexEIA708Struct();
+    }
+
+    @After
+    public void tearDown() {
+        NexLog.Debug = mDebug;
+    }
+
+    @Test
+    public void popOnCaptionIsShownWhenItsWindowIsDisplayed() {
+        // built in a hidden window, then displayed at once.
+        assertFalse(decode(new Stream().defineWindow(0, 2, 32, false).line("POP ON").text("CAPTION")));
+        assertFalse(window(0).mVisible == 1);
+        assertEquals(0, mStruct.GetDirtyWindows(SERVICE));
+
+        assertTrue(decode(new Stream().displayWindows(0x01)));
+
+        assertEquals(1, window(0).mVisible);
+        assertEquals(0x01, mStruct.GetDirtyWindows(SERVICE));
+        assertEquals("POP ON|CAPTION", text(0));
+    }
+
+    @Test
+    public void paintOnTextUpdatesTheVisibleWindow() {
+        decode(new Stream().defineWindow(0, 1, 32, true));
+        mStruct.GetDirtyWindows(SERVICE);
+
+        assertTrue(decode(new Stream().text("PAINT")));
+
+        assertEquals(0x01, mStruct.GetDirtyWindows(SERVICE));
+        assertEquals("PAINT", text(0));
+        assertEquals(0, mStruct.GetDirtyWindows(SERVICE));
+    }
+
+    @Test
+    public void rollUpKeepsTheLastRowsOfTheWindow() {
+        // the pen is set to the base row, as roll up streams do, and every line starts with a carriage return.
+        Stream stream = new Stream().defineWindow(0, 3, 32, true).penLocation(2, 0);
+        for (int i = 1; i <= 6; i++) {
+            stream.code(0x0d).text("LINE " + i);
+        }
+        decode(stream);
+
+        assertEquals("LINE 4|LINE 5|LINE 6", text(0));
+    }
+
+    @Test
+    public void backspaceRemovesTheLastCharacter() {
+        decode(new Stream().defineWindow(0, 1, 32, true).text("TYPOO").code(0x08).text("!"));
+
+        assertEquals("TYPO!", text(0));
+    }
+
+    @Test
+    public void penLocationMovesTheText() {
+        decode(new Stream().defineWindow(0, 3, 32, true).penLocation(2, 0).text("LAST ROW"));
+
+        assertEquals(3, window(0).GetTextLineCount());
+        assertEquals("||LAST ROW", text(0));
+    }
+
+    @Test
+    public void penAttributesApplyToTheFollowingCharacters() {
+        decode(new Stream().defineWindow(0, 1, 32, true)
+                .text("A").italics(true).penColor(0x30, 0x03).text("B").italics(false).text("C"));
+
+        window(0).GetTextLine(mCursor, 0);
+        assertEquals(3, mCursor.GetCount());
+        assertEquals(0, mCursor.GetItalics(0));
+        assertEquals(1, mCursor.GetItalics(1));
+        assertEquals(0, mCursor.GetItalics(2));
+        assertEquals(NexEIA708Struct.ConvARGBColor(NexEIA708Struct.SOLID, (byte) 0x30), mCursor.GetARGBTextColor(1));
+        assertEquals(NexEIA708Struct.ConvARGBColor(NexEIA708Struct.SOLID, (byte) 0x03), mCursor.GetARGBBGColor(1));
+    }
+
+    @Test
+    public void onlyTheChangedWindowsAreDirty() {
+        decode(new Stream().defineWindow(0, 1, 32, true).text("FIRST").defineWindow(5, 1, 32, true).text("SECOND"));
+        assertEquals(0x21, mStruct.GetDirtyWindows(SERVICE));
+
+        decode(new Stream().setCurrentWindow(0).text(" MORE"));
+
+        assertEquals(0x01, mStruct.GetDirtyWindows(SERVICE));
+        assertEquals("FIRST MORE", text(0));
+        assertEquals("SECOND", text(5));
+    }
+
+    @Test
+    public void windowCommandsOnlyChangeTheirWindows() {
+        decode(new Stream().defineWindow(0, 1, 32, true).text("ZERO")
+                .defineWindow(1, 1, 32, true).text("ONE")
+                .defineWindow(2, 1, 32, false).text("TWO"));
+        mStruct.GetDirtyWindows(SERVICE);
+
+        decode(new Stream().hideWindows(0x01).toggleWindows(0x06).clearWindows(0x02));
+
+        assertEquals(0x07, mStruct.GetDirtyWindows(SERVICE));
+        assertEquals(0, window(0).mVisible);
+        assertEquals(0, window(1).mVisible);
+        assertEquals(1, window(2).mVisible);
+        assertEquals("ZERO", text(0));
+        assertEquals("", text(1));
+        assertEquals("TWO", text(2));
+    }
+
+    @Test
+    public void resetDeletesEveryWindow() {
+        decode(new Stream().defineWindow(0, 1, 32, true).text("GONE").defineWindow(3, 1, 32, true).text("GONE TOO"));
+        mStruct.GetDirtyWindows(SERVICE);
+
+        decode(new Stream().code(0x8f));
+
+        assertEquals(0x09, mStruct.GetDirtyWindows(SERVICE));
+        assertEquals(0, window(0).mVisible);
+        assertEquals("", text(0));
+        assertEquals("", text(3));
+    }
+
+    @Test
+    public void codesForUndefinedWindowsAreIgnored() {
+        // text before any window is defined, and a window that is not defined.
+        decode(new Stream().text("LOST").setCurrentWindow(4).text("LOST TOO").deleteWindows(0xff));
+
+        assertEquals(0, mStruct.GetDirtyWindows(SERVICE));
+        for (int i = 0; i < NexEIA708Struct.EIA708_WINDOW_MAX; i++) {
+            assertEquals("", text(i));
+        }
+
+        decode(new Stream().defineWindow(2, 1, 32, true).text("FOUND").setCurrentWindow(4).text("!"));
+        assertEquals("FOUND!", text(2));
+    }
+
+    @Test
+    public void musicNoteAndExtendedCharacters() {
+        decode(new Stream().defineWindow(0, 1, 32, true).code(0x6a, 0x26).text(" é").endOfText());
+
+        window(0).GetTextLine(mCursor, 0);
+        assertEquals(3, mCursor.GetCount());
+        assertEquals(0x266a, mCursor.GetChar(0));
+        assertEquals(0xe9, mCursor.GetChar(2));
+    }
+
+    @Test
+    public void servicesAreIndependent() {
+        decode(new Stream().defineWindow(0, 1, 32, true).text("SERVICE ONE"));
+        for (byte[] code : new Stream().defineWindow(0, 1, 32, true).text("SERVICE TWO").mCodes) {
+            mStruct.SetSourceByteStream(2, code, code.length);
+        }
+
+        assertTrue(mStruct.IsEnableService(0));
+        assertTrue(mStruct.IsEnableService(1));
+        assertFalse(mStruct.IsEnableService(2));
+        assertEquals("SERVICE ONE", text(0));
+        assertEquals(0x01, mStruct.GetDirtyWindows(2));
+    }
+
+    @Test
+    public void rollUpStreamDecodesWithoutAllocating() {
+        // a roll-up caption: one new line of 32 characters every 33 codes, with a window redefinition every 10 lines.
+        Stream stream = new Stream().defineWindow(0, 3, 32, true);
+        for (int i = 0; i < 10; i++) {
+            stream.text(String.format(Locale.US, "ROLL UP CAPTION LINE %02d OF TEN.", i)).code(0x0d);
+        }
+        stream.endOfText().defineWindow(0, 3, 32, true).italics(true).penColor(0x2a, 0x00).italics(false);
+        final byte[][] codes = stream.mCodes.toArray(new byte[0][]);
+
+        AllocationProbe.assertAllocationFree("while decoding", new Runnable() {
+            @Override
+            public void run() {
+                decodeAll(codes, codes.length * 100);
+            }
+        });
+
+        assertTrue(decodeAll(codes, codes.length) != 0);
+    }
+
+    private int decodeAll(byte[][] codes, int count) {
+        int dirty = 0;
+        for (int i = 0; i < count; i++) {
+            byte[] code = codes[i % codes.length];
+            mStruct.SetSourceByteStream(SERVICE, code, code.length);
+            if (i % 64 == 0) {
+                dirty |= mStruct.GetDirtyWindows(SERVICE);
+            }
+        }
+        return dirty;
+    }
+
+    /**
+     * \returns \c true if any of the codes reported an update.
+     */
+    private boolean decode(Stream stream) {
+        boolean update = false;
+        for (byte[] code : stream.mCodes) {
+            update |= mStruct.SetSourceByteStream(SERVICE, code, code.length);
+        }
+        return update;
+    }
+
+    private NexEIA708Struct.EIA708Window window(int id) {
+        return mStruct.mService[SERVICE - 1].mWindow[id];
+    }
+
+    /**
+     * \returns The lines of a window, separated by '|'.
+     */
+    private String text(int id) {
+        NexEIA708Struct.EIA708Window window = window(id);
+        StringBuilder text = new StringBuilder();
+        for (int line = 0; line < window.GetTextLineCount(); line++) {
+            if (line > 0) {
+                text.append('|');
+            }
+            window.GetTextLine(mCursor, line);
+            for (int i = 0; i < mCursor.GetCount(); i++) {
+                text.append((char) mCursor.GetChar(i));
+            }
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,124 @@
+package com.nexstreaming.nexplayerengine;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Plays synthetic frame arrivals against synthetic vsyncs, the way the render loop drives NexFrameScheduler.
+ */
+public class NexFrameSchedulerTest {
+    private static final long PERIOD_60HZ = 16666666;
+    private static final long START_NS = 1000000000L;
+    private static final int FRAMES = 600;
+
+    private NexVSyncEstimator mEstimator;
+    private NexFrameScheduler mScheduler;
+
+    @Before
+    public void setUp() {
+        mEstimator = new NexVSyncEstimator();
+        mScheduler = new NexFrameScheduler(mEstimator);
+        for (int i = 0; i < 10; i++) {
+            mEstimator.addVsync(START_NS + i * PERIOD_60HZ);
+        }
+    }
+
+    @Test
+    public void jitteredFramesKeepARegularCadence() {
+        // 30 fps frames released around a vsync, 2 ms early to 2 ms late.
+        long[] arrivals = arrivals(2 * PERIOD_60HZ, 2000000, 1);
+
+        long[] drawn = play(arrivals);
+
+        assertEquals(0, mScheduler.getLateCount());
+        // the first frame arrived just before a vsync, the next one after: the target moves once.
+        assertEquals(1, mScheduler.getRepeatedCount());
+        assertEquals(2 * PERIOD_60HZ, mScheduler.getFrameIntervalNanos(), 1000000);
+        // after the first frames, every frame is shown for two vsyncs.
+        for (int i = 20; i < drawn.length; i++) {
+            assertEquals(2 * PERIOD_60HZ, drawn[i] - drawn[i - 1]);
+        }
+    }
+
+    @Test
+    public void drawingAtTheNextVsyncRepeatsFrames() {
+        long[] arrivals = arrivals(2 * PERIOD_60HZ, 2000000, 1);
+
+        // without the scheduler, a frame is drawn at the first vsync after it arrived.
+        int irregular = 0;
+        long previous = 0;
+        for (long arrival : arrivals) {
+            long vsync = mEstimator.vsyncAtOrAfter(arrival);
+            if (previous != 0 && vsync - previous != 2 * PERIOD_60HZ) {
+                irregular++;
+            }
+            previous = vsync;
+        }
+
+        assertTrue(irregular + " irregular frames", irregular > FRAMES / 10);
+    }
+
+    @Test
+    public void framesAreNotHeldBeyondTheirTarget() {
+        long[] arrivals = arrivals(2 * PERIOD_60HZ, 2000000, 2);
+        mScheduler.onFrameAvailable(arrivals[0]);
+        long vsync = mEstimator.vsyncAtOrAfter(arrivals[0]);
+
+        assertTrue(mScheduler.hasPendingFrame());
+        assertTrue(mScheduler.shouldDraw(vsync + PERIOD_60HZ));
+        mScheduler.onFrameDrawn(vsync + PERIOD_60HZ);
+        assertTrue(!mScheduler.hasPendingFrame());
+        assertTrue(!mScheduler.shouldDraw(vsync + 2 * PERIOD_60HZ));
+    }
+
+    @Test
+    public void lateFramesAreCounted() {
+        long arrival = START_NS + 20 * PERIOD_60HZ;
+        long target = mScheduler.onFrameAvailable(arrival);
+
+        mScheduler.onFrameDrawn(target + 2 * PERIOD_60HZ);
+
+        assertEquals(1, mScheduler.getLateCount());
+    }
+
+    private long[] arrivals(long intervalNs, int jitterNs, long seed) {
+        Random random = new Random(seed);
+        long[] arrivals = new long[FRAMES];
+        long first = START_NS + 20 * PERIOD_60HZ;
+        for (int i = 0; i < FRAMES; i++) {
+            arrivals[i] = first + i * intervalNs + random.nextInt(2 * jitterNs + 1) - jitterNs;
+        }
+        return arrivals;
+    }
+
+    /**
+     * Adds a vsync every period, gives the frames that arrived since the previous vsync to the scheduler, and draws
+     * the pending frame when the scheduler says so.
+     *
+     * \returns The vsync at which each frame was drawn, 0 for frames that were replaced before being drawn.
+     */
+    private long[] play(long[] arrivals) {
+        long[] drawn = new long[arrivals.length];
+        int next = 0;
+        int pending = -1;
+        long vsync = mEstimator.getLastVsyncNanos();
+        while (next < arrivals.length || mScheduler.hasPendingFrame()) {
+            vsync += PERIOD_60HZ;
+            while (next < arrivals.length && arrivals[next] < vsync) {
+                mScheduler.onFrameAvailable(arrivals[next]);
+                pending = next++;
+            }
+            mEstimator.addVsync(vsync);
+            if (mScheduler.shouldDraw(vsync)) {
+                mScheduler.onFrameDrawn(vsync);
+                drawn[pending] = vsync;
+            }
+        }
+        return drawn;
+    }
+}
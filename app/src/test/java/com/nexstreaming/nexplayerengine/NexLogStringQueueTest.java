@@ -0,0 +1,89 @@
+package com.nexstreaming.nexplayerengine;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the CEA 708 cells of a NexLogStringQueue window take less memory than one CharUnit object per cell,
+ * as the queue kept them before, and that reading lines into a LineCursor does not allocate.
+ */
+public class NexLogStringQueueTest {
+    private static final int CELLS = 630;
+    private static final int ROUNDS = 20;
+
+    // keeps what is measured reachable, so that none of it is optimized away.
+    private Object[] mKeep = new Object[ROUNDS];
+    private boolean mDebug;
+
+    @Before
+    public void setUp() {
+        mDebug = NexLog.Debug;
+        NexLog.Debug = false;
+    }
+
+    @After
+    public void tearDown() {
+        NexLog.Debug = mDebug;
+    }
+
+    @Test
+    public void cellMemoryPerWindow() {
+        final NexLogStringQueue queue = new NexLogStringQueue();
+
+        long cells = AllocationProbe.measure(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < ROUNDS; i++) {
+                    mKeep[i] = new Object[] { new int[CELLS], new long[CELLS], new int[CELLS] };
+                }
+            }
+        }) / ROUNDS;
+        long legacyCells = AllocationProbe.measure(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < ROUNDS; i++) {
+                    NexLogStringQueue.CharUnit[] units = new NexLogStringQueue.CharUnit[CELLS];
+                    for (int j = 0; j < CELLS; j++) {
+                        units[j] = queue.new CharUnit();
+                    }
+                    mKeep[i] = units;
+                }
+            }
+        }) / ROUNDS;
+
+        assertTrue(cells < legacyCells);
+    }
+
+    @Test
+    public void readingLinesDoesNotAllocate() {
+        final NexEIA708Struct struct = new NexEIA708Struct();
+        // a window of three rows with an empty row in the middle.
+        byte[][] codes = {
+                { (byte) 0x98, 0, 0, 0, 0, 0, 2, 31, 1, 1, 1, 1, 1 },
+                { 'T', }, { 'O', }, { 'P', }, { (byte) 0x92, 2, 0 }, { 'E' }, { 'N' }, { 'D' },
+        };
+        for (byte[] code : codes) {
+            struct.SetSourceByteStream(1, code, code.length);
+        }
+        final NexEIA708Struct.EIA708Window window = struct.mService[0].mWindow[0];
+        final NexLogStringQueue.LineCursor cursor = new NexLogStringQueue.LineCursor();
+        assertEquals(3, window.GetTextLineCount());
+
+        AllocationProbe.assertAllocationFree("while reading lines", new Runnable() {
+            @Override
+            public void run() {
+                int count = 0;
+                for (int i = 0; i < 1000; i++) {
+                    for (int line = 0; line < window.GetTextLineCount(); line++) {
+                        count += window.GetTextLine(cursor, line);
+                    }
+                }
+                assertEquals(6000, count);
+            }
+        });
+    }
+}
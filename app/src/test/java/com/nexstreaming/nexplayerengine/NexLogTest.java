@@ -0,0 +1,122 @@
+package com.nexstreaming.nexplayerengine;
+
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the level filtering of NexLog, and that filtered messages do not allocate.
+ */
+public class NexLogTest {
+    private static final String TAG = "NexLogTest";
+    private static final int CALLS = 10000;
+
+    private static final NexLog.MessageSupplier SUPPLIER = new NexLog.MessageSupplier() {
+        @Override
+        public String get() {
+            sSupplierCalls++;
+            return "supplied " + sSupplierCalls;
+        }
+    };
+
+    private static int sSupplierCalls;
+
+    private boolean mDebug;
+
+    @Before
+    public void setUp() {
+        mDebug = NexLog.Debug;
+        sSupplierCalls = 0;
+    }
+
+    @After
+    public void tearDown() {
+        NexLog.Debug = mDebug;
+        NexLog.setLogLevel(Log.VERBOSE);
+        NexLog.setTagLogLevel(TAG, -1);
+    }
+
+    @Test
+    public void nothingIsLoggableWhenDebugIsOff() {
+        NexLog.Debug = false;
+
+        assertFalse(NexLog.isLoggable(TAG, Log.ERROR));
+        NexLog.e(TAG, SUPPLIER);
+        assertEquals(0, sSupplierCalls);
+    }
+
+    @Test
+    public void globalLevelFiltersLowerLevels() {
+        NexLog.Debug = true;
+        NexLog.setLogLevel(Log.WARN);
+
+        assertFalse(NexLog.isLoggable(TAG, Log.DEBUG));
+        assertTrue(NexLog.isLoggable(TAG, Log.WARN));
+        assertTrue(NexLog.isLoggable(TAG, Log.ERROR));
+
+        NexLog.d(TAG, SUPPLIER);
+        assertEquals(0, sSupplierCalls);
+        NexLog.w(TAG, SUPPLIER);
+        assertEquals(1, sSupplierCalls);
+    }
+
+    @Test
+    public void tagLevelOverridesGlobalLevel() {
+        NexLog.Debug = true;
+        NexLog.setLogLevel(Log.ERROR);
+        NexLog.setTagLogLevel(TAG, Log.VERBOSE);
+
+        assertTrue(NexLog.isLoggable(TAG, Log.VERBOSE));
+        assertFalse(NexLog.isLoggable("OtherTag", Log.WARN));
+
+        NexLog.setTagLogLevel(TAG, -1);
+        assertFalse(NexLog.isLoggable(TAG, Log.WARN));
+    }
+
+    @Test
+    public void disabledLoggingDoesNotAllocate() {
+        NexLog.Debug = false;
+
+        AllocationProbe.assertAllocationFree("by " + CALLS + " disabled calls", new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < CALLS; i++) {
+                    NexLog.d(TAG, "constant message");
+                    NexLog.d(TAG, SUPPLIER);
+                    if (NexLog.isLoggable(TAG, Log.DEBUG)) {
+                        NexLog.d(TAG, "Key(%s)  Value(%s)", TAG, i);
+                    }
+                }
+            }
+        });
+        assertEquals(0, sSupplierCalls);
+    }
+
+    @Test
+    public void filteredLevelDoesNotAllocate() {
+        NexLog.Debug = true;
+        NexLog.setLogLevel(Log.INFO);
+        NexLog.setTagLogLevel("OtherTag", Log.VERBOSE);
+
+        AllocationProbe.assertAllocationFree("by " + CALLS + " filtered calls", new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < CALLS; i++) {
+                    NexLog.v(TAG, SUPPLIER);
+                    NexLog.d(TAG, SUPPLIER);
+                    if (NexLog.isLoggable(TAG, Log.DEBUG)) {
+                        NexLog.d(TAG, "Key(%s)  Value(%s)", TAG, i);
+                    }
+                }
+            }
+        });
+        assertEquals(0, sSupplierCalls);
+        NexLog.setTagLogLevel("OtherTag", -1);
+    }
+}
@@ -0,0 +1,286 @@
+package com.nexstreaming.nexplayerengine;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Shares sessions between players through NexMediaDrmSessionRegistry, on a fake NexMediaDrm, and checks that one
+ * session and one license request serve every player of a content, that sessions and the MediaDrm are released
+ * with their last player, and that the errors of a session only reach the players holding it.
+ */
+public class NexMediaDrmSessionRegistryTest {
+    private static final String KEY_SERVER = "https://license.invalid/";
+    private static final byte[] KEY_A = key(0xA);
+    private static final byte[] KEY_B = key(0xB);
+
+    private final List<FakeMediaDrm> mDrms = new ArrayList<FakeMediaDrm>();
+    private final List<NexMediaDrmSessionRegistry.Handle> mHandles = new ArrayList<NexMediaDrmSessionRegistry.Handle>();
+    // answers nothing: the key requests never reach it in JVM tests, it only tells the groups apart.
+    private final INexDRMLicenseListener mLicense = new StandInLicense();
+    private boolean mDebug;
+
+    @Before
+    public void setUp() {
+        mDebug = NexLog.Debug;
+        NexLog.Debug = false;
+    }
+
+    @After
+    public void tearDown() {
+        for (NexMediaDrmSessionRegistry.Handle handle : mHandles) {
+            handle.release();
+        }
+        NexLog.Debug = mDebug;
+    }
+
+    @Test
+    public void playersOfTheSameContentShareOneSessionAndLicense() throws Exception {
+        NexMediaDrmSessionRegistry.Handle first = register(mLicense, new Player());
+        NexMediaDrmSessionRegistry.Handle second = register(mLicense, new Player());
+
+        NexMediaDrmSession session = first.acquireSession(pssh(KEY_A, 1), 1, null);
+        // another system specific payload, the same key ID.
+        assertSame(session, second.acquireSession(pssh(KEY_A, 2), 2, null));
+
+        assertEquals(1, mDrms.size());
+        FakeMediaDrm drm = mDrms.get(0);
+        assertEquals(1, drm.mOpenedSessions);
+        assertEquals(1, drm.mKeyRequests);
+        assertEquals(1, first.getUniqueId(session));
+        assertEquals(2, second.getUniqueId(session));
+    }
+
+    @Test
+    public void otherContentGetsItsOwnSession() throws Exception {
+        NexMediaDrmSessionRegistry.Handle first = register(mLicense, new Player());
+        NexMediaDrmSessionRegistry.Handle second = register(mLicense, new Player());
+
+        NexMediaDrmSession a = first.acquireSession(pssh(KEY_A, 1), 1, null);
+        NexMediaDrmSession b = second.acquireSession(pssh(KEY_B, 2), 2, null);
+        assertSame(a, second.acquireSession(pssh(KEY_A, 1), 3, null));
+
+        assertNotSame(a, b);
+        assertEquals(1, mDrms.size());
+        assertEquals(2, mDrms.get(0).mOpenedSessions);
+        assertEquals(2, mDrms.get(0).mKeyRequests);
+    }
+
+    @Test
+    public void otherLicenseListenersUseTheirOwnMediaDrm() throws Exception {
+        register(mLicense, new Player()).acquireSession(pssh(KEY_A, 1), 1, null);
+        register(new StandInLicense(), new Player()).acquireSession(pssh(KEY_A, 1), 2, null);
+
+        assertEquals(2, mDrms.size());
+        assertEquals(1, mDrms.get(0).mOpenedSessions);
+        assertEquals(1, mDrms.get(1).mOpenedSessions);
+    }
+
+    @Test
+    public void sessionAndMediaDrmAreReleasedWithTheirLastPlayer() throws Exception {
+        NexMediaDrmSessionRegistry.Handle first = register(mLicense, new Player());
+        NexMediaDrmSessionRegistry.Handle second = register(mLicense, new Player());
+        NexMediaDrmSession session = first.acquireSession(pssh(KEY_A, 1), 1, null);
+        second.acquireSession(pssh(KEY_A, 1), 2, null);
+        FakeMediaDrm drm = mDrms.get(0);
+
+        first.releaseSession(session);
+        first.release();
+        assertEquals(0, drm.mClosedSessions);
+        assertFalse(drm.mReleased);
+
+        second.release();
+        assertEquals(1, drm.mClosedSessions);
+        assertTrue(drm.mReleased);
+
+        // the group is gone, the next player starts a new one.
+        register(mLicense, new Player()).acquireSession(pssh(KEY_A, 1), 3, null);
+        assertEquals(2, mDrms.size());
+    }
+
+    @Test
+    public void errorsOfASessionOnlyReachItsPlayers() throws Exception {
+        Player a1 = new Player();
+        Player a2 = new Player();
+        Player b = new Player();
+        NexMediaDrmSessionRegistry.Handle handleA1 = register(mLicense, a1);
+        NexMediaDrmSessionRegistry.Handle handleA2 = register(mLicense, a2);
+        NexMediaDrmSessionRegistry.Handle handleB = register(mLicense, b);
+        FakeMediaDrm drm = mDrms.get(0);
+        drm.mDeniedData = 9;
+
+        NexMediaDrmSession sessionA = handleA1.acquireSession(pssh(KEY_A, 1), 1, null);
+        handleA2.acquireSession(pssh(KEY_A, 1), 2, null);
+        NexMediaDrmSession sessionB = handleB.acquireSession(pssh(KEY_B, 9), 3, null);
+
+        assertEquals(NexMediaDrmSession.STATE_ERROR, sessionB.getState());
+        assertTrue(b.mErrors.contains(drm.mDenial));
+        assertFalse(a1.mErrors.contains(drm.mDenial));
+        assertFalse(a2.mErrors.contains(drm.mDenial));
+        // whatever else was reported, each player only heard of its own session.
+        assertTrue(a1.mErrorSessions.size() == a1.mErrors.size() && !a1.mErrorSessions.contains(sessionB));
+        assertTrue(a2.mErrorSessions.size() == a2.mErrors.size() && !a2.mErrorSessions.contains(sessionB));
+        assertFalse(b.mErrorSessions.contains(sessionA));
+    }
+
+    @Test
+    public void errorOfASessionThatDidNotOpenOnlyReachesItsPlayers() throws Exception {
+        Player a = new Player();
+        Player b = new Player();
+        NexMediaDrmSessionRegistry.Handle handleA = register(mLicense, a);
+        NexMediaDrmSessionRegistry.Handle handleB = register(mLicense, b);
+        FakeMediaDrm drm = mDrms.get(0);
+
+        handleA.acquireSession(pssh(KEY_A, 1), 1, null);
+        drm.mOpenFailure = new IllegalStateException("no more sessions");
+        NexMediaDrmSession session = handleB.acquireSession(pssh(KEY_B, 2), 2, null);
+
+        // the session has no ID to match the players with.
+        assertNull(session.getSessionId());
+        assertTrue(b.mErrors.contains(drm.mOpenFailure));
+        assertFalse(a.mErrors.contains(drm.mOpenFailure));
+    }
+
+    private NexMediaDrmSessionRegistry.Handle register(final INexDRMLicenseListener license, Player player) throws Exception {
+        NexMediaDrmSessionRegistry.Handle handle = NexMediaDrmSessionRegistry.getInstance().register(
+                NexMediaDrm.WIDEVINE_UUID, KEY_SERVER, null, license, player,
+                new NexMediaDrmSessionRegistry.ManagerFactory() {
+                    @Override
+                    public NexMediaDrmSessionManager create(NexMediaDrmSessionManager.EventListener listener) {
+                        FakeMediaDrm drm = new FakeMediaDrm();
+                        mDrms.add(drm);
+                        return new NexMediaDrmSessionManager(null, NexMediaDrm.WIDEVINE_UUID, drm,
+                                new NexMediaDrm.HttpNexMediaDrmCallback(KEY_SERVER, license, null),
+                                null, listener, true, 3);
+                    }
+                });
+        mHandles.add(handle);
+        return handle;
+    }
+
+    private static byte[] key(int value) {
+        byte[] key = new byte[16];
+        key[15] = (byte) value;
+        return key;
+    }
+
+    /**
+     * \returns A version 1 PSSH box listing \c keyId, with one byte of system specific data.
+     */
+    private static byte[] pssh(byte[] keyId, int data) {
+        byte[] box = new byte[32 + 16 + 4 + 1];
+        box[3] = (byte) box.length;
+        box[4] = 'p';
+        box[5] = 's';
+        box[6] = 's';
+        box[7] = 'h';
+        box[8] = 1;
+        box[31] = 1;
+        System.arraycopy(keyId, 0, box, 32, 16);
+        box[51] = 1;
+        box[52] = (byte) data;
+        return box;
+    }
+
+    /**
+     * A MediaDrm that opens sessions and makes key requests, and denies the requests for one system specific
+     * payload.
+     */
+    private static final class FakeMediaDrm extends NexMediaDrm {
+        int mOpenedSessions;
+        int mClosedSessions;
+        int mKeyRequests;
+        boolean mReleased;
+        int mDeniedData = -1;
+        final RuntimeException mDenial = new IllegalStateException("license denied");
+        RuntimeException mOpenFailure;
+
+        @Override
+        void setOnEventListener(NexMediaDrm.OnEventListener listener) {
+        }
+
+        @Override
+        public void setOnKeyStatusChangeListener(NexMediaDrm.OnKeyStatusChangeListener listener) {
+        }
+
+        @Override
+        byte[] openSession() {
+            if (null != mOpenFailure) {
+                throw mOpenFailure;
+            }
+            return new byte[] { (byte) ++mOpenedSessions };
+        }
+
+        @Override
+        void closeSession(byte[] sessionId) {
+            mClosedSessions++;
+        }
+
+        @Override
+        NexMediaDrm.KeyRequest getKeyRequest(byte[] scope, byte[] init, String mimeType, int keyType,
+                                             HashMap<String, String> optionalParameters) {
+            mKeyRequests++;
+            // the session passes the system specific data of the box, without the key IDs.
+            if (1 == init.length && mDeniedData == init[0]) {
+                throw mDenial;
+            }
+            return new NexMediaDrm.DefaultKeyRequest(init, KEY_SERVER);
+        }
+
+        @Override
+        public void release() {
+            mReleased = true;
+        }
+    }
+
+    private static final class StandInLicense implements INexDRMLicenseListener {
+        @Override
+        public byte[] onLicenseRequest(byte[] requestData) {
+            return null;
+        }
+    }
+
+    private static final class Player implements NexMediaDrmSessionManager.EventListener {
+        final List<Exception> mErrors = new ArrayList<Exception>();
+        final List<NexMediaDrmSession> mErrorSessions = new ArrayList<NexMediaDrmSession>();
+
+        @Override
+        public void onDrmKeysLoaded(byte[] keySetId, byte[] sessionId) {
+        }
+
+        @Override
+        public void onDrmSessionManagerError(Exception e, NexMediaDrmSession session) {
+            mErrors.add(e);
+            mErrorSessions.add(session);
+        }
+
+        @Override
+        public void onDrmKeyStatusChanged(List<NexMediaDrm.KeyStatus> KeyStatusInfo, byte[] sessionId) {
+        }
+
+        @Override
+        public void onDrmKeyExpired(Exception e, NexMediaDrmSession session) {
+            mErrors.add(e);
+            mErrorSessions.add(session);
+        }
+
+        @Override
+        public void onDrmKeysRestored() {
+        }
+
+        @Override
+        public void onDrmKeysRemoved() {
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package com.nexstreaming.nexplayerengine;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Scrapes a NexMetricsServer over loopback and checks the Prometheus text exposition format.
+ */
+public class NexMetricsServerTest {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private NexMetricsRegistry mRegistry;
+    private NexMetricsServer mServer;
+
+    @Before
+    public void setUp() {
+        mRegistry = new NexMetricsRegistry();
+        mServer = new NexMetricsServer(mRegistry, 0);
+        assertTrue(mServer.start());
+        assertTrue(mServer.getPort() > 0);
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop();
+    }
+
+    @Test
+    public void scrapeReturnsEveryMetricFamily() throws IOException {
+        mRegistry.counter("nexplayer_rebuffer_total", "Rebuffering events", "player", "0").inc(3);
+        mRegistry.gauge("nexplayer_bitrate_bps", "Current track bitrate", "player", "1").set(2500000);
+        NexMetricsRegistry.Histogram histogram = mRegistry.histogram("nexplayer_segment_seconds", "Segment download time",
+                new double[] { 0.5, 1, 2.5 }, "player", "0");
+        histogram.observe(0.25);
+        histogram.observe(0.75);
+        histogram.observe(4);
+
+        String[] response = get("GET /metrics HTTP/1.1");
+
+        assertEquals("HTTP/1.1 200 OK", response[0]);
+        assertTrue(response[1].contains("Content-Type: text/plain; version=0.0.4; charset=utf-8"));
+        assertTrue(response[1].contains("Content-Length: " + response[2].getBytes(UTF_8).length));
+
+        List<String> lines = Arrays.asList(response[2].split("\n"));
+        assertTrue(lines.contains("# HELP nexplayer_rebuffer_total Rebuffering events"));
+        assertTrue(lines.contains("# TYPE nexplayer_rebuffer_total counter"));
+        assertTrue(lines.contains("nexplayer_rebuffer_total{player=\"0\"} 3"));
+
+        assertTrue(lines.contains("# TYPE nexplayer_bitrate_bps gauge"));
+        assertTrue(lines.contains("nexplayer_bitrate_bps{player=\"1\"} 2500000"));
+
+        assertTrue(lines.contains("# TYPE nexplayer_segment_seconds histogram"));
+        assertTrue(lines.contains("nexplayer_segment_seconds_bucket{player=\"0\",le=\"0.5\"} 1"));
+        assertTrue(lines.contains("nexplayer_segment_seconds_bucket{player=\"0\",le=\"1\"} 2"));
+        assertTrue(lines.contains("nexplayer_segment_seconds_bucket{player=\"0\",le=\"2.5\"} 2"));
+        assertTrue(lines.contains("nexplayer_segment_seconds_bucket{player=\"0\",le=\"+Inf\"} 3"));
+        assertTrue(lines.contains("nexplayer_segment_seconds_sum{player=\"0\"} 5"));
+        assertTrue(lines.contains("nexplayer_segment_seconds_count{player=\"0\"} 3"));
+    }
+
+    @Test
+    public void everySampleLineIsWellFormed() throws IOException {
+        mRegistry.counter("nexplayer_errors_total", "Errors", "player", "0", "type", "http").inc();
+        mRegistry.gauge("nexplayer_cpu_ratio", "CPU usage").set(0.125);
+        mRegistry.histogram("nexplayer_ttfb_seconds", "TTFB", NexMetricsRegistry.DEFAULT_SECONDS_BUCKETS).observe(0.02);
+
+        String body = get("GET /metrics HTTP/1.1")[2];
+
+        assertTrue(body.endsWith("\n"));
+        for (String line : body.split("\n")) {
+            if (line.startsWith("#")) {
+                assertTrue(line, line.matches("# (HELP|TYPE) [a-zA-Z_:][a-zA-Z0-9_:]* .*"));
+            } else {
+                assertTrue(line, line.matches("[a-zA-Z_:][a-zA-Z0-9_:]*(\\{([a-zA-Z_][a-zA-Z0-9_]*=\"[^\"]*\",?)+\\})? [-+0-9.eEInfNa]+"));
+            }
+        }
+        assertTrue(body.contains("nexplayer_cpu_ratio 0.125\n"));
+    }
+
+    @Test
+    public void labelValuesAndHelpAreEscaped() throws IOException {
+        mRegistry.gauge("nexplayer_title", "Line one\nline \\two", "title", "say \"hi\"\n").set(1);
+
+        String body = get("GET /metrics HTTP/1.1")[2];
+
+        assertTrue(body.contains("# HELP nexplayer_title Line one\\nline \\\\two\n"));
+        assertTrue(body.contains("nexplayer_title{title=\"say \\\"hi\\\"\\n\"} 1\n"));
+    }
+
+    @Test
+    public void scrapeReflectsLaterUpdates() throws IOException {
+        NexMetricsRegistry.Counter counter = mRegistry.counter("nexplayer_frames_total", "Frames");
+        counter.inc();
+        assertTrue(get("GET /metrics HTTP/1.1")[2].contains("nexplayer_frames_total 1\n"));
+
+        counter.inc(41);
+        assertTrue(get("GET /metrics HTTP/1.1")[2].contains("nexplayer_frames_total 42\n"));
+    }
+
+    @Test
+    public void headReturnsHeadersOnly() throws IOException {
+        mRegistry.gauge("nexplayer_tiles", "Tiles").set(4);
+
+        String[] response = get("HEAD /metrics HTTP/1.1");
+
+        assertEquals("HTTP/1.1 200 OK", response[0]);
+        assertTrue(response[1].contains("Content-Length: " + mRegistry.scrape().getBytes(UTF_8).length));
+        assertEquals("", response[2]);
+    }
+
+    @Test
+    public void otherPathsAndMethodsAreRejected() throws IOException {
+        assertEquals("HTTP/1.1 404 Not Found", get("GET /other HTTP/1.1")[0]);
+        assertEquals("HTTP/1.1 405 Method Not Allowed", get("POST /metrics HTTP/1.1")[0]);
+    }
+
+    @Test
+    public void stopClosesThePort() throws IOException {
+        int port = mServer.getPort();
+        mServer.stop();
+        assertEquals(-1, mServer.getPort());
+
+        try {
+            new Socket("127.0.0.1", port).close();
+            fail("the metrics port is still open");
+        } catch (ConnectException expected) {
+        }
+    }
+
+    /**
+     * Sends a request and returns the status line, the headers and the body of the response.
+     */
+    private String[] get(String requestLine) throws IOException {
+        Socket socket = new Socket("127.0.0.1", mServer.getPort());
+        try {
+            socket.setSoTimeout(5000);
+            OutputStream out = socket.getOutputStream();
+            out.write((requestLine + "\r\nHost: 127.0.0.1\r\nAccept: */*\r\n\r\n").getBytes(UTF_8));
+            out.flush();
+
+            InputStream in = socket.getInputStream();
+            ByteArrayOutputStream response = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                response.write(buffer, 0, read);
+            }
+
+            String text = new String(response.toByteArray(), UTF_8);
+            int headerEnd = text.indexOf("\r\n\r\n");
+            assertTrue(headerEnd > 0);
+            int statusEnd = text.indexOf("\r\n");
+            return new String[] {
+                    text.substring(0, statusEnd),
+                    text.substring(statusEnd + 2, headerEnd),
+                    text.substring(headerEnd + 4)
+            };
+        } finally {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package com.nexstreaming.nexplayerengine;
+
+import android.graphics.Rect;
+import android.os.Handler;
+import android.view.Gravity;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Reads sidecar subtitle files with NexSubtitleCueStore, and checks its queries against a scan of every cue,
+ * also while cues are being added.  The captions of a styled WebVTT file keep the style and position the engine
+ * gives them, and NexCaptionPainter only removes them when the cues of the store end.
+ */
+public class NexSubtitleCueStoreTest {
+    private static final long TIMEOUT_MS = 10000;
+    private static final int CUES = 100000;
+    private static final int QUERIES = 100000;
+
+    private static final String STYLED_WEBVTT = "WEBVTT\n\n"
+            + "00:00:01.000 --> 00:00:04.000 line:10% position:20% align:start\n<b>styled</b> cue\n";
+
+    private File mFile;
+    private boolean mDebug;
+
+    /**
+     * Runs the posted runnables at once.
+     */
+    private static class ImmediateHandler extends Handler {
+        @Override
+        public boolean post(Runnable r) {
+            r.run();
+            return true;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        mDebug = NexLog.Debug;
+        NexLog.Debug = false;
+    }
+
+    @After
+    public void tearDown() {
+        if (mFile != null) {
+            mFile.delete();
+        }
+        NexLog.Debug = mDebug;
+    }
+
+    @Test
+    public void webVTTCuesAreReadWithTheirText() throws Exception {
+        NexSubtitleCueStore store = load("WEBVTT\n\n"
+                + "NOTE a comment\n\n"
+                + "1\n00:00:01.000 --> 00:00:04.000 line:90%\n<b>first</b> cue\nsecond line\n\n"
+                + "00:00:03.500 --> 00:00:05.000\nover&amp;lapping\n\n"
+                + "01:00:00.000 --> 01:00:02.000\nan hour later\n");
+
+        assertEquals(3, store.getCueCount());
+        List<NexSubtitleCueStore.Cue> cues = store.getActiveCues(3800);
+        assertEquals(2, cues.size());
+        assertEquals(1000, cues.get(0).startTime);
+        assertEquals("first cue\nsecond line", cues.get(0).getText());
+        assertEquals("over&lapping", cues.get(1).getText());
+
+        assertEquals(0, store.getActiveCues(5000).size());
+        assertEquals("an hour later", store.getCues(5000, 3600000).get(0).getText());
+    }
+
+    @Test
+    public void ttmlCuesAreReadWithTheirTiming() throws Exception {
+        NexSubtitleCueStore store = load("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<tt xmlns=\"http://www.w3.org/ns/ttml\" ttp:tickRate=\"10000\"><body><div>\n"
+                + "<p begin=\"00:00:01.000\" end=\"00:00:02.000\">clock <span>time</span></p>\n"
+                + "<p begin=\"30000t\" dur=\"1s\">ticks<br/>and a break</p>\n"
+                + "</div></body></tt>\n");
+
+        assertEquals(2, store.getCueCount());
+        assertEquals("clock time", store.getActiveCues(1500).get(0).getText());
+        List<NexSubtitleCueStore.Cue> cues = store.getActiveCues(3500);
+        assertEquals(1, cues.size());
+        assertEquals(4000, cues.get(0).endTime);
+        assertEquals("ticks\nand a break", cues.get(0).getText());
+    }
+
+    @Test
+    public void queriesWhileCuesAreAddedMatchAScan() throws Exception {
+        NexSubtitleCueStore store = newStore();
+        List<int[]> added = new ArrayList<int[]>();
+        Random random = new Random(45);
+        for (int i = 0; i < 3000; i++) {
+            // mostly in order, with some cues out of order and some that last long.
+            int start = i * 1000 + (random.nextInt(10) == 0 ? -random.nextInt(20000) : 0);
+            int end = start + (random.nextInt(20) == 0 ? 60000 : 500 + random.nextInt(4000));
+            add(store, Math.max(0, start), end, i);
+            added.add(new int[] { Math.max(0, start), end, i });
+
+            if (i % 7 == 0) {
+                int from = random.nextInt(i * 1000 + 1);
+                int to = from + random.nextInt(5000);
+                assertCues(added, from, to, store.getCues(from, to));
+            }
+        }
+
+        mergeLevels(store);
+        for (int i = 0; i < 500; i++) {
+            int from = random.nextInt(3000000);
+            int to = from + random.nextInt(5000);
+            assertCues(added, from, to, store.getCues(from, to));
+        }
+    }
+
+    @Test
+    public void everyQueryOfManyCuesFindsItsCue() throws Exception {
+        NexSubtitleCueStore store = newStore();
+        for (int i = 0; i < CUES; i++) {
+            add(store, i * 2000, i * 2000 + 1500, i);
+        }
+        // while the cues are in levels, and once they are merged.
+        assertQueries(store);
+        mergeLevels(store);
+        assertQueries(store);
+    }
+
+    @Test
+    public void styledCaptionKeepsItsPositionWithTheCuesOfItsFile() throws Exception {
+        NexSubtitleCueStore store = load(STYLED_WEBVTT);
+        NexWebVTTExtractor extractor = new NexWebVTTExtractor();
+        extractor.setRenderingArea(new Rect(), 1f);
+
+        NexCaptionRenderingAttribute attribute = extractor.extract(webVTTCaption(store.getActiveCues(1000).get(0))).get(0);
+
+        assertEquals(1000, attribute.mStartTime);
+        assertEquals(4000, attribute.mEndTime);
+        assertEquals(20, attribute.mCaptionSettings.mRelativeWindowRect.xPercent);
+        assertEquals(10, attribute.mCaptionSettings.mRelativeWindowRect.yPercent);
+        assertEquals(Gravity.START, attribute.mCaptionSettings.mGravity);
+        assertEquals("styled", attribute.mStrings.get(0).mString);
+        assertTrue(attribute.mStrings.get(0).mBold);
+        assertEquals(" cue", attribute.mStrings.get(1).mString);
+    }
+
+    @Test
+    public void painterRemovesTheCaptionsWhenTheCuesOfTheStoreEnd() throws Exception {
+        NexSubtitleCueStore store = load(STYLED_WEBVTT);
+        NexCaptionPainter painter = new NexCaptionPainter(null, NexContentInformation.NEX_TEXT_WEBVTT);
+        painter.mHandler = new ImmediateHandler();
+        painter.setCueStore(store);
+
+        // the engine sends the caption slightly before the start of its cue.
+        painter.setVideoTimeInfo(500);
+        painter.mRenderingAttributes.add(new NexCaptionRenderingAttribute());
+        painter.setVideoTimeInfo(990);
+        painter.setVideoTimeInfo(1000);
+        painter.setVideoTimeInfo(3900);
+        assertEquals(1, painter.mRenderingAttributes.size());
+
+        painter.setVideoTimeInfo(4000);
+        assertEquals(0, painter.mRenderingAttributes.size());
+    }
+
+    private static void assertQueries(NexSubtitleCueStore store) {
+        for (int i = 0; i < QUERIES; i++) {
+            int time = (int) ((i * 7919L) % (CUES * 2000L));
+            List<NexSubtitleCueStore.Cue> cues = store.getActiveCues(time);
+            if (time % 2000 < 1500) {
+                assertEquals("cues at " + time, 1, cues.size());
+                assertEquals(time / 2000 * 2000, cues.get(0).startTime);
+            } else {
+                assertEquals("cues at " + time, 0, cues.size());
+            }
+        }
+    }
+
+    /**
+     * \returns The caption the engine sends for \c cue, the cue of STYLED_WEBVTT.
+     */
+    private static NexClosedCaption webVTTCaption(NexSubtitleCueStore.Cue cue) throws Exception {
+        Constructor<NexClosedCaption> constructor = NexClosedCaption.class.getDeclaredConstructor(int.class);
+        constructor.setAccessible(true);
+        NexClosedCaption caption = constructor.newInstance(NexContentInformation.NEX_TEXT_WEBVTT);
+
+        NexClosedCaption.WebVTTRenderingData data = caption.new WebVTTRenderingData();
+        data.startTime = cue.startTime;
+        data.endTime = cue.endTime;
+        data.mLinePos = "10%";
+        data.mTextPosition = 20;
+        data.mSize = 100;
+        data.alignType = NexClosedCaption.WebVTT_TextAlign.Start;
+        data.nodes = new ArrayList<NexClosedCaption.WebVTTRenderingData.WebVTTNodeData>();
+        NexClosedCaption.WebVTTRenderingData.WebVTTNodeData bold = data.new WebVTTNodeData();
+        bold.text = "styled";
+        bold.mBold = true;
+        data.nodes.add(bold);
+        NexClosedCaption.WebVTTRenderingData.WebVTTNodeData plain = data.new WebVTTNodeData();
+        plain.text = " cue";
+        data.nodes.add(plain);
+        caption.webVTTRenderingData = data;
+        return caption;
+    }
+
+    private static void assertCues(List<int[]> added, int from, int to, List<NexSubtitleCueStore.Cue> cues) {
+        List<int[]> expected = new ArrayList<int[]>();
+        for (int[] cue : added) {
+            if (cue[0] <= to && cue[1] > from) {
+                expected.add(cue);
+            }
+        }
+        assertEquals("cues in [" + from + ", " + to + "]", expected.size(), cues.size());
+        for (int i = 0; i < cues.size(); i++) {
+            if (i > 0) {
+                NexSubtitleCueStore.Cue previous = cues.get(i - 1);
+                assertTrue(previous.startTime < cues.get(i).startTime
+                        || (previous.startTime == cues.get(i).startTime && previous.textOffset < cues.get(i).textOffset));
+            }
+            int[] cue = added.get(cues.get(i).textOffset);
+            assertTrue(cue[0] <= to && cue[1] > from);
+            assertEquals(cue[0], cues.get(i).startTime);
+            assertEquals(cue[1], cues.get(i).endTime);
+        }
+    }
+
+    private NexSubtitleCueStore load(String content) throws IOException, InterruptedException {
+        mFile = File.createTempFile("cues", ".sub");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(mFile), "UTF-8");
+        try {
+            writer.write(content);
+        } finally {
+            writer.close();
+        }
+
+        NexSubtitleCueStore store = NexSubtitleCueStore.load(mFile.getPath());
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (!store.isComplete()) {
+            assertTrue("the file was not read in time", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+        return store;
+    }
+
+    // a store without a file, to add cues to one by one.  The text offset of a cue is its index.
+    private static NexSubtitleCueStore newStore() throws Exception {
+        Constructor<NexSubtitleCueStore> constructor = NexSubtitleCueStore.class.getDeclaredConstructor(File.class);
+        constructor.setAccessible(true);
+        return constructor.newInstance(new File("unused"));
+    }
+
+    private static void add(NexSubtitleCueStore store, int startTime, int endTime, int index) throws Exception {
+        Method addCue = NexSubtitleCueStore.class.getDeclaredMethod("addCue", int.class, int.class, int.class, int.class);
+        addCue.setAccessible(true);
+        addCue.invoke(store, startTime, endTime, index, 0);
+    }
+
+    private static void mergeLevels(NexSubtitleCueStore store) throws Exception {
+        Method mergeLevels = NexSubtitleCueStore.class.getDeclaredMethod("mergeLevels");
+        mergeLevels.setAccessible(true);
+        mergeLevels.invoke(store);
+    }
+}
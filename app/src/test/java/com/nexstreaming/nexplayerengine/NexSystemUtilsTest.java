@@ -0,0 +1,178 @@
+package com.nexstreaming.nexplayerengine;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs NexSystemUtils against a fake /proc tree written into a temporary directory.
+ */
+public class NexSystemUtilsTest {
+    private static final double DELTA = 1e-9;
+
+    private File mRoot;
+    private NexSystemUtils mSystemUtils;
+    private long mNowMs;
+
+    @Before
+    public void setUp() throws IOException {
+        mRoot = File.createTempFile("proc", "");
+        assertTrue(mRoot.delete());
+        assertTrue(mRoot.mkdirs());
+
+        writeMemInfo(282964, 933288, 0);
+        writeCpu(100, 0, 100, 800, 0);
+        writeTask("self/stat", 4100, "nexplayer.app", 30, 10);
+        writeTask("self/task/4100/stat", 4100, "nexplayer.app", 20, 10);
+        writeTask("self/task/4101/stat", 4101, "Render (GL) 1", 10, 0);
+
+        mSystemUtils = new NexSystemUtils(mRoot.getPath());
+    }
+
+    @After
+    public void tearDown() {
+        mSystemUtils.reset();
+        delete(mRoot);
+    }
+
+    @Test
+    public void freeMemoryIncludesCachedWithoutSwapCache() {
+        sample();
+
+        assertEquals(282964 + 933288, mSystemUtils.getFreeMemory());
+    }
+
+    @Test
+    public void freeMemoryIgnoresCachedWithSwapCache() throws IOException {
+        writeMemInfo(282964, 933288, 1024);
+
+        sample();
+
+        assertEquals(282964, mSystemUtils.getFreeMemory());
+    }
+
+    @Test
+    public void cpuUsageIsMeasuredBetweenTwoSamples() throws IOException {
+        sample();
+        assertEquals(0.0, mSystemUtils.getCPUUsage(), DELTA);
+
+        // 800 ticks elapsed, 500 of them idle and 100 waiting on io, which counts as busy.
+        writeCpu(200, 0, 200, 1300, 100);
+        sample();
+
+        assertEquals(0.375, mSystemUtils.getCPUUsage(), DELTA);
+    }
+
+    @Test
+    public void samplesWithinTheIntervalAreReused() throws IOException {
+        sample();
+        writeCpu(200, 0, 200, 1300, 100);
+
+        mSystemUtils.sample(mNowMs + NexSystemUtils.MIN_SAMPLE_INTERVAL_MS - 1);
+        assertEquals(0.0, mSystemUtils.getCPUUsage(), DELTA);
+
+        mSystemUtils.sample(mNowMs + NexSystemUtils.MIN_SAMPLE_INTERVAL_MS);
+        assertEquals(0.375, mSystemUtils.getCPUUsage(), DELTA);
+    }
+
+    @Test
+    public void processAndThreadUsageAreSharesOfTotalTicks() throws IOException {
+        sample();
+
+        writeCpu(200, 0, 200, 1400, 0);
+        writeTask("self/stat", 4100, "nexplayer.app", 110, 50);
+        writeTask("self/task/4100/stat", 4100, "nexplayer.app", 60, 10);
+        writeTask("self/task/4101/stat", 4101, "Render (GL) 1", 90, 40);
+        sample();
+
+        assertEquals(120.0 / 800, mSystemUtils.getProcessCPUUsage(), DELTA);
+
+        HashMap<String, Double> threads = mSystemUtils.getThreadCPUUsage();
+        assertEquals(2, threads.size());
+        assertEquals(40.0 / 800, threads.get("nexplayer.app"), DELTA);
+        assertEquals(120.0 / 800, threads.get("Render (GL) 1"), DELTA);
+    }
+
+    @Test
+    public void taskListIsRescannedPeriodically() throws IOException {
+        sample();
+        writeTask("self/task/4102/stat", 4102, "DrmHandler", 5, 5);
+
+        for (int i = 1; i < NexSystemUtils.TASK_RESCAN_INTERVAL; i++) {
+            sample();
+        }
+        assertFalse(mSystemUtils.getThreadCPUUsage().containsKey("DrmHandler"));
+
+        sample();
+        assertTrue(mSystemUtils.getThreadCPUUsage().containsKey("DrmHandler"));
+    }
+
+    @Test
+    public void exitedThreadsAreDropped() throws IOException {
+        sample();
+        assertTrue(mSystemUtils.getThreadCPUUsage().containsKey("Render (GL) 1"));
+
+        // the stat file of an exited thread still exists while it is open, but can no longer be parsed.
+        write("self/task/4101/stat", "");
+        sample();
+
+        assertFalse(mSystemUtils.getThreadCPUUsage().containsKey("Render (GL) 1"));
+    }
+
+    // a sample one interval after the previous one.
+    private void sample() {
+        mNowMs += NexSystemUtils.MIN_SAMPLE_INTERVAL_MS;
+        mSystemUtils.sample(mNowMs);
+    }
+
+    private void writeMemInfo(long memFree, long cached, long swapCached) throws IOException {
+        write("meminfo", "MemTotal:        3809036 kB\n"
+                + "MemFree:         " + memFree + " kB\n"
+                + "MemAvailable:    1542252 kB\n"
+                + "Buffers:           61488 kB\n"
+                + "Cached:          " + cached + " kB\n"
+                + "SwapCached:      " + swapCached + " kB\n"
+                + "Active:          1873624 kB\n");
+    }
+
+    private void writeCpu(long user, long nice, long system, long idle, long iowait) throws IOException {
+        write("stat", "cpu  " + user + " " + nice + " " + system + " " + idle + " " + iowait + " 0 0 0 0 0\n"
+                + "cpu0 1 2 3 4 5 6 7 8 9 10\n"
+                + "intr 12345 0 0\n");
+    }
+
+    private void writeTask(String path, int tid, String name, long utime, long stime) throws IOException {
+        write(path, tid + " (" + name + ") S 1 2 3 0 -1 4194560 1510 0 0 0 "
+                + utime + " " + stime + " 0 0 20 0 12 0 3513 0 0\n");
+    }
+
+    private void write(String path, String content) throws IOException {
+        File file = new File(mRoot, path);
+        file.getParentFile().mkdirs();
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("US-ASCII"));
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,183 @@
+package com.nexstreaming.nexplayerengine;
+
+import android.graphics.Bitmap;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Runs NexThumbnailExtractor with fake decoders.
+ */
+public class NexThumbnailExtractorTest {
+    private static final long TIMEOUT_S = 10;
+
+    /**
+     * Returns a frame for every I-frame, except the failing times, and records every call.
+     */
+    private static class FakeDecoderFactory implements NexThumbnailExtractor.DecoderFactory {
+        final int[] mIFrameTimes;
+        final List<Integer> mFailingTimes;
+        final ConcurrentHashMap<Integer, AtomicInteger> mDecodeCounts = new ConcurrentHashMap<Integer, AtomicInteger>();
+        final AtomicInteger mCreated = new AtomicInteger();
+        final AtomicInteger mClosed = new AtomicInteger();
+        IOException mIFrameError;
+
+        FakeDecoderFactory(int[] iFrameTimes, Integer... failingTimes) {
+            mIFrameTimes = iFrameTimes;
+            mFailingTimes = Arrays.asList(failingTimes);
+        }
+
+        @Override
+        public NexThumbnailExtractor.Decoder createDecoder() {
+            mCreated.incrementAndGet();
+            return new NexThumbnailExtractor.Decoder() {
+                private final Bitmap mFrame = mock(Bitmap.class);
+
+                @Override
+                public int[] getIFrameTimes() throws IOException {
+                    if (mIFrameError != null) {
+                        throw mIFrameError;
+                    }
+                    return mIFrameTimes;
+                }
+
+                @Override
+                public Bitmap decode(int timeMs, int width, int height, Bitmap reuse) {
+                    AtomicInteger count = mDecodeCounts.putIfAbsent(timeMs, new AtomicInteger(1));
+                    if (count != null) {
+                        count.incrementAndGet();
+                    }
+                    return mFailingTimes.contains(timeMs) ? null : mFrame;
+                }
+
+                @Override
+                public void close() {
+                    mClosed.incrementAndGet();
+                }
+            };
+        }
+    }
+
+    private static class Result implements NexThumbnailExtractor.Listener {
+        final CountDownLatch mDone = new CountDownLatch(1);
+        final List<Integer> mProgress = Collections.synchronizedList(new ArrayList<Integer>());
+        volatile boolean mCompleted;
+        volatile Exception mError;
+
+        @Override
+        public void onProgress(NexThumbnailExtractor extractor, int extracted, int total) {
+            mProgress.add(extracted);
+        }
+
+        @Override
+        public void onCompleted(NexThumbnailExtractor extractor, boolean fromCache) {
+            mCompleted = true;
+            mDone.countDown();
+        }
+
+        @Override
+        public void onError(NexThumbnailExtractor extractor, Exception e) {
+            mError = e;
+            mDone.countDown();
+        }
+
+        void await() throws InterruptedException {
+            assertTrue("extraction timed out", mDone.await(TIMEOUT_S, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void slotsShowTheNearestIFrame() {
+        NexThumbnailExtractor.Plan plan = NexThumbnailExtractor.Plan.create(new int[] { 0, 800, 3100, 5000, 9000 }, 2000);
+
+        // slot centers 1000, 3000, 5000, 7000 and 9000, a tie goes to the later I-frame.
+        assertArrayEquals(new int[] { 800, 3100, 5000, 9000 }, plan.cellTimes);
+        assertArrayEquals(new int[] { 0, 1, 2, 3, 3 }, plan.slotCells);
+    }
+
+    @Test
+    public void everyThumbnailIsDecodedOnce() throws Exception {
+        int[] iFrames = iFrames(350, 2000);
+        FakeDecoderFactory factory = new FakeDecoderFactory(iFrames);
+        NexThumbnailExtractor extractor = extractor(factory, 4);
+        Result result = new Result();
+        extractor.setListener(result);
+
+        extractor.start();
+        result.await();
+
+        assertTrue(result.mCompleted);
+        assertEquals(iFrames.length, extractor.getThumbnailCount());
+        assertEquals(iFrames.length, extractor.getExtractedCount());
+        assertEquals(iFrames.length, result.mProgress.size());
+        assertEquals(iFrames.length, factory.mDecodeCounts.size());
+        for (AtomicInteger count : factory.mDecodeCounts.values()) {
+            assertEquals(1, count.get());
+        }
+        assertEquals(4, factory.mCreated.get());
+        assertEquals(factory.mCreated.get(), factory.mClosed.get());
+    }
+
+    @Test
+    public void failedThumbnailsAreNotAvailable() throws Exception {
+        int[] iFrames = iFrames(20, 2000);
+        FakeDecoderFactory factory = new FakeDecoderFactory(iFrames, 5000, 31000);
+        NexThumbnailExtractor extractor = extractor(factory, 2);
+        Result result = new Result();
+        extractor.setListener(result);
+
+        extractor.start();
+        result.await();
+
+        assertTrue(result.mCompleted);
+        assertEquals(iFrames.length - 2, extractor.getExtractedCount());
+        assertNull(extractor.getPreview(5000, new android.graphics.Rect()));
+    }
+
+    @Test
+    public void iFrameErrorIsReported() throws Exception {
+        FakeDecoderFactory factory = new FakeDecoderFactory(new int[0]);
+        factory.mIFrameError = new IOException("no index");
+        NexThumbnailExtractor extractor = extractor(factory, 2);
+        Result result = new Result();
+        extractor.setListener(result);
+
+        extractor.start();
+        result.await();
+
+        assertFalse(result.mCompleted);
+        assertEquals("no index", result.mError.getMessage());
+        assertEquals(1, factory.mClosed.get());
+    }
+
+    private static NexThumbnailExtractor extractor(FakeDecoderFactory factory, int threads) {
+        return new NexThumbnailExtractor.Builder(factory, "content")
+                .setSheetLayout(10, 10)
+                .setThreadCount(threads)
+                .build();
+    }
+
+    private static int[] iFrames(int count, int intervalMs) {
+        int[] times = new int[count];
+        for (int i = 0; i < count; i++) {
+            times[i] = i * intervalMs + intervalMs / 2;
+        }
+        return times;
+    }
+}
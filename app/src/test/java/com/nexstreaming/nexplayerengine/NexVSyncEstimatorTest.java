@@ -0,0 +1,123 @@
+package com.nexstreaming.nexplayerengine;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Feeds NexVSyncEstimator with synthetic vsync timestamps.
+ */
+public class NexVSyncEstimatorTest {
+    private static final long PERIOD_60HZ = 16666666;
+    private static final long PERIOD_90HZ = 11111111;
+    private static final long PERIOD_120HZ = 8333333;
+    private static final long START_NS = 1000000000L;
+
+    private NexVSyncEstimator mEstimator;
+    private long mTimeNs;
+
+    @Before
+    public void setUp() {
+        mEstimator = new NexVSyncEstimator();
+        mTimeNs = START_NS;
+    }
+
+    @Test
+    public void periodIsUnknownUntilTwoVsyncs() {
+        assertEquals(0, mEstimator.getPeriodNanos());
+        mEstimator.addVsync(mTimeNs);
+        assertEquals(0, mEstimator.getPeriodNanos());
+        assertEquals(12345, mEstimator.vsyncAtOrAfter(12345));
+
+        mEstimator.addVsync(mTimeNs + PERIOD_60HZ);
+        assertEquals(PERIOD_60HZ, mEstimator.getPeriodNanos());
+    }
+
+    @Test
+    public void intervalsOutOfRangeAreNotAPeriod() {
+        mEstimator.addVsync(mTimeNs);
+        mEstimator.addVsync(mTimeNs + NexVSyncEstimator.MAX_PERIOD_NS * 2);
+        assertEquals(0, mEstimator.getPeriodNanos());
+    }
+
+    @Test
+    public void jitteredVsyncsConvergeToThePeriod() {
+        Random random = new Random(1);
+        for (int i = 0; i < 200; i++) {
+            mEstimator.addVsync(START_NS + i * PERIOD_60HZ + random.nextInt(1000000) - 500000);
+        }
+
+        assertEquals(PERIOD_60HZ, mEstimator.getPeriodNanos(), 100000);
+    }
+
+    @Test
+    public void missedCallbacksDoNotChangeThePeriod() {
+        for (int i = 0; i < 200; i++) {
+            // every tenth callback is missed.
+            if (i % 10 != 5) {
+                mEstimator.addVsync(START_NS + i * PERIOD_60HZ);
+            }
+        }
+
+        assertEquals(PERIOD_60HZ, mEstimator.getPeriodNanos());
+    }
+
+    @Test
+    public void fasterRefreshRateIsDetected() {
+        vsyncs(PERIOD_60HZ, 60);
+        vsyncs(PERIOD_120HZ, 7);
+        assertEquals(PERIOD_60HZ, mEstimator.getPeriodNanos(), 100000);
+
+        vsyncs(PERIOD_120HZ, 1);
+        assertEquals(PERIOD_120HZ, mEstimator.getPeriodNanos(), 1000);
+
+        vsyncs(PERIOD_90HZ, 60);
+        assertEquals(PERIOD_90HZ, mEstimator.getPeriodNanos(), 10000);
+    }
+
+    @Test
+    public void slowerRefreshRateIsDetected() {
+        vsyncs(PERIOD_60HZ, 60);
+        // 30 Hz intervals look like missed callbacks at first.
+        vsyncs(2 * PERIOD_60HZ, 7);
+        assertEquals(PERIOD_60HZ, mEstimator.getPeriodNanos());
+
+        vsyncs(2 * PERIOD_60HZ, 1);
+        assertEquals(2 * PERIOD_60HZ, mEstimator.getPeriodNanos());
+    }
+
+    @Test
+    public void vsyncsArePredictedFromTheLastOne() {
+        vsyncs(PERIOD_60HZ, 10);
+        long last = mEstimator.getLastVsyncNanos();
+
+        assertEquals(last, mEstimator.vsyncAtOrAfter(last));
+        assertEquals(last + PERIOD_60HZ, mEstimator.vsyncAtOrAfter(last + 1));
+        assertEquals(last + 3 * PERIOD_60HZ, mEstimator.vsyncAtOrAfter(last + 2 * PERIOD_60HZ + 1));
+        assertEquals(last, mEstimator.vsyncAtOrAfter(last - PERIOD_60HZ / 2));
+
+        assertEquals(last, mEstimator.closestVsync(last + PERIOD_60HZ * 4 / 10));
+        assertEquals(last + PERIOD_60HZ, mEstimator.closestVsync(last + PERIOD_60HZ * 6 / 10));
+        assertEquals(last - PERIOD_60HZ, mEstimator.closestVsync(last - PERIOD_60HZ * 6 / 10));
+    }
+
+    @Test
+    public void resetForgetsThePeriod() {
+        vsyncs(PERIOD_60HZ, 10);
+        mEstimator.reset();
+
+        assertEquals(0, mEstimator.getPeriodNanos());
+        assertEquals(0, mEstimator.getLastVsyncNanos());
+        assertEquals(mTimeNs + 1, mEstimator.vsyncAtOrAfter(mTimeNs + 1));
+    }
+
+    private void vsyncs(long periodNs, int count) {
+        for (int i = 0; i < count; i++) {
+            mTimeNs += periodNs;
+            mEstimator.addVsync(mTimeNs);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.nexstreaming.nexplayerengine;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks where the JAVA renderer blit, NexVideoRenderer.JavaFrameBlitter, draws frames on a headless canvas, that
+ * it only recomputes that when the geometry changes, and that it does not allocate.
+ */
+public class NexVideoRendererBlitTest {
+    private static final int FRAMES = 10000;
+
+    /**
+     * A canvas without pixels that only counts the draw calls.
+     */
+    private static class HeadlessCanvas extends Canvas {
+        private final int mWidth;
+        private final int mHeight;
+        int mBitmapDraws;
+        int mRectDraws;
+
+        HeadlessCanvas(int width, int height) {
+            mWidth = width;
+            mHeight = height;
+        }
+
+        @Override
+        public int getWidth() {
+            return mWidth;
+        }
+
+        @Override
+        public int getHeight() {
+            return mHeight;
+        }
+
+        @Override
+        public void drawBitmap(Bitmap bitmap, Rect src, Rect dst, Paint paint) {
+            mBitmapDraws++;
+        }
+
+        @Override
+        public void drawRect(float left, float top, float right, float bottom, Paint paint) {
+            mRectDraws++;
+        }
+    }
+
+    private NexVideoRenderer.JavaFrameBlitter mBlitter;
+    private HeadlessCanvas mCanvas;
+    private Rect mDisplayed;
+
+    @Before
+    public void setUp() {
+        mBlitter = new NexVideoRenderer.JavaFrameBlitter();
+        mBlitter.setSource(1280, 720);
+        mCanvas = new HeadlessCanvas(1920, 1080);
+        // a 16:9 video letterboxed in a 4:3 area of the surface.
+        mDisplayed = new Rect();
+        mDisplayed.left = 0;
+        mDisplayed.top = 135;
+        mDisplayed.right = 1440;
+        mDisplayed.bottom = 945;
+    }
+
+    @Test
+    public void everyFrameIsBlittedOnce() {
+        for (int i = 0; i < 100; i++) {
+            mBlitter.draw(mCanvas, null, 0, 0, mDisplayed, false);
+        }
+
+        assertEquals(100, mCanvas.mBitmapDraws);
+    }
+
+    @Test
+    public void letterboxedFrameIsDrawnIntoTheDisplayedRect() {
+        mBlitter.draw(mCanvas, null, 0, 0, mDisplayed, false);
+
+        assertDestination(0, 135, 1440, 945);
+        // above, below and right of the video.
+        assertEquals(3, mCanvas.mRectDraws);
+    }
+
+    @Test
+    public void displayedRectIsMovedIntoTheCanvasOfAMovedSurface() {
+        mBlitter.draw(mCanvas, null, 100, 35, mDisplayed, false);
+
+        assertDestination(-100, 100, 1340, 910);
+    }
+
+    @Test
+    public void frameFillsTheCanvasWithoutADisplayedRect() {
+        mBlitter.draw(mCanvas, null, 100, 35, null, false);
+        assertDestination(0, 0, 1920, 1080);
+
+        mBlitter.draw(mCanvas, null, 100, 35, new Rect(), false);
+        assertDestination(0, 0, 1920, 1080);
+        assertEquals(0, mCanvas.mRectDraws);
+    }
+
+    @Test
+    public void geometryIsOnlyRecomputedWhenItChanges() {
+        assertTrue(mBlitter.updateGeometry(1920, 1080, 0, 0, 0, 135, 1440, 945));
+        assertFalse(mBlitter.updateGeometry(1920, 1080, 0, 0, 0, 135, 1440, 945));
+
+        assertTrue(mBlitter.updateGeometry(1920, 1080, 0, 0, 0, 135, 1440, 946));
+        assertTrue(mBlitter.updateGeometry(1920, 1080, 1, 0, 0, 135, 1440, 946));
+        assertTrue(mBlitter.updateGeometry(1280, 1080, 1, 0, 0, 135, 1440, 946));
+        assertFalse(mBlitter.updateGeometry(1280, 1080, 1, 0, 0, 135, 1440, 946));
+
+        // a new frame bitmap.
+        mBlitter.setSource(640, 360);
+        assertTrue(mBlitter.updateGeometry(1280, 1080, 1, 0, 0, 135, 1440, 946));
+
+        // every empty displayed rect is the same: the whole canvas.
+        assertTrue(mBlitter.updateGeometry(1280, 1080, 1, 0, 0, 0, 0, 0));
+        assertFalse(mBlitter.updateGeometry(1280, 1080, 1, 0, 5, 5, 5, 9));
+    }
+
+    @Test
+    public void framesDoNotAllocate() {
+        // the surface moves every 100 frames, which recomputes the rects; the first frame creates the paints.
+        AllocationProbe.assertAllocationFree("by " + FRAMES + " frames", new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < FRAMES; i++) {
+                    mBlitter.draw(mCanvas, null, (i / 100) % 2, 0, mDisplayed, false);
+                }
+            }
+        });
+    }
+
+    private void assertDestination(int left, int top, int right, int bottom) {
+        assertEquals(left, mBlitter.dstLeft);
+        assertEquals(top, mBlitter.dstTop);
+        assertEquals(right, mBlitter.dstRight);
+        assertEquals(bottom, mBlitter.dstBottom);
+    }
+}
@@ -0,0 +1,222 @@
+package com.nexstreaming.nexplayerengine;
+
+import org.junit.Test;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks how NodeStringBuilder splits text into nodes, and that the CEA 608 extractor builds the same text from dense
+ * roll-up and pop-on captions, caption after caption, as the per-character String concatenation
+ * the extractors used before NodeStringBuilder.
+ */
+public class NodeStringBuilderTest {
+    private static final int WHITE = 0xFFFFFFFF;
+    private static final int RED = 0xFFFF0000;
+    private static final int BLACK = 0xFF000000;
+    private static final int CAPTIONS = 2000;
+
+    @Test
+    public void charactersOfTheSameStyleShareANode() {
+        NodeStringBuilder builder = new NodeStringBuilder();
+        append(builder, "white ", WHITE, BLACK, 0);
+        append(builder, "text", WHITE, BLACK, 0);
+        append(builder, "red", RED, BLACK, 0);
+        append(builder, "bold", RED, BLACK, NodeStringBuilder.BOLD | NodeStringBuilder.UNDERLINE);
+
+        ArrayList<NodeString> nodes = builder.build();
+
+        assertEquals(3, nodes.size());
+        assertEquals("white text", nodes.get(0).mString);
+        assertEquals(WHITE, nodes.get(0).mFontColor);
+        assertEquals("red", nodes.get(1).mString);
+        assertEquals(RED, nodes.get(1).mFontColor);
+        assertEquals("bold", nodes.get(2).mString);
+        assertTrue(nodes.get(2).mBold);
+        assertTrue(nodes.get(2).mUnderLine);
+        assertFalse(nodes.get(2).mItalic);
+    }
+
+    @Test
+    public void lineBreaksStayInTheCurrentNode() {
+        NodeStringBuilder builder = new NodeStringBuilder();
+        builder.appendLineBreak();
+        append(builder, "first", WHITE, BLACK, 0);
+        builder.appendLineBreak();
+        append(builder, "second", WHITE, BLACK, 0);
+
+        ArrayList<NodeString> nodes = builder.build();
+
+        assertEquals(1, nodes.size());
+        assertEquals("first\r\nsecond", nodes.get(0).mString);
+    }
+
+    @Test
+    public void ownNodesAreNeverMerged() {
+        NodeStringBuilder builder = new NodeStringBuilder();
+        append(builder, "before", WHITE, BLACK, 0);
+        builder.appendNode("own", WHITE, BLACK, 0);
+        append(builder, "after", WHITE, BLACK, 0);
+
+        ArrayList<NodeString> nodes = builder.build();
+
+        assertEquals(3, nodes.size());
+        assertEquals("own", nodes.get(1).mString);
+        assertEquals("after", nodes.get(2).mString);
+    }
+
+    @Test
+    public void buildStartsOver() {
+        NodeStringBuilder builder = new NodeStringBuilder();
+        assertNull(builder.build());
+
+        append(builder, "once", WHITE, BLACK, 0);
+        assertEquals(1, builder.build().size());
+        assertNull(builder.build());
+    }
+
+    @Test
+    public void denseRollUpCaptions() throws Exception {
+        // four full rows, the style changes every eight characters.
+        assertSameTextAsLegacy(caption(11, 14, 8));
+    }
+
+    @Test
+    public void densePopOnCaptions() throws Exception {
+        // fifteen full rows, the style changes every four characters.
+        assertSameTextAsLegacy(caption(0, 14, 4));
+    }
+
+    private static void assertSameTextAsLegacy(NexClosedCaption caption) {
+        String legacy = legacyText(caption);
+        NexCEA608CaptionExtractor extractor = new NexCEA608CaptionExtractor();
+        // the extractor reuses its builder from one caption to the next.
+        for (int i = 0; i < CAPTIONS; i++) {
+            assertEquals(legacy, text(extractor.extract(caption)));
+        }
+    }
+
+    private static String text(ArrayList<NexCaptionRenderingAttribute> attributes) {
+        StringBuilder text = new StringBuilder();
+        for (NexCaptionRenderingAttribute attribute : attributes) {
+            if (attribute.mStrings != null) {
+                for (NodeString node : attribute.mStrings) {
+                    text.append(node.mString);
+                }
+            }
+        }
+        return text.toString();
+    }
+
+    private static String legacyText(NexClosedCaption caption) {
+        StringBuilder text = new StringBuilder();
+        for (NodeString node : legacyNodeStrings(caption)) {
+            text.append(node.mString);
+        }
+        return text.toString();
+    }
+
+    /**
+     * The assembly of the CEA 608 extractor before NodeStringBuilder: every attribute is read again for every
+     * character, and the node text grows by one String concatenation per character.
+     */
+    private static ArrayList<NodeString> legacyNodeStrings(NexClosedCaption data) {
+        ArrayList<NodeString> nodeStrings = new ArrayList<NodeString>();
+        NodeString nodeString = null;
+        boolean shouldLineFeed = false;
+        for (int row = 0; row < 15; ++row) {
+            boolean emptyLine = true;
+            for (int col = 0; col < 32; ++col) {
+                char c = data.getCharCode(row, col);
+                if (0 == c) {
+                    continue;
+                }
+                if (shouldLineFeed) {
+                    if (nodeString != null) {
+                        nodeString.mString += "\r\n";
+                    }
+                    shouldLineFeed = false;
+                }
+                if (null == nodeString) {
+                    nodeString = legacyNodeString(data, row, col);
+                } else if (nodeString.mUnderLine != data.isUnderline(row, col) || nodeString.mBold != data.isLarge(row, col)
+                        || nodeString.mItalic != data.isItalic(row, col)
+                        || nodeString.mFontColor != data.getFGColor(row, col).getFGColor()
+                        || nodeString.mBackgroundColor != data.getBGColor(row, col).getFGColor()) {
+                    nodeStrings.add(nodeString);
+                    nodeString = legacyNodeString(data, row, col);
+                } else {
+                    nodeString.mString += Character.toString(c);
+                }
+                emptyLine = false;
+            }
+            if (!emptyLine) {
+                shouldLineFeed = true;
+            }
+        }
+        if (null != nodeString) {
+            nodeStrings.add(nodeString);
+        }
+        return nodeStrings;
+    }
+
+    private static NodeString legacyNodeString(NexClosedCaption data, int row, int col) {
+        NodeString nodeString = new NodeString();
+        nodeString.mString = Character.toString(data.getCharCode(row, col));
+        nodeString.mBold = data.isLarge(row, col);
+        nodeString.mItalic = data.isItalic(row, col);
+        nodeString.mUnderLine = data.isUnderline(row, col);
+        nodeString.mFontColor = data.getFGColor(row, col).getFGColor();
+        nodeString.mBackgroundColor = data.getBGColor(row, col).getFGColor();
+        return nodeString;
+    }
+
+    /**
+     * \returns A FULL mode caption with every cell of the rows from \c firstRow to \c lastRow filled, and a new
+     *          style every \c styleLength cells.
+     */
+    private static NexClosedCaption caption(int firstRow, int lastRow, int styleLength) throws Exception {
+        short[] charcode = new short[16 * 32];
+        short[] attr = new short[16 * 32];
+        int style = 0;
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int col = 0; col < 32; col++) {
+                int cell = row * 32 + col;
+                charcode[cell] = (short) ('A' + (cell % 26));
+                if (col % styleLength == 0) {
+                    style++;
+                }
+                // foreground color, italic or underline, and a background every third style.
+                attr[cell] = (short) (((style % 7) << 4)
+                        | ((style & 1) != 0 ? NexClosedCaption.CHARATTR_ITALIC : NexClosedCaption.CHARATTR_UNDERLINE)
+                        | (style % 3 == 0 ? NexClosedCaption.CHARATTR_DRAW_BG | (0xE << 8) : 0));
+            }
+        }
+
+        Constructor<NexClosedCaption> constructor = NexClosedCaption.class.getDeclaredConstructor(int.class);
+        constructor.setAccessible(true);
+        NexClosedCaption caption = constructor.newInstance(NexContentInformation.NEX_TEXT_CEA608);
+        // the engine fills the grid fields from native code.
+        set(caption, "m_charcode", charcode);
+        set(caption, "m_attr", attr);
+        return caption;
+    }
+
+    private static void set(NexClosedCaption caption, String name, Object value) throws Exception {
+        Field field = NexClosedCaption.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(caption, value);
+    }
+
+    private static void append(NodeStringBuilder builder, String text, int fontColor, int backgroundColor, int flags) {
+        for (int i = 0; i < text.length(); i++) {
+            builder.append(text.charAt(i), fontColor, backgroundColor, flags);
+        }
+    }
+}